@@ -0,0 +1,172 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.common.CodeTracker;
+import co.apperto.fastqrreaderview.common.ScanWindow;
+import co.apperto.fastqrreaderview.qrcode.QrCode;
+import co.apperto.fastqrreaderview.qrcode.QrDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decode latency of the pure-Java QR decoder on whole frames against the regions a {@link
+ * CodeTracker} picks around the code found before, as in continuous scanning of a code that stays
+ * in view.
+ *
+ * <p>Setup tracks every code of the corpus that decodes on the whole frame and fails the run if the
+ * tracked region does not decode to the same text. It also checks that boxes reported from
+ * rotated, cropped and downscaled detections land back on the frame, and that tracks are dropped
+ * after the configured number of misses.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodeTrackerBenchmark {
+
+  private static final int CORPUS = 32;
+  private static final int MAX_MISSES = 3;
+  private static final float MARGIN = 0.5f;
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String size;
+
+  private int width;
+  private int height;
+  private QrFrames.Frame[] frames;
+  private int[][] regions;
+  private int next;
+
+  private final QrDecoder decoder = new QrDecoder();
+  private final QrCode code = new QrCode();
+  private final CodeTracker tracker = new CodeTracker(MAX_MISSES, MARGIN);
+  private final int[] region = new int[4];
+
+  @Setup
+  public void setUp() {
+    int[] dimensions = Nv21Frames.parseSize(size);
+    width = dimensions[0];
+    height = dimensions[1];
+    checkMapping();
+
+    List<QrFrames.Frame> tracked = new ArrayList<>();
+    List<int[]> trackedRegions = new ArrayList<>();
+    long regionArea = 0;
+    for (QrFrames.Frame frame : QrFrames.create(CORPUS, width, height, false)) {
+      if (!decoder.decode(frame.nv21, 0, width, height, width, code)) {
+        continue;
+      }
+      tracker.reset();
+      tracker.beginUpdate(width, height, 0, 0, 0, width, height, 1);
+      int[] corners = code.getCorners();
+      tracker.addUprightBox(min(corners, 0), min(corners, 1), max(corners, 0), max(corners, 1));
+      tracker.endUpdate();
+      int[] r = new int[4];
+      if (!tracker.getRegion(width, height, ScanWindow.FULL_FRAME, r)) {
+        throw new IllegalStateException("No region for a code that was just found");
+      }
+      if (!decoder.decode(frame.nv21, r[1] * width + r[0], r[2], r[3], width, code)
+          || !frame.text.contentEquals(code.getText())) {
+        throw new IllegalStateException("Tracked region of \"" + frame.text + "\" does not decode");
+      }
+      tracked.add(frame);
+      trackedRegions.add(r);
+      regionArea += (long) r[2] * r[3];
+    }
+    if (tracked.isEmpty()) {
+      throw new IllegalStateException("Nothing decoded at " + size);
+    }
+    frames = tracked.toArray(new QrFrames.Frame[0]);
+    regions = trackedRegions.toArray(new int[0][]);
+    System.out.printf("Tracked %d of %d codes at %s in %.0f%% of the frame on average%n",
+        frames.length, CORPUS, size,
+        100.0 * regionArea / ((long) width * height * frames.length));
+  }
+
+  @Benchmark
+  public boolean decodeFullFrame() {
+    QrFrames.Frame frame = frames[next];
+    next = (next + 1) % frames.length;
+    return decoder.decode(frame.nv21, 0, width, height, width, code);
+  }
+
+  @Benchmark
+  public boolean decodeTracked() {
+    QrFrames.Frame frame = frames[next];
+    int[] r = regions[next];
+    next = (next + 1) % frames.length;
+    return decoder.decode(frame.nv21, r[1] * width + r[0], r[2], r[3], width, code);
+  }
+
+  /**
+   * Reports a box known in frame pixels from an upright, cropped and halved detection at every
+   * rotation and checks that the region covers it, and that it is dropped after enough misses.
+   */
+  private void checkMapping() {
+    CodeTracker checker = new CodeTracker(MAX_MISSES, 0f);
+    int cropLeft = width / 8 & ~1;
+    int cropTop = height / 8 & ~1;
+    int cropWidth = width / 2;
+    int cropHeight = height / 2;
+    // The box in crop pixels, multiples of the scale so that halving is exact.
+    int x0 = 40;
+    int y0 = 20;
+    int x1 = 120;
+    int y1 = 60;
+    for (int rotation = 0; rotation < 4; rotation++) {
+      // Upright coordinates of the box, see ScanWindow.toFrame for the mapping.
+      int[] upright;
+      switch (rotation) {
+        case 1:
+          upright = new int[] {cropHeight - y1, x0, cropHeight - y0, x1};
+          break;
+        case 2:
+          upright = new int[] {cropWidth - x1, cropHeight - y1, cropWidth - x0, cropHeight - y0};
+          break;
+        case 3:
+          upright = new int[] {y0, cropWidth - x1, y1, cropWidth - x0};
+          break;
+        default:
+          upright = new int[] {x0, y0, x1, y1};
+          break;
+      }
+      checker.reset();
+      checker.beginUpdate(width, height, rotation, cropLeft, cropTop, cropWidth, cropHeight, 2);
+      checker.addUprightBox(upright[0] / 2, upright[1] / 2, upright[2] / 2, upright[3] / 2);
+      checker.endUpdate();
+      if (!checker.getRegion(width, height, ScanWindow.FULL_FRAME, region)
+          || region[0] > cropLeft + x0 || region[1] > cropTop + y0
+          || region[0] + region[2] < cropLeft + x1 || region[1] + region[3] < cropTop + y1) {
+        throw new IllegalStateException("Box reported at rotation " + rotation + " is not covered");
+      }
+    }
+    for (int miss = 1; miss <= MAX_MISSES; miss++) {
+      checker.beginUpdate(width, height, 0, 0, 0, width, height, 1);
+      checker.endUpdate();
+      if ((checker.getTrackCount() == 0) != (miss == MAX_MISSES)) {
+        throw new IllegalStateException("Track kept " + checker.getTrackCount() + " after "
+            + miss + " misses");
+      }
+    }
+  }
+
+  private static int min(int[] corners, int axis) {
+    int value = Integer.MAX_VALUE;
+    for (int i = axis; i < corners.length; i += 2) {
+      value = Math.min(value, corners[i]);
+    }
+    return value;
+  }
+
+  private static int max(int[] corners, int axis) {
+    int value = Integer.MIN_VALUE;
+    for (int i = axis; i < corners.length; i += 2) {
+      value = Math.max(value, corners[i]);
+    }
+    return value;
+  }
+}
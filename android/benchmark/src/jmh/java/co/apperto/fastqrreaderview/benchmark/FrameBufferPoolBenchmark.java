@@ -0,0 +1,61 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.common.FrameBufferPool;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Mapping camera arrays back to pooled buffers, and reconfiguring the pool between sessions. */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameBufferPoolBenchmark {
+
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+
+  @Param({"3", "8"})
+  public int depth;
+
+  /** Whether the slot index in the trailing byte is intact, or the pool has to scan. */
+  @Param({"true", "false"})
+  public boolean intactIndex;
+
+  private FrameBufferPool pool;
+  private byte[][] arrays;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    pool = new FrameBufferPool(depth, Long.MAX_VALUE);
+    int frameBytes = Nv21Frames.frameBytes(WIDTH, HEIGHT);
+    pool.configure(frameBytes);
+    arrays = new byte[pool.size()][];
+    for (int i = 0; i < arrays.length; i++) {
+      arrays[i] = pool.array(i);
+      if (!intactIndex) {
+        // Points every buffer at the last slot, so that only that one is found directly.
+        arrays[i][frameBytes] = (byte) (arrays.length - 1);
+      }
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer acquireRecycle() {
+    byte[] data = arrays[next];
+    next = next + 1 == arrays.length ? 0 : next + 1;
+    ByteBuffer buffer = pool.acquire(data);
+    pool.recycle(buffer);
+    return buffer;
+  }
+
+  /** A camera restart with an unchanged preview size, which must not reallocate. */
+  @Benchmark
+  public int configureSameSize() {
+    return pool.configure(Nv21Frames.frameBytes(WIDTH, HEIGHT));
+  }
+}
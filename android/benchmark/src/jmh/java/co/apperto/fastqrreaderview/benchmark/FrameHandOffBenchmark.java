@@ -0,0 +1,93 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.common.FrameBufferPool;
+import co.apperto.fastqrreaderview.common.FrameRing;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The hand-off between the camera callback and {@code FrameProcessingRunnable}: the callback maps
+ * the camera's array back to its pooled buffer and offers it to the ring, the processing thread
+ * polls it and recycles it. Frame contents are not touched, so this measures the queueing alone.
+ */
+@State(Scope.Group)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameHandOffBenchmark {
+
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+
+  @Param({"DROP_OLDEST", "DROP_NEWEST"})
+  public FrameRing.DropPolicy dropPolicy;
+
+  @Param({"1", "2"})
+  public int ringCapacity;
+
+  private FrameBufferPool pool;
+  private FrameRing<ByteBuffer> ring;
+  private byte[][] arrays;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    pool = new FrameBufferPool(ringCapacity + 3, Long.MAX_VALUE);
+    pool.configure(Nv21Frames.frameBytes(WIDTH, HEIGHT));
+    ring = new FrameRing<>(ringCapacity, dropPolicy);
+    arrays = new byte[pool.size()][];
+    for (int i = 0; i < arrays.length; i++) {
+      arrays[i] = pool.array(i);
+    }
+  }
+
+  /** Producer and consumer on the same thread, i.e. without contention. */
+  @Benchmark
+  @Group("sameThread")
+  @GroupThreads(1)
+  public ByteBuffer offerPoll() {
+    ByteBuffer dropped = offerNext();
+    if (dropped != null) {
+      pool.recycle(dropped);
+    }
+    ByteBuffer frame = ring.poll();
+    if (frame != null) {
+      pool.recycle(frame);
+    }
+    return frame;
+  }
+
+  @Benchmark
+  @Group("handOff")
+  @GroupThreads(1)
+  public ByteBuffer cameraCallback() {
+    ByteBuffer dropped = offerNext();
+    if (dropped != null) {
+      pool.recycle(dropped);
+    }
+    return dropped;
+  }
+
+  @Benchmark
+  @Group("handOff")
+  @GroupThreads(1)
+  public ByteBuffer processingThread() {
+    ByteBuffer frame = ring.poll();
+    if (frame != null) {
+      pool.recycle(frame);
+    }
+    return frame;
+  }
+
+  private ByteBuffer offerNext() {
+    byte[] data = arrays[next];
+    next = next + 1 == arrays.length ? 0 : next + 1;
+    return ring.offer(pool.acquire(data));
+  }
+}
@@ -0,0 +1,59 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.common.FrameCropper;
+import co.apperto.fastqrreaderview.common.LumaPyramid;
+import co.apperto.fastqrreaderview.common.ScanWindow;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The NV21 kernels a frame may go through before detection: cropping to the scan window and
+ * downscaling into the luma pyramid. Camera1 delivers heap buffers, Camera2 direct ones.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameKernelBenchmark {
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String size;
+
+  @Param({"false", "true"})
+  public boolean direct;
+
+  private int width;
+  private int height;
+  private ByteBuffer frame;
+  private final FrameCropper cropper = new FrameCropper();
+  private final ScanWindow window = ScanWindow.of(0.25f, 0.25f, 0.75f, 0.75f);
+  private final LumaPyramid pyramid = new LumaPyramid(3);
+
+  @Setup
+  public void setUp() {
+    int[] dimensions = Nv21Frames.parseSize(size);
+    width = dimensions[0];
+    height = dimensions[1];
+    frame = Nv21Frames.create(width, height, direct);
+  }
+
+  @Benchmark
+  public ByteBuffer crop() {
+    return cropper.crop(frame, width, height, window);
+  }
+
+  @Benchmark
+  public ByteBuffer downscaleHalf() {
+    return pyramid.build(frame, width, height, 1);
+  }
+
+  @Benchmark
+  public ByteBuffer downscaleQuarter() {
+    int level = Math.min(2, pyramid.levelCount(width, height) - 1);
+    return pyramid.build(frame, width, height, level);
+  }
+}
@@ -0,0 +1,51 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.common.FrameMetadata;
+import co.apperto.fastqrreaderview.common.ScanWindow;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The per-frame {@link FrameMetadata} that {@code FrameProcessingRunnable} used to build, next to
+ * the reused instance it fills in now.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameMetadataBenchmark {
+
+  public int width = 1280;
+  public int height = 720;
+  public int rotation = 1;
+  public int facing = 0;
+  public ScanWindow scanWindow = ScanWindow.of(0.2f, 0.2f, 0.8f, 0.8f);
+
+  private final FrameMetadata reused = new FrameMetadata();
+  private final FrameMetadata copy = new FrameMetadata();
+  private long sequence;
+
+  @Benchmark
+  public FrameMetadata build() {
+    return new FrameMetadata.Builder()
+        .setWidth(width)
+        .setHeight(height)
+        .setRotation(rotation)
+        .setCameraFacing(facing)
+        .setScanWindow(scanWindow)
+        .build();
+  }
+
+  /** What the source fills in and a processor copies into its detection slot. */
+  @Benchmark
+  public FrameMetadata reuse() {
+    // Frames 33 ms apart.
+    reused
+        .set(width, height, rotation, facing)
+        .setScanWindow(scanWindow)
+        .setFrame(sequence, sequence * 33_333_333L);
+    sequence++;
+    return copy.copyFrom(reused);
+  }
+}
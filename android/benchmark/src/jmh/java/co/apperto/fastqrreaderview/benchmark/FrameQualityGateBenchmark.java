@@ -0,0 +1,121 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.common.FrameQualityGate;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of {@link FrameQualityGate} per frame, which every frame pays before detection.
+ *
+ * <p>Setup checks that the gate tells frames apart the way scanning relies on: rendered codes are
+ * sharper than the same frames box-blurred, the same frame with its exposure lowered shows no
+ * motion, and a different frame does. The run fails otherwise.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameQualityGateBenchmark {
+
+  private static final int FRAMES = 8;
+  private static final int BLUR_RADIUS = 3;
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String size;
+
+  @Param({"false", "true"})
+  public boolean direct;
+
+  private int width;
+  private int height;
+  private ByteBuffer[] frames;
+  private int next;
+  private final FrameQualityGate gate = new FrameQualityGate(25f, 12f);
+
+  @Setup
+  public void setUp() {
+    int[] dimensions = Nv21Frames.parseSize(size);
+    width = dimensions[0];
+    height = dimensions[1];
+    QrFrames.Frame[] rendered = QrFrames.create(FRAMES, width, height, false);
+    frames = new ByteBuffer[FRAMES];
+    FrameQualityGate scorer = new FrameQualityGate(0f, 0f);
+    float minSharp = Float.MAX_VALUE;
+    float maxBlurred = 0f;
+    float minMoving = Float.MAX_VALUE;
+    for (int i = 0; i < FRAMES; i++) {
+      byte[] luma = rendered[i].nv21.array();
+      scorer.reset();
+      scorer.check(ByteBuffer.wrap(luma), 0, width, height, width);
+      minSharp = Math.min(minSharp, scorer.getSharpness());
+      scorer.check(ByteBuffer.wrap(darker(luma)), 0, width, height, width);
+      if (scorer.getMotion() > 1f) {
+        throw new IllegalStateException("Exposure change counted as motion: " + scorer.getMotion());
+      }
+      scorer.check(ByteBuffer.wrap(rendered[(i + 1) % FRAMES].nv21.array()), 0, width, height,
+          width);
+      minMoving = Math.min(minMoving, scorer.getMotion());
+      scorer.check(ByteBuffer.wrap(blurred(luma)), 0, width, height, width);
+      maxBlurred = Math.max(maxBlurred, scorer.getSharpness());
+
+      frames[i] =
+          direct ? ByteBuffer.allocateDirect(luma.length) : ByteBuffer.allocate(luma.length);
+      frames[i].put(luma).clear();
+    }
+    if (!(minSharp > maxBlurred)) {
+      throw new IllegalStateException(
+          "Sharp frames score " + minSharp + ", blurred ones up to " + maxBlurred);
+    }
+    if (!(minMoving > 1f)) {
+      throw new IllegalStateException("Different frames show motion of only " + minMoving);
+    }
+  }
+
+  @Benchmark
+  public int check() {
+    ByteBuffer frame = frames[next];
+    next = (next + 1) % FRAMES;
+    return gate.check(frame, 0, width, height, width);
+  }
+
+  /** The luma plane with the gain lowered by an eighth, as auto exposure might. */
+  private byte[] darker(byte[] nv21) {
+    byte[] out = new byte[width * height];
+    for (int i = 0; i < out.length; i++) {
+      out[i] = (byte) ((nv21[i] & 0xFF) * 7 / 8);
+    }
+    return out;
+  }
+
+  /** The luma plane box-blurred horizontally and vertically, like defocus. */
+  private byte[] blurred(byte[] nv21) {
+    byte[] rows = new byte[width * height];
+    int span = 2 * BLUR_RADIUS + 1;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int sum = 0;
+        for (int d = -BLUR_RADIUS; d <= BLUR_RADIUS; d++) {
+          int sx = Math.max(0, Math.min(width - 1, x + d));
+          sum += nv21[y * width + sx] & 0xFF;
+        }
+        rows[y * width + x] = (byte) (sum / span);
+      }
+    }
+    byte[] out = new byte[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int sum = 0;
+        for (int d = -BLUR_RADIUS; d <= BLUR_RADIUS; d++) {
+          int sy = Math.max(0, Math.min(height - 1, y + d));
+          sum += rows[sy * width + x] & 0xFF;
+        }
+        out[y * width + x] = (byte) (sum / span);
+      }
+    }
+    return out;
+  }
+}
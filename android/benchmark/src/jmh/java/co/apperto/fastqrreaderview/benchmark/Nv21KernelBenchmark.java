@@ -0,0 +1,251 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.common.Nv21Kernels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link Nv21Kernels} against the per-pixel loops they replace. The naive loops are the reference:
+ * setup checks that every kernel produces exactly what its loop does, and that rotating by 90 and
+ * then by 270 degrees gives the frame back, and fails the run otherwise.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Nv21KernelBenchmark {
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String size;
+
+  private int width;
+  private int height;
+  private byte[] frame;
+  private byte[] out;
+  private byte[] reference;
+  private int cropLeft;
+  private int cropTop;
+  private int cropWidth;
+  private int cropHeight;
+
+  @Setup
+  public void setUp() {
+    int[] dimensions = Nv21Frames.parseSize(size);
+    width = dimensions[0];
+    height = dimensions[1];
+    frame = new byte[Nv21Frames.frameBytes(width, height)];
+    // Noisy chroma too, so that swapped V and U would show.
+    new Random(width * 31L + height).nextBytes(frame);
+    out = new byte[frame.length];
+    reference = new byte[frame.length];
+    cropLeft = (width / 4) & ~1;
+    cropTop = (height / 4) & ~1;
+    cropWidth = (width / 2) & ~1;
+    cropHeight = (height / 2) & ~1;
+
+    for (int degrees = 90; degrees < 360; degrees += 90) {
+      Nv21Kernels.rotate(frame, 0, width, height, degrees, out, 0);
+      naiveRotate(degrees);
+      check("rotate" + degrees);
+    }
+    Nv21Kernels.mirror(frame, 0, width, height, out, 0);
+    naiveMirror();
+    check("mirror");
+    Nv21Kernels.crop(
+        frame, 0, width, height, cropLeft, cropTop, cropWidth, cropHeight, out, 0);
+    naiveCrop();
+    check("crop");
+    Nv21Kernels.downscale(frame, 0, width, height, 2, out, 0);
+    naiveDownscale(2);
+    check("downscale");
+
+    Nv21Kernels.rotate(frame, 0, width, height, 90, out, 0);
+    Nv21Kernels.rotate(out, 0, height, width, 270, reference, 0);
+    if (!Arrays.equals(frame, reference)) {
+      throw new IllegalStateException("rotate90 then rotate270 did not restore the frame");
+    }
+  }
+
+  @Benchmark
+  public byte[] rotate90() {
+    Nv21Kernels.rotate(frame, 0, width, height, 90, out, 0);
+    return out;
+  }
+
+  @Benchmark
+  public byte[] rotate90Naive() {
+    naiveRotate(90);
+    return reference;
+  }
+
+  @Benchmark
+  public byte[] rotate180() {
+    Nv21Kernels.rotate(frame, 0, width, height, 180, out, 0);
+    return out;
+  }
+
+  @Benchmark
+  public byte[] rotate180Naive() {
+    naiveRotate(180);
+    return reference;
+  }
+
+  @Benchmark
+  public byte[] rotate270() {
+    Nv21Kernels.rotate(frame, 0, width, height, 270, out, 0);
+    return out;
+  }
+
+  @Benchmark
+  public byte[] rotate270Naive() {
+    naiveRotate(270);
+    return reference;
+  }
+
+  @Benchmark
+  public byte[] mirror() {
+    Nv21Kernels.mirror(frame, 0, width, height, out, 0);
+    return out;
+  }
+
+  @Benchmark
+  public byte[] mirrorNaive() {
+    naiveMirror();
+    return reference;
+  }
+
+  @Benchmark
+  public byte[] crop() {
+    Nv21Kernels.crop(frame, 0, width, height, cropLeft, cropTop, cropWidth, cropHeight, out, 0);
+    return out;
+  }
+
+  @Benchmark
+  public byte[] cropNaive() {
+    naiveCrop();
+    return reference;
+  }
+
+  @Benchmark
+  public byte[] downscaleHalf() {
+    Nv21Kernels.downscale(frame, 0, width, height, 2, out, 0);
+    return out;
+  }
+
+  @Benchmark
+  public byte[] downscaleHalfNaive() {
+    naiveDownscale(2);
+    return reference;
+  }
+
+  private void check(String kernel) {
+    if (!Arrays.equals(out, reference)) {
+      throw new IllegalStateException(kernel + " differs from the naive loop at " + size);
+    }
+    Arrays.fill(out, (byte) 0);
+    Arrays.fill(reference, (byte) 0);
+  }
+
+  /** Rotates pixel by pixel in source order, writing the destination wherever it lands. */
+  private void naiveRotate(int degrees) {
+    int outWidth = degrees == 180 ? width : height;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        reference[rotatedIndex(x, y, width, height, outWidth, degrees)] = frame[y * width + x];
+      }
+    }
+    int lumaBytes = width * height;
+    int chromaWidth = width / 2;
+    int chromaHeight = height / 2;
+    for (int y = 0; y < chromaHeight; y++) {
+      for (int x = 0; x < chromaWidth; x++) {
+        int to = lumaBytes
+            + 2 * rotatedIndex(x, y, chromaWidth, chromaHeight, outWidth / 2, degrees);
+        int from = lumaBytes + y * width + 2 * x;
+        reference[to] = frame[from];
+        reference[to + 1] = frame[from + 1];
+      }
+    }
+  }
+
+  private static int rotatedIndex(int x, int y, int w, int h, int outWidth, int degrees) {
+    switch (degrees) {
+      case 90:
+        return x * outWidth + (h - 1 - y);
+      case 180:
+        return (h - 1 - y) * outWidth + (w - 1 - x);
+      default:
+        return (w - 1 - x) * outWidth + y;
+    }
+  }
+
+  private void naiveMirror() {
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        reference[y * width + (width - 1 - x)] = frame[y * width + x];
+      }
+    }
+    int lumaBytes = width * height;
+    for (int y = 0; y < height / 2; y++) {
+      for (int x = 0; x < width / 2; x++) {
+        int from = lumaBytes + y * width + 2 * x;
+        int to = lumaBytes + y * width + 2 * (width / 2 - 1 - x);
+        reference[to] = frame[from];
+        reference[to + 1] = frame[from + 1];
+      }
+    }
+  }
+
+  private void naiveCrop() {
+    int o = 0;
+    for (int y = 0; y < cropHeight; y++) {
+      for (int x = 0; x < cropWidth; x++) {
+        reference[o++] = frame[(cropTop + y) * width + cropLeft + x];
+      }
+    }
+    int lumaBytes = width * height;
+    for (int y = 0; y < cropHeight / 2; y++) {
+      for (int x = 0; x < cropWidth; x++) {
+        reference[o++] = frame[lumaBytes + (cropTop / 2 + y) * width + cropLeft + x];
+      }
+    }
+  }
+
+  private void naiveDownscale(int factor) {
+    int outWidth = width / factor;
+    int outHeight = height / factor;
+    int area = factor * factor;
+    int o = 0;
+    for (int y = 0; y < outHeight; y++) {
+      for (int x = 0; x < outWidth; x++) {
+        int sum = 0;
+        for (int dy = 0; dy < factor; dy++) {
+          for (int dx = 0; dx < factor; dx++) {
+            sum += frame[(y * factor + dy) * width + x * factor + dx] & 0xFF;
+          }
+        }
+        reference[o++] = (byte) ((sum + area / 2) / area);
+      }
+    }
+    int lumaBytes = width * height;
+    for (int y = 0; y < outHeight / 2; y++) {
+      for (int x = 0; x < outWidth / 2; x++) {
+        for (int c = 0; c < 2; c++) {
+          int sum = 0;
+          for (int dy = 0; dy < factor; dy++) {
+            for (int dx = 0; dx < factor; dx++) {
+              sum += frame[lumaBytes + (y * factor + dy) * width + 2 * (x * factor + dx) + c]
+                  & 0xFF;
+            }
+          }
+          reference[o++] = (byte) ((sum + area / 2) / area);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.common.LatencyHistogram;
+import co.apperto.fastqrreaderview.common.PipelineStats;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * The cost the stage statistics add to every frame, and of taking a snapshot. Recording must not
+ * allocate, which the gc profiler's bytes per operation show.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PipelineStatsBenchmark {
+
+  private final PipelineStats stats = new PipelineStats();
+
+  @State(Scope.Thread)
+  public static class Latencies {
+    private long next = 1_000_000L;
+
+    long next() {
+      // Walks through durations from 1 ms to about 1 s, touching many buckets.
+      next = next < 1_000_000_000L ? next + next / 7 : 1_000_000L;
+      return next;
+    }
+  }
+
+  /** What one analyzed frame records: received, queue wait, detect and delivery latency. */
+  @Benchmark
+  public void recordFrame(Latencies latencies) {
+    stats.onFrameReceived();
+    stats.getQueueWait().record(latencies.next());
+    stats.getDetectLatency().record(latencies.next());
+    stats.getDeliveryLatency().record(latencies.next());
+  }
+
+  /** The same from the camera, processing and completion threads at once. */
+  @Benchmark
+  @Threads(3)
+  public void recordFrameContended(Latencies latencies) {
+    recordFrame(latencies);
+  }
+
+  @Benchmark
+  public long p99() {
+    LatencyHistogram histogram = stats.getDetectLatency();
+    if (histogram.getCount() == 0) {
+      histogram.record(1_000_000L);
+    }
+    return histogram.getValueAtPercentile(99);
+  }
+}
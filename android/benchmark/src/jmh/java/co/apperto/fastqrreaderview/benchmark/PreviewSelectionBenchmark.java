@@ -0,0 +1,77 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.common.PreviewSelection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Preview size and frame rate range selection as done when the camera opens, against the lists a
+ * typical phone reports.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PreviewSelectionBenchmark {
+
+  private static final int[][] PREVIEW_SIZES = {
+    {1920, 1080}, {1440, 1080}, {1280, 960}, {1280, 720}, {1088, 1088}, {1024, 768},
+    {960, 720}, {960, 540}, {864, 480}, {800, 600}, {800, 480}, {720, 720}, {720, 480},
+    {640, 480}, {640, 360}, {480, 360}, {480, 320}, {352, 288}, {320, 240}, {176, 144}
+  };
+
+  private static final int[][] PICTURE_SIZES = {
+    {4032, 3024}, {4032, 2268}, {3264, 2448}, {3264, 1836}, {3024, 3024}, {2976, 2976},
+    {2880, 2160}, {2592, 1944}, {2560, 1920}, {2560, 1440}, {2048, 1536}, {2048, 1152},
+    {1920, 1080}, {1600, 1200}, {1440, 1080}, {1280, 960}, {1280, 720}, {1024, 768},
+    {800, 600}, {640, 480}, {320, 240}
+  };
+
+  private static final int[][] FPS_RANGES = {
+    {7000, 7000}, {10000, 10000}, {15000, 15000}, {8000, 30000}, {15000, 30000},
+    {24000, 24000}, {30000, 30000}
+  };
+
+  private final List<int[]> previewSizes = new ArrayList<>();
+  private final List<int[]> pictureSizes = new ArrayList<>();
+  private final List<int[]> fpsRanges = new ArrayList<>();
+
+  @Setup
+  public void setUp() {
+    for (int[] size : PREVIEW_SIZES) {
+      previewSizes.add(size);
+    }
+    for (int[] size : PICTURE_SIZES) {
+      pictureSizes.add(size);
+    }
+    for (int[] range : FPS_RANGES) {
+      fpsRanges.add(range);
+    }
+  }
+
+  @Benchmark
+  public int[] selectSizePair() {
+    return PreviewSelection.selectSizePair(previewSizes, pictureSizes, 1280, 720);
+  }
+
+  /** A 4:3 preview with a requested size that has no same-aspect-ratio match. */
+  @Benchmark
+  public int[] selectSizePairUnmatched() {
+    return PreviewSelection.selectSizePair(previewSizes, pictureSizes, 1000, 1000);
+  }
+
+  @Benchmark
+  public int[] selectFpsRange() {
+    return PreviewSelection.selectFpsRange(fpsRanges, 20.0f);
+  }
+
+  /** A frame rate range as a capture profile asks for it. */
+  @Benchmark
+  public int[] selectFpsRangeBetween() {
+    return PreviewSelection.selectFpsRange(fpsRanges, 15.0f, 30.0f);
+  }
+}
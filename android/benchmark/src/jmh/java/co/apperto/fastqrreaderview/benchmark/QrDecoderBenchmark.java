@@ -0,0 +1,109 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.qrcode.QrCode;
+import co.apperto.fastqrreaderview.qrcode.QrDecoder;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Latency and decode rate of the pure-Java QR decoder on a corpus of synthetic camera frames, next
+ * to ZXing as a baseline. The decoded and missed counters give the decode rate; the gc profiler
+ * shows that decoding does not allocate once the decoder has seen the corpus.
+ *
+ * <p>{@code QrDecoderCorpusTest} checks the decode rate and the decoded text on the same corpus.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QrDecoderBenchmark {
+
+  private static final int CORPUS = 64;
+
+  @Param({"640x480", "1280x720"})
+  public String size;
+
+  private int width;
+  private int height;
+  private QrFrames.Frame[] frames;
+  private ByteBuffer empty;
+  private int next;
+
+  private final QrDecoder decoder = new QrDecoder();
+  private final QrCode code = new QrCode();
+  private final QRCodeReader zxing = new QRCodeReader();
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Counters {
+    public long decoded;
+    public long missed;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      decoded = 0;
+      missed = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    int[] dimensions = Nv21Frames.parseSize(size);
+    width = dimensions[0];
+    height = dimensions[1];
+    frames = QrFrames.create(CORPUS, width, height, true);
+    empty = Nv21Frames.create(width, height, false);
+  }
+
+  private QrFrames.Frame nextFrame() {
+    QrFrames.Frame frame = frames[next];
+    next = (next + 1) % frames.length;
+    return frame;
+  }
+
+  /** One frame of the corpus, the way QrCodeProcessor decodes it. */
+  @Benchmark
+  public boolean decode(Counters counters) {
+    boolean found = decoder.decode(nextFrame().nv21, 0, width, height, width, code);
+    if (found) {
+      counters.decoded++;
+    } else {
+      counters.missed++;
+    }
+    return found;
+  }
+
+  /** A frame with nothing in it, which is what most analyzed frames are. */
+  @Benchmark
+  public boolean decodeNoCode() {
+    return decoder.decode(empty, 0, width, height, width, code);
+  }
+
+  @Benchmark
+  public Result zxingDecode(Counters counters) {
+    QrFrames.Frame frame = nextFrame();
+    try {
+      PlanarYUVLuminanceSource source =
+          new PlanarYUVLuminanceSource(
+              frame.nv21.array(), width, height, 0, 0, width, height, false);
+      Result result = zxing.decode(new BinaryBitmap(new HybridBinarizer(source)));
+      counters.decoded++;
+      return result;
+    } catch (ReaderException e) {
+      counters.missed++;
+      return null;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import co.apperto.fastqrreaderview.common.StaticSceneFilter;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of {@link StaticSceneFilter} per frame of a scene that does not change, which is what a
+ * fixed-mount scanner pays instead of a detection.
+ *
+ * <p>Setup checks that the filter tells frames apart the way scanning relies on: the same frame
+ * with sensor noise or lower exposure is unchanged, while a different frame, the same frame with
+ * one corner covered, or the same frame after the refresh interval is analyzed. The run fails
+ * otherwise.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StaticSceneFilterBenchmark {
+
+  private static final int FRAMES = 8;
+  private static final float TOLERANCE = 4f;
+  private static final int NOISE = 3;
+  private static final long REFRESH_NANOS = 1_000_000_000L;
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String size;
+
+  @Param({"false", "true"})
+  public boolean direct;
+
+  private int width;
+  private int height;
+  private ByteBuffer[] frames;
+  private int next;
+  private long now;
+  private final StaticSceneFilter filter = new StaticSceneFilter(TOLERANCE, Long.MAX_VALUE);
+
+  @Setup
+  public void setUp() {
+    int[] dimensions = Nv21Frames.parseSize(size);
+    width = dimensions[0];
+    height = dimensions[1];
+    QrFrames.Frame[] rendered = QrFrames.create(2, width, height, false);
+    byte[] scene = rendered[0].nv21.array();
+    Random random = new Random(width);
+
+    StaticSceneFilter checker = new StaticSceneFilter(TOLERANCE, REFRESH_NANOS);
+    expect(checker, scene, 0L, false, "first frame");
+    expect(checker, noisy(scene, random), 1L, true, "noisy frame");
+    expect(checker, darker(scene), 2L, true, "darker frame");
+    expect(checker, rendered[1].nv21.array(), 3L, false, "different frame");
+    expect(checker, scene, 4L, false, "frame after a different one");
+    expect(checker, covered(scene), 5L, false, "frame with a covered corner");
+    expect(checker, scene, 6L, false, "uncovered frame");
+    expect(checker, scene, 6L + REFRESH_NANOS, false, "frame after the refresh interval");
+    checker.invalidate();
+    expect(checker, scene, 7L + REFRESH_NANOS, false, "frame after invalidate()");
+
+    frames = new ByteBuffer[FRAMES];
+    for (int i = 0; i < FRAMES; i++) {
+      byte[] luma = noisy(scene, random);
+      frames[i] =
+          direct ? ByteBuffer.allocateDirect(luma.length) : ByteBuffer.allocate(luma.length);
+      frames[i].put(luma).clear();
+    }
+    filter.isUnchanged(frames[0], width, height, width, now);
+  }
+
+  @Benchmark
+  public boolean isUnchanged() {
+    ByteBuffer frame = frames[next];
+    next = (next + 1) % FRAMES;
+    return filter.isUnchanged(frame, width, height, width, ++now);
+  }
+
+  private void expect(
+      StaticSceneFilter checker, byte[] luma, long nowNanos, boolean unchanged, String what) {
+    if (checker.isUnchanged(ByteBuffer.wrap(luma), width, height, width, nowNanos) != unchanged) {
+      throw new IllegalStateException(
+          (unchanged ? "Changed: " : "Unchanged: ") + what + " at " + size);
+    }
+  }
+
+  /** The luma plane with up to {@link #NOISE} levels of noise on every pixel. */
+  private byte[] noisy(byte[] nv21, Random random) {
+    byte[] out = new byte[width * height];
+    for (int i = 0; i < out.length; i++) {
+      int level = (nv21[i] & 0xFF) + random.nextInt(2 * NOISE + 1) - NOISE;
+      out[i] = (byte) Math.max(0, Math.min(255, level));
+    }
+    return out;
+  }
+
+  /** The luma plane with the gain lowered by an eighth, as auto exposure might. */
+  private byte[] darker(byte[] nv21) {
+    byte[] out = new byte[width * height];
+    for (int i = 0; i < out.length; i++) {
+      out[i] = (byte) ((nv21[i] & 0xFF) * 7 / 8);
+    }
+    return out;
+  }
+
+  /**
+   * The luma plane with its top left eighth by sixth, about two blocks of the fingerprint, painted
+   * over as if an object entered the view there.
+   */
+  private byte[] covered(byte[] nv21) {
+    byte[] out = new byte[width * height];
+    System.arraycopy(nv21, 0, out, 0, out.length);
+    int coverWidth = width / 8;
+    int coverHeight = height / 6;
+    long sum = 0;
+    for (int y = 0; y < coverHeight; y++) {
+      for (int x = 0; x < coverWidth; x++) {
+        sum += nv21[y * width + x] & 0xFF;
+      }
+    }
+    byte paint = sum / (coverWidth * coverHeight) > 128 ? (byte) 0 : (byte) 255;
+    for (int y = 0; y < coverHeight; y++) {
+      for (int x = 0; x < coverWidth; x++) {
+        out[y * width + x] = paint;
+      }
+    }
+    return out;
+  }
+}
@@ -0,0 +1,47 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/** Synthetic NV21 frames for the benchmarks and tests. */
+final class Nv21Frames {
+
+  private Nv21Frames() {}
+
+  /** Returns the size in bytes of a {@code width} x {@code height} NV21 frame. */
+  static int frameBytes(int width, int height) {
+    int lumaBytes = width * height;
+    return lumaBytes + lumaBytes / 2;
+  }
+
+  /**
+   * Returns a frame with noisy luma and neutral chroma, so that no kernel can take a shortcut on
+   * uniform input.
+   */
+  static ByteBuffer create(int width, int height, boolean direct) {
+    int lumaBytes = width * height;
+    byte[] bytes = new byte[frameBytes(width, height)];
+    Random random = new Random(width * 31L + height);
+    for (int i = 0; i < lumaBytes; i++) {
+      bytes[i] = (byte) random.nextInt(256);
+    }
+    for (int i = lumaBytes; i < bytes.length; i++) {
+      bytes[i] = (byte) 128;
+    }
+    if (!direct) {
+      return ByteBuffer.wrap(bytes);
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes);
+    buffer.clear();
+    return buffer;
+  }
+
+  /** Parses a {@code "<width>x<height>"} benchmark parameter. */
+  static int[] parseSize(String size) {
+    int x = size.indexOf('x');
+    return new int[] {
+      Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1))
+    };
+  }
+}
@@ -0,0 +1,51 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import co.apperto.fastqrreaderview.qrcode.QrCode;
+import co.apperto.fastqrreaderview.qrcode.QrDecoder;
+import org.junit.Test;
+
+/**
+ * Decode rate of the pure-Java QR decoder on the corpus {@link QrDecoderBenchmark} times it on.
+ * Every code it reports has to read exactly what was encoded.
+ */
+public class QrDecoderCorpusTest {
+
+  private static final int CORPUS = 64;
+
+  // The decoder reads 62 of the 64 frames at either size.
+  private static final double MIN_DECODE_RATE = 0.9;
+
+  @Test
+  public void decodesVgaCorpus() {
+    assertDecodeRate(640, 480);
+  }
+
+  @Test
+  public void decodesHdCorpus() {
+    assertDecodeRate(1280, 720);
+  }
+
+  @Test
+  public void findsNothingInNoise() {
+    QrDecoder decoder = new QrDecoder();
+    assertFalse(decoder.decode(Nv21Frames.create(640, 480, false), 0, 640, 480, 640, new QrCode()));
+  }
+
+  private static void assertDecodeRate(int width, int height) {
+    QrDecoder decoder = new QrDecoder();
+    QrCode code = new QrCode();
+    int decoded = 0;
+    for (QrFrames.Frame frame : QrFrames.create(CORPUS, width, height, true)) {
+      if (decoder.decode(frame.nv21, 0, width, height, width, code)) {
+        assertEquals(frame.text, code.getText().toString());
+        decoded++;
+      }
+    }
+    String rate = "Decoded " + decoded + " of " + CORPUS + " codes at " + width + "x" + height;
+    assertTrue(rate, decoded >= MIN_DECODE_RATE * CORPUS);
+  }
+}
@@ -0,0 +1,118 @@
+package co.apperto.fastqrreaderview.benchmark;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.google.zxing.qrcode.encoder.QRCode;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic NV21 frames showing a QR code the way a camera would: rotated, in perspective, under
+ * uneven light and with sensor noise. Codes are encoded with ZXing, so the corpus does not depend
+ * on the decoder under test.
+ */
+final class QrFrames {
+
+  private static final String[] PREFIXES = {
+    "https://example.com/item?id=",
+    "HELLO WORLD 123 ",
+    "0123456789",
+    "Gr\u00fc\u00dfe aus K\u00f6ln ",
+    // Kanji, encoded in Kanji mode with Shift_JIS. Has to stay last.
+    "\u6f22\u5b57\u30c6\u30b9\u30c8"
+  };
+
+  private QrFrames() {}
+
+  /** A frame and the text of the code shown in it. */
+  static final class Frame {
+    final ByteBuffer nv21;
+    final String text;
+
+    Frame(ByteBuffer nv21, String text) {
+      this.nv21 = nv21;
+      this.text = text;
+    }
+  }
+
+  /**
+   * Returns {@code count} frames with codes of mixed content, version and error correction level,
+   * the same for the same arguments. Without {@code kanji}, codes only hold text that decodes
+   * without allocating.
+   */
+  static Frame[] create(int count, int width, int height, boolean kanji) {
+    Random random = new Random(count * 31L + width);
+    Frame[] frames = new Frame[count];
+    ErrorCorrectionLevel[] levels = ErrorCorrectionLevel.values();
+    for (int i = 0; i < count; i++) {
+      int prefixes = kanji ? PREFIXES.length : PREFIXES.length - 1;
+      StringBuilder text = new StringBuilder(PREFIXES[i % prefixes]);
+      int extra = random.nextInt(i % 3 == 0 ? 200 : 40);
+      for (int k = 0; k < extra; k++) {
+        text.append((char) ('a' + random.nextInt(26)));
+      }
+      Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+      // Without a hint ZXing encodes ISO-8859-1 and replaces what it can't with '?'.
+      hints.put(EncodeHintType.CHARACTER_SET, kanji && i % 5 == 4 ? "Shift_JIS" : "UTF-8");
+      QRCode code;
+      try {
+        code = Encoder.encode(text.toString(), levels[i % levels.length], hints);
+      } catch (WriterException e) {
+        throw new IllegalStateException(e);
+      }
+      double angle = i % 4 == 0 ? 0 : random.nextDouble() * 2 * Math.PI;
+      double perspective = i % 3 == 2 ? 0.15 * random.nextDouble() : 0;
+      double noise = i % 2 == 0 ? 0 : 12;
+      frames[i] =
+          new Frame(
+              render(code.getMatrix(), width, height, angle, perspective, noise, random),
+              text.toString());
+    }
+    return frames;
+  }
+
+  private static ByteBuffer render(
+      ByteMatrix matrix,
+      int width,
+      int height,
+      double angle,
+      double perspective,
+      double noise,
+      Random random) {
+    int quiet = 4;
+    int modules = matrix.getWidth() + 2 * quiet;
+    // The code takes up about 60% of the shorter side, so it stays in view at any angle.
+    double scale = Math.max(2, (int) (0.6 * Math.min(width, height) / modules));
+    double cos = Math.cos(angle);
+    double sin = Math.sin(angle);
+    byte[] bytes = new byte[Nv21Frames.frameBytes(width, height)];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double dx = x - width / 2.0;
+        double dy = y - height / 2.0;
+        double f = 1 + perspective * dy / height;
+        dx /= f;
+        dy /= f;
+        int mx = (int) Math.floor((cos * dx + sin * dy) / scale + modules / 2.0) - quiet;
+        int my = (int) Math.floor((-sin * dx + cos * dy) / scale + modules / 2.0) - quiet;
+        boolean dark =
+            mx >= 0
+                && my >= 0
+                && mx < matrix.getWidth()
+                && my < matrix.getHeight()
+                && matrix.get(mx, my) == 1;
+        double luma = (dark ? 40 : 210) + 30.0 * x / width + random.nextGaussian() * noise;
+        bytes[y * width + x] = (byte) Math.max(0, Math.min(255, (int) luma));
+      }
+    }
+    for (int i = width * height; i < bytes.length; i++) {
+      bytes[i] = (byte) 128;
+    }
+    return ByteBuffer.wrap(bytes);
+  }
+}
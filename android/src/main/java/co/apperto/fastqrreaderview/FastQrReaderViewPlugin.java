@@ -5,6 +5,7 @@ import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
@@ -15,6 +16,8 @@ import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.Settings;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -28,6 +31,7 @@ import android.view.Surface;
 import com.google.mlkit.vision.barcode.Barcode;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -36,13 +40,37 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import co.apperto.fastqrreaderview.common.Camera2FrameSource;
 import co.apperto.fastqrreaderview.common.CameraSource;
-import co.apperto.fastqrreaderview.common.CameraSourcePreview;
+import co.apperto.fastqrreaderview.common.CameraThread;
+import co.apperto.fastqrreaderview.common.CaptureCalibration;
+import co.apperto.fastqrreaderview.common.CaptureGovernor;
+import co.apperto.fastqrreaderview.common.CaptureProfile;
+import co.apperto.fastqrreaderview.common.CodeTracker;
+import co.apperto.fastqrreaderview.common.DetectionLimiter;
+import co.apperto.fastqrreaderview.common.DeviceConditions;
+import co.apperto.fastqrreaderview.common.FrameMemoryBudget;
+import co.apperto.fastqrreaderview.common.FrameQualityGate;
+import co.apperto.fastqrreaderview.common.FrameScheduler;
+import co.apperto.fastqrreaderview.common.FrameSource;
+import co.apperto.fastqrreaderview.common.LatencyHistogram;
+import co.apperto.fastqrreaderview.common.PipelineStats;
+import co.apperto.fastqrreaderview.common.ScanDedupCache;
+import co.apperto.fastqrreaderview.common.ScanWindow;
+import co.apperto.fastqrreaderview.common.StaticSceneFilter;
+import co.apperto.fastqrreaderview.java.VisionProcessorBase;
+import co.apperto.fastqrreaderview.java.barcodescanning.BarcodeRecordWriter;
+import co.apperto.fastqrreaderview.java.barcodescanning.BarcodeScannerPool;
 import co.apperto.fastqrreaderview.java.barcodescanning.BarcodeScanningProcessor;
 import co.apperto.fastqrreaderview.java.barcodescanning.OnCodeScanned;
+import co.apperto.fastqrreaderview.java.qrcode.OnQrCodeDecoded;
+import co.apperto.fastqrreaderview.java.qrcode.QrCodeProcessor;
+import co.apperto.fastqrreaderview.qrcode.QrCode;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
@@ -71,16 +99,66 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
                 }
             };
 
-    private static CameraManager cameraManager;
-    private QrReader camera;
+    // AVAILABLE FORMATS:
+    // enum CodeFormat { codabar, code39, code93, code128, ean8, ean13, itf, upca, upce, aztec, datamatrix, pdf417, qr }
+    private static final Map<String, Integer> CODE_FORMATS = new HashMap<>();
+
+    static {
+        CODE_FORMATS.put("codabar", Barcode.FORMAT_CODABAR);
+        CODE_FORMATS.put("code39", Barcode.FORMAT_CODE_39);
+        CODE_FORMATS.put("code93", Barcode.FORMAT_CODE_93);
+        CODE_FORMATS.put("code128", Barcode.FORMAT_CODE_128);
+        CODE_FORMATS.put("ean8", Barcode.FORMAT_EAN_8);
+        CODE_FORMATS.put("ean13", Barcode.FORMAT_EAN_13);
+        CODE_FORMATS.put("itf", Barcode.FORMAT_ITF);
+        CODE_FORMATS.put("upca", Barcode.FORMAT_UPC_A);
+        CODE_FORMATS.put("upce", Barcode.FORMAT_UPC_E);
+        CODE_FORMATS.put("aztec", Barcode.FORMAT_AZTEC);
+        CODE_FORMATS.put("datamatrix", Barcode.FORMAT_DATA_MATRIX);
+        CODE_FORMATS.put("pdf417", Barcode.FORMAT_PDF417);
+        CODE_FORMATS.put("qr", Barcode.FORMAT_QR_CODE);
+    }
+
+    private static final int DEFAULT_DEDUP_ENTRIES = 64;
+    // How long an unchanged scene goes without being analyzed when no refresh interval is given.
+    private static final long DEFAULT_STATIC_SCENE_REFRESH_MS = 1000;
+    // How far tracked regions reach beyond a code on each side, as a fraction of its size.
+    private static final float TRACKING_MARGIN = 0.5f;
+    // Initial size of the buffer codes are encoded into; it grows for large batches.
+    private static final int RESULT_BUFFER_BYTES = 4096;
+    // Where calibrate() keeps the winning capture profile of each device and camera.
+    private static final String CALIBRATION_PREFERENCES = "fast_qr_reader_view.calibration";
+    // How long a calibration trial waits for exposure, focus and buffers to settle before measuring.
+    private static final long CALIBRATION_SETTLE_MS = 500;
+    // How often the capture governor reads the thermal status and battery level.
+    private static final long GOVERNOR_POLL_MS = 2000;
+    // How long better conditions must last before the governor steps up, unless one is given.
+    private static final long DEFAULT_GOVERNOR_RECOVERY_MS = 30_000;
+
+    // Detections running at once across all readers; each reader still has its own maxInFlight.
+    private static final DetectionLimiter DETECTION_LIMITER =
+            new DetectionLimiter(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    // Camera1 frame buffers held at once across all readers. A reader that would go over it gets
+    // fewer buffers, down to FrameBufferPool.MIN_DEPTH, below which the camera stalls.
+    private static final FrameMemoryBudget FRAME_MEMORY_BUDGET = new FrameMemoryBudget(48L << 20);
+
+    private CameraManager cameraManager;
+    // Every reader initialized and not yet closed, by the id of the texture it renders into.
+    private final Map<Long, QrReader> readers = new HashMap<>();
     private Activity activity;
-    // The code to run after requesting camera permissions.
-    private Runnable cameraPermissionContinuation;
+    // The code to run after requesting camera permissions, one per reader waiting for them.
+    private final List<Runnable> cameraPermissionContinuations = new ArrayList<>();
     private boolean requestingPermission;
-    private static MethodChannel channel;
+    private MethodChannel channel;
     private Result permissionResult;
     private BinaryMessenger messenger;
     private TextureRegistry textureRegistry;
+    // ML Kit scanners kept warm across dispose/initialize cycles.
+    private final BarcodeScannerPool scannerPool = new BarcodeScannerPool();
+    // Opens and closes the camera of every session off the main thread.
+    private CameraThread cameraThread;
+    // Replies to calls answered on the camera thread.
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     // Whether we should ignore process(). This is usually caused by feeding input data faster than
     // the model can handle.
@@ -139,12 +217,18 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
     @Override
     public void onMethodCall(MethodCall call, final Result result) {
         switch (call.method) {
-            case "init":
-                if (camera != null) {
-                    camera.close();
+            case "init": {
+                ArrayList<String> warmUpFormats = call.argument("warmUpFormats");
+                if (warmUpFormats != null) {
+                    // An explicit warm-up leaves an open camera alone; only the bare init sent when
+                    // the Dart library loads, e.g. after a hot restart, closes it.
+                    warmUp(warmUpFormats, result);
+                    break;
                 }
+                closeReaders();
                 result.success(null);
                 break;
+            }
             case "availableCameras":
                 try {
                     String[] cameraNames = cameraManager.getCameraIdList();
@@ -180,18 +264,81 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
                 String cameraName = call.argument("cameraName");
                 String resolutionPreset = call.argument("resolutionPreset");
                 ArrayList<String> codeFormats = call.argument("codeFormats");
+                String cameraApi = call.argument("cameraApi");
+                // Replaces the capture profile sent along, see calibrate().
+                CaptureProfile calibratedProfile = Boolean.TRUE.equals(call.<Boolean>argument("useCalibratedProfile"))
+                        ? loadCalibratedProfile(cameraName) : null;
+                ScanWindow scanWindow;
+                try {
+                    scanWindow = parseScanWindow(call.<Map<String, Object>>argument("scanWindow"));
+                } catch (IllegalArgumentException e) {
+                    result.error("IllegalArgumentException", e.getMessage(), null);
+                    break;
+                }
+                Integer pyramidLevels = call.argument("pyramidLevels");
+                Integer maxInFlight = call.argument("maxInFlight");
+                if (maxInFlight != null && (maxInFlight < 1 || maxInFlight > VisionProcessorBase.MAX_IN_FLIGHT_LIMIT)) {
+                    result.error("IllegalArgumentException", "Invalid maxInFlight: " + maxInFlight, null);
+                    break;
+                }
+                VisionProcessorBase.ResultOrder resultOrder = parseResultOrder(call.<String>argument("resultOrder"));
+                boolean continuous = "continuous".equals(call.<String>argument("scanMode"));
+                boolean javaDecoder = "java".equals(call.<String>argument("decoder"));
+                Number batchWindowMs = call.argument("batchWindowMs");
+                FrameScheduler frameScheduler;
+                ScanDedupCache dedupCache;
+                FrameQualityGate qualityGate;
+                StaticSceneFilter staticSceneFilter;
+                CodeTracker codeTracker;
+                CaptureGovernor captureGovernor;
+                try {
+                    frameScheduler = createFrameScheduler(call, calibratedProfile);
+                    dedupCache = createDedupCache(call);
+                    qualityGate = createQualityGate(call);
+                    staticSceneFilter = createStaticSceneFilter(call);
+                    codeTracker = createCodeTracker(call);
+                    captureGovernor = createCaptureGovernor(call);
+                } catch (IllegalArgumentException e) {
+                    result.error("IllegalArgumentException", e.getMessage(), null);
+                    break;
+                }
 
-                if (camera != null) {
-                    camera.close();
+                // Other readers keep running; each one renders into a texture of its own.
+                new QrReader(cameraName, resolutionPreset, codeFormats, cameraApi, scanWindow, pyramidLevels != null ? pyramidLevels : 1, maxInFlight != null ? maxInFlight : 1, resultOrder, frameScheduler, continuous, batchWindowMs != null ? batchWindowMs.longValue() : 0, dedupCache, qualityGate, staticSceneFilter, codeTracker, call.<Map<String, Object>>argument("captureProfile"), calibratedProfile, captureGovernor, javaDecoder, result);
+                break;
+            }
+            case "setScanWindow":
+                setScanWindow(call, result);
+                break;
+            case "setCaptureProfile":
+                setCaptureProfile(call, result);
+                break;
+            case "calibrate":
+                calibrate(call, result);
+                break;
+            case "getStats": {
+                QrReader reader = findReader(call);
+                result.success(reader != null ? reader.getStats() : null);
+                break;
+            }
+            case "resetStats": {
+                QrReader reader = findReader(call);
+                if (reader != null) {
+                    reader.resetStats();
                 }
-                camera = new QrReader(cameraName, resolutionPreset, codeFormats, result);
+                result.success(null);
+                break;
+            }
+            case "getScanCadence": {
+                QrReader reader = findReader(call);
+                result.success(reader != null ? reader.getScanCadence() : null);
                 break;
             }
             case "startScanning":
-                startScanning(result);
+                startScanning(call, result);
                 break;
             case "stopScanning":
-                stopScanning(result);
+                stopScanning(call, result);
                 break;
             case "checkPermission":
                 String permission;
@@ -209,13 +356,16 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
             case "settings":
                 openSettings();
             case "toggleFlash":
-                toggleFlash(result);
+                toggleFlash(call, result);
                 break;
             case "dispose": {
-                if (camera != null) {
-                    camera.dispose();
+                QrReader reader = findReader(call);
+                if (reader != null) {
+                    // Replies once the camera is closed.
+                    reader.dispose(result);
+                } else {
+                    result.success(null);
                 }
-                result.success(null);
                 break;
             }
             default:
@@ -230,12 +380,16 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
         channel = new MethodChannel(messenger, "fast_qr_reader_view");
         channel.setMethodCallHandler(this);
         textureRegistry = binding.getTextureRegistry();
+        cameraThread = new CameraThread();
     }
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
+        closeReaders();
         messenger = null;
         channel.setMethodCallHandler(null);
+        scannerPool.clear();
+        cameraThread.quit();
     }
 
     @Override
@@ -274,8 +428,13 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
         @Override
         public boolean onRequestPermissionsResult(int id, String[] permissions, int[] grantResults) {
             if (id == CAMERA_REQUEST_ID) {
-                if (cameraPermissionContinuation != null)
-                    cameraPermissionContinuation.run();
+                requestingPermission = false;
+                // A continuation may queue another, so the ones waiting now are taken first.
+                List<Runnable> continuations = new ArrayList<>(cameraPermissionContinuations);
+                cameraPermissionContinuations.clear();
+                for (Runnable continuation : continuations) {
+                    continuation.run();
+                }
                 return true;
             }
             return false;
@@ -283,29 +442,393 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
     }
 
 
-    void startScanning(@NonNull Result result) {
-        camera.scanning = true;
-        camera.barcodeScanningProcessor.shouldThrottle.set(false);
+    /**
+     * Creates an ML Kit scanner for {@code formats} and runs a blank frame through it, so that the
+     * first camera frame does not wait for the model to load. Replies once the scanner is warm.
+     */
+    private void warmUp(List<String> formats, @NonNull final Result result) {
+        scannerPool.warmUp(BarcodeScannerPool.formatMask(parseCodeFormats(formats)), new Runnable() {
+            @Override
+            public void run() {
+                result.success(null);
+            }
+        });
+    }
+
+    private static ArrayList<Integer> parseCodeFormats(List<String> formats) {
+        ArrayList<Integer> codeFormats = new ArrayList<>();
+        for (String f : formats) {
+            if (CODE_FORMATS.get(f) != null) {
+                codeFormats.add(CODE_FORMATS.get(f));
+            }
+        }
+        return codeFormats;
+    }
+
+    /**
+     * Returns the reader rendering into the texture given as the "textureId" argument, or null if
+     * there is none.
+     */
+    @Nullable
+    private QrReader findReader(@NonNull MethodCall call) {
+        Number textureId = call.argument("textureId");
+        return textureId != null ? readers.get(textureId.longValue()) : null;
+    }
+
+    /** Closes every reader, e.g. when the Dart side restarts and no longer knows about them. */
+    private void closeReaders() {
+        // close() removes the reader from the map.
+        for (QrReader reader : new ArrayList<>(readers.values())) {
+            reader.close();
+        }
+    }
+
+    void startScanning(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader reader = findReader(call);
+        if (reader == null) {
+            result.error("noCamera", "startScanning was called before initialize", null);
+            return;
+        }
+        reader.startScanning();
         result.success(null);
     }
 
-    void stopScanning(@NonNull Result result) {
-        stopScanning();
+    void stopScanning(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader reader = findReader(call);
+        if (reader != null) {
+            reader.stopScanning();
+        }
         result.success(null);
     }
 
-    private void stopScanning() {
-        camera.scanning = false;
-        camera.barcodeScanningProcessor.shouldThrottle.set(true);
+    void setScanWindow(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader camera = findReader(call);
+        if (camera == null) {
+            result.error("noCamera", "setScanWindow was called before initialize", null);
+            return;
+        }
+        try {
+            camera.setScanWindow(parseScanWindow(call.<Map<String, Object>>argument("scanWindow")));
+        } catch (IllegalArgumentException e) {
+            result.error("IllegalArgumentException", e.getMessage(), null);
+            return;
+        }
+        result.success(null);
+    }
+
+    void setCaptureProfile(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader camera = findReader(call);
+        if (camera == null) {
+            result.error("noCamera", "setCaptureProfile was called before initialize", null);
+            return;
+        }
+        if (camera.calibration != null) {
+            result.error("calibrationRunning", "setCaptureProfile was called during calibration", null);
+            return;
+        }
+        CaptureProfile profile;
+        try {
+            profile = parseCaptureProfile(call.<Map<String, Object>>argument("captureProfile"), camera.previewSize);
+        } catch (IllegalArgumentException e) {
+            result.error("IllegalArgumentException", e.getMessage(), null);
+            return;
+        }
+        camera.setCaptureProfile(profile, result);
+    }
+
+    void calibrate(@NonNull MethodCall call, @NonNull Result result) {
+        QrReader camera = findReader(call);
+        if (camera == null) {
+            result.error("noCamera", "calibrate was called before initialize", null);
+            return;
+        }
+        Number trialMs = call.argument("trialMs");
+        Integer maxSizes = call.argument("maxSizes");
+        Integer maxFpsRanges = call.argument("maxFpsRanges");
+        if (trialMs == null || trialMs.longValue() <= 0 || maxSizes == null || maxSizes < 1
+                || maxFpsRanges == null || maxFpsRanges < 1) {
+            result.error("IllegalArgumentException", "Invalid calibration: " + trialMs + "ms, "
+                    + maxSizes + " sizes, " + maxFpsRanges + " frame rate ranges", null);
+            return;
+        }
+        camera.calibrate(trialMs.longValue(), maxSizes, maxFpsRanges, result);
+    }
+
+    /**
+     * Returns the key the calibrated profile of {@code cameraName} on this device is stored under.
+     * Other devices of the same model share it, as they share the camera and its drivers.
+     */
+    private static String calibrationKey(String cameraName) {
+        return Build.MANUFACTURER + " " + Build.MODEL + "/" + cameraName;
+    }
+
+    /** Returns the profile calibrate() stored for {@code cameraName}, or null if there is none. */
+    @Nullable
+    private CaptureProfile loadCalibratedProfile(String cameraName) {
+        if (activity == null) {
+            return null;
+        }
+        String stored = activity.getSharedPreferences(CALIBRATION_PREFERENCES, Context.MODE_PRIVATE)
+                .getString(calibrationKey(cameraName), null);
+        if (stored == null) {
+            return null;
+        }
+        String[] fields = stored.split(",");
+        try {
+            if (fields.length != 6) {
+                throw new IllegalArgumentException("Expected 6 fields");
+            }
+            return new CaptureProfile(
+                    Integer.parseInt(fields[0]),
+                    Integer.parseInt(fields[1]),
+                    Float.parseFloat(fields[2]),
+                    Float.parseFloat(fields[3]),
+                    CaptureProfile.FocusMode.valueOf(fields[4]),
+                    Integer.parseInt(fields[5]));
+        } catch (IllegalArgumentException e) {
+            // Written by another version of the plugin; the next calibration replaces it.
+            Log.w(TAG, "Ignoring unreadable calibrated profile: " + stored, e);
+            return null;
+        }
+    }
+
+    private void storeCalibratedProfile(String cameraName, CaptureProfile profile) {
+        if (activity == null) {
+            return;
+        }
+        String stored = profile.getWidth() + "," + profile.getHeight() + "," + profile.getMinFps() + ","
+                + profile.getMaxFps() + "," + profile.getFocusMode().name() + "," + profile.getBufferCount();
+        activity.getSharedPreferences(CALIBRATION_PREFERENCES, Context.MODE_PRIVATE)
+                .edit()
+                .putString(calibrationKey(cameraName), stored)
+                .apply();
+    }
+
+    /** The inverse of {@link #parseCaptureProfile}, with a bufferCount of null for 0. */
+    private static Map<String, Object> captureProfileToMap(CaptureProfile profile) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("width", profile.getWidth());
+        map.put("height", profile.getHeight());
+        map.put("minFps", (double) profile.getMinFps());
+        map.put("maxFps", (double) profile.getMaxFps());
+        map.put("focusMode", serializeFocusMode(profile.getFocusMode()));
+        map.put("bufferCount", profile.getBufferCount() != 0 ? profile.getBufferCount() : null);
+        return map;
+    }
+
+    /**
+     * Reads a capture profile sent as a map of "width", "height", "minFps", "maxFps", "focusMode"
+     * and "bufferCount". Without a size the profile asks for {@code presetSize}, picked from the
+     * resolution preset; without a minimum frame rate it asks for the maximum one.
+     */
+    private static CaptureProfile parseCaptureProfile(@Nullable Map<String, Object> profile, Size presetSize) {
+        if (profile == null) {
+            profile = Collections.emptyMap();
+        }
+        Number width = (Number) profile.get("width");
+        Number height = (Number) profile.get("height");
+        Number maxFps = (Number) profile.get("maxFps");
+        Number minFps = (Number) profile.get("minFps");
+        Number bufferCount = (Number) profile.get("bufferCount");
+        float max = maxFps != null ? maxFps.floatValue() : CaptureProfile.DEFAULT.getMaxFps();
+        return new CaptureProfile(
+                width != null ? width.intValue() : presetSize.getWidth(),
+                height != null ? height.intValue() : presetSize.getHeight(),
+                minFps != null ? minFps.floatValue() : max,
+                max,
+                parseFocusMode((String) profile.get("focusMode")),
+                bufferCount != null ? bufferCount.intValue() : 0);
+    }
+
+    private static CaptureProfile.FocusMode parseFocusMode(@Nullable String focusMode) {
+        if (focusMode == null || "continuousVideo".equals(focusMode)) {
+            return CaptureProfile.FocusMode.CONTINUOUS_VIDEO;
+        }
+        if ("continuousPicture".equals(focusMode)) {
+            return CaptureProfile.FocusMode.CONTINUOUS_PICTURE;
+        }
+        if ("infinity".equals(focusMode)) {
+            return CaptureProfile.FocusMode.INFINITY;
+        }
+        throw new IllegalArgumentException("Unknown focus mode: " + focusMode);
+    }
+
+    private static String serializeFocusMode(CaptureProfile.FocusMode focusMode) {
+        switch (focusMode) {
+            case CONTINUOUS_PICTURE:
+                return "continuousPicture";
+            case INFINITY:
+                return "infinity";
+            default:
+                return "continuousVideo";
+        }
+    }
+
+    /**
+     * Reads a scan window sent as a map of normalized left, top, right and bottom coordinates. A
+     * missing map means the whole frame.
+     */
+    private static ScanWindow parseScanWindow(@Nullable Map<String, Object> window) {
+        if (window == null) {
+            return ScanWindow.FULL_FRAME;
+        }
+        return ScanWindow.of(
+                readFraction(window, "left"),
+                readFraction(window, "top"),
+                readFraction(window, "right"),
+                readFraction(window, "bottom"));
+    }
+
+    /**
+     * Creates the scheduler for the analysis cadence from the "latencyBudgetMs", "cpuShare" and
+     * "adaptFps" arguments, or returns null if no latency budget was given. The camera frame rate is
+     * that of {@code calibratedProfile} if there is one.
+     */
+    @Nullable
+    private static FrameScheduler createFrameScheduler(MethodCall call, @Nullable CaptureProfile calibratedProfile) {
+        Number latencyBudgetMs = call.argument("latencyBudgetMs");
+        if (latencyBudgetMs == null) {
+            return null;
+        }
+        Number cpuShare = call.argument("cpuShare");
+        Boolean adaptFps = call.argument("adaptFps");
+        Map<String, Object> captureProfile = call.argument("captureProfile");
+        Number maxFps = calibratedProfile != null ? Float.valueOf(calibratedProfile.getMaxFps())
+                : captureProfile != null ? (Number) captureProfile.get("maxFps") : null;
+        return new FrameScheduler(
+                Boolean.TRUE.equals(adaptFps) ? FrameScheduler.Mode.FPS_RANGE : FrameScheduler.Mode.SKIP_FRAMES,
+                latencyBudgetMs.longValue() * 1_000_000L,
+                cpuShare != null ? cpuShare.floatValue() : 0.5f,
+                maxFps != null ? maxFps.floatValue() : CameraSource.DEFAULT_REQUESTED_FPS);
+    }
+
+    /**
+     * Creates the cache that suppresses repeated codes from the "dedupTtlMs" and "dedupMaxEntries"
+     * arguments, or returns null if no time-to-live was given.
+     */
+    @Nullable
+    private static ScanDedupCache createDedupCache(MethodCall call) {
+        Number ttlMs = call.argument("dedupTtlMs");
+        if (ttlMs == null) {
+            return null;
+        }
+        Number maxEntries = call.argument("dedupMaxEntries");
+        return new ScanDedupCache(
+                maxEntries != null ? maxEntries.intValue() : DEFAULT_DEDUP_ENTRIES,
+                ttlMs.longValue() * 1_000_000L);
     }
 
-    void toggleFlash(@NonNull Result result) {
-        toggleFlash();
+    /**
+     * Creates the gate that keeps blurry and moving frames from the detector from the
+     * "minSharpness" and "maxMotion" arguments, or returns null if neither was given.
+     */
+    @Nullable
+    private static FrameQualityGate createQualityGate(MethodCall call) {
+        Number minSharpness = call.argument("minSharpness");
+        Number maxMotion = call.argument("maxMotion");
+        if (minSharpness == null && maxMotion == null) {
+            return null;
+        }
+        return new FrameQualityGate(
+                minSharpness != null ? minSharpness.floatValue() : 0f,
+                maxMotion != null ? maxMotion.floatValue() : 0f);
+    }
+
+    /**
+     * Creates the filter that skips frames of an unchanged scene from the "staticSceneTolerance"
+     * and "staticSceneRefreshMs" arguments, or returns null if no tolerance was given.
+     */
+    @Nullable
+    private static StaticSceneFilter createStaticSceneFilter(MethodCall call) {
+        Number tolerance = call.argument("staticSceneTolerance");
+        if (tolerance == null) {
+            return null;
+        }
+        Number refreshMs = call.argument("staticSceneRefreshMs");
+        long refreshNanos = (refreshMs != null ? refreshMs.longValue() : DEFAULT_STATIC_SCENE_REFRESH_MS) * 1_000_000L;
+        return new StaticSceneFilter(tolerance.floatValue(), refreshNanos);
+    }
+
+    /**
+     * Creates the tracker that restricts detection to the codes found in earlier frames from the
+     * "trackingMaxMisses" argument, or returns null if it was not given.
+     */
+    @Nullable
+    private static CodeTracker createCodeTracker(MethodCall call) {
+        Integer maxMisses = call.argument("trackingMaxMisses");
+        if (maxMisses == null) {
+            return null;
+        }
+        return new CodeTracker(maxMisses, TRACKING_MARGIN);
+    }
+
+    /**
+     * Creates the governor that steps scanning down while the device is hot or its battery low from
+     * the "governCapture" and "governorRecoveryMs" arguments, or returns null if it was not asked
+     * for.
+     */
+    @Nullable
+    private CaptureGovernor createCaptureGovernor(MethodCall call) {
+        if (!Boolean.TRUE.equals(call.<Boolean>argument("governCapture"))) {
+            return null;
+        }
+        Number recoveryMs = call.argument("governorRecoveryMs");
+        return new CaptureGovernor(
+                new DeviceConditions(activity),
+                (recoveryMs != null ? recoveryMs.longValue() : DEFAULT_GOVERNOR_RECOVERY_MS) * 1_000_000L);
+    }
+
+    private static Map<String, Object> governorState(CaptureGovernor governor) {
+        Map<String, Object> state = new HashMap<>();
+        state.put("step", governor.getStep());
+        state.put("thermalStatus", governor.getThermalStatus());
+        state.put("batteryLevel", governor.getBatteryLevel() >= 0f ? (double) governor.getBatteryLevel() : null);
+        state.put("charging", governor.isCharging());
+        return state;
+    }
+
+    private static VisionProcessorBase.ResultOrder parseResultOrder(@Nullable String resultOrder) {
+        return "asReady".equals(resultOrder)
+                ? VisionProcessorBase.ResultOrder.AS_READY
+                : VisionProcessorBase.ResultOrder.FRAME_ORDER;
+    }
+
+    /** Summarizes a stage latency histogram for Dart, in microseconds. */
+    private static Map<String, Object> histogramSnapshot(LatencyHistogram histogram) {
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("count", histogram.getCount());
+        snapshot.put("meanMicros", histogram.getMeanNanos() / 1000);
+        snapshot.put("p50Micros", histogram.getValueAtPercentile(50) / 1000);
+        snapshot.put("p90Micros", histogram.getValueAtPercentile(90) / 1000);
+        snapshot.put("p99Micros", histogram.getValueAtPercentile(99) / 1000);
+        snapshot.put("maxMicros", histogram.getMaxNanos() / 1000);
+        return snapshot;
+    }
+
+    private static float readFraction(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Missing scan window coordinate: " + key);
+        }
+        return ((Number) value).floatValue();
+    }
+
+    void toggleFlash(@NonNull MethodCall call, @NonNull Result result) {
+        toggleFlash(findReader(call));
         result.success(null);
     }
 
-    private void toggleFlash() {
-        camera.cameraSource.toggleFlash();
+    private void toggleFlash(@Nullable QrReader camera) {
+        if (camera == null || camera.session == null) {
+            return;
+        }
+        final FrameSource source = camera.cameraSource;
+        cameraThread.execute(camera.session, new Runnable() {
+            @Override
+            public void run() {
+                source.toggleFlash();
+            }
+        });
     }
 
 
@@ -313,18 +836,82 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
 
         private static final int PERMISSION_REQUESTS = 1;
 
-        private CameraSource cameraSource = null;
-        private CameraSourcePreview preview;
+        private FrameSource cameraSource = null;
+        // Set once the camera is being opened, see CameraThread.
+        @Nullable
+        private CameraThread.Session session;
+        // Set by close() and dispose(); an open still waiting for the permission is then dropped.
+        private boolean closed;
 
         private final FlutterView.SurfaceTextureEntry textureEntry;
         private EventChannel.EventSink eventSink;
 
+        // One of the two is set once the camera is open, depending on the decoder picked.
+        @Nullable
         BarcodeScanningProcessor barcodeScanningProcessor;
+        @Nullable
+        QrCodeProcessor qrCodeProcessor;
 
         ArrayList<Integer> reqFormats;
         private int sensorOrientation;
         private boolean isFrontFacing;
         private String cameraName;
+        private boolean useCamera2;
+        private ScanWindow scanWindow;
+        private int pyramidLevels;
+        private int maxInFlight;
+        private VisionProcessorBase.ResultOrder resultOrder;
+        @Nullable
+        private FrameScheduler frameScheduler;
+        // In continuous mode scanning never stops by itself, and codes are sent in batches: one per
+        // frame, or one per batchWindowMs if that is above zero.
+        private boolean continuous;
+        private long batchWindowMs;
+        @Nullable
+        private ScanDedupCache dedupCache;
+        @Nullable
+        private FrameQualityGate qualityGate;
+        @Nullable
+        private StaticSceneFilter staticSceneFilter;
+        @Nullable
+        private CodeTracker codeTracker;
+        // Sent with initialize, parsed once the preset's size is known.
+        @Nullable
+        private final Map<String, Object> captureProfileArgs;
+        // Stored by an earlier calibrate(); replaces captureProfileArgs if set.
+        @Nullable
+        private final CaptureProfile calibratedProfile;
+        private CaptureProfile captureProfile;
+        // Set while calibrate() runs its trials.
+        @Nullable
+        private CalibrationRun calibration;
+        // Cuts captureProfile and maxInFlight down while the device is hot or its battery low.
+        @Nullable
+        private final CaptureGovernor captureGovernor;
+        private final Runnable governorRunnable = new Runnable() {
+            @Override
+            public void run() {
+                pollGovernor();
+            }
+        };
+        // Whether frames are decoded by QrCodeProcessor instead of ML Kit.
+        private boolean javaDecoder;
+        private final Handler batchHandler = new Handler(Looper.getMainLooper());
+        // Codes are sent as binary records, see BarcodeRecordWriter.
+        private BasicMessageChannel<ByteBuffer> resultChannel;
+        private final BarcodeRecordWriter pendingCodes = new BarcodeRecordWriter(RESULT_BUFFER_BYTES);
+        // When detection completed on the oldest frame in pendingCodes.
+        private long pendingSinceNanos;
+        // Kept across camera restarts, until resetStats().
+        private final PipelineStats pipelineStats = new PipelineStats();
+        private boolean flushScheduled;
+        private final Runnable flushCodesRunnable = new Runnable() {
+            @Override
+            public void run() {
+                flushScheduled = false;
+                flushCodes();
+            }
+        };
         private Size captureSize;
         private Size previewSize;
         //        private CaptureRequest.Builder captureRequestBuilder;
@@ -336,54 +923,32 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
 //
         private boolean scanning;
 
-        private void startCameraSource() {
-            if (cameraSource != null) {
-                try {
-                    if (preview == null) {
-                        Log.d(TAG, "resume: Preview is null");
-                    } else {
-                        preview.start(cameraSource);
-                    }
-                } catch (IOException e) {
-                    Log.e(TAG, "Unable to start camera source.", e);
-                    cameraSource.release();
-                    cameraSource = null;
-                }
-            }
-        }
-
         //
-        QrReader(final String cameraName, final String resolutionPreset, final ArrayList<String> formats, @NonNull final Result result) {
-
-            // AVAILABLE FORMATS:
-            // enum CodeFormat { codabar, code39, code93, code128, ean8, ean13, itf, upca, upce, aztec, datamatrix, pdf417, qr }
-
-            Map<String, Integer> map = new HashMap<>();
-            map.put("codabar", Barcode.FORMAT_CODABAR);
-            map.put("code39", Barcode.FORMAT_CODE_39);
-            map.put("code93", Barcode.FORMAT_CODE_93);
-            map.put("code128", Barcode.FORMAT_CODE_128);
-            map.put("ean8", Barcode.FORMAT_EAN_8);
-            map.put("ean13", Barcode.FORMAT_EAN_13);
-            map.put("itf", Barcode.FORMAT_ITF);
-            map.put("upca", Barcode.FORMAT_UPC_A);
-            map.put("upce", Barcode.FORMAT_UPC_E);
-            map.put("aztec", Barcode.FORMAT_AZTEC);
-            map.put("datamatrix", Barcode.FORMAT_DATA_MATRIX);
-            map.put("pdf417", Barcode.FORMAT_PDF417);
-            map.put("qr", Barcode.FORMAT_QR_CODE);
-
-
-            reqFormats = new ArrayList<>();
-
-            for (String f :
-                    formats) {
-                if (map.get(f) != null) {
-                    reqFormats.add(map.get(f));
-                }
-            }
+        QrReader(final String cameraName, final String resolutionPreset, final ArrayList<String> formats, @Nullable final String cameraApi, final ScanWindow scanWindow, final int pyramidLevels, final int maxInFlight, final VisionProcessorBase.ResultOrder resultOrder, @Nullable final FrameScheduler frameScheduler, final boolean continuous, final long batchWindowMs, @Nullable final ScanDedupCache dedupCache, @Nullable final FrameQualityGate qualityGate, @Nullable final StaticSceneFilter staticSceneFilter, @Nullable final CodeTracker codeTracker, @Nullable final Map<String, Object> captureProfileArgs, @Nullable final CaptureProfile calibratedProfile, @Nullable final CaptureGovernor captureGovernor, final boolean javaDecoder, @NonNull final Result result) {
+
+            this.cameraName = cameraName;
+            this.scanWindow = scanWindow;
+            this.pyramidLevels = pyramidLevels;
+            this.maxInFlight = maxInFlight;
+            this.resultOrder = resultOrder;
+            this.frameScheduler = frameScheduler;
+            this.continuous = continuous;
+            this.batchWindowMs = batchWindowMs;
+            this.dedupCache = dedupCache;
+            this.qualityGate = qualityGate;
+            this.staticSceneFilter = staticSceneFilter;
+            this.codeTracker = codeTracker;
+            this.captureProfileArgs = captureProfileArgs;
+            this.calibratedProfile = calibratedProfile;
+            this.captureGovernor = captureGovernor;
+            this.javaDecoder = javaDecoder;
+            // Camera2 is opt-in; devices that only emulate it on the legacy HAL stay on Camera1.
+            useCamera2 = "camera2".equals(cameraApi) && Camera2FrameSource.isSupported(cameraManager, cameraName);
+
+            reqFormats = parseCodeFormats(formats);
 
             textureEntry = textureRegistry.createSurfaceTexture();
+            readers.put(textureEntry.id(), this);
 //barcodeScanningProcessor.onSuccess();
 //
             try {
@@ -413,15 +978,13 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
                                 == CameraMetadata.LENS_FACING_FRONT;
                 computeBestCaptureSize(streamConfigurationMap);
                 computeBestPreviewAndRecordingSize(streamConfigurationMap, minPreviewSize, captureSize);
+                captureProfile = calibratedProfile != null
+                        ? calibratedProfile : parseCaptureProfile(captureProfileArgs, previewSize);
 
-                if (cameraPermissionContinuation != null) {
-                    result.error("cameraPermission", "Camera permission request ongoing", null);
-                }
-                cameraPermissionContinuation =
+                Runnable cameraPermissionContinuation =
                         new Runnable() {
                             @Override
                             public void run() {
-                                cameraPermissionContinuation = null;
                                 if (!hasCameraPermission()) {
                                     result.error(
                                             "cameraPermission", "MediaRecorderCamera permission not granted", null);
@@ -430,11 +993,12 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
                                 open(result);
                             }
                         };
-                requestingPermission = false;
                 if (hasCameraPermission()) {
                     cameraPermissionContinuation.run();
                 } else {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && activity != null) {
+                    // Readers initialized while the dialog is up wait for the same answer.
+                    cameraPermissionContinuations.add(cameraPermissionContinuation);
+                    if (!requestingPermission && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && activity != null) {
                         requestingPermission = true;
                         activity.requestPermissions(
                             new String[]{Manifest.permission.CAMERA},
@@ -443,8 +1007,10 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
                     }
                 }
             } catch (CameraAccessException e) {
+                readers.remove(textureEntry.id());
                 result.error("CameraAccess", e.getMessage(), null);
             } catch (IllegalArgumentException e) {
+                readers.remove(textureEntry.id());
                 result.error("IllegalArgumentException", e.getMessage(), null);
             }
         }
@@ -519,36 +1085,172 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
 //
         @SuppressLint("MissingPermission")
         private void open(@Nullable final Result result) {
-            if (!hasCameraPermission()) {
+            if (closed) {
+                if (result != null)
+                    result.error("cameraCancelled", "Camera closed before it was open", null);
+            } else if (!hasCameraPermission()) {
                 if (result != null)
                     result.error("cameraPermission", "Camera permission not granted", null);
             } else {
 //                try {
-                cameraSource = new CameraSource(activity);
-                cameraSource.setFacing(isFrontFacing ? 1 : 0);
-                barcodeScanningProcessor = new BarcodeScanningProcessor(reqFormats);
-                barcodeScanningProcessor.callback = new OnCodeScanned() {
-                    @Override
-                    public void onCodeScanned(Barcode barcode) {
-                        if (camera.scanning) {
-                            Log.w(TAG, "onSuccess: " + barcode.getRawValue());
-                            channel.invokeMethod("updateCode", barcode.getRawValue());
-                            stopScanning();
+                if (captureGovernor != null) {
+                    // A device that is already hot starts on the cut-down profile.
+                    captureGovernor.evaluate(System.nanoTime());
+                }
+                // Every detection in flight holds on to one camera buffer or image.
+                if (useCamera2) {
+                    Camera2FrameSource camera2Source = new Camera2FrameSource(activity, cameraName);
+                    camera2Source.setMaxImages(maxInFlight + 2);
+                    camera2Source.setErrorListener(new Camera2FrameSource.ErrorListener() {
+                        @Override
+                        public void onCameraError(final String description) {
+                            // Failures before the camera is open fail initialize instead.
+                            mainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    sendErrorEvent(description);
+                                }
+                            });
+                        }
+                    });
+                    cameraSource = camera2Source;
+                } else {
+                    CameraSource camera1Source = new CameraSource(activity);
+                    camera1Source.setFacing(isFrontFacing ? 1 : 0);
+                    // The default number of buffers, unless more detections may hold on to one.
+                    camera1Source.setFrameBufferPool(maxInFlight > 1 ? maxInFlight + 3 : 4, Long.MAX_VALUE, FRAME_MEMORY_BUDGET);
+                    cameraSource = camera1Source;
+                }
+                try {
+                    // Only stored, as the source is not started yet.
+                    cameraSource.setCaptureProfile(governedProfile());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                cameraSource.setFrameScheduler(frameScheduler);
+                cameraSource.setPipelineStats(pipelineStats);
+                cameraSource.setStaticSceneFilter(staticSceneFilter);
+                // Frames are only delivered once scanning starts.
+                cameraSource.setPaused(!scanning);
+                if (frameScheduler != null) {
+                    frameScheduler.setListener(new FrameScheduler.Listener() {
+                        @Override
+                        public void onCadenceChanged(FrameScheduler scheduler) {
+                            sendCadenceEvent();
                         }
+                    });
+                }
+                if (javaDecoder) {
+                    if (reqFormats.size() != 1 || reqFormats.get(0) != Barcode.FORMAT_QR_CODE) {
+                        Log.w(TAG, "The java decoder only reads QR codes; other formats are ignored");
                     }
-                };
-                cameraSource.setMachineLearningFrameProcessor(barcodeScanningProcessor);
+                    qrCodeProcessor = new QrCodeProcessor();
+                    qrCodeProcessor.setScanWindow(scanWindow);
+                    qrCodeProcessor.setFrameScheduler(frameScheduler);
+                    qrCodeProcessor.setDedupCache(dedupCache);
+                    qrCodeProcessor.setPipelineStats(pipelineStats);
+                    qrCodeProcessor.setQualityGate(qualityGate);
+                    qrCodeProcessor.setCodeTracker(codeTracker);
+                    qrCodeProcessor.callback = new OnQrCodeDecoded() {
+                        @Override
+                        public void onQrCodeDecoded(QrCode code, long frameSequence, long detectedNanos) {
+                            if (calibration != null) {
+                                calibration.onFrameDecoded();
+                                return;
+                            }
+                            if (!scanning) {
+                                return;
+                            }
+                            if (pendingCodes.getRecordCount() == 0) {
+                                pendingSinceNanos = detectedNanos;
+                            }
+                            CharSequence text = code.getText();
+                            pendingCodes.add(Barcode.FORMAT_QR_CODE, QrCodeProcessor.valueType(text),
+                                    code.getCorners(), code.getRawBytes(), code.getRawLength(), text,
+                                    frameSequence, System.currentTimeMillis() * 1000);
+                            onCodesQueued();
+                        }
+                    };
+                    cameraSource.setMachineLearningFrameProcessor(qrCodeProcessor);
+                } else {
+                    barcodeScanningProcessor = new BarcodeScanningProcessor(scannerPool, reqFormats);
+                    barcodeScanningProcessor.setScanWindow(scanWindow);
+                    barcodeScanningProcessor.setPyramidLevels(pyramidLevels);
+                    barcodeScanningProcessor.setMaxInFlight(governedMaxInFlight());
+                    barcodeScanningProcessor.setDetectionLimiter(DETECTION_LIMITER);
+                    barcodeScanningProcessor.setResultOrder(resultOrder);
+                    barcodeScanningProcessor.setFrameScheduler(frameScheduler);
+                    barcodeScanningProcessor.setDedupCache(dedupCache);
+                    barcodeScanningProcessor.setPipelineStats(pipelineStats);
+                    barcodeScanningProcessor.setQualityGate(qualityGate);
+                    barcodeScanningProcessor.setCodeTracker(codeTracker);
+                    barcodeScanningProcessor.callback = new OnCodeScanned() {
+                        @Override
+                        public void onCodesScanned(List<Barcode> barcodes, long frameSequence, long detectedNanos) {
+                            if (calibration != null) {
+                                calibration.onFrameDecoded();
+                                return;
+                            }
+                            if (!scanning) {
+                                return;
+                            }
+                            if (continuous) {
+                                queueCodes(barcodes, frameSequence, detectedNanos);
+                                return;
+                            }
+                            Barcode barcode = barcodes.get(0);
+                            Log.w(TAG, "onSuccess: " + barcode.getRawValue());
+                            if (pendingCodes.getRecordCount() == 0) {
+                                pendingSinceNanos = detectedNanos;
+                            }
+                            pendingCodes.add(barcode, frameSequence, System.currentTimeMillis() * 1000);
+                            onCodesQueued();
+                        }
+                    };
+                    cameraSource.setMachineLearningFrameProcessor(barcodeScanningProcessor);
+                }
 //                    test.shouldThrottle.set(true);
-                preview = new CameraSourcePreview(activity, null, textureEntry.surfaceTexture());
+                // Opening the camera takes long enough to stall the UI, so it happens on the camera
+                // thread and the reply is sent once it is done.
+                session = cameraThread.start(cameraSource, textureEntry.surfaceTexture(), new CameraThread.Callback() {
+                    @Override
+                    public void onStarted(CameraThread.Session session) {
+                        registerEventChannel();
+                        resultChannel = new BasicMessageChannel<>(
+                                messenger, "fast_qr_reader_view/results" + textureEntry.id(), BinaryCodec.INSTANCE);
+                        if (captureGovernor != null) {
+                            mainHandler.postDelayed(governorRunnable, GOVERNOR_POLL_MS);
+                        }
+                        if (result == null) {
+                            return;
+                        }
+                        Map<String, Object> reply = new HashMap<>();
+                        reply.put("textureId", textureEntry.id());
+                        reply.put("previewWidth", cameraSource.getPreviewSize().getWidth());
+                        reply.put("previewHeight", cameraSource.getPreviewSize().getHeight());
+                        if (calibratedProfile != null) {
+                            reply.put("captureProfile", captureProfileToMap(calibratedProfile));
+                        }
+                        if (captureGovernor != null) {
+                            reply.put("governor", governorState(captureGovernor));
+                        }
+                        result.success(reply);
+                    }
 
-                startCameraSource();
-                registerEventChannel();
+                    @Override
+                    public void onFailed(CameraThread.Session session, Exception e) {
+                        Log.e(TAG, "Unable to start camera source.", e);
+                        if (result != null)
+                            result.error("CameraAccess", e.getMessage(), null);
+                    }
 
-                Map<String, Object> reply = new HashMap<>();
-                reply.put("textureId", textureEntry.id());
-                reply.put("previewWidth", cameraSource.getPreviewSize().getWidth());
-                reply.put("previewHeight", cameraSource.getPreviewSize().getHeight());
-                result.success(reply);
+                    @Override
+                    public void onCancelled(CameraThread.Session session) {
+                        // Superseded by another initialize, or disposed, before the camera was open.
+                        if (result != null)
+                            result.error("cameraCancelled", "Camera closed before it was open", null);
+                    }
+                });
 
 
 //                    imageReader =
@@ -692,6 +1394,557 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
 //                    null);
 //        }
 //
+        private void setScanWindow(ScanWindow scanWindow) {
+            this.scanWindow = scanWindow;
+            if (barcodeScanningProcessor != null) {
+                barcodeScanningProcessor.setScanWindow(scanWindow);
+            }
+            if (qrCodeProcessor != null) {
+                qrCodeProcessor.setScanWindow(scanWindow);
+            }
+        }
+
+        private void startScanning() {
+            scanning = true;
+            if (staticSceneFilter != null) {
+                // A code that stayed in view while scanning was stopped is read again at once.
+                staticSceneFilter.invalidate();
+            }
+            if (codeTracker != null) {
+                // Codes may have moved anywhere while scanning was stopped.
+                codeTracker.reset();
+            }
+            setPaused(false);
+        }
+
+        private void stopScanning() {
+            cancelBatch();
+            scanning = false;
+            setPaused(true);
+        }
+
+        /**
+         * Stops frame delivery from the camera while the preview keeps running, or starts it again.
+         * The frame processor ignores the frames that were already on their way. During calibration
+         * frames keep coming, and this only applies once it is done.
+         */
+        private void setPaused(final boolean paused) {
+            if (calibration == null) {
+                applyPaused(paused);
+            }
+        }
+
+        private void applyPaused(final boolean paused) {
+            if (barcodeScanningProcessor != null) {
+                barcodeScanningProcessor.shouldThrottle.set(paused);
+            }
+            if (qrCodeProcessor != null) {
+                qrCodeProcessor.shouldThrottle.set(paused);
+            }
+            if (session != null) {
+                final FrameSource source = cameraSource;
+                cameraThread.execute(session, new Runnable() {
+                    @Override
+                    public void run() {
+                        source.setPaused(paused);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Switches the camera to {@code profile} on the camera thread and replies with the preview
+         * size it ends up with, which may have changed.
+         */
+        private void setCaptureProfile(CaptureProfile profile, @NonNull Result result) {
+            captureProfile = profile;
+            applyCaptureProfile(result);
+        }
+
+        /**
+         * Applies captureProfile as the governor cuts it down, and replies like {@link
+         * #setCaptureProfile}.
+         */
+        private void applyCaptureProfile(@NonNull final Result result) {
+            final CaptureProfile profile = governedProfile();
+            if (session == null) {
+                // Applied once the camera is opened.
+                result.success(null);
+                return;
+            }
+            final FrameSource source = cameraSource;
+            cameraThread.execute(session, new Runnable() {
+                @Override
+                public void run() {
+                    IOException failure = null;
+                    try {
+                        source.setCaptureProfile(profile);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Unable to apply the capture profile.", e);
+                        failure = e;
+                    }
+                    final IOException error = failure;
+                    final int previewWidth = source.getPreviewSize().getWidth();
+                    final int previewHeight = source.getPreviewSize().getHeight();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (error != null) {
+                                result.error("CameraAccess", error.getMessage(), null);
+                                return;
+                            }
+                            Map<String, Object> reply = new HashMap<>();
+                            reply.put("previewWidth", previewWidth);
+                            reply.put("previewHeight", previewHeight);
+                            result.success(reply);
+                        }
+                    });
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    // The camera failed to open or is closed; there is nothing to apply it to.
+                    result.success(null);
+                }
+            });
+        }
+
+        private CaptureProfile governedProfile() {
+            return captureGovernor != null
+                    ? CaptureGovernor.governProfile(captureProfile, captureGovernor.getStep()) : captureProfile;
+        }
+
+        private int governedMaxInFlight() {
+            return captureGovernor != null
+                    ? CaptureGovernor.governMaxInFlight(maxInFlight, captureGovernor.getStep()) : maxInFlight;
+        }
+
+        /**
+         * Reads the device conditions and, if the governor moves to another step, applies it and
+         * reports it over the event channel with the preview size it ends up with. Calibration
+         * measures the profiles as they are, so conditions are not read while it runs.
+         */
+        private void pollGovernor() {
+            if (closed || captureGovernor == null) {
+                return;
+            }
+            mainHandler.postDelayed(governorRunnable, GOVERNOR_POLL_MS);
+            if (calibration != null || !captureGovernor.evaluate(System.nanoTime())) {
+                return;
+            }
+            final int step = captureGovernor.getStep();
+            Log.i(TAG, "Capture governor moved to step " + step);
+            if (barcodeScanningProcessor != null) {
+                barcodeScanningProcessor.setMaxInFlight(governedMaxInFlight());
+            }
+            applyCaptureProfile(new Result() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public void success(Object reply) {
+                    Map<String, Object> event = governorState(captureGovernor);
+                    if (reply != null) {
+                        event.putAll((Map<String, Object>) reply);
+                    }
+                    event.put("eventType", "governor");
+                    if (eventSink != null) {
+                        eventSink.success(event);
+                    }
+                }
+
+                @Override
+                public void error(String errorCode, String errorMessage, Object errorDetails) {
+                    sendErrorEvent(errorMessage);
+                }
+
+                @Override
+                public void notImplemented() {
+                }
+            });
+        }
+
+        /**
+         * Tries a few capture profiles picked from what the camera supports for {@code trialMs} each
+         * and switches to the one that decodes the most frames per second, or failing any code in
+         * view the one with the fastest detection. The winner is stored for this device and camera
+         * and used by the next initialize that asks for it. Frames are analyzed throughout, and
+         * codes found are not reported; the pipeline stats leave the trials out.
+         */
+        private void calibrate(long trialMs, final int maxSizes, final int maxFpsRanges, @NonNull Result result) {
+            if (calibration != null) {
+                result.error("calibrationRunning", "A calibration is already running", null);
+                return;
+            }
+            if (session == null || closed) {
+                result.error("noCamera", "calibrate was called before the camera was open", null);
+                return;
+            }
+            final CalibrationRun run = new CalibrationRun(trialMs, captureProfile, result);
+            calibration = run;
+            final FrameSource source = cameraSource;
+            final CaptureProfile base = captureProfile;
+            cameraThread.execute(session, new Runnable() {
+                @Override
+                public void run() {
+                    final List<CaptureProfile> candidates = CaptureCalibration.generateCandidates(
+                            source.getSupportedFrameSizes(), source.getSupportedFpsRanges(), base, maxSizes, maxFpsRanges);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            run.start(candidates);
+                        }
+                    });
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    run.fail("cameraCancelled", "Camera closed during calibration");
+                }
+            });
+        }
+
+        /**
+         * The trials of one calibrate() call. They run one after the other, driven from the main
+         * thread, and stop as soon as the reader closes.
+         */
+        private class CalibrationRun {
+            private final long trialMs;
+            private final CaptureProfile previousProfile;
+            private final Result result;
+            // Records the trials instead of the reader's pipelineStats.
+            private final PipelineStats stats = new PipelineStats();
+            private final List<CaptureCalibration.Trial> trials = new ArrayList<>();
+            private List<CaptureProfile> candidates;
+            private int nextCandidate;
+            @Nullable
+            private CaptureProfile trialProfile;
+            private long trialStartNanos;
+            private long decodedFrames;
+
+            CalibrationRun(long trialMs, CaptureProfile previousProfile, Result result) {
+                this.trialMs = trialMs;
+                this.previousProfile = previousProfile;
+                this.result = result;
+            }
+
+            void start(List<CaptureProfile> candidates) {
+                if (calibration != this) {
+                    return;
+                }
+                if (candidates.isEmpty()) {
+                    fail("calibrationFailed", "The camera reported no frame sizes to calibrate");
+                    return;
+                }
+                this.candidates = candidates;
+                setTrialStats(stats, null);
+                applyPaused(false);
+                runNextTrial();
+            }
+
+            /** Counts a frame with codes towards the running trial, if one is measuring. */
+            void onFrameDecoded() {
+                if (trialProfile != null) {
+                    decodedFrames++;
+                }
+            }
+
+            private void runNextTrial() {
+                if (calibration != this) {
+                    return;
+                }
+                if (nextCandidate == candidates.size()) {
+                    finish();
+                    return;
+                }
+                final CaptureProfile profile = candidates.get(nextCandidate++);
+                trialProfile = null;
+                final FrameSource source = cameraSource;
+                cameraThread.execute(session, new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean applied = true;
+                        try {
+                            source.setCaptureProfile(profile);
+                        } catch (IOException e) {
+                            Log.w(TAG, "Skipping a capture profile the camera rejected.", e);
+                            applied = false;
+                        }
+                        final boolean measure = applied;
+                        mainHandler.postDelayed(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (measure) {
+                                    startTrial(profile);
+                                } else {
+                                    runNextTrial();
+                                }
+                            }
+                        }, measure ? CALIBRATION_SETTLE_MS : 0);
+                    }
+                }, new Runnable() {
+                    @Override
+                    public void run() {
+                        fail("cameraCancelled", "Camera closed during calibration");
+                    }
+                });
+            }
+
+            private void startTrial(CaptureProfile profile) {
+                if (calibration != this) {
+                    return;
+                }
+                stats.reset();
+                trialProfile = profile;
+                trialStartNanos = System.nanoTime();
+                decodedFrames = 0;
+                mainHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        endTrial();
+                    }
+                }, trialMs);
+            }
+
+            private void endTrial() {
+                if (calibration != this) {
+                    return;
+                }
+                LatencyHistogram detectLatency = stats.getDetectLatency();
+                trials.add(new CaptureCalibration.Trial(
+                        trialProfile,
+                        System.nanoTime() - trialStartNanos,
+                        detectLatency.getCount(),
+                        decodedFrames,
+                        detectLatency.getValueAtPercentile(50)));
+                runNextTrial();
+            }
+
+            private void finish() {
+                CaptureCalibration.Trial best = CaptureCalibration.selectBest(trials);
+                end();
+                if (best == null) {
+                    setCaptureProfile(previousProfile, new ResultWithError(result,
+                            "calibrationFailed", "No frames were analyzed during calibration"));
+                    return;
+                }
+                storeCalibratedProfile(cameraName, best.getProfile());
+                final List<Map<String, Object>> trialReplies = new ArrayList<>();
+                for (CaptureCalibration.Trial trial : trials) {
+                    Map<String, Object> trialReply = new HashMap<>();
+                    trialReply.put("captureProfile", captureProfileToMap(trial.getProfile()));
+                    trialReply.put("durationMicros", trial.getDurationNanos() / 1000);
+                    trialReply.put("framesAnalyzed", trial.getFramesAnalyzed());
+                    trialReply.put("framesDecoded", trial.getFramesDecoded());
+                    trialReply.put("medianDetectMicros", trial.getMedianDetectNanos() / 1000);
+                    trialReplies.add(trialReply);
+                }
+                final Map<String, Object> profileReply = captureProfileToMap(best.getProfile());
+                setCaptureProfile(best.getProfile(), new Result() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public void success(Object reply) {
+                        Map<String, Object> calibrationReply = new HashMap<>();
+                        if (reply != null) {
+                            calibrationReply.putAll((Map<String, Object>) reply);
+                        }
+                        calibrationReply.put("captureProfile", profileReply);
+                        calibrationReply.put("trials", trialReplies);
+                        result.success(calibrationReply);
+                    }
+
+                    @Override
+                    public void error(String errorCode, String errorMessage, Object errorDetails) {
+                        result.error(errorCode, errorMessage, errorDetails);
+                    }
+
+                    @Override
+                    public void notImplemented() {
+                        result.notImplemented();
+                    }
+                });
+            }
+
+            void fail(String errorCode, String errorMessage) {
+                if (calibration != this) {
+                    return;
+                }
+                end();
+                result.error(errorCode, errorMessage, null);
+            }
+
+            /** Hands the pipeline back to scanning as it was before the calibration. */
+            private void end() {
+                calibration = null;
+                if (candidates != null) {
+                    setTrialStats(pipelineStats, dedupCache);
+                    applyPaused(!scanning);
+                }
+            }
+        }
+
+        /** Replies with an error once the call it wraps succeeds. */
+        private class ResultWithError implements Result {
+            private final Result result;
+            private final String errorCode;
+            private final String errorMessage;
+
+            ResultWithError(Result result, String errorCode, String errorMessage) {
+                this.result = result;
+                this.errorCode = errorCode;
+                this.errorMessage = errorMessage;
+            }
+
+            @Override
+            public void success(Object reply) {
+                result.error(errorCode, errorMessage, null);
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+                result.error(errorCode, errorMessage, errorDetails);
+            }
+
+            @Override
+            public void notImplemented() {
+                result.notImplemented();
+            }
+        }
+
+        /** Points the source and processor at {@code stats} and {@code dedup}. */
+        private void setTrialStats(PipelineStats stats, @Nullable ScanDedupCache dedup) {
+            cameraSource.setPipelineStats(stats);
+            if (barcodeScanningProcessor != null) {
+                barcodeScanningProcessor.setPipelineStats(stats);
+                barcodeScanningProcessor.setDedupCache(dedup);
+            }
+            if (qrCodeProcessor != null) {
+                qrCodeProcessor.setPipelineStats(stats);
+                qrCodeProcessor.setDedupCache(dedup);
+            }
+        }
+
+        /** Returns the counters and stage latencies of this reader's scanning pipeline. */
+        private Map<String, Object> getStats() {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("framesReceived", pipelineStats.getFramesReceived());
+            stats.put("framesThrottled", pipelineStats.getFramesThrottled());
+            stats.put("framesDropped", pipelineStats.getFramesDropped());
+            stats.put("framesBusy", pipelineStats.getFramesBusy());
+            stats.put("framesBlurry", pipelineStats.getFramesBlurry());
+            stats.put("framesMoving", pipelineStats.getFramesMoving());
+            stats.put("framesStatic", pipelineStats.getFramesStatic());
+            stats.put("framesTracked", pipelineStats.getFramesTracked());
+            stats.put("detectorFailures", pipelineStats.getDetectorFailures());
+            stats.put("queueWait", histogramSnapshot(pipelineStats.getQueueWait()));
+            stats.put("detectLatency", histogramSnapshot(pipelineStats.getDetectLatency()));
+            stats.put("deliveryLatency", histogramSnapshot(pipelineStats.getDeliveryLatency()));
+            ScanDedupCache dedup = dedupCache;
+            if (dedup != null) {
+                stats.put("dedupReported", dedup.getReportedCount());
+                stats.put("dedupSuppressed", dedup.getSuppressedCount());
+                stats.put("dedupEvicted", dedup.getEvictedCount());
+            }
+            return stats;
+        }
+
+        private void resetStats() {
+            pipelineStats.reset();
+            ScanDedupCache dedup = dedupCache;
+            if (dedup != null) {
+                dedup.resetStats();
+            }
+        }
+
+        /** Returns the analysis cadence picked by the frame scheduler, or null without one. */
+        @Nullable
+        private Map<String, Object> getScanCadence() {
+            FrameScheduler scheduler = frameScheduler;
+            if (scheduler == null) {
+                return null;
+            }
+            Map<String, Object> cadence = new HashMap<>();
+            cadence.put("frameInterval", scheduler.getFrameInterval());
+            cadence.put("targetFps", (double) scheduler.getTargetFps());
+            cadence.put("analysisFps", (double) scheduler.getAnalysisFps());
+            cadence.put("detectorLatencyMicros", scheduler.getDetectorLatencyNanos() / 1000);
+            cadence.put("queueAgeMicros", scheduler.getQueueAgeNanos() / 1000);
+            return cadence;
+        }
+
+        /**
+         * Posts the scan cadence to Dart. Called from the detection and camera threads, which may
+         * run on after the activity is detached or the reader is closed.
+         */
+        private void sendCadenceEvent() {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (closed) {
+                        return;
+                    }
+                    Map<String, Object> cadence = getScanCadence();
+                    if (eventSink != null && cadence != null) {
+                        cadence.put("eventType", "cadence");
+                        eventSink.success(cadence);
+                    }
+                }
+            });
+        }
+
+        /** Adds the codes of one frame to the next batch. Called on the main thread. */
+        private void queueCodes(List<Barcode> barcodes, long frameSequence, long detectedNanos) {
+            if (pendingCodes.getRecordCount() == 0) {
+                pendingSinceNanos = detectedNanos;
+            }
+            long timestampMicros = System.currentTimeMillis() * 1000;
+            for (int i = 0; i < barcodes.size(); i++) {
+                pendingCodes.add(barcodes.get(i), frameSequence, timestampMicros);
+            }
+            scheduleFlush();
+        }
+
+        /**
+         * Sends codes just added to pendingCodes: right away and stopping there in single mode, as
+         * part of the next batch in continuous mode.
+         */
+        private void onCodesQueued() {
+            if (continuous) {
+                scheduleFlush();
+                return;
+            }
+            flushCodes();
+            stopScanning();
+        }
+
+        private void scheduleFlush() {
+            if (batchWindowMs <= 0) {
+                flushCodes();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                batchHandler.postDelayed(flushCodesRunnable, batchWindowMs);
+            }
+        }
+
+        /** Sends all queued codes as one message. */
+        private void flushCodes() {
+            if (pendingCodes.getRecordCount() == 0) {
+                return;
+            }
+            if (resultChannel != null) {
+                resultChannel.send(pendingCodes.message());
+                pipelineStats.getDeliveryLatency().record(System.nanoTime() - pendingSinceNanos);
+            }
+            pendingCodes.clear();
+        }
+
+        /** Sends what is queued right away, e.g. when scanning stops. */
+        private void cancelBatch() {
+            if (flushScheduled) {
+                batchHandler.removeCallbacks(flushCodesRunnable);
+                flushScheduled = false;
+            }
+            flushCodes();
+        }
+
         private void sendErrorEvent(String errorDescription) {
             if (eventSink != null) {
                 Map<String, String> event = new HashMap<>();
@@ -722,30 +1975,40 @@ public class FastQrReaderViewPlugin implements MethodCallHandler, PluginRegistry
 //        }
 
         private void close() {
-            if (preview != null) {
-                preview.stop();
+            closed = true;
+            cancelBatch();
+            mainHandler.removeCallbacks(governorRunnable);
+            if (calibration != null) {
+                calibration.fail("cameraCancelled", "Camera closed during calibration");
             }
-
-            if (cameraSource != null) {
-                cameraSource.release();
+            if (session != null) {
+                cameraThread.release(session, null);
             }
 
-            camera = null;
-
+            readers.remove(textureEntry.id());
         }
 
-        private void dispose() {
-//            close();
-            textureEntry.release();
-//            if (camera != null) {
-            if (preview != null) {
-                preview.stop();
+        private void dispose(@NonNull final Result result) {
+            closed = true;
+            readers.remove(textureEntry.id());
+            cancelBatch();
+            mainHandler.removeCallbacks(governorRunnable);
+            if (calibration != null) {
+                calibration.fail("cameraCancelled", "Camera closed during calibration");
             }
-
-            if (cameraSource != null) {
-                cameraSource.release();
+            // The texture stays alive until the camera no longer renders into it.
+            Runnable onReleased = new Runnable() {
+                @Override
+                public void run() {
+                    textureEntry.release();
+                    result.success(null);
+                }
+            };
+            if (session != null) {
+                cameraThread.release(session, onReleased);
+            } else {
+                onReleased.run();
             }
-//            }
         }
     }
 }
@@ -0,0 +1,762 @@
+package co.apperto.fastqrreaderview.common;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+import android.view.WindowManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Camera2 based {@link FrameSource}. Frames are captured into an {@link ImageReader} in {@link
+ * ImageFormat#YUV_420_888} and the {@link Image}s are handed to {@link
+ * VisionImageProcessor#process(Image, int, int, ImageLease)} as they are, without copying them into
+ * NV21 arrays.
+ *
+ * <p>{@link #start} returns once the capture session is configured, and throws if the camera
+ * fails to open or configure before that. Failures of the running camera, such as another app
+ * taking it over, go to the {@link ErrorListener}.
+ *
+ * <p>All camera callbacks and frame delivery happen on a dedicated background thread. Images may
+ * outlive both: a detection still running when the source stops keeps reading its image, so a
+ * stopped {@link ImageReader} is only closed once every image lent out of it has been released.
+ */
+public class Camera2FrameSource implements FrameSource {
+  private static final String TAG = "MIDemoApp:Camera2Source";
+
+  /**
+   * One image held by the detector, one being filled by the camera and one spare so that {@link
+   * ImageReader#acquireLatestImage()} can skip ahead.
+   */
+  private static final int DEFAULT_MAX_IMAGES = 3;
+
+  /** How long {@link #start} waits for the camera to open and the capture session to configure. */
+  private static final long START_TIMEOUT_MS = 3000;
+
+  /** Told on the camera thread when the running camera fails. */
+  public interface ErrorListener {
+    void onCameraError(String description);
+  }
+
+  private final Activity activity;
+  private final CameraManager cameraManager;
+  private final String cameraId;
+
+  // What the caller asks for, see CameraSource.
+  private CaptureProfile captureProfile = CaptureProfile.DEFAULT;
+
+  private final Object processorLock = new Object();
+  // @GuardedBy("processorLock")
+  private VisionImageProcessor frameProcessor;
+
+  @Nullable private volatile FrameScheduler frameScheduler;
+
+  @Nullable private volatile PipelineStats pipelineStats;
+
+  @Nullable private volatile StaticSceneFilter staticSceneFilter;
+
+  private int facing = CameraSource.CAMERA_FACING_BACK;
+  private int sensorOrientation;
+  private Size previewSize;
+  // What the camera supports, read in start().
+  private android.util.Size[] outputSizes;
+  @Nullable private Range<Integer>[] fpsRanges;
+  @Nullable private int[] afModes;
+  private SurfaceTexture surfaceTexture;
+
+  private HandlerThread cameraThread;
+  private Handler cameraHandler;
+  private ImageReader imageReader;
+  // Counts the images lent out of imageReader, which it closes once they are all back.
+  private ReaderLease readerLease;
+  private Surface previewSurface;
+  private CameraDevice cameraDevice;
+  private CameraCaptureSession captureSession;
+  private CaptureRequest.Builder captureRequestBuilder;
+  private boolean torchOn;
+  // While paused the repeating request only targets the preview, so the ImageReader gets no images.
+  private boolean paused;
+  private int maxImages = DEFAULT_MAX_IMAGES;
+  // Counted down once the capture session of the current start() is configured, or the camera
+  // failed before that.
+  @Nullable private CountDownLatch sessionReady;
+  // Why the current start() failed, if it did.
+  @Nullable private String startFailure;
+  @Nullable private volatile ErrorListener errorListener;
+
+  public Camera2FrameSource(Activity activity, String cameraId) {
+    this.activity = activity;
+    this.cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+    this.cameraId = cameraId;
+  }
+
+  /**
+   * Returns whether Camera2 is worth using for {@code cameraId}. Devices with a LEGACY hardware
+   * level only emulate Camera2 on top of the old camera HAL, so {@link CameraSource} is used there.
+   */
+  public static boolean isSupported(CameraManager cameraManager, String cameraId) {
+    try {
+      Integer level =
+          cameraManager
+              .getCameraCharacteristics(cameraId)
+              .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+      return level != null && level != CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+    } catch (CameraAccessException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Sets how many images the {@link ImageReader} holds. Every detection in flight keeps one, and the
+   * camera needs two more to keep streaming. Takes effect the next time the source is started.
+   */
+  public synchronized void setMaxImages(int maxImages) {
+    if (maxImages < DEFAULT_MAX_IMAGES) {
+      throw new IllegalArgumentException("Invalid number of images: " + maxImages);
+    }
+    this.maxImages = maxImages;
+  }
+
+  /** Sets who is told about failures of the running camera, or no one if null. */
+  public void setErrorListener(@Nullable ErrorListener listener) {
+    errorListener = listener;
+  }
+
+  /**
+   * Opens the camera and waits until its capture session is configured, so that a source that
+   * returns is delivering frames.
+   *
+   * @throws IOException if the camera could not be opened or configured
+   */
+  @SuppressLint("MissingPermission")
+  @RequiresPermission(Manifest.permission.CAMERA)
+  @Override
+  public Camera2FrameSource start(SurfaceTexture surfaceTexture) throws IOException {
+    CountDownLatch ready;
+    synchronized (this) {
+      if (cameraThread != null) {
+        return this;
+      }
+      ready = open(surfaceTexture);
+    }
+    // The camera callbacks take the lock, so it is not held while waiting for them.
+    String failure;
+    try {
+      failure =
+          ready.await(START_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+              ? getStartFailure()
+              : "Timed out opening camera " + cameraId + ".";
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = "Interrupted while opening camera " + cameraId + ".";
+    }
+    if (failure != null) {
+      stop();
+      throw new IOException(failure);
+    }
+    return this;
+  }
+
+  private synchronized String getStartFailure() {
+    return startFailure;
+  }
+
+  /**
+   * Starts opening the camera, which continues on the camera thread.
+   *
+   * @return the latch counted down once the capture session is configured or the camera failed
+   */
+  @SuppressLint("MissingPermission")
+  private CountDownLatch open(SurfaceTexture surfaceTexture) throws IOException {
+    CameraCharacteristics characteristics;
+    try {
+      characteristics = cameraManager.getCameraCharacteristics(cameraId);
+    } catch (CameraAccessException e) {
+      throw new IOException("Could not read camera characteristics.", e);
+    }
+    Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+    facing =
+        lensFacing != null && lensFacing == CameraMetadata.LENS_FACING_FRONT
+            ? CameraSource.CAMERA_FACING_FRONT
+            : CameraSource.CAMERA_FACING_BACK;
+    Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+    sensorOrientation = orientation != null ? orientation : 0;
+
+    StreamConfigurationMap map =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    if (map == null) {
+      throw new IOException("Could not find stream configurations.");
+    }
+    outputSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+    fpsRanges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+    afModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+    previewSize =
+        selectPreviewSize(outputSizes, captureProfile.getWidth(), captureProfile.getHeight());
+    if (previewSize == null) {
+      throw new IOException("Could not find suitable preview size.");
+    }
+    this.surfaceTexture = surfaceTexture;
+
+    cameraThread = new HandlerThread("Camera2FrameSource");
+    cameraThread.start();
+    cameraHandler = new Handler(cameraThread.getLooper());
+
+    surfaceTexture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
+    previewSurface = new Surface(surfaceTexture);
+    imageReader =
+        ImageReader.newInstance(
+            previewSize.getWidth(),
+            previewSize.getHeight(),
+            ImageFormat.YUV_420_888,
+            getImageCount());
+    readerLease = new ReaderLease(imageReader);
+    imageReader.setOnImageAvailableListener(new ImageAvailableListener(readerLease), cameraHandler);
+
+    CountDownLatch ready = new CountDownLatch(1);
+    sessionReady = ready;
+    startFailure = null;
+    try {
+      cameraManager.openCamera(cameraId, new CameraStateCallback(), cameraHandler);
+    } catch (CameraAccessException | SecurityException e) {
+      startFailure = "Could not open camera " + cameraId + ": " + e.getMessage();
+      ready.countDown();
+    }
+    return ready;
+  }
+
+  @Override
+  public void stop() {
+    HandlerThread thread;
+    synchronized (this) {
+      failStart("Camera " + cameraId + " was stopped while opening.");
+      if (captureSession != null) {
+        captureSession.close();
+        captureSession = null;
+      }
+      if (cameraDevice != null) {
+        cameraDevice.close();
+        cameraDevice = null;
+      }
+      captureRequestBuilder = null;
+      thread = cameraThread;
+      cameraThread = null;
+      cameraHandler = null;
+    }
+
+    if (thread != null) {
+      // Lets pending callbacks run before the reader is closed underneath them. This must happen
+      // without holding any lock the callbacks take.
+      thread.quitSafely();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Log.d(TAG, "Camera thread interrupted on stop.");
+      }
+    }
+
+    synchronized (this) {
+      if (imageReader != null) {
+        // Detections in flight may still read images of the reader, see ReaderLease.
+        readerLease.retire();
+        readerLease = null;
+        imageReader = null;
+      }
+      if (previewSurface != null) {
+        previewSurface.release();
+        previewSurface = null;
+      }
+    }
+  }
+
+  @Override
+  public void release() {
+    stop();
+    synchronized (processorLock) {
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+      }
+    }
+  }
+
+  @Override
+  public void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
+    synchronized (processorLock) {
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+      }
+      frameProcessor = processor;
+    }
+  }
+
+  @Override
+  public Size getPreviewSize() {
+    return previewSize;
+  }
+
+  @Override
+  public synchronized List<int[]> getSupportedFrameSizes() {
+    List<int[]> sizes = new ArrayList<>();
+    if (cameraThread != null) {
+      for (android.util.Size size : outputSizes) {
+        sizes.add(new int[] {size.getWidth(), size.getHeight()});
+      }
+    }
+    return sizes;
+  }
+
+  @Override
+  public synchronized List<int[]> getSupportedFpsRanges() {
+    List<int[]> ranges = new ArrayList<>();
+    if (cameraThread != null && fpsRanges != null) {
+      for (Range<Integer> range : fpsRanges) {
+        ranges.add(new int[] {range.getLower() * 1000, range.getUpper() * 1000});
+      }
+    }
+    return ranges;
+  }
+
+  @Override
+  public int getCameraFacing() {
+    return facing;
+  }
+
+  /**
+   * The capture session keeps its frame rate, so the scheduler only skips images in either mode.
+   */
+  @Override
+  public void setFrameScheduler(@Nullable FrameScheduler scheduler) {
+    frameScheduler = scheduler;
+  }
+
+  /**
+   * Images go to the processor on the camera thread, so there is no queue wait to record. Images
+   * the {@link ImageReader} skips are not seen and not counted.
+   */
+  @Override
+  public void setPipelineStats(@Nullable PipelineStats stats) {
+    pipelineStats = stats;
+  }
+
+  /** Fingerprints the luma plane of each image on the camera thread. */
+  @Override
+  public void setStaticSceneFilter(@Nullable StaticSceneFilter filter) {
+    staticSceneFilter = filter;
+  }
+
+  /**
+   * Applies a new frame rate range or focus mode to the running capture session right away. A new
+   * frame size or image count needs a new {@link ImageReader} and so a new capture session, which
+   * restarts the source.
+   */
+  @Override
+  public void setCaptureProfile(CaptureProfile profile) throws IOException {
+    SurfaceTexture texture;
+    synchronized (this) {
+      captureProfile = profile;
+      if (cameraThread == null) {
+        return;
+      }
+      Size size = selectPreviewSize(outputSizes, profile.getWidth(), profile.getHeight());
+      if (size == null) {
+        throw new IOException("Could not find suitable preview size.");
+      }
+      if (size.equals(previewSize) && getImageCount() == imageReader.getMaxImages()) {
+        if (captureRequestBuilder == null) {
+          // Applied when the capture session is started.
+          return;
+        }
+        applyCaptureProfile(captureRequestBuilder);
+        if (captureSession != null) {
+          try {
+            captureSession.setRepeatingRequest(captureRequestBuilder.build(), null, cameraHandler);
+          } catch (CameraAccessException e) {
+            throw new IOException("Could not apply the capture profile.", e);
+          }
+        }
+        return;
+      }
+      texture = surfaceTexture;
+    }
+    stop();
+    start(texture);
+  }
+
+  private int getImageCount() {
+    int bufferCount = captureProfile.getBufferCount();
+    return bufferCount != 0 ? bufferCount : maxImages;
+  }
+
+  /** Sets the frame rate range and focus mode of the profile as far as the camera supports them. */
+  private void applyCaptureProfile(CaptureRequest.Builder builder) {
+    if (fpsRanges != null && fpsRanges.length > 0) {
+      List<int[]> ranges = new ArrayList<>(fpsRanges.length);
+      for (Range<Integer> range : fpsRanges) {
+        // Scaled by 1000 like Camera1 ranges.
+        ranges.add(new int[] {range.getLower() * 1000, range.getUpper() * 1000});
+      }
+      int[] selected =
+          PreviewSelection.selectFpsRange(
+              ranges, captureProfile.getMinFps(), captureProfile.getMaxFps());
+      builder.set(
+          CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+          fpsRanges[ranges.indexOf(selected)]);
+    }
+    switch (captureProfile.getFocusMode()) {
+      case CONTINUOUS_PICTURE:
+        builder.set(
+            CaptureRequest.CONTROL_AF_MODE,
+            supportsAfMode(CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE)
+                ? CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE
+                : CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+        break;
+      case INFINITY:
+        builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_OFF);
+        // Zero diopters is infinity; fixed-focus lenses ignore it.
+        builder.set(CaptureRequest.LENS_FOCUS_DISTANCE, 0f);
+        break;
+      default:
+        builder.set(
+            CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+        break;
+    }
+  }
+
+  private boolean supportsAfMode(int mode) {
+    if (afModes == null) {
+      return false;
+    }
+    for (int afMode : afModes) {
+      if (afMode == mode) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized void toggleFlash() {
+    if (captureSession == null || captureRequestBuilder == null) {
+      return;
+    }
+    torchOn = !torchOn;
+    captureRequestBuilder.set(
+        CaptureRequest.FLASH_MODE,
+        torchOn ? CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+    try {
+      captureSession.setRepeatingRequest(captureRequestBuilder.build(), null, cameraHandler);
+    } catch (CameraAccessException e) {
+      Log.e(TAG, "Failed to toggle the torch: " + e);
+    }
+  }
+
+  /**
+   * Drops the {@link ImageReader} from the repeating request while paused and adds it back when
+   * resumed. The capture session keeps both outputs, so this takes effect within a frame and does
+   * not reconfigure the camera.
+   */
+  @Override
+  public synchronized void setPaused(boolean paused) {
+    if (this.paused == paused) {
+      return;
+    }
+    this.paused = paused;
+    if (captureRequestBuilder == null || imageReader == null) {
+      // Applied when the capture session is started.
+      return;
+    }
+    if (paused) {
+      captureRequestBuilder.removeTarget(imageReader.getSurface());
+    } else {
+      captureRequestBuilder.addTarget(imageReader.getSurface());
+    }
+    if (captureSession == null) {
+      return;
+    }
+    try {
+      captureSession.setRepeatingRequest(captureRequestBuilder.build(), null, cameraHandler);
+    } catch (CameraAccessException e) {
+      Log.e(TAG, "Failed to " + (paused ? "pause" : "resume") + " frame delivery: " + e);
+    }
+  }
+
+  /**
+   * Selects the output size closest to the desired one, using the same metric as {@link
+   * CameraSource}: the sum of the differences in width and height.
+   */
+  @Nullable
+  private static Size selectPreviewSize(
+      android.util.Size[] sizes, int desiredWidth, int desiredHeight) {
+    if (sizes == null) {
+      return null;
+    }
+    android.util.Size selected = null;
+    int minDiff = Integer.MAX_VALUE;
+    for (android.util.Size size : sizes) {
+      int diff =
+          Math.abs(size.getWidth() - desiredWidth) + Math.abs(size.getHeight() - desiredHeight);
+      if (diff < minDiff) {
+        selected = size;
+        minDiff = diff;
+      }
+    }
+    return selected == null ? null : new Size(selected.getWidth(), selected.getHeight());
+  }
+
+  /** Rotation of the frames relative to the display, in degrees. */
+  private int computeRotation() {
+    WindowManager windowManager = (WindowManager) activity.getSystemService(Context.WINDOW_SERVICE);
+    int degrees = windowManager.getDefaultDisplay().getRotation() * 90;
+    if (facing == CameraSource.CAMERA_FACING_FRONT) {
+      return (sensorOrientation + degrees) % 360;
+    }
+    return (sensorOrientation - degrees + 360) % 360;
+  }
+
+  /**
+   * Fails the start in progress with {@code description}, or tells the {@link ErrorListener} if
+   * the source was started already.
+   */
+  private void onCameraFailed(String description) {
+    Log.e(TAG, description);
+    if (failStart(description)) {
+      return;
+    }
+    ErrorListener listener = errorListener;
+    if (listener != null) {
+      listener.onCameraError(description);
+    }
+  }
+
+  /** Fails the start in progress, if any, and returns whether there was one. */
+  private synchronized boolean failStart(String description) {
+    if (sessionReady == null) {
+      return false;
+    }
+    startFailure = description;
+    sessionReady.countDown();
+    sessionReady = null;
+    return true;
+  }
+
+  private synchronized void startCaptureSession(CameraDevice device) {
+    if (cameraDevice != device || imageReader == null) {
+      return;
+    }
+    try {
+      captureRequestBuilder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+      captureRequestBuilder.addTarget(previewSurface);
+      if (!paused) {
+        captureRequestBuilder.addTarget(imageReader.getSurface());
+      }
+      captureRequestBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+      applyCaptureProfile(captureRequestBuilder);
+      device.createCaptureSession(
+          Arrays.asList(previewSurface, imageReader.getSurface()),
+          new CaptureSessionCallback(),
+          cameraHandler);
+    } catch (CameraAccessException e) {
+      onCameraFailed("Failed to configure the camera for preview: " + e.getMessage());
+    }
+  }
+
+  private class CameraStateCallback extends CameraDevice.StateCallback {
+    @Override
+    public void onOpened(@NonNull CameraDevice device) {
+      synchronized (Camera2FrameSource.this) {
+        if (cameraThread == null) {
+          // Stopped while opening.
+          device.close();
+          return;
+        }
+        cameraDevice = device;
+      }
+      startCaptureSession(device);
+    }
+
+    @Override
+    public void onDisconnected(@NonNull CameraDevice device) {
+      if (closeDevice(device)) {
+        onCameraFailed("Camera " + cameraId + " was disconnected.");
+      }
+    }
+
+    @Override
+    public void onError(@NonNull CameraDevice device, int error) {
+      if (closeDevice(device)) {
+        onCameraFailed("Camera " + cameraId + " failed with error " + error + ".");
+      }
+    }
+
+    /** Closes {@code device} and returns whether it was the current one, not a stopped one. */
+    private boolean closeDevice(CameraDevice device) {
+      synchronized (Camera2FrameSource.this) {
+        device.close();
+        if (cameraDevice != device) {
+          return false;
+        }
+        cameraDevice = null;
+        captureSession = null;
+        return true;
+      }
+    }
+  }
+
+  private class CaptureSessionCallback extends CameraCaptureSession.StateCallback {
+    @Override
+    public void onConfigured(@NonNull CameraCaptureSession session) {
+      synchronized (Camera2FrameSource.this) {
+        if (cameraDevice == null || captureRequestBuilder == null) {
+          session.close();
+          return;
+        }
+        captureSession = session;
+        try {
+          session.setRepeatingRequest(captureRequestBuilder.build(), null, cameraHandler);
+        } catch (CameraAccessException e) {
+          onCameraFailed("Failed to start the preview: " + e.getMessage());
+          return;
+        }
+        if (sessionReady != null) {
+          sessionReady.countDown();
+          sessionReady = null;
+        }
+      }
+    }
+
+    @Override
+    public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+      onCameraFailed("Failed to configure the camera for preview.");
+    }
+  }
+
+  /**
+   * Keeps track of the images lent out of one {@link ImageReader} and closes the reader once it is
+   * retired and the last of them is released. Closing it earlier would free the planes of images a
+   * detector is still reading.
+   */
+  private static final class ReaderLease implements ImageLease {
+    private final ImageReader reader;
+    // @GuardedBy("this")
+    private int lentImages;
+    // @GuardedBy("this")
+    private boolean retired;
+
+    ReaderLease(ImageReader reader) {
+      this.reader = reader;
+    }
+
+    synchronized void lend() {
+      lentImages++;
+    }
+
+    @Override
+    public void release(Image image) {
+      image.close();
+      synchronized (this) {
+        lentImages--;
+        if (retired && lentImages == 0) {
+          reader.close();
+        }
+      }
+    }
+
+    /** Closes the reader now if no image is lent out, otherwise once the last one is released. */
+    synchronized void retire() {
+      retired = true;
+      if (lentImages == 0) {
+        reader.close();
+      }
+    }
+  }
+
+  /** Called on the camera thread when the {@link ImageReader} has a new frame. */
+  private class ImageAvailableListener implements ImageReader.OnImageAvailableListener {
+    private final ReaderLease lease;
+
+    ImageAvailableListener(ReaderLease lease) {
+      this.lease = lease;
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+      Image image;
+      try {
+        image = reader.acquireLatestImage();
+      } catch (IllegalStateException e) {
+        // All images are still held by the detector.
+        return;
+      }
+      if (image == null) {
+        return;
+      }
+      PipelineStats stats = pipelineStats;
+      if (stats != null) {
+        stats.onFrameReceived();
+      }
+      long now = System.nanoTime();
+      FrameScheduler scheduler = frameScheduler;
+      if (scheduler != null && !scheduler.shouldProcess(now)) {
+        if (stats != null) {
+          stats.onFrameThrottled();
+        }
+        image.close();
+        return;
+      }
+      StaticSceneFilter filter = staticSceneFilter;
+      if (filter != null) {
+        Image.Plane luma = image.getPlanes()[0];
+        if (filter.isUnchanged(luma.getBuffer(), image.getWidth(), image.getHeight(),
+            luma.getRowStride(), now)) {
+          if (stats != null) {
+            stats.onFrameStatic();
+          }
+          image.close();
+          return;
+        }
+      }
+
+      synchronized (processorLock) {
+        if (frameProcessor == null) {
+          image.close();
+          return;
+        }
+        lease.lend();
+        try {
+          // The processor releases the image through the lease once detection is done with it.
+          frameProcessor.process(image, computeRotation(), facing, lease);
+        } catch (Throwable t) {
+          Log.e(TAG, "Exception thrown from receiver.", t);
+        }
+      }
+    }
+  }
+}
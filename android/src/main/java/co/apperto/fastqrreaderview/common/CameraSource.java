@@ -25,6 +25,7 @@ import android.hardware.Camera.Parameters;
 import android.hardware.Camera.CameraInfo;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresPermission;
+import androidx.annotation.VisibleForTesting;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -37,9 +38,7 @@ import java.io.IOException;
 import java.lang.Thread.State;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Manages the camera and allows UI updates on top of it (e.g. overlaying extra Graphics or
@@ -47,7 +46,7 @@ import java.util.Map;
  * sending those frames to child classes' detectors / classifiers as fast as it is able to process.
  */
 @SuppressLint("MissingPermission")
-public class CameraSource {
+public class CameraSource implements FrameSource {
   @SuppressLint("InlinedApi")
   public static final int CAMERA_FACING_BACK = CameraInfo.CAMERA_FACING_BACK;
 
@@ -64,14 +63,27 @@ public class CameraSource {
   private static final int DUMMY_TEXTURE_NAME = 100;
 
   /**
-   * If the absolute difference between a preview size aspect ratio and a picture size aspect ratio
-   * is less than this tolerance, they are considered to be the same aspect ratio.
+   * Number of frames that may wait for the processing thread by default. A single slot keeps only
+   * the most recent frame pending, which is what the detector wants on a hand-held scanner.
    */
-  private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
+  private static final int DEFAULT_FRAME_RING_CAPACITY = 1;
+
+  /** See the comment in {@link #createCamera()} on why four buffers are the default. */
+  private static final int DEFAULT_FRAME_BUFFER_COUNT = 4;
+
+  /** Frame rate the camera is opened with. */
+  public static final float DEFAULT_REQUESTED_FPS = 20.0f;
 
   protected Activity activity;
 
-  private Camera camera;
+  // Volatile because frame leases are released from the detector's completion threads.
+  private volatile Camera camera;
+
+  /**
+   * Hands preview buffers of the current camera back to it, see {@link CameraFrameLease}. Replaced
+   * whenever the buffers are, which retires the leases of frames still held by the processor.
+   */
+  private volatile FrameLease frameLease = FrameLease.NONE;
 
   protected int facing = CAMERA_FACING_BACK;
 
@@ -83,12 +95,9 @@ public class CameraSource {
 
   private Size previewSize;
 
-  // These values may be requested by the caller.  Due to hardware limitations, we may need to
-  // select close, but not exactly the same values for these.
-  private final float requestedFps = 20.0f;
-  private final int requestedPreviewWidth = 1280;
-  private final int requestedPreviewHeight = 960;
-  private final boolean requestedAutoFocus = true;
+  // What the caller asks for. Due to hardware limitations, we may need to select close, but not
+  // exactly the same values for these.
+  private CaptureProfile captureProfile = CaptureProfile.DEFAULT;
 
   // These instances need to be held onto to avoid GC of their underlying resources.  Even though
   // these aren't used outside of the method that creates them, they still must have hard
@@ -111,20 +120,45 @@ public class CameraSource {
 
   private final FrameProcessingRunnable processingRunnable;
 
+  // Ring requested through setFrameRing() while the processing thread was running.
+  @Nullable private FrameRing<ByteBuffer> pendingFrameRing;
+
+  @Nullable private volatile FrameScheduler frameScheduler;
+
+  @Nullable private volatile PipelineStats pipelineStats;
+
+  @Nullable private volatile StaticSceneFilter staticSceneFilter;
+
+  // While paused the preview callback is detached and the camera holds no preview buffers. Guards
+  // handing buffers to the camera, so that none is handed over twice across a pause.
+  private final Object callbackLock = new Object();
+  // @GuardedBy("callbackLock") for writes
+  private volatile boolean paused;
+  private final CameraPreviewCallback previewCallback = new CameraPreviewCallback();
+
+  // Frame rate currently requested from the camera. Only touched on the camera callback thread
+  // once the camera is started.
+  private float appliedFps;
+
+  // When each pooled buffer was last received from the camera, and as which frame, indexed by pool
+  // slot.
+  private long[] frameArrivalNanos = new long[0];
+  private long[] frameSequences = new long[0];
+
   private final Object processorLock = new Object();
   // @GuardedBy("processorLock")
   private VisionImageProcessor frameProcessor;
 
   /**
-   * Map to convert between a byte array, received from the camera, and its associated byte buffer.
-   * We use byte buffers internally because this is a more efficient way to call into native code
-   * later (avoids a potential copy).
-   *
-   * <p><b>Note:</b> uses IdentityHashMap here instead of HashMap because the behavior of an array's
-   * equals, hashCode and toString methods is both useless and unexpected. IdentityHashMap enforces
-   * identity ('==') check on the keys.
+   * Preview buffers handed to the camera. We use byte buffers internally because this is a more
+   * efficient way to call into native code later (avoids a potential copy). The pool is kept across
+   * {@link #stop()} / {@link #start()} cycles and only dropped in {@link #release()}.
    */
-  private final Map<byte[], ByteBuffer> bytesToByteBuffer = new IdentityHashMap<>();
+  private FrameBufferPool frameBufferPool =
+      new FrameBufferPool(DEFAULT_FRAME_BUFFER_COUNT, Long.MAX_VALUE);
+  // Set by setFrameBufferPool() while the camera holds buffers of the current pool; swapped in the
+  // next time the buffers are handed to the camera.
+  @Nullable private FrameBufferPool pendingFrameBufferPool;
 
 //  public CameraSource(Activity activity, GraphicOverlay overlay) {
   public CameraSource(Activity activity) {
@@ -139,10 +173,12 @@ public class CameraSource {
   // ==============================================================================================
 
   /** Stops the camera and releases the resources of the camera and underlying detector. */
+  @Override
   public void release() {
     synchronized (processorLock) {
       stop();
       processingRunnable.release();
+      frameBufferPool.release();
       cleanScreen();
 
       if (frameProcessor != null) {
@@ -172,9 +208,7 @@ public class CameraSource {
 
 
 
-    processingThread = new Thread(processingRunnable);
-    processingRunnable.setActive(true);
-    processingThread.start();
+    startProcessingThread();
     return this;
   }
 
@@ -186,6 +220,7 @@ public class CameraSource {
    * @throws IOException if the supplied surface holder could not be used as the preview display
    */
   @RequiresPermission(Manifest.permission.CAMERA)
+  @Override
   public synchronized CameraSource start(SurfaceTexture surfaceHolder) throws IOException {
     if (camera != null) {
       return this;
@@ -195,12 +230,45 @@ public class CameraSource {
     camera.setPreviewTexture(surfaceHolder);
     camera.startPreview();
 
+    startProcessingThread();
+
+    usingSurfaceTexture = false;
+    return this;
+  }
+
+  private void startProcessingThread() {
+    if (pendingFrameRing != null) {
+      processingRunnable.setFrameRing(pendingFrameRing);
+      pendingFrameRing = null;
+    }
     processingThread = new Thread(processingRunnable);
     processingRunnable.setActive(true);
     processingThread.start();
+  }
 
-    usingSurfaceTexture = false;
-    return this;
+  /**
+   * Starts processing frames from {@code camera}, which the caller opened for preview frames of
+   * {@code previewSize}, without starting its preview. Frames are then handed in through {@link
+   * #onPreviewFrame}, so that tests can run the frame path with a camera that produces none.
+   */
+  @VisibleForTesting
+  synchronized void startProcessing(Camera camera, Size previewSize) {
+    this.camera = camera;
+    this.previewSize = previewSize;
+    configureBuffers(camera);
+    startProcessingThread();
+  }
+
+  /** Hands {@code data} to the preview callback as the camera would. */
+  @VisibleForTesting
+  void onPreviewFrame(byte[] data) {
+    previewCallback.onPreviewFrame(data, camera);
+  }
+
+  @VisibleForTesting
+  @Nullable
+  synchronized Thread getProcessingThread() {
+    return processingThread;
   }
 
   /**
@@ -212,19 +280,9 @@ public class CameraSource {
    * <p>Call {@link #release()} instead to completely shut down this camera source and release the
    * resources of the underlying detector.
    */
+  @Override
   public synchronized void stop() {
-    processingRunnable.setActive(false);
-    if (processingThread != null) {
-      try {
-        // Wait for the thread to complete to ensure that we can't have multiple threads
-        // executing at the same time (i.e., which would happen if we called start too
-        // quickly after stop).
-        processingThread.join();
-      } catch (InterruptedException e) {
-        Log.d(TAG, "Frame processing thread interrupted on release.");
-      }
-      processingThread = null;
-    }
+    stopProcessingThread();
 
     if (camera != null) {
       camera.stopPreview();
@@ -241,9 +299,101 @@ public class CameraSource {
       camera.release();
       camera = null;
     }
+  }
 
-    // Release the reference to any image buffers, since these will no longer be in use.
-    bytesToByteBuffer.clear();
+  private void stopProcessingThread() {
+    processingRunnable.setActive(false);
+    if (processingThread != null) {
+      try {
+        // Wait for the thread to complete to ensure that we can't have multiple threads
+        // executing at the same time (i.e., which would happen if we called start too
+        // quickly after stop).
+        processingThread.join();
+      } catch (InterruptedException e) {
+        Log.d(TAG, "Frame processing thread interrupted on release.");
+      }
+      processingThread = null;
+    }
+    processingRunnable.drain();
+  }
+
+  /**
+   * Sets what the camera is asked for. While the camera runs, a new frame rate range or focus mode
+   * is applied with the next preview frame. A new preview size or buffer count stops the preview
+   * and the processing thread, reallocates the buffers and starts both again on the open camera,
+   * which takes a few frames rather than the time to reopen the camera.
+   */
+  @Override
+  public synchronized void setCaptureProfile(CaptureProfile profile) throws IOException {
+    captureProfile = profile;
+    if (camera == null) {
+      return;
+    }
+    SizePair sizePair = selectSizePair(camera, profile.getWidth(), profile.getHeight());
+    if (sizePair == null) {
+      throw new IOException("Could not find suitable preview size.");
+    }
+    boolean restart =
+        sizePair.previewSize().getWidth() != previewSize.getWidth()
+            || sizePair.previewSize().getHeight() != previewSize.getHeight()
+            || (profile.getBufferCount() != 0
+                && profile.getBufferCount() != frameBufferPool.getDepth());
+    if (restart) {
+      stopProcessingThread();
+      synchronized (callbackLock) {
+        camera.stopPreview();
+        // Also takes every preview buffer back from the camera.
+        camera.setPreviewCallbackWithBuffer(null);
+      }
+    }
+    try {
+      Camera.Parameters parameters = camera.getParameters();
+      if (restart) {
+        Size pictureSize = sizePair.pictureSize();
+        if (pictureSize != null) {
+          parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
+        }
+        parameters.setPreviewSize(
+            sizePair.previewSize().getWidth(), sizePair.previewSize().getHeight());
+      }
+      setPreviewFpsRange(camera, parameters, profile);
+      setFocusMode(parameters, profile.getFocusMode());
+      camera.setParameters(parameters);
+      if (restart) {
+        previewSize = sizePair.previewSize();
+      } else {
+        appliedFps = profile.getMaxFps();
+      }
+    } catch (RuntimeException e) {
+      throw new IOException("Could not apply the capture profile.", e);
+    } finally {
+      if (restart) {
+        // With the previous size if the parameters were rejected.
+        configureBuffers(camera);
+        camera.startPreview();
+        startProcessingThread();
+      }
+    }
+  }
+
+  /** Returns the preview sizes that have a same-aspect-ratio picture size. */
+  @Override
+  public synchronized List<int[]> getSupportedFrameSizes() {
+    if (camera == null) {
+      return new ArrayList<>();
+    }
+    Camera.Parameters parameters = camera.getParameters();
+    return PreviewSelection.generateValidPreviewSizeList(
+        toDimensions(parameters.getSupportedPreviewSizes()),
+        toDimensions(parameters.getSupportedPictureSizes()));
+  }
+
+  @Override
+  public synchronized List<int[]> getSupportedFpsRanges() {
+    if (camera == null) {
+      return new ArrayList<>();
+    }
+    return camera.getParameters().getSupportedPreviewFpsRange();
   }
 
   /** Changes the facing of the camera. */
@@ -255,12 +405,86 @@ public class CameraSource {
   }
 
   /** Returns the preview size that is currently in use by the underlying camera. */
+  @Override
   public Size getPreviewSize() {
     return previewSize;
   }
 
+  /**
+   * Configures how preview frames are queued for the processing thread. Takes effect on the next
+   * {@link #start()} if the camera is already running.
+   *
+   * <p>One preview buffer is being processed and two are needed by the camera itself, so a
+   * capacity above one only helps if the buffer pool is deepened as well, see {@link
+   * #setFrameBufferPool}.
+   *
+   * @param capacity the number of frames that may wait for the processing thread
+   * @param dropPolicy what to do with an incoming frame while the ring is full. Note that {@link
+   *     FrameRing.DropPolicy#BLOCK} parks the camera callback thread, which is the main thread
+   *     unless the camera was opened on a looper thread of its own.
+   */
+  public synchronized void setFrameRing(int capacity, FrameRing.DropPolicy dropPolicy) {
+    FrameRing<ByteBuffer> ring = new FrameRing<>(capacity, dropPolicy);
+    if (processingThread != null) {
+      // The processing thread owns the consumer side of the current ring, so swapping it has to
+      // wait until the thread is restarted.
+      pendingFrameRing = ring;
+    } else {
+      processingRunnable.setFrameRing(ring);
+    }
+  }
+
+  /**
+   * Configures the pool of preview buffers shared with the camera. Takes effect on the next {@link
+   * #start()} if the camera is already running.
+   *
+   * <p>More buffers let frames queue up while the detector is busy instead of being dropped, at the
+   * cost of one NV21 frame of memory each. {@link FrameBufferPool#getHighWaterMark()} reports how
+   * many were actually needed.
+   *
+   * @param depth the number of buffers to allocate, at least {@link FrameBufferPool#MIN_DEPTH}
+   * @param memoryBudgetBytes upper bound on the memory used by all preview buffers together
+   */
+  public synchronized void setFrameBufferPool(int depth, long memoryBudgetBytes) {
+    setFrameBufferPool(depth, memoryBudgetBytes, null);
+  }
+
+  /**
+   * Like {@link #setFrameBufferPool(int, long)}, with the buffers also counting against {@code
+   * sharedBudget}, the memory shared with other cameras open at the same time.
+   */
+  public synchronized void setFrameBufferPool(
+      int depth, long memoryBudgetBytes, @Nullable FrameMemoryBudget sharedBudget) {
+    FrameBufferPool pool = new FrameBufferPool(depth, memoryBudgetBytes, sharedBudget);
+    if (camera != null) {
+      // The camera and the processing thread still hold buffers of the current pool, so swapping
+      // it has to wait until they are handed out again.
+      Log.i(TAG, "Frame buffer pool changed while running; it applies after the next start().");
+      pendingFrameBufferPool = pool;
+    } else {
+      frameBufferPool.release();
+      frameBufferPool = pool;
+    }
+  }
+
+  /** Returns the pool of preview buffers shared with the camera. */
+  public FrameBufferPool getFrameBufferPool() {
+    return frameBufferPool;
+  }
+
+  /** Returns the total number of preview frames handed to the processing thread's queue. */
+  public long getQueuedFrameCount() {
+    return processingRunnable.getQueuedFrameCount();
+  }
+
+  /** Returns the total number of preview frames dropped before reaching the detector. */
+  public long getDroppedFrameCount() {
+    return processingRunnable.getDroppedFrameCount();
+  }
+
   @SuppressLint("MissingPermission")
   @RequiresPermission(Manifest.permission.CAMERA)
+  @Override
   public void toggleFlash() {
     Camera.Parameters p = camera.getParameters();
 
@@ -294,6 +518,7 @@ public class CameraSource {
    * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or {@link
    * #CAMERA_FACING_FRONT}.
    */
+  @Override
   public int getCameraFacing() {
     return facing;
   }
@@ -310,45 +535,52 @@ public class CameraSource {
       throw new IOException("Could not find requested camera.");
     }
     Camera camera = Camera.open(requestedCameraId);
+    CaptureProfile profile = captureProfile;
 
-    SizePair sizePair = selectSizePair(camera, requestedPreviewWidth, requestedPreviewHeight);
+    SizePair sizePair = selectSizePair(camera, profile.getWidth(), profile.getHeight());
     if (sizePair == null) {
       throw new IOException("Could not find suitable preview size.");
     }
     Size pictureSize = sizePair.pictureSize();
     previewSize = sizePair.previewSize();
 
-    int[] previewFpsRange = selectPreviewFpsRange(camera, requestedFps);
-    if (previewFpsRange == null) {
-      throw new IOException("Could not find suitable preview frames per second range.");
-    }
-
     Camera.Parameters parameters = camera.getParameters();
 
     if (pictureSize != null) {
       parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
     }
     parameters.setPreviewSize(previewSize.getWidth(), previewSize.getHeight());
-    parameters.setPreviewFpsRange(
-        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
-        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+    setPreviewFpsRange(camera, parameters, profile);
     parameters.setPreviewFormat(ImageFormat.NV21);
 
     setRotation(camera, parameters, requestedCameraId);
 
-    if (requestedAutoFocus) {
-      if (parameters
-          .getSupportedFocusModes()
-          .contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO)) {
-        parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
-      } else {
-        Log.i(TAG, "Camera auto focus is not supported on this device.");
-      }
-    }
+    setFocusMode(parameters, profile.getFocusMode());
 
     camera.setParameters(parameters);
+    configureBuffers(camera);
+    return camera;
+  }
+
+  /**
+   * Hands the preview buffers to {@code camera}, reallocating them if a new pool was set, or if the
+   * preview size or the profile's buffer count changed.
+   */
+  private void configureBuffers(Camera camera) {
+    if (pendingFrameBufferPool != null) {
+      frameBufferPool.release();
+      frameBufferPool = pendingFrameBufferPool;
+      pendingFrameBufferPool = null;
+    }
+    int depth = captureProfile.getBufferCount();
+    if (depth != 0 && depth != frameBufferPool.getDepth()) {
+      long memoryBudgetBytes = frameBufferPool.getMemoryBudgetBytes();
+      FrameMemoryBudget sharedBudget = frameBufferPool.getSharedBudget();
+      frameBufferPool.release();
+      frameBufferPool = new FrameBufferPool(depth, memoryBudgetBytes, sharedBudget);
+    }
 
-    // Four frame buffers are needed for working with the camera:
+    // By default four frame buffers are used for working with the camera:
     //
     //   one for the frame that is currently being executed upon in doing detection
     //   one for the next pending frame to process immediately upon completing detection
@@ -359,13 +591,24 @@ public class CameraSource {
     // one thread for acquiring images, and another thread for calling into user code.  If only
     // three buffers are used, then the camera will spew thousands of warning messages when
     // detection takes a non-trivial amount of time.
-    camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-
-    return camera;
+    int bufferCount = frameBufferPool.configure(getPreviewFrameBytes(previewSize));
+    synchronized (callbackLock) {
+      // A paused camera gets its callback and buffers once it is resumed.
+      if (!paused) {
+        camera.setPreviewCallbackWithBuffer(previewCallback);
+        for (int i = 0; i < bufferCount; i++) {
+          camera.addCallbackBuffer(frameBufferPool.array(i));
+        }
+      }
+    }
+    frameLease = new CameraFrameLease(camera);
+    frameArrivalNanos = new long[bufferCount];
+    frameSequences = new long[bufferCount];
+    appliedFps = captureProfile.getMaxFps();
+    FrameScheduler scheduler = frameScheduler;
+    if (scheduler != null) {
+      scheduler.reset();
+    }
   }
 
   /**
@@ -399,25 +642,38 @@ public class CameraSource {
    * @return the selected preview and picture size pair
    */
   private static SizePair selectSizePair(Camera camera, int desiredWidth, int desiredHeight) {
-    List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera);
-
-    // The method for selecting the best size is to minimize the sum of the differences between
-    // the desired values and the actual values for width and height.  This is certainly not the
-    // only way to select the best size, but it provides a decent tradeoff between using the
-    // closest aspect ratio vs. using the closest pixel area.
-    SizePair selectedPair = null;
-    int minDiff = Integer.MAX_VALUE;
-    for (SizePair sizePair : validPreviewSizes) {
-      Size size = sizePair.previewSize();
-      int diff =
-          Math.abs(size.getWidth() - desiredWidth) + Math.abs(size.getHeight() - desiredHeight);
-      if (diff < minDiff) {
-        selectedPair = sizePair;
-        minDiff = diff;
-      }
+    Camera.Parameters parameters = camera.getParameters();
+    List<Camera.Size> supportedPreviewSizes = parameters.getSupportedPreviewSizes();
+    List<Camera.Size> supportedPictureSizes = parameters.getSupportedPictureSizes();
+
+    // By looping through the picture sizes in order, we favor the higher resolutions. We choose
+    // the highest resolution in order to support taking the full resolution picture later.
+    int[] selected =
+        PreviewSelection.selectSizePair(
+            toDimensions(supportedPreviewSizes),
+            toDimensions(supportedPictureSizes),
+            desiredWidth,
+            desiredHeight);
+    if (selected == null) {
+      return null;
+    }
+    if (selected[1] < 0) {
+      // If there are no picture sizes with the same aspect ratio as any preview sizes, allow all
+      // of the preview sizes and hope that the camera can handle it.  Probably unlikely, but we
+      // still account for it.
+      Log.w(TAG, "No preview sizes have a corresponding same-aspect-ratio picture size");
+      return new SizePair(supportedPreviewSizes.get(selected[0]), null);
     }
+    return new SizePair(
+        supportedPreviewSizes.get(selected[0]), supportedPictureSizes.get(selected[1]));
+  }
 
-    return selectedPair;
+  private static List<int[]> toDimensions(List<Camera.Size> sizes) {
+    List<int[]> dimensions = new ArrayList<>(sizes.size());
+    for (Camera.Size size : sizes) {
+      dimensions.add(new int[] {size.width, size.height});
+    }
+    return dimensions;
   }
 
   /**
@@ -449,51 +705,6 @@ public class CameraSource {
     }
   }
 
-  /**
-   * Generates a list of acceptable preview sizes. Preview sizes are not acceptable if there is not
-   * a corresponding picture size of the same aspect ratio. If there is a corresponding picture size
-   * of the same aspect ratio, the picture size is paired up with the preview size.
-   *
-   * <p>This is necessary because even if we don't use still pictures, the still picture size must
-   * be set to a size that is the same aspect ratio as the preview size we choose. Otherwise, the
-   * preview images may be distorted on some devices.
-   */
-  private static List<SizePair> generateValidPreviewSizeList(Camera camera) {
-    Camera.Parameters parameters = camera.getParameters();
-    List<Camera.Size> supportedPreviewSizes =
-        parameters.getSupportedPreviewSizes();
-    List<Camera.Size> supportedPictureSizes =
-        parameters.getSupportedPictureSizes();
-    List<SizePair> validPreviewSizes = new ArrayList<>();
-    for (Camera.Size previewSize : supportedPreviewSizes) {
-      float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
-
-      // By looping through the picture sizes in order, we favor the higher resolutions.
-      // We choose the highest resolution in order to support taking the full resolution
-      // picture later.
-      for (Camera.Size pictureSize : supportedPictureSizes) {
-        float pictureAspectRatio = (float) pictureSize.width / (float) pictureSize.height;
-        if (Math.abs(previewAspectRatio - pictureAspectRatio) < ASPECT_RATIO_TOLERANCE) {
-          validPreviewSizes.add(new SizePair(previewSize, pictureSize));
-          break;
-        }
-      }
-    }
-
-    // If there are no picture sizes with the same aspect ratio as any preview sizes, allow all
-    // of the preview sizes and hope that the camera can handle it.  Probably unlikely, but we
-    // still account for it.
-    if (validPreviewSizes.size() == 0) {
-      Log.w(TAG, "No preview sizes have a corresponding same-aspect-ratio picture size");
-      for (Camera.Size previewSize : supportedPreviewSizes) {
-        // The null picture size will let us know that we shouldn't set a picture size.
-        validPreviewSizes.add(new SizePair(previewSize, null));
-      }
-    }
-
-    return validPreviewSizes;
-  }
-
   /**
    * Selects the most suitable preview frames per second range, given the desired frames per second.
    *
@@ -503,28 +714,59 @@ public class CameraSource {
    */
   @SuppressLint("InlinedApi")
   private static int[] selectPreviewFpsRange(Camera camera, float desiredPreviewFps) {
-    // The camera API uses integers scaled by a factor of 1000 instead of floating-point frame
-    // rates.
-    int desiredPreviewFpsScaled = (int) (desiredPreviewFps * 1000.0f);
-
-    // The method for selecting the best range is to minimize the sum of the differences between
-    // the desired value and the upper and lower bounds of the range.  This may select a range
-    // that the desired value is outside of, but this is often preferred.  For example, if the
-    // desired frame rate is 29.97, the range (30, 30) is probably more desirable than the
-    // range (15, 30).
-    int[] selectedFpsRange = null;
-    int minDiff = Integer.MAX_VALUE;
-    List<int[]> previewFpsRangeList = camera.getParameters().getSupportedPreviewFpsRange();
-    for (int[] range : previewFpsRangeList) {
-      int deltaMin = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
-      int deltaMax = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
-      int diff = Math.abs(deltaMin) + Math.abs(deltaMax);
-      if (diff < minDiff) {
-        selectedFpsRange = range;
-        minDiff = diff;
+    return PreviewSelection.selectFpsRange(
+        camera.getParameters().getSupportedPreviewFpsRange(), desiredPreviewFps);
+  }
+
+  /** Sets the supported preview frame rate range closest to the one {@code profile} asks for. */
+  private static void setPreviewFpsRange(
+      Camera camera, Camera.Parameters parameters, CaptureProfile profile) throws IOException {
+    int[] previewFpsRange =
+        PreviewSelection.selectFpsRange(
+            camera.getParameters().getSupportedPreviewFpsRange(),
+            profile.getMinFps(),
+            profile.getMaxFps());
+    if (previewFpsRange == null) {
+      throw new IOException("Could not find suitable preview frames per second range.");
+    }
+    parameters.setPreviewFpsRange(
+        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+  }
+
+  /**
+   * Sets the focus mode closest to {@code focusMode} that the camera supports, falling back to
+   * continuous video focus and then to whatever the camera defaults to.
+   */
+  private static void setFocusMode(
+      Camera.Parameters parameters, CaptureProfile.FocusMode focusMode) {
+    List<String> supported = parameters.getSupportedFocusModes();
+    String[] candidates;
+    switch (focusMode) {
+      case CONTINUOUS_PICTURE:
+        candidates =
+            new String[] {
+              Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE,
+              Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO
+            };
+        break;
+      case INFINITY:
+        candidates =
+            new String[] {
+              Camera.Parameters.FOCUS_MODE_INFINITY, Camera.Parameters.FOCUS_MODE_FIXED
+            };
+        break;
+      default:
+        candidates = new String[] {Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO};
+        break;
+    }
+    for (String candidate : candidates) {
+      if (supported.contains(candidate)) {
+        parameters.setFocusMode(candidate);
+        return;
       }
     }
-    return selectedFpsRange;
+    Log.i(TAG, "Focus mode " + focusMode + " is not supported on this device.");
   }
 
   /**
@@ -576,29 +818,32 @@ public class CameraSource {
   }
 
   /**
-   * Creates one buffer for the camera preview callback. The size of the buffer is based off of the
-   * camera preview size and the format of the camera image.
-   *
-   * @return a new preview buffer of the appropriate size for the current camera settings
+   * Switches the preview to the supported frame rate range closest to {@code fps} while the camera
+   * is running. Must be called on the camera callback thread.
    */
-  @SuppressLint("InlinedApi")
-  private byte[] createPreviewBuffer(Size previewSize) {
-    int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
-    long sizeInBits = (long) previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-    int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
-
-    // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-    // should guarantee that there will be an array to work with.
-    byte[] byteArray = new byte[bufferSize];
-    ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-    if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-      // I don't think that this will ever happen.  But if it does, then we wouldn't be
-      // passing the preview content to the underlying detector later.
-      throw new IllegalStateException("Failed to create valid buffer for camera source.");
+  private void applyPreviewFps(Camera camera, float fps) {
+    appliedFps = fps;
+    try {
+      int[] range = selectPreviewFpsRange(camera, fps);
+      if (range == null) {
+        return;
+      }
+      Camera.Parameters parameters = camera.getParameters();
+      parameters.setPreviewFpsRange(
+          range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+          range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+      camera.setParameters(parameters);
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Could not change the preview frame rate: " + e);
     }
+  }
 
-    bytesToByteBuffer.put(byteArray, buffer);
-    return byteArray;
+  /**
+   * Returns the size of one camera preview frame. This is based off of the camera preview size and
+   * the NV21 format the camera is set to.
+   */
+  private static int getPreviewFrameBytes(Size previewSize) {
+    return Nv21Kernels.frameBytes(previewSize.getWidth(), previewSize.getHeight());
   }
 
   // ==============================================================================================
@@ -613,6 +858,97 @@ public class CameraSource {
     }
   }
 
+  /**
+   * Returns preview buffers to the pool and to the camera they came from once the frame processor
+   * is done with them, or once the callback passes over or drops them. A buffer released after its
+   * camera was closed only goes back to the pool, and one released while paused waits for the
+   * resume to hand it out; queuing it right away would give the camera the same array twice.
+   */
+  private class CameraFrameLease implements FrameLease {
+    private final Camera leaseCamera;
+
+    CameraFrameLease(Camera leaseCamera) {
+      this.leaseCamera = leaseCamera;
+    }
+
+    @Override
+    public void release(ByteBuffer frame) {
+      synchronized (callbackLock) {
+        if (frameLease != this) {
+          // The buffers were reallocated or handed to the camera anew since.
+          return;
+        }
+        frameBufferPool.recycle(frame);
+        if (camera != leaseCamera || paused) {
+          // A paused camera gets the buffer back when it is resumed.
+          return;
+        }
+        try {
+          leaseCamera.addCallbackBuffer(frame.array());
+        } catch (RuntimeException e) {
+          // The camera was released after the check above.
+          Log.d(TAG, "Could not return preview buffer to the camera: " + e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the scheduler that picks the analysis cadence. In {@link FrameScheduler.Mode#SKIP_FRAMES}
+   * frames it passes over go straight back to the camera; in {@link FrameScheduler.Mode#FPS_RANGE}
+   * the preview frame rate range is changed while the camera runs.
+   */
+  @Override
+  public void setFrameScheduler(@Nullable FrameScheduler scheduler) {
+    frameScheduler = scheduler;
+  }
+
+  /** Records received, throttled and dropped frames and the wait for the processing thread. */
+  @Override
+  public void setPipelineStats(@Nullable PipelineStats stats) {
+    pipelineStats = stats;
+  }
+
+  /**
+   * Skips frames whose scene is unchanged on the processing thread, where they no longer hold up
+   * the camera callback.
+   */
+  @Override
+  public void setStaticSceneFilter(@Nullable StaticSceneFilter filter) {
+    staticSceneFilter = filter;
+  }
+
+  /**
+   * Detaches the preview callback while paused, which also takes every preview buffer back from the
+   * camera. The preview keeps running into its texture, the camera callback thread sees no frames
+   * and the processing thread stays parked. Resuming attaches the callback again and hands back
+   * the buffers the processor does not hold.
+   */
+  @Override
+  public synchronized void setPaused(boolean paused) {
+    synchronized (callbackLock) {
+      if (this.paused == paused) {
+        return;
+      }
+      this.paused = paused;
+      if (camera == null) {
+        // Applied when the camera is opened.
+        return;
+      }
+      if (paused) {
+        camera.setPreviewCallbackWithBuffer(null);
+        return;
+      }
+      camera.setPreviewCallbackWithBuffer(previewCallback);
+      for (int i = 0; i < frameBufferPool.size(); i++) {
+        if (!frameBufferPool.isInUse(i)) {
+          camera.addCallbackBuffer(frameBufferPool.array(i));
+        }
+      }
+    }
+  }
+
+  @Override
   public void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
     synchronized (processorLock) {
       cleanScreen();
@@ -628,19 +964,30 @@ public class CameraSource {
    * available from the camera. This is designed to run detection on frames as fast as possible
    * (i.e., without unnecessary context switching or waiting on the next frame).
    *
-   * <p>While detection is running on a frame, new frames may be received from the camera. As these
-   * frames come in, the most recent frame is held onto as pending. As soon as detection and its
-   * associated processing is done for the previous frame, detection on the mostly recently received
-   * frame will immediately start on the same thread.
+   * <p>While detection is running on a frame, new frames may be received from the camera. These are
+   * queued in a {@link FrameRing}; with the default single-slot {@link
+   * FrameRing.DropPolicy#DROP_OLDEST} ring the most recent frame is held onto as pending. As soon as
+   * detection and its associated processing is done for the previous frame, detection on the next
+   * queued frame will immediately start on the same thread.
    */
   private class FrameProcessingRunnable implements Runnable {
 
-    // This lock guards all of the member variables below.
-    private final Object lock = new Object();
-    private boolean active = true;
+    private volatile boolean active = true;
+
+    // Hands frames over from the camera callback thread without taking a lock.
+    private FrameRing<ByteBuffer> frameRing =
+        new FrameRing<>(DEFAULT_FRAME_RING_CAPACITY, FrameRing.DropPolicy.DROP_OLDEST);
 
-    // These pending variables hold the state associated with the new frame awaiting processing.
-    private ByteBuffer pendingFrameData;
+    // Frames that were queued or dropped by rings replaced through setFrameRing().
+    private long retiredQueuedFrames;
+    private long retiredDroppedFrames;
+
+    // Frames received from the camera. Only touched on the camera callback thread.
+    private long receivedFrames;
+
+    // Describes every frame in turn; processors copy what they keep. Only touched on the processing
+    // thread.
+    private final FrameMetadata frameMetadata = new FrameMetadata();
 
     FrameProcessingRunnable() {}
 
@@ -650,110 +997,169 @@ public class CameraSource {
      */
     @SuppressLint("Assert")
     void release() {
-      assert (processingThread.getState() == State.TERMINATED);
+      assert (processingThread == null || processingThread.getState() == State.TERMINATED);
+    }
+
+    /**
+     * Replaces the frame ring. Only safe to do while the processing thread is not running, i.e.
+     * before {@link #start()} or after {@link #stop()}.
+     */
+    void setFrameRing(FrameRing<ByteBuffer> ring) {
+      retiredQueuedFrames += frameRing.getQueuedFrameCount();
+      retiredDroppedFrames += frameRing.getDroppedFrameCount();
+      frameRing = ring;
+    }
+
+    long getQueuedFrameCount() {
+      return retiredQueuedFrames + frameRing.getQueuedFrameCount();
+    }
+
+    long getDroppedFrameCount() {
+      return retiredDroppedFrames + frameRing.getDroppedFrameCount();
     }
 
-    /** Marks the runnable as active/not active. Signals any blocked threads to continue. */
+    /** Marks the runnable as active/not active. Wakes up the processing thread if it is parked. */
     void setActive(boolean active) {
-      synchronized (lock) {
-        this.active = active;
-        lock.notifyAll();
+      this.active = active;
+      if (active) {
+        frameRing.open();
+      } else {
+        frameRing.close();
       }
     }
 
     /**
-     * Sets the frame data received from the camera. This adds the previous unused frame buffer (if
-     * present) back to the camera, and keeps a pending reference to the frame data for future use.
+     * Drops any frames left in the ring once the processing thread has stopped. The buffers are not
+     * handed back to the camera, which is being released at this point.
+     */
+    void drain() {
+      while (frameRing.poll() != null) {
+        // Discard.
+      }
+    }
+
+    /**
+     * Sets the frame data received from the camera. The frame is queued for the processing thread.
+     * A frame the scheduler passes over, or one dropped by the ring's policy, is handed back to the
+     * camera straight away through {@link #frameLease}.
      */
     void setNextFrame(byte[] data, Camera camera) {
-      synchronized (lock) {
-        if (pendingFrameData != null) {
-          camera.addCallbackBuffer(pendingFrameData.array());
-          pendingFrameData = null;
+      long now = System.nanoTime();
+      long sequence = receivedFrames++;
+      PipelineStats stats = pipelineStats;
+      if (stats != null) {
+        stats.onFrameReceived();
+      }
+      FrameScheduler scheduler = frameScheduler;
+      if (scheduler != null) {
+        if (scheduler.getMode() == FrameScheduler.Mode.FPS_RANGE
+            && scheduler.getTargetFps() != appliedFps) {
+          applyPreviewFps(camera, scheduler.getTargetFps());
         }
-
-        if (!bytesToByteBuffer.containsKey(data)) {
-          Log.d(
-              TAG,
-              "Skipping frame. Could not find ByteBuffer associated with the image "
-                  + "data from the camera.");
+        if (!scheduler.shouldProcess(now)) {
+          if (stats != null) {
+            stats.onFrameThrottled();
+          }
+          ByteBuffer throttled = frameBufferPool.acquire(data);
+          if (throttled != null) {
+            frameLease.release(throttled);
+          }
           return;
         }
+      }
 
-        pendingFrameData = bytesToByteBuffer.get(data);
+      ByteBuffer frame = frameBufferPool.acquire(data);
+      if (frame == null) {
+        Log.d(
+            TAG,
+            "Skipping frame. Could not find ByteBuffer associated with the image "
+                + "data from the camera.");
+        if (stats != null) {
+          stats.onFrameDropped();
+        }
+        return;
+      }
 
-        // Notify the processor thread if it is waiting on the next frame (see below).
-        lock.notifyAll();
+      int index = frameBufferPool.indexOf(frame);
+      frameArrivalNanos[index] = now;
+      frameSequences[index] = sequence;
+      ByteBuffer dropped = frameRing.offer(frame);
+      if (dropped != null) {
+        if (stats != null) {
+          stats.onFrameDropped();
+        }
+        frameLease.release(dropped);
       }
     }
 
     /**
      * As long as the processing thread is active, this executes detection on frames continuously.
-     * The next pending frame is either immediately available or hasn't been received yet. Once it
-     * is available, we transfer the frame info to local variables and run detection on that frame.
-     * It immediately loops back for the next frame without pausing.
+     * The next frame is either immediately available in the ring or hasn't been received yet, in
+     * which case the thread parks until the camera callback publishes one. It immediately loops back
+     * for the next frame without pausing.
      *
      * <p>If detection takes longer than the time in between new frames from the camera, this will
      * mean that this loop will run without ever waiting on a frame, avoiding any context switching
      * or frame acquisition time latency.
      *
+     * <p>The frame is lent to the frame processor, which returns it to the camera through {@link
+     * #frameLease} once it no longer reads it. That may be after this loop has moved on to the next
+     * frame if the processor detects asynchronously.
+     *
      * <p>If you find that this is using more CPU than you'd like, you should probably decrease the
      * FPS setting above to allow for some idle time in between frames.
      */
     @SuppressLint("InlinedApi")
-    @SuppressWarnings("GuardedBy")
     @Override
     public void run() {
       ByteBuffer data;
 
       while (true) {
-        synchronized (lock) {
-          while (active && (pendingFrameData == null)) {
-            try {
-              // Wait for the next frame to be received from the camera, since we
-              // don't have it yet.
-              lock.wait();
-            } catch (InterruptedException e) {
-              Log.d(TAG, "Frame processing loop terminated.", e);
-              return;
-            }
+        // Exits the loop once this camera source is stopped or released, which closes the ring.
+        data = frameRing.take();
+        if (data == null || !active) {
+          return;
+        }
+        PipelineStats stats = pipelineStats;
+        if (paused) {
+          // Queued before the source was paused.
+          if (stats != null) {
+            stats.onFrameThrottled();
           }
-
-          if (!active) {
-            // Exit the loop once this camera source is stopped or released.  We check
-            // this here, immediately after the wait() above, to handle the case where
-            // setActive(false) had been called, triggering the termination of this
-            // loop.
-            return;
+          frameLease.release(data);
+          continue;
+        }
+        int index = frameBufferPool.indexOf(data);
+        long arrivalNanos = frameArrivalNanos[index];
+        long queueWaitNanos = System.nanoTime() - arrivalNanos;
+        FrameScheduler scheduler = frameScheduler;
+        if (scheduler != null) {
+          scheduler.onFrameDequeued(queueWaitNanos);
+        }
+        if (stats != null) {
+          stats.getQueueWait().record(queueWaitNanos);
+        }
+        StaticSceneFilter filter = staticSceneFilter;
+        if (filter != null
+            && filter.isUnchanged(data, previewSize.getWidth(), previewSize.getHeight(),
+                previewSize.getWidth(), arrivalNanos)) {
+          if (stats != null) {
+            stats.onFrameStatic();
           }
-
-          // Hold onto the frame data locally, so that we can use this for detection
-          // below.  We need to clear pendingFrameData to ensure that this buffer isn't
-          // recycled back to the camera before we are done using that data.
-          data = pendingFrameData;
-          pendingFrameData = null;
+          frameLease.release(data);
+          continue;
         }
 
-        // The code below needs to run outside of synchronization, because this will allow
-        // the camera to add pending frame(s) while we are running detection on the current
-        // frame.
-
         try {
           synchronized (processorLock) {
-            frameProcessor.process(
-                data,
-                new FrameMetadata.Builder()
-                    .setWidth(previewSize.getWidth())
-                    .setHeight(previewSize.getHeight())
-                    .setRotation(rotation)
-                    .setCameraFacing(facing)
-                    .build());//,
-//                graphicOverlay);
+            frameMetadata
+                .set(previewSize.getWidth(), previewSize.getHeight(), rotation, facing)
+                .setFrame(frameSequences[index], arrivalNanos)
+                .setBufferIndex(index);
+            frameProcessor.process(data, frameMetadata, frameLease);
           }
         } catch (Throwable t) {
           Log.e(TAG, "Exception thrown from receiver.", t);
-        } finally {
-          camera.addCallbackBuffer(data.array());
         }
       }
     }
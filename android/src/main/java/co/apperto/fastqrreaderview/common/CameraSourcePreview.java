@@ -36,7 +36,7 @@ public class CameraSourcePreview extends ViewGroup {
     SurfaceTexture surfaceView;
     private boolean startRequested;
     private boolean surfaceAvailable;
-    private CameraSource cameraSource;
+    private FrameSource cameraSource;
 
     private GraphicOverlay overlay;
 
@@ -59,7 +59,7 @@ public class CameraSourcePreview extends ViewGroup {
 //    addView(surfaceView);
     }
 
-    public void start(CameraSource cameraSource) throws IOException {
+    public void start(FrameSource cameraSource) throws IOException {
         if (cameraSource == null) {
             stop();
         }
@@ -72,7 +72,7 @@ public class CameraSourcePreview extends ViewGroup {
         }
     }
 
-    public void start(CameraSource cameraSource, GraphicOverlay overlay) throws IOException {
+    public void start(FrameSource cameraSource, GraphicOverlay overlay) throws IOException {
         this.overlay = overlay;
         start(cameraSource);
     }
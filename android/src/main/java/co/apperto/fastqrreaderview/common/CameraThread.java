@@ -0,0 +1,198 @@
+package co.apperto.fastqrreaderview.common;
+
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Starts and releases {@link FrameSource}s on one dedicated thread, so that opening, configuring
+ * and closing the camera, which take hundreds of milliseconds on some devices, never block the main
+ * thread.
+ *
+ * <p>Each source started here becomes a {@link Session} that goes from {@link State#OPENING} to
+ * {@link State#RUNNING} or {@link State#FAILED}, and finally to {@link State#RELEASED}. Operations
+ * run one at a time in the order they are requested, so a session released before another is
+ * started has let go of the camera before the next one opens it. Releasing a session that is still
+ * opening cancels it: if its start has not run yet it never runs, otherwise the source is released
+ * right after it.
+ *
+ * <p>Sessions are started and released from the main thread, and every callback runs there. With
+ * {@link CameraSource}, frames then arrive on this thread too, as Camera1 delivers preview callbacks
+ * on the looper of the thread that opened the camera.
+ */
+public final class CameraThread {
+
+  /** Where a session is in its life. */
+  public enum State {
+    /** Waiting for or running its start on the camera thread. */
+    OPENING,
+    /** Started; frames are being delivered. */
+    RUNNING,
+    /** Could not be started; its source is released already. */
+    FAILED,
+    /** Released, or cancelled while opening. */
+    RELEASED
+  }
+
+  /** Told on the main thread how a start ended. Exactly one method is called per session. */
+  public interface Callback {
+    void onStarted(Session session);
+
+    void onFailed(Session session, Exception e);
+
+    /** The session was released before its start completed. */
+    void onCancelled(Session session);
+  }
+
+  /** One source started by {@link #start}. */
+  public final class Session {
+    private final FrameSource source;
+    private final SurfaceTexture surfaceTexture;
+    private final Callback callback;
+    // Written on the main thread only, read on the camera thread to skip cancelled starts.
+    private volatile State state = State.OPENING;
+    // Touched on the camera thread only, so that a source is never released twice and only
+    // started sources are handed to execute().
+    private boolean sourceStarted;
+    private boolean sourceReleased;
+
+    private Session(FrameSource source, SurfaceTexture surfaceTexture, Callback callback) {
+      this.source = source;
+      this.surfaceTexture = surfaceTexture;
+      this.callback = callback;
+    }
+
+    public FrameSource getSource() {
+      return source;
+    }
+
+    public State getState() {
+      return state;
+    }
+  }
+
+  private final HandlerThread thread;
+  private final Handler handler;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  public CameraThread() {
+    thread = new HandlerThread("CameraThread");
+    thread.start();
+    handler = new Handler(thread.getLooper());
+  }
+
+  /**
+   * Starts {@code source} into {@code surfaceTexture} on the camera thread. The source should be
+   * fully set up beforehand; it belongs to the camera thread until {@code callback} is told how
+   * the start ended.
+   */
+  public Session start(FrameSource source, SurfaceTexture surfaceTexture, Callback callback) {
+    final Session session = new Session(source, surfaceTexture, callback);
+    handler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (session.state != State.OPENING) {
+              // Cancelled before it got here; release() follows and reports it.
+              return;
+            }
+            Exception failure = null;
+            try {
+              session.source.start(session.surfaceTexture);
+              session.sourceStarted = true;
+            } catch (IOException | RuntimeException e) {
+              failure = e;
+              session.sourceReleased = true;
+              session.source.release();
+            }
+            final Exception error = failure;
+            mainHandler.post(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    if (session.state != State.OPENING) {
+                      return;
+                    }
+                    if (error != null) {
+                      session.state = State.FAILED;
+                      session.callback.onFailed(session, error);
+                    } else {
+                      session.state = State.RUNNING;
+                      session.callback.onStarted(session);
+                    }
+                  }
+                });
+          }
+        });
+    return session;
+  }
+
+  /**
+   * Releases the source of {@code session} on the camera thread, cancelling its start if it is
+   * still opening, and then runs {@code onReleased} on the main thread. Does nothing but that if
+   * the session was released before.
+   */
+  public void release(final Session session, @Nullable final Runnable onReleased) {
+    final boolean cancelled = session.state == State.OPENING;
+    session.state = State.RELEASED;
+    handler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (!session.sourceReleased) {
+              session.sourceReleased = true;
+              session.source.release();
+            }
+            mainHandler.post(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    if (cancelled) {
+                      session.callback.onCancelled(session);
+                    }
+                    if (onReleased != null) {
+                      onReleased.run();
+                    }
+                  }
+                });
+          }
+        });
+  }
+
+  /**
+   * Runs {@code task} on the camera thread after every operation requested so far, if by then the
+   * source of {@code session} is started and not released. Camera parameters are changed this way
+   * so that the main thread never waits for an open in progress.
+   */
+  public void execute(Session session, Runnable task) {
+    execute(session, task, null);
+  }
+
+  /**
+   * Like {@link #execute(Session, Runnable)}, but runs {@code onSkipped} on the main thread if
+   * {@code task} does not run, e.g. to reply to a call that is waiting for it.
+   */
+  public void execute(
+      final Session session, final Runnable task, @Nullable final Runnable onSkipped) {
+    handler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (session.sourceStarted && !session.sourceReleased) {
+              task.run();
+            } else if (onSkipped != null) {
+              mainHandler.post(onSkipped);
+            }
+          }
+        });
+  }
+
+  /** Stops the thread once every operation requested so far has run. */
+  public void quit() {
+    thread.quitSafely();
+  }
+}
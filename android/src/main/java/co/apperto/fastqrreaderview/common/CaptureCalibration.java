@@ -0,0 +1,222 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the capture profile that decodes fastest on this device out of short trials of the frame
+ * sizes and frame rate ranges its camera supports. Whoever runs the trials applies each candidate
+ * in turn, lets the pipeline run for a while and records what it measured; the ranking needs no
+ * camera, so sizes and ranges are plain pairs as in {@link PreviewSelection}.
+ */
+public final class CaptureCalibration {
+
+  /** Sizes with fewer pixels than this rarely resolve a code that fills less than half the view. */
+  public static final int MIN_PIXELS = 320 * 240;
+
+  /** Sizes with more pixels than this only make detection slower. */
+  public static final int MAX_PIXELS = 1920 * 1080;
+
+  /** Frame rate ranges whose upper bound is below this leave codes waiting for the next frame. */
+  public static final int MIN_SCALED_FPS = 15_000;
+
+  /** Trials whose decode rates differ by less than this fraction count as equally good. */
+  public static final float DECODE_RATE_TOLERANCE = 0.1f;
+
+  /** What one candidate profile achieved during its trial. */
+  public static final class Trial {
+    private final CaptureProfile profile;
+    private final long durationNanos;
+    private final long framesAnalyzed;
+    private final long framesDecoded;
+    private final long medianDetectNanos;
+
+    /**
+     * @param durationNanos how long the trial measured for
+     * @param framesAnalyzed frames the detector finished on
+     * @param framesDecoded analyzed frames in which at least one code was found
+     * @param medianDetectNanos median time the detector took per frame
+     */
+    public Trial(
+        CaptureProfile profile,
+        long durationNanos,
+        long framesAnalyzed,
+        long framesDecoded,
+        long medianDetectNanos) {
+      this.profile = profile;
+      this.durationNanos = durationNanos;
+      this.framesAnalyzed = framesAnalyzed;
+      this.framesDecoded = framesDecoded;
+      this.medianDetectNanos = medianDetectNanos;
+    }
+
+    public CaptureProfile getProfile() {
+      return profile;
+    }
+
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    public long getFramesAnalyzed() {
+      return framesAnalyzed;
+    }
+
+    public long getFramesDecoded() {
+      return framesDecoded;
+    }
+
+    public long getMedianDetectNanos() {
+      return medianDetectNanos;
+    }
+
+    /** Analyzed frames per second. */
+    public float getAnalysisRate() {
+      return durationNanos > 0 ? framesAnalyzed * 1e9f / durationNanos : 0f;
+    }
+
+    /** Frames with a code per second. */
+    public float getDecodeRate() {
+      return durationNanos > 0 ? framesDecoded * 1e9f / durationNanos : 0f;
+    }
+  }
+
+  private CaptureCalibration() {}
+
+  /**
+   * Returns the profiles worth a trial: up to {@code maxSizes} of {@code frameSizes} between {@link
+   * #MIN_PIXELS} and {@link #MAX_PIXELS}, spread from the smallest to the largest, each with up to
+   * {@code maxFpsRanges} of the distinct {@code fpsRanges} reaching {@link #MIN_SCALED_FPS},
+   * fastest first. Focus mode and buffer count are taken from {@code base}; without any frame rate
+   * range its range is used.
+   */
+  public static List<CaptureProfile> generateCandidates(
+      List<int[]> frameSizes,
+      List<int[]> fpsRanges,
+      CaptureProfile base,
+      int maxSizes,
+      int maxFpsRanges) {
+    List<int[]> sizes = new ArrayList<>();
+    for (int i = 0; i < frameSizes.size(); i++) {
+      int[] size = frameSizes.get(i);
+      long pixels = (long) size[0] * size[1];
+      if (pixels >= MIN_PIXELS && pixels <= MAX_PIXELS && !containsPair(sizes, size)) {
+        sizes.add(size);
+      }
+    }
+    Collections.sort(
+        sizes,
+        new Comparator<int[]>() {
+          @Override
+          public int compare(int[] a, int[] b) {
+            return Long.compare((long) a[0] * a[1], (long) b[0] * b[1]);
+          }
+        });
+    sizes = spread(sizes, maxSizes);
+
+    List<int[]> ranges = new ArrayList<>();
+    for (int i = 0; i < fpsRanges.size(); i++) {
+      int[] range = fpsRanges.get(i);
+      if (range[PreviewSelection.FPS_MAX_INDEX] >= MIN_SCALED_FPS && !containsPair(ranges, range)) {
+        ranges.add(range);
+      }
+    }
+    Collections.sort(
+        ranges,
+        new Comparator<int[]>() {
+          @Override
+          public int compare(int[] a, int[] b) {
+            int max =
+                Integer.compare(
+                    b[PreviewSelection.FPS_MAX_INDEX], a[PreviewSelection.FPS_MAX_INDEX]);
+            // A fixed rate keeps the camera from slowing down in dim light.
+            return max != 0
+                ? max
+                : Integer.compare(
+                    b[PreviewSelection.FPS_MIN_INDEX], a[PreviewSelection.FPS_MIN_INDEX]);
+          }
+        });
+    if (ranges.size() > maxFpsRanges) {
+      ranges = ranges.subList(0, maxFpsRanges);
+    }
+
+    List<CaptureProfile> candidates = new ArrayList<>(sizes.size() * Math.max(1, ranges.size()));
+    for (int[] size : sizes) {
+      if (ranges.isEmpty()) {
+        candidates.add(
+            new CaptureProfile(
+                size[0],
+                size[1],
+                base.getMinFps(),
+                base.getMaxFps(),
+                base.getFocusMode(),
+                base.getBufferCount()));
+        continue;
+      }
+      for (int[] range : ranges) {
+        candidates.add(
+            new CaptureProfile(
+                size[0],
+                size[1],
+                range[PreviewSelection.FPS_MIN_INDEX] / 1000f,
+                range[PreviewSelection.FPS_MAX_INDEX] / 1000f,
+                base.getFocusMode(),
+                base.getBufferCount()));
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Returns the trial that decoded the most frames per second, counting rates within {@link
+   * #DECODE_RATE_TOLERANCE} of the best as equal and then preferring the lowest median detector
+   * latency. Without any code in view this picks the fastest detection. Returns null if no trial
+   * analyzed a frame.
+   */
+  public static Trial selectBest(List<Trial> trials) {
+    float bestDecodeRate = 0f;
+    for (int i = 0; i < trials.size(); i++) {
+      bestDecodeRate = Math.max(bestDecodeRate, trials.get(i).getDecodeRate());
+    }
+    float minDecodeRate = bestDecodeRate * (1f - DECODE_RATE_TOLERANCE);
+    Trial best = null;
+    for (int i = 0; i < trials.size(); i++) {
+      Trial trial = trials.get(i);
+      if (trial.getFramesAnalyzed() == 0 || trial.getDecodeRate() < minDecodeRate) {
+        continue;
+      }
+      if (best == null || trial.getMedianDetectNanos() < best.getMedianDetectNanos()) {
+        best = trial;
+      }
+    }
+    return best;
+  }
+
+  /** Returns up to {@code count} of {@code sorted}, evenly spaced and including both ends. */
+  private static List<int[]> spread(List<int[]> sorted, int count) {
+    if (sorted.size() <= count) {
+      return sorted;
+    }
+    List<int[]> spread = new ArrayList<>(count);
+    if (count == 1) {
+      spread.add(sorted.get(sorted.size() - 1));
+      return spread;
+    }
+    for (int i = 0; i < count; i++) {
+      spread.add(sorted.get(Math.round(i * (sorted.size() - 1) / (float) (count - 1))));
+    }
+    return spread;
+  }
+
+  private static boolean containsPair(List<int[]> pairs, int[] pair) {
+    for (int i = 0; i < pairs.size(); i++) {
+      int[] other = pairs.get(i);
+      if (other[0] == pair[0] && other[1] == pair[1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
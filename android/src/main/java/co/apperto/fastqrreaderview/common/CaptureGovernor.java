@@ -0,0 +1,174 @@
+package co.apperto.fastqrreaderview.common;
+
+/**
+ * Steps scanning down as the device heats up or its battery runs low, and back up once conditions
+ * recover. Each step keeps the cuts of the previous ones: a lower frame rate, then a smaller
+ * analysis size, then fewer concurrent detections. Conditions are read from a {@link
+ * ConditionSource} whenever {@link #evaluate} is called, so a stand-in can drive the governor
+ * without a device.
+ *
+ * <p>Worse conditions take effect at the next evaluation, all steps at once. Better conditions
+ * only step back up one step at a time, each after they have held for the recovery time, so that
+ * a device hovering at a threshold does not flip between profiles.
+ */
+public final class CaptureGovernor {
+
+  /** Where the governor reads device conditions from. */
+  public interface ConditionSource {
+    /** Returns one of the {@code THERMAL_STATUS_*} levels, or none if unknown. */
+    int getThermalStatus();
+
+    /** Returns the battery charge between 0 and 1, or a negative value if unknown. */
+    float getBatteryLevel();
+
+    boolean isCharging();
+  }
+
+  /** Scanning as configured. */
+  public static final int STEP_FULL = 0;
+
+  /** The camera frame rate is halved, see {@link #governProfile}. */
+  public static final int STEP_LOWER_FPS = 1;
+
+  /** The analysis size is halved on top of the lower frame rate. */
+  public static final int STEP_SMALLER_SIZE = 2;
+
+  /** Only one detection runs at a time, on top of the smaller size. */
+  public static final int STEP_FEWER_IN_FLIGHT = 3;
+
+  // The thermal status levels of android.os.PowerManager, which only has them from API 29 on.
+  public static final int THERMAL_STATUS_NONE = 0;
+  public static final int THERMAL_STATUS_LIGHT = 1;
+  public static final int THERMAL_STATUS_MODERATE = 2;
+  public static final int THERMAL_STATUS_SEVERE = 3;
+
+  /** Below this charge a discharging battery costs one step. */
+  public static final float LOW_BATTERY_LEVEL = 0.15f;
+
+  /** Below this charge a discharging battery costs two steps. */
+  public static final float CRITICAL_BATTERY_LEVEL = 0.05f;
+
+  /** The frame rate is never lowered below this. */
+  public static final float MIN_FPS = 10f;
+
+  /** The analysis size is never halved below this width or height. */
+  public static final int MIN_WIDTH = 320;
+
+  public static final int MIN_HEIGHT = 240;
+
+  private final ConditionSource source;
+  private final long recoveryNanos;
+
+  private int step = STEP_FULL;
+  // When conditions started to allow a higher step, or -1 while they do not.
+  private long recoveringSinceNanos = -1;
+  private int thermalStatus = THERMAL_STATUS_NONE;
+  private float batteryLevel = -1f;
+  private boolean charging;
+
+  /**
+   * @param recoveryNanos how long conditions must allow a higher step before it is taken
+   */
+  public CaptureGovernor(ConditionSource source, long recoveryNanos) {
+    if (recoveryNanos < 0) {
+      throw new IllegalArgumentException("Invalid recovery time: " + recoveryNanos);
+    }
+    this.source = source;
+    this.recoveryNanos = recoveryNanos;
+  }
+
+  /**
+   * Reads the current conditions and moves to the step they call for.
+   *
+   * @return whether the step changed
+   */
+  public boolean evaluate(long nowNanos) {
+    thermalStatus = source.getThermalStatus();
+    batteryLevel = source.getBatteryLevel();
+    charging = source.isCharging();
+    int target = targetStep(thermalStatus, batteryLevel, charging);
+    if (target > step) {
+      step = target;
+      recoveringSinceNanos = -1;
+      return true;
+    }
+    if (target == step) {
+      recoveringSinceNanos = -1;
+      return false;
+    }
+    if (recoveringSinceNanos < 0) {
+      recoveringSinceNanos = nowNanos;
+      return false;
+    }
+    if (nowNanos - recoveringSinceNanos < recoveryNanos) {
+      return false;
+    }
+    step--;
+    // The next step up waits for a full recovery time of its own.
+    recoveringSinceNanos = step > target ? nowNanos : -1;
+    return true;
+  }
+
+  /** Returns the step conditions call for, without any recovery time. */
+  public static int targetStep(int thermalStatus, float batteryLevel, boolean charging) {
+    int step;
+    if (thermalStatus >= THERMAL_STATUS_SEVERE) {
+      step = STEP_FEWER_IN_FLIGHT;
+    } else if (thermalStatus == THERMAL_STATUS_MODERATE) {
+      step = STEP_SMALLER_SIZE;
+    } else if (thermalStatus == THERMAL_STATUS_LIGHT) {
+      step = STEP_LOWER_FPS;
+    } else {
+      step = STEP_FULL;
+    }
+    if (!charging && batteryLevel >= 0f) {
+      if (batteryLevel < CRITICAL_BATTERY_LEVEL) {
+        step = Math.max(step, STEP_SMALLER_SIZE);
+      } else if (batteryLevel < LOW_BATTERY_LEVEL) {
+        step = Math.max(step, STEP_LOWER_FPS);
+      }
+    }
+    return step;
+  }
+
+  /** Returns {@code base} with the cuts of {@code step} to its frame rate and size. */
+  public static CaptureProfile governProfile(CaptureProfile base, int step) {
+    if (step < STEP_LOWER_FPS) {
+      return base;
+    }
+    float maxFps = Math.max(Math.min(MIN_FPS, base.getMaxFps()), base.getMaxFps() / 2f);
+    float minFps = Math.min(base.getMinFps(), maxFps);
+    int width = base.getWidth();
+    int height = base.getHeight();
+    if (step >= STEP_SMALLER_SIZE && width / 2 >= MIN_WIDTH && height / 2 >= MIN_HEIGHT) {
+      width /= 2;
+      height /= 2;
+    }
+    return new CaptureProfile(
+        width, height, minFps, maxFps, base.getFocusMode(), base.getBufferCount());
+  }
+
+  /** Returns how many detections may run at once at {@code step}, given the configured number. */
+  public static int governMaxInFlight(int base, int step) {
+    return step >= STEP_FEWER_IN_FLIGHT ? 1 : base;
+  }
+
+  public int getStep() {
+    return step;
+  }
+
+  /** Returns the thermal status read by the last {@link #evaluate}. */
+  public int getThermalStatus() {
+    return thermalStatus;
+  }
+
+  /** Returns the battery level read by the last {@link #evaluate}, negative if unknown. */
+  public float getBatteryLevel() {
+    return batteryLevel;
+  }
+
+  /** Returns whether the battery was charging at the last {@link #evaluate}. */
+  public boolean isCharging() {
+    return charging;
+  }
+}
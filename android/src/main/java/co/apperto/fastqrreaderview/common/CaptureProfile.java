@@ -0,0 +1,92 @@
+package co.apperto.fastqrreaderview.common;
+
+/**
+ * What a {@link FrameSource} asks the camera for: the size of the frames to analyze, the frame rate
+ * range, the focus mode and the number of frame buffers shared with the camera. Sizes and rates are
+ * targets; each source picks the closest the camera supports.
+ */
+public final class CaptureProfile {
+
+  /** How the camera focuses while scanning. */
+  public enum FocusMode {
+    /** Refocuses smoothly as the scene changes; the default. */
+    CONTINUOUS_VIDEO,
+    /** Refocuses faster than {@link #CONTINUOUS_VIDEO}, at the cost of more visible hunting. */
+    CONTINUOUS_PICTURE,
+    /** Stays focused at infinity, or wherever a fixed-focus lens is, e.g. on fixed mounts. */
+    INFINITY
+  }
+
+  /** Largest number of frame buffers a profile may ask for. */
+  public static final int MAX_BUFFER_COUNT = FrameBufferPool.MAX_DEPTH;
+
+  /** What sources use unless told otherwise. */
+  public static final CaptureProfile DEFAULT =
+      new CaptureProfile(
+          1280,
+          960,
+          CameraSource.DEFAULT_REQUESTED_FPS,
+          CameraSource.DEFAULT_REQUESTED_FPS,
+          FocusMode.CONTINUOUS_VIDEO,
+          0);
+
+  private final int width;
+  private final int height;
+  private final float minFps;
+  private final float maxFps;
+  private final FocusMode focusMode;
+  private final int bufferCount;
+
+  /**
+   * @param width target width of the analyzed frames, in sensor orientation
+   * @param height target height of the analyzed frames, in sensor orientation
+   * @param minFps lower bound of the target frame rate range
+   * @param maxFps upper bound of the target frame rate range
+   * @param bufferCount frame buffers shared with the camera, at least {@link
+   *     FrameBufferPool#MIN_DEPTH}, or 0 to keep what the source was set up with
+   */
+  public CaptureProfile(
+      int width, int height, float minFps, float maxFps, FocusMode focusMode, int bufferCount) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid capture size: " + width + "x" + height);
+    }
+    if (!(minFps > 0f && minFps <= maxFps)) {
+      throw new IllegalArgumentException("Invalid frame rate range: " + minFps + "-" + maxFps);
+    }
+    if (bufferCount != 0
+        && (bufferCount < FrameBufferPool.MIN_DEPTH || bufferCount > MAX_BUFFER_COUNT)) {
+      throw new IllegalArgumentException("Invalid buffer count: " + bufferCount);
+    }
+    this.width = width;
+    this.height = height;
+    this.minFps = minFps;
+    this.maxFps = maxFps;
+    this.focusMode = focusMode;
+    this.bufferCount = bufferCount;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public float getMinFps() {
+    return minFps;
+  }
+
+  public float getMaxFps() {
+    return maxFps;
+  }
+
+  public FocusMode getFocusMode() {
+    return focusMode;
+  }
+
+  /** Frame buffers shared with the camera, or 0 to keep what the source was set up with. */
+  public int getBufferCount() {
+    return bufferCount;
+  }
+}
@@ -0,0 +1,259 @@
+package co.apperto.fastqrreaderview.common;
+
+/**
+ * Follows codes from frame to frame by their bounding boxes, so that once a code was found the next
+ * frames are only detected around it instead of across the whole scan window. A code barely moves
+ * between frames, so detection then costs in proportion to the code rather than the frame.
+ *
+ * <p>Each code found becomes a track holding its box in frame pixels. A box found in a later frame
+ * continues the track it lands in, otherwise it starts a new one. Frames are detected in the
+ * union of all tracks, each widened by the margin on every side. A track that goes unseen in
+ * {@code maxMisses} detections in a row is dropped, and once none are left detection widens back
+ * to the whole scan window. New codes are therefore only found outside the tracked region once the
+ * codes being tracked have left the view.
+ *
+ * <p>Detections report boxes upright and relative to what was detected, which may have been cropped
+ * and downscaled; {@link #beginUpdate} says how, and the tracker maps the boxes back to the frame.
+ *
+ * <p>Tracks live in preallocated arrays, so neither updates nor lookups allocate. Updates and
+ * lookups may come from different threads.
+ */
+public final class CodeTracker {
+
+  /** At most this many codes are tracked at once; further codes replace the most missed track. */
+  public static final int MAX_TRACKS = 8;
+
+  /** Tracked regions are widened to at least this many pixels on each side. */
+  static final int MIN_REGION_SIZE = 96;
+
+  private final int maxMisses;
+  private final float margin;
+
+  // Tracks in frame pixels, by index below trackCount.
+  private final int[] trackLeft = new int[MAX_TRACKS];
+  private final int[] trackTop = new int[MAX_TRACKS];
+  private final int[] trackRight = new int[MAX_TRACKS];
+  private final int[] trackBottom = new int[MAX_TRACKS];
+  private final int[] misses = new int[MAX_TRACKS];
+  private final boolean[] seen = new boolean[MAX_TRACKS];
+  private int trackCount;
+  // Size of the frames the tracks are in.
+  private int frameWidth;
+  private int frameHeight;
+
+  // How the detection being reported relates to the frame, see beginUpdate().
+  private int rotation;
+  private int detectedLeft;
+  private int detectedTop;
+  private int detectedWidth;
+  private int detectedHeight;
+  private int scale;
+
+  /**
+   * @param maxMisses how many detections in a row may miss a code before its track is dropped
+   * @param margin how much each box is widened on every side, as a fraction of its size
+   */
+  public CodeTracker(int maxMisses, float margin) {
+    if (maxMisses < 1 || !(margin >= 0f)) {
+      throw new IllegalArgumentException("Invalid tracking settings: " + maxMisses + ", " + margin);
+    }
+    this.maxMisses = maxMisses;
+    this.margin = margin;
+  }
+
+  public int getMaxMisses() {
+    return maxMisses;
+  }
+
+  public float getMargin() {
+    return margin;
+  }
+
+  /**
+   * Writes the region the next {@code width} x {@code height} frame should be detected in to
+   * {@code region} as left, top, width and height in pixels, aligned to even pixels for NV21, and
+   * limited to {@code window}, given in frame coordinates.
+   *
+   * @return false if nothing is tracked in the window and the whole window should be detected
+   */
+  public synchronized boolean getRegion(int width, int height, ScanWindow window, int[] region) {
+    if (trackCount == 0 || width != frameWidth || height != frameHeight) {
+      return false;
+    }
+    int left = Integer.MAX_VALUE;
+    int top = Integer.MAX_VALUE;
+    int right = Integer.MIN_VALUE;
+    int bottom = Integer.MIN_VALUE;
+    for (int i = 0; i < trackCount; i++) {
+      int boxWidth = trackRight[i] - trackLeft[i];
+      int boxHeight = trackBottom[i] - trackTop[i];
+      int padX = (int) (boxWidth * margin) + Math.max(0, MIN_REGION_SIZE - boxWidth) / 2;
+      int padY = (int) (boxHeight * margin) + Math.max(0, MIN_REGION_SIZE - boxHeight) / 2;
+      left = Math.min(left, trackLeft[i] - padX);
+      top = Math.min(top, trackTop[i] - padY);
+      right = Math.max(right, trackRight[i] + padX);
+      bottom = Math.max(bottom, trackBottom[i] + padY);
+    }
+    int windowLeft = window.pixelLeft(width);
+    int windowTop = window.pixelTop(height);
+    left = Math.max(left, windowLeft) & ~1;
+    top = Math.max(top, windowTop) & ~1;
+    right = Math.min(right, windowLeft + window.pixelWidth(width));
+    bottom = Math.min(bottom, windowTop + window.pixelHeight(height));
+    if (right - left < 2 || bottom - top < 2) {
+      return false;
+    }
+    region[0] = left;
+    region[1] = top;
+    // Rounding up to even stays inside the window, whose edges are even.
+    region[2] = (right - left + 1) & ~1;
+    region[3] = (bottom - top + 1) & ~1;
+    return true;
+  }
+
+  /**
+   * Starts reporting the codes found in one detection. The detection looked at the {@code
+   * detectedWidth} x {@code detectedHeight} region at ({@code detectedLeft}, {@code detectedTop})
+   * of a {@code width} x {@code height} frame, downscaled by {@code scale} and turned upright by
+   * {@code rotation} clockwise quarter turns. Every track not reported before {@link #endUpdate()}
+   * counts as missed.
+   */
+  public synchronized void beginUpdate(int width, int height, int rotation, int detectedLeft,
+      int detectedTop, int detectedWidth, int detectedHeight, int scale) {
+    if (width != frameWidth || height != frameHeight) {
+      trackCount = 0;
+      frameWidth = width;
+      frameHeight = height;
+    }
+    this.rotation = rotation & 3;
+    this.detectedLeft = detectedLeft;
+    this.detectedTop = detectedTop;
+    this.detectedWidth = detectedWidth;
+    this.detectedHeight = detectedHeight;
+    this.scale = scale;
+    for (int i = 0; i < trackCount; i++) {
+      seen[i] = false;
+    }
+  }
+
+  /** Reports a code found at the given upright box of the detection being reported. */
+  public synchronized void addUprightBox(int left, int top, int right, int bottom) {
+    left *= scale;
+    top *= scale;
+    right *= scale;
+    bottom *= scale;
+    int w = detectedWidth;
+    int h = detectedHeight;
+    int x0;
+    int y0;
+    int x1;
+    int y1;
+    switch (rotation) {
+      case 1:
+        // Upright (u, v) is detected (v, h - u).
+        x0 = top;
+        x1 = bottom;
+        y0 = h - right;
+        y1 = h - left;
+        break;
+      case 2:
+        x0 = w - right;
+        x1 = w - left;
+        y0 = h - bottom;
+        y1 = h - top;
+        break;
+      case 3:
+        // Upright (u, v) is detected (w - v, u).
+        x0 = w - bottom;
+        x1 = w - top;
+        y0 = left;
+        y1 = right;
+        break;
+      default:
+        x0 = left;
+        x1 = right;
+        y0 = top;
+        y1 = bottom;
+        break;
+    }
+    x0 += detectedLeft;
+    x1 += detectedLeft;
+    y0 += detectedTop;
+    y1 += detectedTop;
+    track(x0, y0, x1, y1);
+  }
+
+  /** Ends the detection being reported, dropping tracks that missed too often. */
+  public synchronized void endUpdate() {
+    int kept = 0;
+    for (int i = 0; i < trackCount; i++) {
+      if (!seen[i] && ++misses[i] >= maxMisses) {
+        continue;
+      }
+      if (kept != i) {
+        move(i, kept);
+      }
+      kept++;
+    }
+    trackCount = kept;
+  }
+
+  /** Number of codes currently tracked. */
+  public synchronized int getTrackCount() {
+    return trackCount;
+  }
+
+  /** Drops every track, e.g. when scanning starts again. */
+  public synchronized void reset() {
+    trackCount = 0;
+  }
+
+  private void track(int left, int top, int right, int bottom) {
+    int centerX = (left + right) / 2;
+    int centerY = (top + bottom) / 2;
+    int index = -1;
+    for (int i = 0; i < trackCount; i++) {
+      if (!seen[i] && centerX >= trackLeft[i] && centerX <= trackRight[i]
+          && centerY >= trackTop[i] && centerY <= trackBottom[i]) {
+        index = i;
+        break;
+      }
+    }
+    if (index < 0) {
+      if (trackCount < MAX_TRACKS) {
+        index = trackCount++;
+      } else {
+        index = mostMissed();
+        if (index < 0) {
+          // Every track was seen in this detection already.
+          return;
+        }
+      }
+    }
+    trackLeft[index] = left;
+    trackTop[index] = top;
+    trackRight[index] = right;
+    trackBottom[index] = bottom;
+    misses[index] = 0;
+    seen[index] = true;
+  }
+
+  private int mostMissed() {
+    int index = -1;
+    for (int i = 0; i < trackCount; i++) {
+      if (!seen[i] && (index < 0 || misses[i] > misses[index])) {
+        index = i;
+      }
+    }
+    return index;
+  }
+
+  private void move(int from, int to) {
+    trackLeft[to] = trackLeft[from];
+    trackTop[to] = trackTop[from];
+    trackRight[to] = trackRight[from];
+    trackBottom[to] = trackBottom[from];
+    misses[to] = misses[from];
+    seen[to] = seen[from];
+  }
+}
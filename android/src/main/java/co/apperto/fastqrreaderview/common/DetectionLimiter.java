@@ -0,0 +1,51 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the detections running at the same time across every frame processor that shares it, on
+ * top of each processor's own in-flight limit. Readers scanning side by side then split the
+ * detector between them instead of each queueing as much work as it would alone.
+ *
+ * <p>Permits are taken without blocking; a processor that finds none skips the frame as busy.
+ */
+public final class DetectionLimiter {
+
+  private final int limit;
+  private final AtomicInteger available;
+
+  public DetectionLimiter(int limit) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("Invalid detection limit: " + limit);
+    }
+    this.limit = limit;
+    this.available = new AtomicInteger(limit);
+  }
+
+  /** Takes a permit for one detection, or returns false if {@link #getLimit()} are running. */
+  public boolean tryAcquire() {
+    while (true) {
+      int permits = available.get();
+      if (permits == 0) {
+        return false;
+      }
+      if (available.compareAndSet(permits, permits - 1)) {
+        return true;
+      }
+    }
+  }
+
+  /** Hands back a permit taken with {@link #tryAcquire()}. */
+  public void release() {
+    available.incrementAndGet();
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  /** Number of detections currently running under this limiter. */
+  public int getInFlightCount() {
+    return limit - available.get();
+  }
+}
@@ -0,0 +1,62 @@
+package co.apperto.fastqrreaderview.common;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+import androidx.annotation.Nullable;
+
+/**
+ * {@link CaptureGovernor.ConditionSource} reading the thermal status from {@link PowerManager},
+ * where the platform reports it, and the battery from the sticky battery broadcast, which needs no
+ * receiver to be registered.
+ */
+public class DeviceConditions implements CaptureGovernor.ConditionSource {
+
+  private final Context context;
+  @Nullable private final PowerManager powerManager;
+
+  public DeviceConditions(Context context) {
+    this.context = context.getApplicationContext();
+    this.powerManager = (PowerManager) this.context.getSystemService(Context.POWER_SERVICE);
+  }
+
+  /** Thermal status is only reported from Android 10 on; older devices always read as none. */
+  @Override
+  public int getThermalStatus() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || powerManager == null) {
+      return CaptureGovernor.THERMAL_STATUS_NONE;
+    }
+    return powerManager.getCurrentThermalStatus();
+  }
+
+  @Override
+  public float getBatteryLevel() {
+    Intent batteryStatus = readBatteryStatus();
+    if (batteryStatus == null) {
+      return -1f;
+    }
+    int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+    int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+    return level < 0 || scale <= 0 ? -1f : level / (float) scale;
+  }
+
+  @Override
+  public boolean isCharging() {
+    Intent batteryStatus = readBatteryStatus();
+    if (batteryStatus == null) {
+      return false;
+    }
+    int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+    return status == BatteryManager.BATTERY_STATUS_CHARGING
+        || status == BatteryManager.BATTERY_STATUS_FULL;
+  }
+
+  @Nullable
+  private Intent readBatteryStatus() {
+    return context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+  }
+}
@@ -0,0 +1,244 @@
+package co.apperto.fastqrreaderview.common;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed set of preview buffers that are handed to the camera with {@code addCallbackBuffer} and
+ * come back through the preview callback.
+ *
+ * <p>Every buffer is one byte longer than a frame, and that trailing byte holds the buffer's slot
+ * index. Mapping the {@code byte[]} received from the camera back to its {@link ByteBuffer} is
+ * therefore an array read plus an identity check, without hashing the array. A linear scan is only
+ * used if a driver ever overwrites the trailing byte.
+ *
+ * <p>The pool outlives {@link CameraSource#stop()}; buffers are only reallocated when the frame size
+ * changes, so a stop/start cycle with the same preview size allocates nothing.
+ */
+public final class FrameBufferPool {
+  private static final String TAG = "MIDemoApp:BufferPool";
+
+  /**
+   * Smallest usable pool: one buffer being processed, one pending and at least one for the camera
+   * to fill.
+   */
+  public static final int MIN_DEPTH = 3;
+
+  /** Slot indices are stored in a single (signed) byte. */
+  public static final int MAX_DEPTH = Byte.MAX_VALUE;
+
+  private final int depth;
+  private final long memoryBudgetBytes;
+  // Shared with the pools of other cameras, if any; holds what this pool has allocated.
+  @Nullable private final FrameMemoryBudget sharedBudget;
+
+  // Written by configure() while the camera is stopped, read on the preview callback thread.
+  private volatile ByteBuffer[] buffers = new ByteBuffer[0];
+  private volatile int frameBytes;
+
+  private final AtomicInteger inUse = new AtomicInteger();
+  // 1 for every slot held outside the camera, by slot index.
+  private volatile AtomicIntegerArray held = new AtomicIntegerArray(0);
+  private final AtomicInteger highWaterMark = new AtomicInteger();
+
+  /**
+   * @param depth the number of buffers to allocate if the memory budget allows it
+   * @param memoryBudgetBytes upper bound on the memory used by all buffers together. The pool never
+   *     goes below {@link #MIN_DEPTH} buffers though, since the camera stalls with fewer.
+   */
+  public FrameBufferPool(int depth, long memoryBudgetBytes) {
+    this(depth, memoryBudgetBytes, null);
+  }
+
+  /**
+   * @param sharedBudget memory shared with the pools of other cameras, which this pool's buffers
+   *     count against on top of {@code memoryBudgetBytes}, or null
+   */
+  public FrameBufferPool(
+      int depth, long memoryBudgetBytes, @Nullable FrameMemoryBudget sharedBudget) {
+    if (depth < MIN_DEPTH || depth > MAX_DEPTH) {
+      throw new IllegalArgumentException("Invalid buffer pool depth: " + depth);
+    }
+    if (memoryBudgetBytes <= 0) {
+      throw new IllegalArgumentException("Invalid memory budget: " + memoryBudgetBytes);
+    }
+    this.depth = depth;
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    this.sharedBudget = sharedBudget;
+  }
+
+  /**
+   * Makes sure the pool holds buffers large enough for frames of {@code frameBytes} bytes,
+   * reallocating only if the frame size changed since the last call.
+   *
+   * @return the number of buffers in the pool
+   */
+  public synchronized int configure(int frameBytes) {
+    if (frameBytes == this.frameBytes && buffers.length > 0) {
+      inUse.set(0);
+      held = new AtomicIntegerArray(buffers.length);
+      return buffers.length;
+    }
+
+    int bufferSize = frameBytes + 1;
+    int count = (int) Math.min(depth, memoryBudgetBytes / bufferSize);
+    if (count < MIN_DEPTH) {
+      Log.w(
+          TAG,
+          "Memory budget of " + memoryBudgetBytes + " bytes is too small for " + MIN_DEPTH
+              + " buffers of " + bufferSize + " bytes, exceeding it.");
+      count = MIN_DEPTH;
+    }
+    if (sharedBudget != null) {
+      sharedBudget.release(getAllocatedBytes());
+      count = sharedBudget.reserve(count, MIN_DEPTH, bufferSize);
+    }
+
+    ByteBuffer[] pool = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
+      // should guarantee that there will be an array to work with.
+      byte[] byteArray = new byte[bufferSize];
+      ByteBuffer buffer = ByteBuffer.wrap(byteArray);
+      if (!buffer.hasArray() || (buffer.array() != byteArray)) {
+        // I don't think that this will ever happen.  But if it does, then we wouldn't be
+        // passing the preview content to the underlying detector later.
+        throw new IllegalStateException("Failed to create valid buffer for camera source.");
+      }
+      byteArray[frameBytes] = (byte) i;
+      pool[i] = buffer;
+    }
+    this.frameBytes = frameBytes;
+    buffers = pool;
+    inUse.set(0);
+    held = new AtomicIntegerArray(count);
+    return count;
+  }
+
+  /** Drops all buffers. The next {@link #configure} allocates them again. */
+  public synchronized void release() {
+    if (sharedBudget != null) {
+      sharedBudget.release(getAllocatedBytes());
+    }
+    buffers = new ByteBuffer[0];
+    frameBytes = 0;
+    inUse.set(0);
+    held = new AtomicIntegerArray(0);
+  }
+
+  /** The number of buffers the pool allocates if the memory budget allows it. */
+  public int getDepth() {
+    return depth;
+  }
+
+  public long getMemoryBudgetBytes() {
+    return memoryBudgetBytes;
+  }
+
+  @Nullable
+  public FrameMemoryBudget getSharedBudget() {
+    return sharedBudget;
+  }
+
+  /** Number of buffers currently in the pool. */
+  public int size() {
+    return buffers.length;
+  }
+
+  /** Returns the array backing the buffer in slot {@code index}, to hand to the camera. */
+  public byte[] array(int index) {
+    return buffers[index].array();
+  }
+
+  /**
+   * Returns the slot of a buffer obtained from {@link #acquire}, or -1 if it is not in the pool,
+   * e.g. because the pool was configured anew since.
+   */
+  public int indexOf(ByteBuffer buffer) {
+    return slotOf(buffers, buffer.array());
+  }
+
+  /**
+   * Returns the slot in {@code pool} whose buffer is backed by {@code data}, or -1 if there is none.
+   * The trailing byte is only trusted once the slot it names is checked to hold {@code data}, so a
+   * driver overwriting it costs a scan but never yields the wrong slot.
+   */
+  private static int slotOf(ByteBuffer[] pool, byte[] data) {
+    if (data.length == 0) {
+      return -1;
+    }
+    int index = data[data.length - 1];
+    if (index >= 0 && index < pool.length && pool[index].array() == data) {
+      return index;
+    }
+    for (int i = 0; i < pool.length; i++) {
+      if (pool[i].array() == data) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the pooled buffer wrapping {@code data} and counts it as in use, or null if {@code data}
+   * does not belong to this pool.
+   */
+  @Nullable
+  public ByteBuffer acquire(byte[] data) {
+    ByteBuffer[] pool = buffers;
+    int index = slotOf(pool, data);
+    if (index < 0) {
+      return null;
+    }
+
+    held.set(index, 1);
+    int count = inUse.incrementAndGet();
+    int peak = highWaterMark.get();
+    while (count > peak && !highWaterMark.compareAndSet(peak, count)) {
+      peak = highWaterMark.get();
+    }
+    return pool[index];
+  }
+
+  /**
+   * Marks a buffer obtained from {@link #acquire} as handed back to the camera. A buffer the pool
+   * no longer holds is ignored; {@link #configure} already counted it as returned.
+   */
+  public void recycle(ByteBuffer buffer) {
+    int index = indexOf(buffer);
+    if (index < 0) {
+      return;
+    }
+    held.set(index, 0);
+    inUse.decrementAndGet();
+  }
+
+  /** Returns whether the buffer in slot {@code index} is held outside the camera. */
+  public boolean isInUse(int index) {
+    return held.get(index) != 0;
+  }
+
+  /** Number of buffers currently held outside the camera, i.e. queued or being processed. */
+  public int getInUseCount() {
+    return inUse.get();
+  }
+
+  /**
+   * The largest number of buffers ever held outside the camera at once. If this stays well below
+   * {@link #size()} the pool can be made smaller; if it equals {@link #size()} the camera is being
+   * starved and frames are lost.
+   */
+  public int getHighWaterMark() {
+    return highWaterMark.get();
+  }
+
+  /** Total memory held by the pool's buffers, in bytes. */
+  public long getAllocatedBytes() {
+    return (long) buffers.length * (frameBytes + 1);
+  }
+}
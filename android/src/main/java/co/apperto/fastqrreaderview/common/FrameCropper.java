@@ -0,0 +1,83 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cuts a {@link ScanWindow} out of NV21 frames into a buffer that is reused from frame to frame, so
+ * that the detector only sees the part of the frame the user aims at.
+ *
+ * <p>Only the rows inside the window are touched, one bulk copy per luma row and per interleaved VU
+ * row. The output buffer is reallocated only when the cropped size grows.
+ */
+public final class FrameCropper {
+
+  private byte[] cropArray = new byte[0];
+  private ByteBuffer cropBuffer = ByteBuffer.wrap(cropArray);
+  private int cropWidth;
+  private int cropHeight;
+
+  /**
+   * Crops {@code window} out of the NV21 frame in {@code data}.
+   *
+   * @return a buffer holding the cropped NV21 frame, valid until the next call. Its size is given
+   *     by {@link #getCropWidth()} and {@link #getCropHeight()}.
+   */
+  public ByteBuffer crop(ByteBuffer data, int width, int height, ScanWindow window) {
+    return crop(data, width, height, window.pixelLeft(width), window.pixelTop(height),
+        window.pixelWidth(width), window.pixelHeight(height));
+  }
+
+  /**
+   * Crops the {@code cropWidth} x {@code cropHeight} pixels at ({@code left}, {@code top}) out of
+   * the NV21 frame in {@code data}. All four must be even and the region must lie inside the frame.
+   *
+   * @return a buffer holding the cropped NV21 frame, valid until the next call
+   */
+  public ByteBuffer crop(ByteBuffer data, int width, int height, int left, int top, int cropWidth,
+      int cropHeight) {
+    this.cropWidth = cropWidth;
+    this.cropHeight = cropHeight;
+
+    int frameBytes = Nv21Kernels.frameBytes(cropWidth, cropHeight);
+    if (cropArray.length < frameBytes) {
+      cropArray = new byte[frameBytes];
+      cropBuffer = ByteBuffer.wrap(cropArray);
+    }
+
+    if (data.hasArray()) {
+      Nv21Kernels.crop(data.array(), data.arrayOffset(), width, height, left, top, cropWidth,
+          cropHeight, cropArray, 0);
+    } else {
+      cropPlanes(data, width, height, left, top);
+    }
+
+    cropBuffer.clear();
+    cropBuffer.limit(frameBytes);
+    return cropBuffer;
+  }
+
+  public int getCropWidth() {
+    return cropWidth;
+  }
+
+  public int getCropHeight() {
+    return cropHeight;
+  }
+
+  private void cropPlanes(ByteBuffer src, int width, int height, int left, int top) {
+    ByteBuffer in = src.duplicate();
+    byte[] dst = cropArray;
+    int out = 0;
+    for (int y = 0; y < cropHeight; y++) {
+      in.position((top + y) * width + left);
+      in.get(dst, out, cropWidth);
+      out += cropWidth;
+    }
+    int chroma = width * height;
+    for (int y = 0; y < cropHeight / 2; y++) {
+      in.position(chroma + (top / 2 + y) * width + left);
+      in.get(dst, out, cropWidth);
+      out += cropWidth;
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Returns a frame buffer that a {@link FrameSource} lent to a {@link VisionImageProcessor}. The
+ * source cannot reuse the buffer for a new frame until it has been released.
+ */
+public interface FrameLease {
+
+  /** A lease for buffers the source never reuses, such as fixed test frames. */
+  FrameLease NONE =
+      new FrameLease() {
+        @Override
+        public void release(ByteBuffer frame) {}
+      };
+
+  /** Hands {@code frame} back to its source. Must be called exactly once per frame. */
+  void release(ByteBuffer frame);
+}
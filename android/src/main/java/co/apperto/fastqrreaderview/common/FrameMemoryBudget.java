@@ -0,0 +1,46 @@
+package co.apperto.fastqrreaderview.common;
+
+/**
+ * Memory for preview buffers shared by the {@link FrameBufferPool}s of several cameras open at the
+ * same time. Each pool reserves what it allocates and hands it back when it drops its buffers, so
+ * a second camera gets shallower pools instead of doubling the memory held.
+ */
+public final class FrameMemoryBudget {
+
+  private final long capacityBytes;
+  // @GuardedBy("this")
+  private long reservedBytes;
+
+  public FrameMemoryBudget(long capacityBytes) {
+    if (capacityBytes <= 0) {
+      throw new IllegalArgumentException("Invalid memory budget: " + capacityBytes);
+    }
+    this.capacityBytes = capacityBytes;
+  }
+
+  /**
+   * Reserves memory for up to {@code count} buffers of {@code bufferBytes} bytes each, as many as
+   * fit into what is left, but never fewer than {@code minCount}, which may exceed the capacity.
+   *
+   * @return the number of buffers reserved
+   */
+  public synchronized int reserve(int count, int minCount, long bufferBytes) {
+    long left = Math.max(0, capacityBytes - reservedBytes);
+    int reserved = (int) Math.max(minCount, Math.min(count, left / bufferBytes));
+    reservedBytes += reserved * bufferBytes;
+    return reserved;
+  }
+
+  /** Hands back {@code bytes} reserved with {@link #reserve}. */
+  public synchronized void release(long bytes) {
+    reservedBytes = Math.max(0, reservedBytes - bytes);
+  }
+
+  public long getCapacityBytes() {
+    return capacityBytes;
+  }
+
+  public synchronized long getReservedBytes() {
+    return reservedBytes;
+  }
+}
@@ -13,13 +13,23 @@
 // limitations under the License.
 package co.apperto.fastqrreaderview.common;
 
-/** Describing a frame info. */
+/**
+ * Describing a frame info.
+ *
+ * <p>Metadata is mutable so that it can be reused from frame to frame: a frame source fills in one
+ * instance per frame and processors copy what they keep into instances of their own with {@link
+ * #copyFrom(FrameMetadata)}, so the steady-state frame path does not allocate.
+ */
 public class FrameMetadata {
 
-  private final int width;
-  private final int height;
-  private final int rotation;
-  private final int cameraFacing;
+  private int width;
+  private int height;
+  private int rotation;
+  private int cameraFacing;
+  private ScanWindow scanWindow = ScanWindow.FULL_FRAME;
+  private long sequence;
+  private long timestampNanos;
+  private int bufferIndex = -1;
 
   public int getWidth() {
     return width;
@@ -29,51 +39,138 @@ public class FrameMetadata {
     return height;
   }
 
+  /**
+   * Quarter turns the frame has to be rotated clockwise by to be upright on the display, 0 to 3.
+   * Detectors are told this rotation, so the results they report are upright.
+   */
   public int getRotation() {
     return rotation;
   }
 
+  /** Width of the frame once it is rotated upright. */
+  public int getUprightWidth() {
+    return (rotation & 1) == 0 ? width : height;
+  }
+
+  /** Height of the frame once it is rotated upright. */
+  public int getUprightHeight() {
+    return (rotation & 1) == 0 ? height : width;
+  }
+
   public int getCameraFacing() {
     return cameraFacing;
   }
 
-  private FrameMetadata(int width, int height, int rotation, int facing) {
+  /** The part of this frame detection results have to lie in to be reported. */
+  public ScanWindow getScanWindow() {
+    return scanWindow;
+  }
+
+  /**
+   * The number of this frame among the frames its source received, counting from 0, or -1 if the
+   * source does not number its frames.
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * When the frame was captured or, if its source does not say, received, in nanoseconds. Camera1
+   * and synthetic frames use {@link System#nanoTime()}, Camera2 frames the sensor timestamp.
+   */
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  /**
+   * Slot of the {@link FrameBufferPool} of the source the frame's buffer is in, or -1 if the
+   * source does not pool its buffers.
+   */
+  public int getBufferIndex() {
+    return bufferIndex;
+  }
+
+  public FrameMetadata() {}
+
+  /** Sets the size and orientation of the next frame described by this instance. */
+  public FrameMetadata set(int width, int height, int rotation, int facing) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
     cameraFacing = facing;
+    return this;
+  }
+
+  /** Sets the size alone, e.g. after the frame was cropped or scaled down. */
+  public FrameMetadata setSize(int width, int height) {
+    this.width = width;
+    this.height = height;
+    return this;
+  }
+
+  public FrameMetadata setScanWindow(ScanWindow scanWindow) {
+    this.scanWindow = scanWindow;
+    return this;
+  }
+
+  /** Sets the sequence number and timestamp of the next frame described by this instance. */
+  public FrameMetadata setFrame(long sequence, long timestampNanos) {
+    this.sequence = sequence;
+    this.timestampNanos = timestampNanos;
+    return this;
   }
 
-  /** Builder of {@link FrameMetadata}. */
+  /** Sets the slot of the source's {@link FrameBufferPool} the next frame's buffer is in. */
+  public FrameMetadata setBufferIndex(int bufferIndex) {
+    this.bufferIndex = bufferIndex;
+    return this;
+  }
+
+  /** Makes this instance describe the same frame as {@code other}. */
+  public FrameMetadata copyFrom(FrameMetadata other) {
+    width = other.width;
+    height = other.height;
+    rotation = other.rotation;
+    cameraFacing = other.cameraFacing;
+    scanWindow = other.scanWindow;
+    sequence = other.sequence;
+    timestampNanos = other.timestampNanos;
+    bufferIndex = other.bufferIndex;
+    return this;
+  }
+
+  /** Builder of {@link FrameMetadata}. Allocates; frame sources reuse instances instead. */
   public static class Builder {
 
-    private int width;
-    private int height;
-    private int rotation;
-    private int cameraFacing;
+    private final FrameMetadata metadata = new FrameMetadata();
 
     public Builder setWidth(int width) {
-      this.width = width;
+      metadata.width = width;
       return this;
     }
 
     public Builder setHeight(int height) {
-      this.height = height;
+      metadata.height = height;
       return this;
     }
 
     public Builder setRotation(int rotation) {
-      this.rotation = rotation;
+      metadata.rotation = rotation;
       return this;
     }
 
     public Builder setCameraFacing(int facing) {
-      cameraFacing = facing;
+      metadata.cameraFacing = facing;
+      return this;
+    }
+
+    public Builder setScanWindow(ScanWindow scanWindow) {
+      metadata.scanWindow = scanWindow;
       return this;
     }
 
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation, cameraFacing);
+      return new FrameMetadata().copyFrom(metadata);
     }
   }
 }
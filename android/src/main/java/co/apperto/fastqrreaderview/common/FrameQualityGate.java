@@ -0,0 +1,187 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rejects frames that are too blurry or move too much to be worth detecting, from a few rows of
+ * luma, so that frames taken while the hand moves or the lens hunts for focus never reach
+ * the detector.
+ *
+ * <p>{@value #GRID_ROWS} rows spread evenly over the frame are read together with the row below
+ * each, whatever the frame size, so that every read is sequential:
+ *
+ * <ul>
+ *   <li>Sharpness is how steep edges are along those lines: the mean gradient between neighbouring
+ *       pixels, with each gradient weighted by itself, in luma levels per pixel. Blur spreads an
+ *       edge over more pixels and lowers it in proportion, while the flat parts of the frame and
+ *       how much of it a code covers barely matter. Motion blur along one axis flattens only the
+ *       gradients along that axis, which still lowers the score. Scenes without texture also score
+ *       low, but they have no code to find either.
+ *   <li>Motion is the mean absolute change since the previous frame of the pixels where those
+ *       rows cross {@value #GRID_COLUMNS} evenly spread columns, after scaling the previous ones to
+ *       the current mean level so that auto exposure, which changes the gain, does not count as
+ *       motion.
+ * </ul>
+ *
+ * <p>Either check is disabled with a threshold of 0. Samples are kept in arrays allocated once, so
+ * checking a frame does not allocate. Not thread safe; frames are checked on the thread that
+ * delivers them.
+ */
+public final class FrameQualityGate {
+
+  /** Verdict of {@link #check}: the frame is worth detecting. */
+  public static final int ACCEPTED = 0;
+
+  /** Verdict of {@link #check}: the frame is below the sharpness threshold. */
+  public static final int BLURRY = 1;
+
+  /** Verdict of {@link #check}: the frame changed more than the motion threshold allows. */
+  public static final int MOVING = 2;
+
+  static final int GRID_COLUMNS = 40;
+
+  static final int GRID_ROWS = 30;
+
+  private static final int SAMPLES = GRID_COLUMNS * GRID_ROWS;
+
+  private final float minSharpness;
+  private final float maxMotion;
+
+  private final int[] samples = new int[SAMPLES];
+  private final int[] previousSamples = new int[SAMPLES];
+  // Size of the area the previous samples were taken from, 0 if there are none.
+  private int previousWidth;
+  private int previousHeight;
+
+  private float sharpness;
+  private float motion;
+
+  /**
+   * @param minSharpness frames whose mean gradient is below this are rejected, 0 to accept any
+   * @param maxMotion frames whose samples changed more than this on average since the previous
+   *     frame are rejected, 0 to accept any
+   */
+  public FrameQualityGate(float minSharpness, float maxMotion) {
+    if (!(minSharpness >= 0f) || !(maxMotion >= 0f)) {
+      throw new IllegalArgumentException(
+          "Invalid quality thresholds: " + minSharpness + ", " + maxMotion);
+    }
+    this.minSharpness = minSharpness;
+    this.maxMotion = maxMotion;
+  }
+
+  public float getMinSharpness() {
+    return minSharpness;
+  }
+
+  public float getMaxMotion() {
+    return maxMotion;
+  }
+
+  /**
+   * Checks the {@code width} x {@code height} luma plane starting at {@code offset} in {@code
+   * luma}, with rows {@code rowStride} bytes apart. The position of {@code luma} is ignored.
+   *
+   * @return {@link #ACCEPTED}, {@link #BLURRY} or {@link #MOVING}
+   */
+  public int check(ByteBuffer luma, int offset, int width, int height, int rowStride) {
+    if (width < GRID_COLUMNS || height < GRID_ROWS) {
+      // Too small to sample; let the detector decide.
+      previousWidth = 0;
+      return ACCEPTED;
+    }
+    long energy = 0;
+    long variation = 0;
+    for (int row = 0; row < GRID_ROWS; row++) {
+      // The row and the one below it, for gradients across and down.
+      int p = offset + lineOffset(row, GRID_ROWS, height - 1) * rowStride;
+      int end = p + width - 1;
+      int left = luma.get(p) & 0xFF;
+      while (p < end) {
+        int below = luma.get(p + rowStride) & 0xFF;
+        int right = luma.get(++p) & 0xFF;
+        int across = right - left;
+        int down = below - left;
+        energy += across * across + down * down;
+        variation += Math.abs(across) + Math.abs(down);
+        left = right;
+      }
+    }
+    sharpness = variation == 0 ? 0f : energy / (float) variation;
+
+    int sampleSum = 0;
+    int i = 0;
+    for (int row = 0; row < GRID_ROWS; row++) {
+      int rowStart = offset + lineOffset(row, GRID_ROWS, height - 1) * rowStride;
+      for (int column = 0; column < GRID_COLUMNS; column++) {
+        int sample = luma.get(rowStart + lineOffset(column, GRID_COLUMNS, width)) & 0xFF;
+        samples[i++] = sample;
+        sampleSum += sample;
+      }
+    }
+    motion = measureMotion(width, height, sampleSum);
+    System.arraycopy(samples, 0, previousSamples, 0, SAMPLES);
+    previousWidth = width;
+    previousHeight = height;
+
+    if (minSharpness > 0f && sharpness < minSharpness) {
+      return BLURRY;
+    }
+    if (maxMotion > 0f && motion > maxMotion) {
+      return MOVING;
+    }
+    return ACCEPTED;
+  }
+
+  /**
+   * Checks the part of a {@code width} x {@code height} luma plane inside {@code window}, given in
+   * frame coordinates.
+   */
+  public int check(ByteBuffer luma, int width, int height, int rowStride, ScanWindow window) {
+    return check(luma, window.pixelTop(height) * rowStride + window.pixelLeft(width),
+        window.pixelWidth(width), window.pixelHeight(height), rowStride);
+  }
+
+  /** Sharpness of the frame last checked, in luma levels per pixel. */
+  public float getSharpness() {
+    return sharpness;
+  }
+
+  /** Motion of the frame last checked, 0 if there was no earlier frame of the same size. */
+  public float getMotion() {
+    return motion;
+  }
+
+  /** Forgets the previous frame, e.g. when the camera restarts. */
+  public void reset() {
+    previousWidth = 0;
+    previousHeight = 0;
+    sharpness = 0f;
+    motion = 0f;
+  }
+
+  /** Position of line {@code index} of {@code lines}, centered in its band of {@code size}. */
+  private static int lineOffset(int index, int lines, int size) {
+    return (2 * index + 1) * size / (2 * lines);
+  }
+
+  private float measureMotion(int width, int height, int sampleSum) {
+    if (width != previousWidth || height != previousHeight) {
+      return 0f;
+    }
+    long previousSum = 0;
+    for (int i = 0; i < SAMPLES; i++) {
+      previousSum += previousSamples[i];
+    }
+    if (previousSum == 0) {
+      // A black frame has no gain to match.
+      return sampleSum / (float) SAMPLES;
+    }
+    // |sample - previous * sampleSum / previousSum|, scaled by previousSum to stay in integers.
+    long changeSum = 0;
+    for (int i = 0; i < SAMPLES; i++) {
+      changeSum += Math.abs(samples[i] * previousSum - previousSamples[i] * (long) sampleSum);
+    }
+    return changeSum / ((float) previousSum * SAMPLES);
+  }
+}
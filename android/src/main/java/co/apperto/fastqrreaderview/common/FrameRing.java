@@ -0,0 +1,217 @@
+package co.apperto.fastqrreaderview.common;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer / single-consumer ring used to hand frames from the camera callback
+ * thread over to the frame processing thread.
+ *
+ * <p>The producer ({@link #offer}) and the consumer ({@link #poll}, {@link #take}) never take a
+ * monitor. Sequence counters are published through {@link AtomicLong}s and a waiting thread is woken
+ * with {@link LockSupport#unpark(Thread)} only if it actually parked, so the steady state costs a
+ * couple of volatile reads and writes per frame.
+ *
+ * <p>When the ring is full the configured {@link DropPolicy} decides what happens to the incoming
+ * frame. Any frame that is rejected or evicted is handed back from {@link #offer} so that the
+ * caller can recycle its buffer.
+ *
+ * @param <T> the frame type, usually the {@link java.nio.ByteBuffer} backing a preview buffer
+ */
+public final class FrameRing<T> {
+
+  /** What {@link #offer} does when the ring is already holding {@link #capacity()} frames. */
+  public enum DropPolicy {
+    /** Evicts the oldest queued frame so the consumer always sees the most recent ones. */
+    DROP_OLDEST,
+    /** Rejects the incoming frame and keeps the queued ones. */
+    DROP_NEWEST,
+    /** Parks the producer until the consumer frees a slot or the ring is closed. */
+    BLOCK
+  }
+
+  private static final long BLOCK_PARK_NANOS = 1_000_000L;
+
+  private final Object[] slots;
+  private final int mask;
+  private final int capacity;
+  private final DropPolicy dropPolicy;
+
+  /** Index of the next frame to consume. Also advanced by the producer when evicting. */
+  private final AtomicLong head = new AtomicLong();
+  /** Index of the next free slot. Only written by the producer. */
+  private final AtomicLong tail = new AtomicLong();
+
+  private final AtomicLong queuedFrames = new AtomicLong();
+  private final AtomicLong droppedFrames = new AtomicLong();
+
+  private volatile boolean closed;
+  private volatile Thread waitingConsumer;
+  private volatile Thread waitingProducer;
+
+  public FrameRing(int capacity, DropPolicy dropPolicy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Invalid ring capacity: " + capacity);
+    }
+    if (dropPolicy == null) {
+      throw new IllegalArgumentException("Drop policy must not be null");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.slots = new Object[size];
+    this.mask = size - 1;
+    this.capacity = capacity;
+    this.dropPolicy = dropPolicy;
+  }
+
+  /**
+   * Queues a frame. Must only be called from the producer thread.
+   *
+   * @return the frame that did not make it into the ring (the evicted oldest frame, or {@code
+   *     frame} itself if it was rejected), or null if nothing was dropped
+   */
+  @Nullable
+  public T offer(T frame) {
+    long t = tail.get();
+    while (t - head.get() >= capacity) {
+      if (closed) {
+        droppedFrames.incrementAndGet();
+        return frame;
+      }
+      switch (dropPolicy) {
+        case DROP_NEWEST:
+          droppedFrames.incrementAndGet();
+          return frame;
+        case DROP_OLDEST:
+          T evicted = tryAdvanceHead();
+          if (evicted != null) {
+            droppedFrames.incrementAndGet();
+            publish(t, frame);
+            return evicted;
+          }
+          break;
+        case BLOCK:
+          waitingProducer = Thread.currentThread();
+          if (t - head.get() >= capacity && !closed) {
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+          }
+          waitingProducer = null;
+          break;
+      }
+    }
+    publish(t, frame);
+    return null;
+  }
+
+  /** Returns the next frame without waiting, or null if the ring is empty. */
+  @Nullable
+  public T poll() {
+    T frame;
+    do {
+      frame = tryAdvanceHead();
+    } while (frame == null && tail.get() != head.get());
+    return frame;
+  }
+
+  /**
+   * Returns the next frame, parking the calling consumer thread until one is available.
+   *
+   * @return the next frame, or null once the ring has been closed or the thread was interrupted.
+   *     Frames left in a closed ring can still be drained with {@link #poll}.
+   */
+  @Nullable
+  public T take() {
+    while (true) {
+      if (closed || Thread.currentThread().isInterrupted()) {
+        return null;
+      }
+      T frame = poll();
+      if (frame != null) {
+        return frame;
+      }
+      waitingConsumer = Thread.currentThread();
+      // Re-check after advertising ourselves so that a frame published in between is not missed.
+      if (tail.get() == head.get() && !closed) {
+        LockSupport.park(this);
+      }
+      waitingConsumer = null;
+    }
+  }
+
+  /** Reopens a closed ring. Any frames still queued must have been drained with {@link #poll}. */
+  public void open() {
+    closed = false;
+  }
+
+  /** Closes the ring, waking any parked producer or consumer. Queued frames stay available. */
+  public void close() {
+    closed = true;
+    unpark(waitingConsumer);
+    unpark(waitingProducer);
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public DropPolicy getDropPolicy() {
+    return dropPolicy;
+  }
+
+  /** Number of frames currently waiting in the ring. */
+  public int size() {
+    return (int) Math.max(0, tail.get() - head.get());
+  }
+
+  /** Total number of frames accepted by {@link #offer} since creation. */
+  public long getQueuedFrameCount() {
+    return queuedFrames.get();
+  }
+
+  /** Total number of frames evicted or rejected by {@link #offer} since creation. */
+  public long getDroppedFrameCount() {
+    return droppedFrames.get();
+  }
+
+  private void publish(long t, T frame) {
+    slots[(int) t & mask] = frame;
+    // A full volatile write so that a consumer advertising itself in take() cannot miss it.
+    tail.set(t + 1);
+    queuedFrames.incrementAndGet();
+    unpark(waitingConsumer);
+  }
+
+  /**
+   * Claims the frame at the head of the ring. Both sides may call this (the producer only when
+   * evicting), so the head is advanced with a CAS and only the winner owns the returned frame.
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private T tryAdvanceHead() {
+    long h = head.get();
+    if (h == tail.get()) {
+      return null;
+    }
+    int index = (int) h & mask;
+    T frame = (T) slots[index];
+    if (!head.compareAndSet(h, h + 1)) {
+      return null;
+    }
+    unpark(waitingProducer);
+    return frame;
+  }
+
+  private static void unpark(@Nullable Thread thread) {
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package co.apperto.fastqrreaderview.common;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Picks how often camera frames are analyzed from the measured detector latency, so that scanning
+ * meets a latency budget without keeping a core busy on frames that cannot be decoded any faster.
+ *
+ * <p>The scheduler keeps exponentially weighted moving averages of three figures: the time between
+ * camera frames, the time a frame waits between the camera callback and the start of detection
+ * (queue age), and the detection time itself. From those it derives the analysis period:
+ *
+ * <ul>
+ *   <li>At most {@code cpuShare} of one core may be spent detecting, so frames are at least
+ *       {@code latency / cpuShare} apart.
+ *   <li>A code that appears right after a frame was taken waits half a period on average, then the
+ *       queue age and the detection. To stay within the latency budget the period may be at most
+ *       {@code 2 * (budget - queueAge - latency)}. When both bounds conflict the budget wins.
+ * </ul>
+ *
+ * <p>The period is applied either by analyzing only every Nth frame ({@link Mode#SKIP_FRAMES}) or by
+ * asking the camera for a lower frame rate ({@link Mode#FPS_RANGE}), which also saves the capture
+ * and copy cost of the frames that would be skipped. Decisions are only made every {@link
+ * #EVALUATION_PERIOD} detections, and frame rate changes only past {@link #FPS_HYSTERESIS}, so the
+ * cadence does not flap with every slow frame.
+ *
+ * <p>{@link #shouldProcess} is called from the camera callback thread, {@link #onFrameDequeued}
+ * from the frame processing thread and {@link #onDetectionComplete} from the detector's completion
+ * thread. Each average is written by one thread only.
+ */
+public final class FrameScheduler {
+
+  /** How the analysis period is applied. */
+  public enum Mode {
+    /** Keep the camera frame rate and analyze every Nth frame. */
+    SKIP_FRAMES,
+    /** Lower the camera frame rate and analyze every frame. */
+    FPS_RANGE
+  }
+
+  /** Notified on the detector's completion thread when the cadence changes. */
+  public interface Listener {
+    void onCadenceChanged(FrameScheduler scheduler);
+  }
+
+  /** Largest frame interval chosen in {@link Mode#SKIP_FRAMES}. */
+  public static final int MAX_FRAME_INTERVAL = 30;
+
+  /** Lowest frame rate requested in {@link Mode#FPS_RANGE}. */
+  public static final float MIN_FPS = 5f;
+
+  /** Number of completed detections between two cadence decisions. */
+  public static final int EVALUATION_PERIOD = 8;
+
+  /** Relative change of the target frame rate below which the camera is left alone. */
+  private static final float FPS_HYSTERESIS = 0.2f;
+
+  /** Weight of the newest sample in the moving averages. */
+  private static final double SMOOTHING = 0.2;
+
+  private final Mode mode;
+  private final long latencyBudgetNanos;
+  private final float cpuShare;
+  private final float maxFps;
+
+  // Written on the camera callback thread.
+  private volatile double framePeriodNanos;
+  private long lastFrameNanos;
+  private int framesUntilNext;
+
+  // Written on the frame processing thread.
+  private volatile double queueAgeNanos;
+
+  // Written on the detector's completion thread.
+  private volatile double latencyNanos;
+  private int detectionsUntilEvaluation = EVALUATION_PERIOD;
+
+  private volatile int frameInterval = 1;
+  private volatile float targetFps;
+  @Nullable private volatile Listener listener;
+
+  /**
+   * @param mode how the analysis period is applied
+   * @param latencyBudgetNanos the time from a code appearing in front of the camera to it being
+   *     decoded that scanning should stay within
+   * @param cpuShare the share of one core detection may use, in (0, 1]
+   * @param maxFps the camera frame rate requested when scanning starts
+   */
+  public FrameScheduler(Mode mode, long latencyBudgetNanos, float cpuShare, float maxFps) {
+    if (latencyBudgetNanos <= 0) {
+      throw new IllegalArgumentException("Invalid latency budget: " + latencyBudgetNanos);
+    }
+    if (!(cpuShare > 0f && cpuShare <= 1f)) {
+      throw new IllegalArgumentException("Invalid CPU share: " + cpuShare);
+    }
+    this.mode = mode;
+    this.latencyBudgetNanos = latencyBudgetNanos;
+    this.cpuShare = cpuShare;
+    this.maxFps = maxFps;
+    this.targetFps = maxFps;
+  }
+
+  public void setListener(@Nullable Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Records a camera frame taken at {@code timestampNanos} and returns whether it should be
+   * analyzed. Frames that are not analyzed should go straight back to the camera.
+   */
+  public boolean shouldProcess(long timestampNanos) {
+    if (lastFrameNanos != 0) {
+      framePeriodNanos = average(framePeriodNanos, timestampNanos - lastFrameNanos);
+    }
+    lastFrameNanos = timestampNanos;
+
+    if (framesUntilNext > 0) {
+      framesUntilNext--;
+      return false;
+    }
+    framesUntilNext = frameInterval - 1;
+    return true;
+  }
+
+  /** Records how long a frame waited between the camera callback and the start of detection. */
+  public void onFrameDequeued(long queueAgeNanos) {
+    this.queueAgeNanos = average(this.queueAgeNanos, queueAgeNanos);
+  }
+
+  /** Records how long the detector took for one frame, and revises the cadence now and then. */
+  public void onDetectionComplete(long latencyNanos) {
+    this.latencyNanos = average(this.latencyNanos, latencyNanos);
+    if (--detectionsUntilEvaluation > 0) {
+      return;
+    }
+    detectionsUntilEvaluation = EVALUATION_PERIOD;
+    if (evaluate()) {
+      Listener l = listener;
+      if (l != null) {
+        l.onCadenceChanged(this);
+      }
+    }
+  }
+
+  /** Forgets all measurements, e.g. when the camera is restarted with different settings. */
+  public void reset() {
+    framePeriodNanos = 0;
+    lastFrameNanos = 0;
+    framesUntilNext = 0;
+    queueAgeNanos = 0;
+    latencyNanos = 0;
+    detectionsUntilEvaluation = EVALUATION_PERIOD;
+    frameInterval = 1;
+    targetFps = maxFps;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /** Analyze every {@code frameInterval}th frame; always 1 in {@link Mode#FPS_RANGE}. */
+  public int getFrameInterval() {
+    return frameInterval;
+  }
+
+  /** The camera frame rate to request; always the initial one in {@link Mode#SKIP_FRAMES}. */
+  public float getTargetFps() {
+    return targetFps;
+  }
+
+  /** Frames analyzed per second with the current cadence, as far as measured. */
+  public float getAnalysisFps() {
+    double period = framePeriodNanos;
+    if (period <= 0) {
+      return targetFps / frameInterval;
+    }
+    return (float) (1e9 / (period * frameInterval));
+  }
+
+  public long getDetectorLatencyNanos() {
+    return (long) latencyNanos;
+  }
+
+  public long getQueueAgeNanos() {
+    return (long) queueAgeNanos;
+  }
+
+  public long getFramePeriodNanos() {
+    return (long) framePeriodNanos;
+  }
+
+  /** Returns whether the cadence changed. */
+  private boolean evaluate() {
+    double latency = latencyNanos;
+    double framePeriod = framePeriodNanos;
+    if (latency <= 0 || framePeriod <= 0) {
+      return false;
+    }
+
+    double period = latency / cpuShare;
+    double budgetPeriod = 2 * (latencyBudgetNanos - queueAgeNanos - latency);
+    if (period > budgetPeriod) {
+      // Analyzing faster than detection completes does not help, whatever the budget says.
+      period = Math.max(budgetPeriod, latency);
+    }
+
+    if (mode == Mode.SKIP_FRAMES) {
+      // framePeriod is measured at the current camera rate, which this mode never changes.
+      int interval = (int) Math.round(period / framePeriod);
+      interval = Math.max(1, Math.min(MAX_FRAME_INTERVAL, interval));
+      if (interval == frameInterval) {
+        return false;
+      }
+      frameInterval = interval;
+      return true;
+    }
+
+    float fps = (float) (1e9 / period);
+    fps = Math.max(MIN_FPS, Math.min(maxFps, fps));
+    float current = targetFps;
+    if (Math.abs(fps - current) <= current * FPS_HYSTERESIS) {
+      return false;
+    }
+    targetFps = fps;
+    return true;
+  }
+
+  private static double average(double average, double sample) {
+    return average == 0 ? sample : average + SMOOTHING * (sample - average);
+  }
+}
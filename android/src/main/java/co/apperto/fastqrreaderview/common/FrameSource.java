@@ -0,0 +1,91 @@
+package co.apperto.fastqrreaderview.common;
+
+import android.graphics.SurfaceTexture;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A source of camera frames that renders a preview into a {@link SurfaceTexture} and feeds frames to
+ * a {@link VisionImageProcessor}.
+ *
+ * <p>{@link CameraSource} implements this on top of {@code android.hardware.Camera},
+ * {@link Camera2FrameSource} on top of Camera2 and {@link SyntheticFrameSource} without any camera.
+ */
+public interface FrameSource {
+
+  /** Starts the preview into {@code surfaceTexture} and starts delivering frames. */
+  FrameSource start(SurfaceTexture surfaceTexture) throws IOException;
+
+  /** Stops the preview and frame delivery. The source may be started again afterwards. */
+  void stop();
+
+  /** Stops the source and releases the camera and the frame processor. */
+  void release();
+
+  /** Sets the processor that receives frames, stopping the previous one. */
+  void setMachineLearningFrameProcessor(VisionImageProcessor processor);
+
+  /** Returns the size of the preview frames, or null before the source is started. */
+  Size getPreviewSize();
+
+  /**
+   * Returns the facing of the camera; one of {@link CameraSource#CAMERA_FACING_BACK} or {@link
+   * CameraSource#CAMERA_FACING_FRONT}.
+   */
+  int getCameraFacing();
+
+  /** Toggles the torch, if the camera has one. */
+  void toggleFlash();
+
+  /**
+   * Sets the scheduler that decides which frames are analyzed, or null to analyze every frame the
+   * processor accepts. Sources that cannot change their frame rate skip frames in either {@link
+   * FrameScheduler.Mode}.
+   */
+  void setFrameScheduler(@Nullable FrameScheduler scheduler);
+
+  /** Sets where the source records the frames it receives, or null to record nothing. */
+  void setPipelineStats(@Nullable PipelineStats stats);
+
+  /**
+   * Sets the filter that keeps frames showing an unchanged scene from the processor, or null to
+   * hand over every frame.
+   */
+  void setStaticSceneFilter(@Nullable StaticSceneFilter filter);
+
+  /**
+   * Pauses or resumes frame delivery while the preview keeps running. A paused source costs nothing
+   * per frame and hands nothing to the processor; it resumes with the next frame the camera
+   * produces, without reconfiguring the camera. May be called before {@link #start}, and otherwise
+   * on the thread that started the source.
+   */
+  void setPaused(boolean paused);
+
+  /**
+   * Sets what the camera is asked for. A running source applies the frame rate and focus mode
+   * right away and restarts as little as the camera allows for a new frame size or buffer count;
+   * {@link #getPreviewSize()} returns the new size once this returns. May be called before {@link
+   * #start}, and otherwise on the thread that started the source.
+   *
+   * @throws IOException if the running camera cannot be restarted with the profile
+   */
+  void setCaptureProfile(CaptureProfile profile) throws IOException;
+
+  /**
+   * Returns the frame sizes a capture profile can get from the camera, as {@code {width, height}}
+   * pairs in sensor orientation, or an empty list before {@link #start}. Call on the thread that
+   * started the source.
+   */
+  List<int[]> getSupportedFrameSizes();
+
+  /**
+   * Returns the frame rate ranges a capture profile can get from the camera, as {@code {min, max}}
+   * pairs scaled by 1000, or an empty list before {@link #start}. Call on the thread that started
+   * the source.
+   */
+  List<int[]> getSupportedFpsRanges();
+}
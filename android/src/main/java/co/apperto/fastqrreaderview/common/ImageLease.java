@@ -0,0 +1,14 @@
+package co.apperto.fastqrreaderview.common;
+
+import android.media.Image;
+
+/**
+ * Returns an image that a {@link FrameSource} lent to a {@link VisionImageProcessor}, the {@link
+ * Image} counterpart of {@link FrameLease}. The source keeps the reader the image came from open
+ * until every image lent out of it has been released.
+ */
+public interface ImageLease {
+
+  /** Closes {@code image} and hands it back to its source. Must be called once per image. */
+  void release(Image image);
+}
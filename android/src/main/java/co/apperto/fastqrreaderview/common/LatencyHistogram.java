@@ -0,0 +1,106 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with log-linear buckets, in the style of HdrHistogram: every power of two
+ * is split into 32 equal buckets, so any recorded value is reported within about 3% of its true
+ * value, from nanoseconds up to {@link #MAX_TRACKABLE_NANOS}.
+ *
+ * <p>Recording is a handful of bit operations and atomic updates; it never allocates or
+ * locks, so it can be used on the frame path from any thread. Reads are not atomic with respect to
+ * concurrent recording, which may make a percentile lag by the samples recorded meanwhile.
+ */
+public final class LatencyHistogram {
+
+  /** The upper half of each power of two is split into 2^(SUB_BUCKET_BITS - 1) buckets. */
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+  /** Longer durations are recorded as this, about 68.7 seconds. */
+  public static final long MAX_TRACKABLE_NANOS = (1L << 36) - 1;
+
+  private static final int BUCKETS = bucketIndex(MAX_TRACKABLE_NANOS) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /** Records one duration. Negative ones are recorded as zero. */
+  public void record(long nanos) {
+    long value = nanos < 0 ? 0 : Math.min(nanos, MAX_TRACKABLE_NANOS);
+    counts.incrementAndGet(bucketIndex(value));
+    totalCount.incrementAndGet();
+    totalNanos.addAndGet(value);
+    long max = maxNanos.get();
+    while (value > max && !maxNanos.compareAndSet(max, value)) {
+      max = maxNanos.get();
+    }
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    totalCount.set(0);
+    totalNanos.set(0);
+    maxNanos.set(0);
+  }
+
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  public long getMeanNanos() {
+    long count = totalCount.get();
+    return count == 0 ? 0 : totalNanos.get() / count;
+  }
+
+  /**
+   * Returns the duration that {@code percentile} percent of the recorded ones do not exceed, as the
+   * upper end of its bucket, or 0 if nothing was recorded.
+   *
+   * @param percentile between 0 and 100
+   */
+  public long getValueAtPercentile(double percentile) {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), maxNanos.get());
+      }
+    }
+    return maxNanos.get();
+  }
+
+  private static int bucketIndex(long value) {
+    // Values below SUB_BUCKETS get a bucket each, then every power of two gets HALF_SUB_BUCKETS.
+    int magnitude =
+        Math.max(0, 64 - Long.numberOfLeadingZeros(value | (SUB_BUCKETS - 1)) - SUB_BUCKET_BITS);
+    return magnitude * HALF_SUB_BUCKETS + (int) (value >>> magnitude);
+  }
+
+  private static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int magnitude = index / HALF_SUB_BUCKETS - 1;
+    long subBucket = index - magnitude * HALF_SUB_BUCKETS;
+    return ((subBucket + 1) << magnitude) - 1;
+  }
+}
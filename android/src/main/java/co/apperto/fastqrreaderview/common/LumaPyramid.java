@@ -0,0 +1,135 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Downscaled copies of NV21 frames, one buffer per pyramid level. Level {@code k} is the frame
+ * shrunk by {@code 2^k} in both directions with a box filter; level 0 is the frame itself.
+ *
+ * <p>Barcode detection only looks at luma, so only the Y plane is filtered. The chroma plane of
+ * every level is filled with neutral grey once when the buffer is allocated and never written
+ * again. Buffers are reused from frame to frame and only reallocated when the frame size changes.
+ */
+public final class LumaPyramid {
+
+  /** Levels whose shorter side would drop below this many pixels are not built. */
+  public static final int MIN_LEVEL_SIZE = 120;
+
+  private static final byte NEUTRAL_CHROMA = (byte) 128;
+
+  private final int maxLevels;
+  private final byte[][] levelArrays;
+  private final ByteBuffer[] levelBuffers;
+  private int frameWidth;
+  private int frameHeight;
+
+  /** @param maxLevels the number of levels including the full-size level 0, at least 1 */
+  public LumaPyramid(int maxLevels) {
+    if (maxLevels < 1) {
+      throw new IllegalArgumentException("Invalid number of pyramid levels: " + maxLevels);
+    }
+    this.maxLevels = maxLevels;
+    this.levelArrays = new byte[maxLevels][];
+    this.levelBuffers = new ByteBuffer[maxLevels];
+  }
+
+  /** The number of levels this pyramid was created for, including level 0. */
+  public int getMaxLevels() {
+    return maxLevels;
+  }
+
+  /**
+   * Returns how many levels can be built for a {@code width} x {@code height} frame. Every level
+   * must keep even dimensions for NV21 and stay above {@link #MIN_LEVEL_SIZE}.
+   */
+  public int levelCount(int width, int height) {
+    int levels = 1;
+    while (levels < maxLevels) {
+      int factor = 1 << levels;
+      if (width % (2 * factor) != 0
+          || height % (2 * factor) != 0
+          || Math.min(width, height) / factor < MIN_LEVEL_SIZE) {
+        break;
+      }
+      levels++;
+    }
+    return levels;
+  }
+
+  /** Width of {@code level} for a frame {@code width} pixels wide. */
+  public static int levelWidth(int width, int level) {
+    return width >> level;
+  }
+
+  /** Height of {@code level} for a frame {@code height} pixels high. */
+  public static int levelHeight(int height, int level) {
+    return height >> level;
+  }
+
+  /**
+   * Builds {@code level} from the NV21 frame in {@code data}.
+   *
+   * @return {@code data} itself for level 0, otherwise a buffer owned by the pyramid that stays
+   *     valid until the same level is built again
+   */
+  public ByteBuffer build(ByteBuffer data, int width, int height, int level) {
+    if (level == 0) {
+      return data;
+    }
+    if (level >= levelCount(width, height)) {
+      throw new IllegalArgumentException("Level " + level + " not available for " + width + "x"
+          + height);
+    }
+    if (width != frameWidth || height != frameHeight) {
+      Arrays.fill(levelArrays, null);
+      Arrays.fill(levelBuffers, null);
+      frameWidth = width;
+      frameHeight = height;
+    }
+
+    int outWidth = levelWidth(width, level);
+    int outHeight = levelHeight(height, level);
+    byte[] out = levelArrays[level];
+    if (out == null) {
+      int lumaBytes = outWidth * outHeight;
+      out = new byte[lumaBytes + lumaBytes / 2];
+      Arrays.fill(out, lumaBytes, out.length, NEUTRAL_CHROMA);
+      levelArrays[level] = out;
+      levelBuffers[level] = ByteBuffer.wrap(out);
+    }
+
+    if (data.hasArray()) {
+      Nv21Kernels.downscaleLuma(
+          data.array(), data.arrayOffset(), width, height, 1 << level, out, 0);
+    } else {
+      downscaleLuma(data, width, level, out, outWidth, outHeight);
+    }
+    ByteBuffer buffer = levelBuffers[level];
+    buffer.clear();
+    return buffer;
+  }
+
+  /** Same as {@link Nv21Kernels#downscaleLuma} for direct buffers. */
+  private static void downscaleLuma(
+      ByteBuffer src, int width, int level, byte[] out, int outWidth, int outHeight) {
+    int factor = 1 << level;
+    int shift = 2 * level;
+    int round = 1 << (shift - 1);
+    int o = 0;
+    for (int oy = 0; oy < outHeight; oy++) {
+      int rowStart = oy * factor * width;
+      for (int ox = 0; ox < outWidth; ox++) {
+        int blockStart = rowStart + ox * factor;
+        int sum = 0;
+        for (int dy = 0; dy < factor; dy++) {
+          int p = blockStart + dy * width;
+          for (int dx = 0; dx < factor; dx++) {
+            sum += src.get(p + dx) & 0xFF;
+          }
+        }
+        out[o++] = (byte) ((sum + round) >> shift);
+      }
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package co.apperto.fastqrreaderview.common;
+
+/**
+ * Geometric transforms of NV21 frames: rotation by quarter turns, horizontal mirroring, cropping
+ * and box-filter downscaling. Each kernel transforms both the Y plane and the interleaved VU plane,
+ * which holds one V, U pair per 2x2 block of luma, and writes into a buffer the caller supplies, so
+ * nothing is allocated.
+ *
+ * <p>Frames are read from and written to heap arrays. Frame sizes, crop origins and downscaled
+ * sizes have to be even so that the VU pairs stay aligned with the luma they belong to. Source and
+ * destination must not overlap.
+ *
+ * <p>Rotating by 90 or 270 degrees turns source columns into destination rows, and walking a whole
+ * column misses the cache on every byte for frames larger than a few hundred pixels. The frame is
+ * therefore walked in square tiles small enough that the source rows a tile touches stay in cache.
+ */
+public final class Nv21Kernels {
+
+  /** Tile edge in pixels; 32 rows of 64 bytes fit the L1 cache of any ARM core in use. */
+  private static final int TILE = 32;
+
+  private Nv21Kernels() {}
+
+  /** Returns the size in bytes of a {@code width} x {@code height} NV21 frame. */
+  public static int frameBytes(int width, int height) {
+    int lumaBytes = width * height;
+    return lumaBytes + lumaBytes / 2;
+  }
+
+  /**
+   * Rotates the frame clockwise by {@code degrees}, one of 0, 90, 180 and 270. The result is
+   * {@code height} x {@code width} pixels for 90 and 270 degrees.
+   */
+  public static void rotate(
+      byte[] src, int srcOffset, int width, int height, int degrees, byte[] dst, int dstOffset) {
+    checkFrame(src, srcOffset, width, height, dst, dstOffset, frameBytes(width, height));
+    int lumaBytes = width * height;
+    int chromaOffset = lumaBytes;
+    switch (degrees) {
+      case 0:
+        System.arraycopy(src, srcOffset, dst, dstOffset, frameBytes(width, height));
+        return;
+      case 90:
+        rotateQuarter(src, srcOffset, width, height, 1, true, dst, dstOffset);
+        rotateQuarter(src, srcOffset + chromaOffset, width / 2, height / 2, 2, true, dst,
+            dstOffset + chromaOffset);
+        return;
+      case 180:
+        rotate180(src, srcOffset, width, height, 1, dst, dstOffset);
+        rotate180(
+            src, srcOffset + chromaOffset, width / 2, height / 2, 2, dst, dstOffset + chromaOffset);
+        return;
+      case 270:
+        rotateQuarter(src, srcOffset, width, height, 1, false, dst, dstOffset);
+        rotateQuarter(src, srcOffset + chromaOffset, width / 2, height / 2, 2, false, dst,
+            dstOffset + chromaOffset);
+        return;
+      default:
+        throw new IllegalArgumentException("Invalid rotation: " + degrees);
+    }
+  }
+
+  /**
+   * Mirrors the frame left to right, which is how the preview of a front camera is shown.
+   */
+  public static void mirror(
+      byte[] src, int srcOffset, int width, int height, byte[] dst, int dstOffset) {
+    checkFrame(src, srcOffset, width, height, dst, dstOffset, frameBytes(width, height));
+    for (int y = 0; y < height; y++) {
+      int in = srcOffset + y * width;
+      int out = dstOffset + y * width + width - 1;
+      for (int x = 0; x < width; x++) {
+        dst[out - x] = src[in + x];
+      }
+    }
+    int chroma = width * height;
+    for (int y = 0; y < height / 2; y++) {
+      int in = srcOffset + chroma + y * width;
+      int out = dstOffset + chroma + y * width + width - 2;
+      for (int x = 0; x < width; x += 2) {
+        dst[out - x] = src[in + x];
+        dst[out - x + 1] = src[in + x + 1];
+      }
+    }
+  }
+
+  /**
+   * Copies the {@code cropWidth} x {@code cropHeight} rectangle at {@code left}, {@code top} out of
+   * the frame.
+   */
+  public static void crop(
+      byte[] src,
+      int srcOffset,
+      int width,
+      int height,
+      int left,
+      int top,
+      int cropWidth,
+      int cropHeight,
+      byte[] dst,
+      int dstOffset) {
+    checkEven(left, top);
+    checkEven(cropWidth, cropHeight);
+    if (left < 0 || top < 0 || left + cropWidth > width || top + cropHeight > height) {
+      throw new IllegalArgumentException(
+          "Crop " + cropWidth + "x" + cropHeight + " at " + left + ", " + top
+              + " outside of " + width + "x" + height);
+    }
+    checkFrame(src, srcOffset, width, height, dst, dstOffset, frameBytes(cropWidth, cropHeight));
+    int out = dstOffset;
+    for (int y = 0; y < cropHeight; y++) {
+      System.arraycopy(src, srcOffset + (top + y) * width + left, dst, out, cropWidth);
+      out += cropWidth;
+    }
+    // VU rows are full width and cover two luma rows each; left is even so pairs stay intact.
+    int chroma = srcOffset + width * height;
+    for (int y = 0; y < cropHeight / 2; y++) {
+      System.arraycopy(src, chroma + (top / 2 + y) * width + left, dst, out, cropWidth);
+      out += cropWidth;
+    }
+  }
+
+  /**
+   * Shrinks the frame by {@code factor} in both directions, averaging {@code factor} x {@code
+   * factor} blocks of luma and of each chroma component. {@code width} and {@code height} have to
+   * be multiples of {@code 2 * factor}.
+   */
+  public static void downscale(
+      byte[] src, int srcOffset, int width, int height, int factor, byte[] dst, int dstOffset) {
+    checkFactor(width, height, factor);
+    int outWidth = width / factor;
+    int outHeight = height / factor;
+    checkFrame(src, srcOffset, width, height, dst, dstOffset, frameBytes(outWidth, outHeight));
+    boxFilter(src, srcOffset, width, outWidth, outHeight, factor, 1, dst, dstOffset);
+    boxFilter(
+        src,
+        srcOffset + width * height,
+        width / 2,
+        outWidth / 2,
+        outHeight / 2,
+        factor,
+        2,
+        dst,
+        dstOffset + outWidth * outHeight);
+  }
+
+  /**
+   * Same as {@link #downscale} for the Y plane alone, for detectors that ignore color. Only the
+   * first {@code (width / factor) * (height / factor)} bytes of {@code dst} are written.
+   */
+  public static void downscaleLuma(
+      byte[] src, int srcOffset, int width, int height, int factor, byte[] dst, int dstOffset) {
+    checkFactor(width, height, factor);
+    int outWidth = width / factor;
+    int outHeight = height / factor;
+    checkFrame(src, srcOffset, width, height, dst, dstOffset, outWidth * outHeight);
+    boxFilter(src, srcOffset, width, outWidth, outHeight, factor, 1, dst, dstOffset);
+  }
+
+  /**
+   * Rotates a plane of {@code width} x {@code height} pixels of {@code pixelBytes} each by 90
+   * degrees, clockwise or not. Clockwise, destination row {@code r} is source column {@code r} read
+   * bottom to top; counterclockwise, it is source column {@code width - 1 - r} read top to bottom.
+   * Destination rows are written sequentially, a tile at a time, so the source columns a tile reads
+   * stay in cache across its rows.
+   */
+  private static void rotateQuarter(
+      byte[] src,
+      int srcOffset,
+      int width,
+      int height,
+      int pixelBytes,
+      boolean clockwise,
+      byte[] dst,
+      int dstOffset) {
+    int srcStride = width * pixelBytes;
+    int dstStride = height * pixelBytes;
+    // Step through a source column per destination pixel.
+    int step = clockwise ? -srcStride : srcStride;
+    for (int tileRow = 0; tileRow < width; tileRow += TILE) {
+      int endRow = Math.min(tileRow + TILE, width);
+      for (int tileCol = 0; tileCol < height; tileCol += TILE) {
+        int count = Math.min(tileCol + TILE, height) - tileCol;
+        for (int r = tileRow; r < endRow; r++) {
+          int out = dstOffset + r * dstStride + tileCol * pixelBytes;
+          int in = clockwise
+              ? srcOffset + (height - 1 - tileCol) * srcStride + r * pixelBytes
+              : srcOffset + tileCol * srcStride + (width - 1 - r) * pixelBytes;
+          if (pixelBytes == 1) {
+            for (int i = 0; i < count; i++, in += step) {
+              dst[out + i] = src[in];
+            }
+          } else {
+            for (int i = 0; i < count; i++, in += step, out += 2) {
+              dst[out] = src[in];
+              dst[out + 1] = src[in + 1];
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /** Reverses the order of the pixels, which both reads and writes sequentially. */
+  private static void rotate180(
+      byte[] src, int srcOffset, int width, int height, int pixelBytes, byte[] dst, int dstOffset) {
+    int pixels = width * height;
+    int out = dstOffset + (pixels - 1) * pixelBytes;
+    int end = srcOffset + pixels * pixelBytes;
+    if (pixelBytes == 1) {
+      for (int in = srcOffset; in < end; in++, out--) {
+        dst[out] = src[in];
+      }
+    } else {
+      for (int in = srcOffset; in < end; in += 2, out -= 2) {
+        dst[out] = src[in];
+        dst[out + 1] = src[in + 1];
+      }
+    }
+  }
+
+  /**
+   * Averages {@code factor} x {@code factor} blocks of a plane with {@code channels} interleaved
+   * components, {@code srcWidth} pixels wide, into an {@code outWidth} x {@code outHeight} plane.
+   */
+  private static void boxFilter(
+      byte[] src,
+      int srcOffset,
+      int srcWidth,
+      int outWidth,
+      int outHeight,
+      int factor,
+      int channels,
+      byte[] dst,
+      int dstOffset) {
+    if (factor == 2) {
+      halve(src, srcOffset, srcWidth * channels, outWidth * channels, outHeight, channels, dst,
+          dstOffset);
+      return;
+    }
+    int area = factor * factor;
+    int round = area / 2;
+    // Powers of two, which is what the pyramid uses, divide by shifting.
+    int shift = (area & (area - 1)) == 0 ? Integer.numberOfTrailingZeros(area) : -1;
+    int srcStride = srcWidth * channels;
+    int out = dstOffset;
+    for (int oy = 0; oy < outHeight; oy++) {
+      int rowStart = srcOffset + oy * factor * srcStride;
+      for (int ox = 0; ox < outWidth; ox++) {
+        int blockStart = rowStart + ox * factor * channels;
+        for (int c = 0; c < channels; c++) {
+          int sum = 0;
+          for (int dy = 0; dy < factor; dy++) {
+            int p = blockStart + dy * srcStride + c;
+            for (int dx = 0; dx < factor; dx++, p += channels) {
+              sum += src[p] & 0xFF;
+            }
+          }
+          dst[out++] = (byte) (shift >= 0 ? (sum + round) >> shift : (sum + round) / area);
+        }
+      }
+    }
+  }
+
+  /** {@link #boxFilter} by 2, which the pyramid and most downscales use. */
+  private static void halve(
+      byte[] src,
+      int srcOffset,
+      int srcStride,
+      int outBytesPerRow,
+      int outHeight,
+      int channels,
+      byte[] dst,
+      int dstOffset) {
+    int out = dstOffset;
+    for (int oy = 0; oy < outHeight; oy++) {
+      int top = srcOffset + 2 * oy * srcStride;
+      int bottom = top + srcStride;
+      if (channels == 1) {
+        for (int p = 0; p < 2 * outBytesPerRow; p += 2) {
+          int sum = (src[top + p] & 0xFF) + (src[top + p + 1] & 0xFF)
+              + (src[bottom + p] & 0xFF) + (src[bottom + p + 1] & 0xFF);
+          dst[out++] = (byte) ((sum + 2) >> 2);
+        }
+      } else {
+        // V and U of a pair average with V and U of the next pair.
+        for (int p = 0; p < 2 * outBytesPerRow; p += 4) {
+          int v = (src[top + p] & 0xFF) + (src[top + p + 2] & 0xFF)
+              + (src[bottom + p] & 0xFF) + (src[bottom + p + 2] & 0xFF);
+          int u = (src[top + p + 1] & 0xFF) + (src[top + p + 3] & 0xFF)
+              + (src[bottom + p + 1] & 0xFF) + (src[bottom + p + 3] & 0xFF);
+          dst[out++] = (byte) ((v + 2) >> 2);
+          dst[out++] = (byte) ((u + 2) >> 2);
+        }
+      }
+    }
+  }
+
+  private static void checkFrame(
+      byte[] src, int srcOffset, int width, int height, byte[] dst, int dstOffset, int dstBytes) {
+    checkEven(width, height);
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid frame size: " + width + "x" + height);
+    }
+    if (srcOffset < 0 || src.length - srcOffset < frameBytes(width, height)) {
+      throw new IllegalArgumentException("Source too small for a " + width + "x" + height
+          + " frame");
+    }
+    if (dstOffset < 0 || dst.length - dstOffset < dstBytes) {
+      throw new IllegalArgumentException("Destination too small: " + dstBytes + " bytes needed");
+    }
+  }
+
+  private static void checkEven(int a, int b) {
+    if (((a | b) & 1) != 0) {
+      throw new IllegalArgumentException("Odd NV21 size or position: " + a + ", " + b);
+    }
+  }
+
+  private static void checkFactor(int width, int height, int factor) {
+    if (factor < 1 || width % (2 * factor) != 0 || height % (2 * factor) != 0) {
+      throw new IllegalArgumentException(
+          "Cannot downscale " + width + "x" + height + " by " + factor);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and stage latencies of one scanning pipeline, shared by the frame source, the frame
+ * processor and whatever delivers the results. Every stage records into it from its own thread
+ * without allocating.
+ *
+ * <p>A frame goes through these stages:
+ *
+ * <ol>
+ *   <li>Received from the camera. It may be throttled there by the {@link FrameScheduler}, or
+ *       dropped because a newer frame replaced it in the queue.
+ *   <li>Queued for the processing thread, which takes {@link #getQueueWait()}. Only sources that
+ *       hand frames to another thread record this.
+ *   <li>Skipped by a {@link StaticSceneFilter} because the scene has not changed since the last
+ *       analyzed frame.
+ *   <li>Throttled while scanning is paused, rejected by a {@link FrameQualityGate} as blurry or
+ *       moving, or skipped while every detection slot is busy. A paused source stops delivering
+ *       frames, so only those already on their way when it paused count as throttled.
+ *   <li>Detected, which takes {@link #getDetectLatency()} and may fail. Frames detected only
+ *       around tracked codes are counted as tracked.
+ *   <li>Delivered, which takes {@link #getDeliveryLatency()} from the end of detection to the
+ *       results being sent, including waits for earlier frames and batching.
+ * </ol>
+ */
+public final class PipelineStats {
+
+  private final LatencyHistogram queueWait = new LatencyHistogram();
+  private final LatencyHistogram detectLatency = new LatencyHistogram();
+  private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+  private final AtomicLong framesReceived = new AtomicLong();
+  private final AtomicLong framesThrottled = new AtomicLong();
+  private final AtomicLong framesDropped = new AtomicLong();
+  private final AtomicLong framesBusy = new AtomicLong();
+  private final AtomicLong framesBlurry = new AtomicLong();
+  private final AtomicLong framesMoving = new AtomicLong();
+  private final AtomicLong framesStatic = new AtomicLong();
+  private final AtomicLong framesTracked = new AtomicLong();
+  private final AtomicLong detectorFailures = new AtomicLong();
+
+  public LatencyHistogram getQueueWait() {
+    return queueWait;
+  }
+
+  public LatencyHistogram getDetectLatency() {
+    return detectLatency;
+  }
+
+  public LatencyHistogram getDeliveryLatency() {
+    return deliveryLatency;
+  }
+
+  public void onFrameReceived() {
+    framesReceived.incrementAndGet();
+  }
+
+  /** A frame was not analyzed because of the scheduler's cadence or because scanning is paused. */
+  public void onFrameThrottled() {
+    framesThrottled.incrementAndGet();
+  }
+
+  /** A frame was dropped before analysis, e.g. replaced by a newer one while queued. */
+  public void onFrameDropped() {
+    framesDropped.incrementAndGet();
+  }
+
+  /** A frame was not analyzed because every detection slot was busy. */
+  public void onFrameBusy() {
+    framesBusy.incrementAndGet();
+  }
+
+  /** A frame was not analyzed because its {@link FrameQualityGate} found it too blurry. */
+  public void onFrameBlurry() {
+    framesBlurry.incrementAndGet();
+  }
+
+  /** A frame was not analyzed because its {@link FrameQualityGate} found too much motion. */
+  public void onFrameMoving() {
+    framesMoving.incrementAndGet();
+  }
+
+  /** A frame was not analyzed because its {@link StaticSceneFilter} found the scene unchanged. */
+  public void onFrameStatic() {
+    framesStatic.incrementAndGet();
+  }
+
+  /** A frame was detected only in the region its {@link CodeTracker} follows. */
+  public void onFrameTracked() {
+    framesTracked.incrementAndGet();
+  }
+
+  public void onDetectorFailure() {
+    detectorFailures.incrementAndGet();
+  }
+
+  public long getFramesReceived() {
+    return framesReceived.get();
+  }
+
+  public long getFramesThrottled() {
+    return framesThrottled.get();
+  }
+
+  public long getFramesDropped() {
+    return framesDropped.get();
+  }
+
+  public long getFramesBusy() {
+    return framesBusy.get();
+  }
+
+  public long getFramesBlurry() {
+    return framesBlurry.get();
+  }
+
+  public long getFramesMoving() {
+    return framesMoving.get();
+  }
+
+  public long getFramesStatic() {
+    return framesStatic.get();
+  }
+
+  public long getFramesTracked() {
+    return framesTracked.get();
+  }
+
+  public long getDetectorFailures() {
+    return detectorFailures.get();
+  }
+
+  public void reset() {
+    queueWait.reset();
+    detectLatency.reset();
+    deliveryLatency.reset();
+    framesReceived.set(0);
+    framesThrottled.set(0);
+    framesDropped.set(0);
+    framesBusy.set(0);
+    framesBlurry.set(0);
+    framesMoving.set(0);
+    framesStatic.set(0);
+    framesTracked.set(0);
+    detectorFailures.set(0);
+  }
+}
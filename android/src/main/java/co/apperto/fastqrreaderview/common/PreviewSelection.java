@@ -0,0 +1,138 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the preview size and frame rate range closest to the requested ones out of what a camera
+ * supports. Kept free of camera classes so that the same code runs on the JVM for benchmarks; sizes
+ * are {@code {width, height}} pairs and frame rate ranges {@code {min, max}} pairs scaled by 1000,
+ * as returned by {@code Camera.Parameters#getSupportedPreviewFpsRange()}.
+ */
+public final class PreviewSelection {
+
+  /** Preview and picture sizes whose aspect ratios differ by less than this are a match. */
+  public static final float ASPECT_RATIO_TOLERANCE = 0.01f;
+
+  /** Index of the lower bound in a frame rate range. */
+  public static final int FPS_MIN_INDEX = 0;
+
+  /** Index of the upper bound in a frame rate range. */
+  public static final int FPS_MAX_INDEX = 1;
+
+  private PreviewSelection() {}
+
+  /**
+   * Selects the most suitable preview size, paired with a picture size of the same aspect ratio.
+   *
+   * <p>Only preview sizes with a same-aspect-ratio picture size are considered, because some devices
+   * distort the preview otherwise. Each is paired with the first such picture size, so the picture
+   * size lists should be ordered by preference. If no preview size has one, all preview sizes are
+   * considered without a picture size. Among the candidates the one minimizing the sum of the width
+   * and height differences to the desired size wins, which trades off aspect ratio against area.
+   *
+   * @return {@code {previewIndex, pictureIndex}}, with a picture index of -1 if no preview size has a
+   *     same-aspect-ratio picture size, or null if there are no preview sizes
+   */
+  public static int[] selectSizePair(
+      List<int[]> previewSizes, List<int[]> pictureSizes, int desiredWidth, int desiredHeight) {
+    int bestPreview = -1;
+    int bestPicture = -1;
+    int minDiff = Integer.MAX_VALUE;
+    for (int i = 0; i < previewSizes.size(); i++) {
+      int[] preview = previewSizes.get(i);
+      int picture = findSameAspectRatio(preview, pictureSizes);
+      if (picture < 0) {
+        continue;
+      }
+      int diff = Math.abs(preview[0] - desiredWidth) + Math.abs(preview[1] - desiredHeight);
+      if (diff < minDiff) {
+        bestPreview = i;
+        bestPicture = picture;
+        minDiff = diff;
+      }
+    }
+
+    if (bestPreview < 0) {
+      for (int i = 0; i < previewSizes.size(); i++) {
+        int[] preview = previewSizes.get(i);
+        int diff = Math.abs(preview[0] - desiredWidth) + Math.abs(preview[1] - desiredHeight);
+        if (diff < minDiff) {
+          bestPreview = i;
+          minDiff = diff;
+        }
+      }
+    }
+    return bestPreview < 0 ? null : new int[] {bestPreview, bestPicture};
+  }
+
+  /**
+   * Returns the preview sizes that {@link #selectSizePair} picks from: those with a
+   * same-aspect-ratio picture size, or all of them if none has one.
+   */
+  public static List<int[]> generateValidPreviewSizeList(
+      List<int[]> previewSizes, List<int[]> pictureSizes) {
+    List<int[]> valid = new ArrayList<>(previewSizes.size());
+    for (int i = 0; i < previewSizes.size(); i++) {
+      int[] preview = previewSizes.get(i);
+      if (findSameAspectRatio(preview, pictureSizes) >= 0) {
+        valid.add(preview);
+      }
+    }
+    return valid.isEmpty() ? new ArrayList<>(previewSizes) : valid;
+  }
+
+  /**
+   * Selects the most suitable preview frame rate range, given the desired frames per second.
+   *
+   * <p>The method for selecting the best range is to minimize the sum of the differences between
+   * the desired value and the upper and lower bounds of the range. This may select a range that the
+   * desired value is outside of, but this is often preferred. For example, if the desired frame
+   * rate is 29.97, the range (30, 30) is probably more desirable than the range (15, 30).
+   *
+   * @return the selected range, or null if there are none
+   */
+  public static int[] selectFpsRange(List<int[]> fpsRanges, float desiredFps) {
+    return selectFpsRange(fpsRanges, desiredFps, desiredFps);
+  }
+
+  /**
+   * Selects the preview frame rate range closest to the desired range, minimizing the sum of the
+   * differences between their lower and their upper bounds.
+   *
+   * @return the selected range, or null if there are none
+   */
+  public static int[] selectFpsRange(List<int[]> fpsRanges, float desiredMinFps,
+      float desiredMaxFps) {
+    // The camera API uses integers scaled by a factor of 1000 instead of floating-point frame
+    // rates.
+    int desiredMinScaled = (int) (desiredMinFps * 1000.0f);
+    int desiredMaxScaled = (int) (desiredMaxFps * 1000.0f);
+
+    int[] selectedFpsRange = null;
+    int minDiff = Integer.MAX_VALUE;
+    for (int i = 0; i < fpsRanges.size(); i++) {
+      int[] range = fpsRanges.get(i);
+      int deltaMin = desiredMinScaled - range[FPS_MIN_INDEX];
+      int deltaMax = desiredMaxScaled - range[FPS_MAX_INDEX];
+      int diff = Math.abs(deltaMin) + Math.abs(deltaMax);
+      if (diff < minDiff) {
+        selectedFpsRange = range;
+        minDiff = diff;
+      }
+    }
+    return selectedFpsRange;
+  }
+
+  private static int findSameAspectRatio(int[] size, List<int[]> candidates) {
+    float aspectRatio = (float) size[0] / (float) size[1];
+    for (int i = 0; i < candidates.size(); i++) {
+      int[] candidate = candidates.get(i);
+      float candidateAspectRatio = (float) candidate[0] / (float) candidate[1];
+      if (Math.abs(aspectRatio - candidateAspectRatio) < ASPECT_RATIO_TOLERANCE) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
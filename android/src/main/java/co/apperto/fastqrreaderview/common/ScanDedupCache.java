@@ -0,0 +1,205 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.util.Arrays;
+
+/**
+ * Remembers recently reported codes so that a code that stays in view is reported once instead of
+ * on every frame.
+ *
+ * <p>Codes are keyed on their format and a 64-bit hash of their raw bytes, so a lookup never
+ * allocates; two different codes of the same format only collide with a chance of about 2^-64.
+ * Every sighting refreshes the entry, so a code is reported again once it has been out of view for
+ * longer than the time-to-live. When the cache is full the least recently seen code is evicted.
+ *
+ * <p>Entries live in parallel arrays: hash chains for lookup and a doubly linked list for recency,
+ * all preallocated for the maximum number of entries.
+ */
+public final class ScanDedupCache {
+
+  private static final int NONE = -1;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private final int maxEntries;
+  private final long ttlNanos;
+
+  private final int[] buckets;
+  private final int bucketMask;
+  private final long[] keys;
+  private final long[] seenNanos;
+  // Next entry in the same bucket.
+  private final int[] chain;
+  // Recency list, from newest to oldest.
+  private final int[] newer;
+  private final int[] older;
+  private int newest = NONE;
+  private int oldest = NONE;
+  private int size;
+
+  private long reported;
+  private long suppressed;
+  private long evicted;
+
+  /**
+   * @param maxEntries how many distinct codes are remembered at most
+   * @param ttlNanos how long a code has to be out of view before it is reported again
+   */
+  public ScanDedupCache(int maxEntries, long ttlNanos) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("Invalid number of entries: " + maxEntries);
+    }
+    if (ttlNanos < 0) {
+      throw new IllegalArgumentException("Invalid time-to-live: " + ttlNanos);
+    }
+    this.maxEntries = maxEntries;
+    this.ttlNanos = ttlNanos;
+    int bucketCount = Integer.highestOneBit(Math.max(1, maxEntries * 2 - 1)) << 1;
+    buckets = new int[bucketCount];
+    bucketMask = bucketCount - 1;
+    keys = new long[maxEntries];
+    seenNanos = new long[maxEntries];
+    chain = new int[maxEntries];
+    newer = new int[maxEntries];
+    older = new int[maxEntries];
+    Arrays.fill(buckets, NONE);
+  }
+
+  /**
+   * Records a sighting of the code with {@code format} and {@code rawBytes} at {@code nowNanos} and
+   * returns whether it repeats a code seen less than the time-to-live ago.
+   */
+  public boolean isRepeat(int format, byte[] rawBytes, long nowNanos) {
+    return isRepeat(format, rawBytes, 0, rawBytes.length, nowNanos);
+  }
+
+  /**
+   * Same as {@link #isRepeat(int, byte[], long)} for raw bytes held in {@code length} bytes of a
+   * reused buffer, starting at {@code offset}.
+   */
+  public synchronized boolean isRepeat(
+      int format, byte[] rawBytes, int offset, int length, long nowNanos) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = offset; i < offset + length; i++) {
+      hash = (hash ^ (rawBytes[i] & 0xFF)) * FNV_PRIME;
+    }
+    return isRepeat(hash ^ (format * GOLDEN_GAMMA), nowNanos);
+  }
+
+  /**
+   * Same as {@link #isRepeat(int, byte[], long)} for codes that only come with a decoded value.
+   * Hashes the UTF-16 code units, so the same code is keyed differently than by its raw bytes.
+   */
+  public synchronized boolean isRepeat(int format, CharSequence rawValue, long nowNanos) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < rawValue.length(); i++) {
+      char c = rawValue.charAt(i);
+      hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+      hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+    return isRepeat(hash ^ (format * GOLDEN_GAMMA), nowNanos);
+  }
+
+  private boolean isRepeat(long key, long nowNanos) {
+    int bucket = (int) (key ^ (key >>> 32)) & bucketMask;
+    for (int e = buckets[bucket]; e != NONE; e = chain[e]) {
+      if (keys[e] == key) {
+        boolean fresh = nowNanos - seenNanos[e] <= ttlNanos;
+        seenNanos[e] = nowNanos;
+        unlink(e);
+        linkNewest(e);
+        if (fresh) {
+          suppressed++;
+          return true;
+        }
+        reported++;
+        return false;
+      }
+    }
+
+    int e = size < maxEntries ? size++ : evictOldest();
+    keys[e] = key;
+    seenNanos[e] = nowNanos;
+    chain[e] = buckets[bucket];
+    buckets[bucket] = e;
+    linkNewest(e);
+    reported++;
+    return false;
+  }
+
+  /** Forgets all codes. The counters are kept. */
+  public synchronized void clear() {
+    Arrays.fill(buckets, NONE);
+    newest = NONE;
+    oldest = NONE;
+    size = 0;
+  }
+
+  public synchronized void resetStats() {
+    reported = 0;
+    suppressed = 0;
+    evicted = 0;
+  }
+
+  /** Number of sightings that were let through, because the code was new or had expired. */
+  public synchronized long getReportedCount() {
+    return reported;
+  }
+
+  /** Number of sightings that were suppressed as repeats. */
+  public synchronized long getSuppressedCount() {
+    return suppressed;
+  }
+
+  /** Number of codes forgotten early to make room for new ones. */
+  public synchronized long getEvictedCount() {
+    return evicted;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  private int evictOldest() {
+    int e = oldest;
+    unlink(e);
+    int bucket = (int) (keys[e] ^ (keys[e] >>> 32)) & bucketMask;
+    if (buckets[bucket] == e) {
+      buckets[bucket] = chain[e];
+    } else {
+      int prev = buckets[bucket];
+      while (chain[prev] != e) {
+        prev = chain[prev];
+      }
+      chain[prev] = chain[e];
+    }
+    evicted++;
+    return e;
+  }
+
+  private void linkNewest(int e) {
+    newer[e] = NONE;
+    older[e] = newest;
+    if (newest != NONE) {
+      newer[newest] = e;
+    }
+    newest = e;
+    if (oldest == NONE) {
+      oldest = e;
+    }
+  }
+
+  private void unlink(int e) {
+    if (newer[e] != NONE) {
+      older[newer[e]] = older[e];
+    } else {
+      newest = older[e];
+    }
+    if (older[e] != NONE) {
+      newer[older[e]] = newer[e];
+    } else {
+      oldest = newer[e];
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package co.apperto.fastqrreaderview.common;
+
+/**
+ * The part of a frame that is scanned for codes, as fractions of the frame's width and height.
+ *
+ * <p>Windows set by the app are relative to the preview as it is shown: upright, and mirrored for
+ * front cameras. Frames arrive as the sensor delivers them, so processors turn the window into
+ * frame coordinates with {@link #toFrame(int, boolean)} before cropping to it.
+ */
+public final class ScanWindow {
+
+  /** The whole frame. */
+  public static final ScanWindow FULL_FRAME = new ScanWindow(0f, 0f, 1f, 1f);
+
+  private final float left;
+  private final float top;
+  private final float right;
+  private final float bottom;
+  // This window in frame coordinates, by 2 * rotation + mirrored, filled in on first use. Racing
+  // threads at worst both create the same immutable window.
+  private final ScanWindow[] frameWindows = new ScanWindow[8];
+
+  private ScanWindow(float left, float top, float right, float bottom) {
+    this.left = left;
+    this.top = top;
+    this.right = right;
+    this.bottom = bottom;
+  }
+
+  /**
+   * Creates a window from normalized coordinates in [0, 1].
+   *
+   * @throws IllegalArgumentException if the window is empty or lies outside of the frame
+   */
+  public static ScanWindow of(float left, float top, float right, float bottom) {
+    if (!(left >= 0f && top >= 0f && right <= 1f && bottom <= 1f)
+        || !(left < right && top < bottom)) {
+      throw new IllegalArgumentException(
+          "Invalid scan window: [" + left + ", " + top + ", " + right + ", " + bottom + "]");
+    }
+    if (left == 0f && top == 0f && right == 1f && bottom == 1f) {
+      return FULL_FRAME;
+    }
+    return new ScanWindow(left, top, right, bottom);
+  }
+
+  public boolean isFullFrame() {
+    return this == FULL_FRAME;
+  }
+
+  public float getLeft() {
+    return left;
+  }
+
+  public float getTop() {
+    return top;
+  }
+
+  public float getRight() {
+    return right;
+  }
+
+  public float getBottom() {
+    return bottom;
+  }
+
+  /**
+   * Returns this window, given relative to the preview as shown, relative to a frame that has to be
+   * turned clockwise by {@code rotation} quarter turns to be upright, as in {@link
+   * FrameMetadata#getRotation()}. If {@code mirrored}, the preview shows the upright frame mirrored
+   * left to right, as for front cameras.
+   */
+  public ScanWindow toFrame(int rotation, boolean mirrored) {
+    if (isFullFrame()) {
+      return this;
+    }
+    int key = ((rotation & 3) << 1) | (mirrored ? 1 : 0);
+    ScanWindow window = frameWindows[key];
+    if (window == null) {
+      window = key == 0 ? this : mapToFrame(rotation & 3, mirrored);
+      frameWindows[key] = window;
+    }
+    return window;
+  }
+
+  private ScanWindow mapToFrame(int rotation, boolean mirrored) {
+    // Horizontal extent in the upright frame.
+    float l = mirrored ? 1f - right : left;
+    float r = mirrored ? 1f - left : right;
+    switch (rotation) {
+      case 1:
+        // Upright (u, v) is frame (v, 1 - u).
+        return new ScanWindow(top, 1f - r, bottom, 1f - l);
+      case 2:
+        return new ScanWindow(1f - r, 1f - bottom, 1f - l, 1f - top);
+      case 3:
+        // Upright (u, v) is frame (1 - v, u).
+        return new ScanWindow(1f - bottom, l, 1f - top, r);
+      default:
+        return new ScanWindow(l, top, r, bottom);
+    }
+  }
+
+  /**
+   * Left edge in pixels for a frame {@code width} pixels wide. Rounded down to an even column so
+   * that the crop stays aligned with the 2x2 subsampled chroma of NV21.
+   */
+  public int pixelLeft(int width) {
+    return ((int) (left * width)) & ~1;
+  }
+
+  /** Top edge in pixels, rounded down to an even row. */
+  public int pixelTop(int height) {
+    return ((int) (top * height)) & ~1;
+  }
+
+  /** Width in pixels of the window, rounded up to an even number and clamped to the frame. */
+  public int pixelWidth(int width) {
+    int x = pixelLeft(width);
+    int r = Math.min(width, ((int) Math.ceil(right * width) + 1) & ~1);
+    return Math.max(2, r - x);
+  }
+
+  /** Height in pixels of the window, rounded up to an even number and clamped to the frame. */
+  public int pixelHeight(int height) {
+    int y = pixelTop(height);
+    int b = Math.min(height, ((int) Math.ceil(bottom * height) + 1) & ~1);
+    return Math.max(2, b - y);
+  }
+
+  /**
+   * Returns whether the pixel ({@code x}, {@code y}) of a {@code width} x {@code height} frame lies
+   * inside the window.
+   */
+  public boolean contains(int x, int y, int width, int height) {
+    if (isFullFrame()) {
+      return true;
+    }
+    float fx = (float) x / width;
+    float fy = (float) y / height;
+    return fx >= left && fx <= right && fy >= top && fy <= bottom;
+  }
+
+  @Override
+  public String toString() {
+    return "ScanWindow[" + left + ", " + top + ", " + right + ", " + bottom + "]";
+  }
+}
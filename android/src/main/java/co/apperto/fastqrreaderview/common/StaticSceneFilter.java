@@ -0,0 +1,139 @@
+package co.apperto.fastqrreaderview.common;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Recognizes frames that show the same scene as the last frame that was analyzed, so that a camera
+ * on a stand aimed at an empty belt does not decode the same picture over and over.
+ *
+ * <p>Each frame is fingerprinted by the mean luma of a {@value #BLOCK_COLUMNS} x {@value
+ * #BLOCK_ROWS} grid of blocks, each averaged from {@value #SAMPLES_PER_SIDE} x {@value
+ * #SAMPLES_PER_SIDE} pixels spread over the block. A frame is unchanged if no block mean differs
+ * from the last analyzed frame's by more than the tolerance, after scaling that fingerprint to the
+ * current mean level so that auto exposure does not count as a change. Comparing every block
+ * rather than the mean difference catches an object entering a corner of the scene, and comparing
+ * against the last analyzed frame rather than the previous one keeps slow drift from adding up
+ * unseen.
+ *
+ * <p>Even an unchanged scene is analyzed again once the refresh interval has passed since the last
+ * analyzed frame, in case the detector missed a code the first time.
+ *
+ * <p>Fingerprints are kept in arrays allocated once, so checking a frame does not allocate. {@link
+ * #isUnchanged} must be called on one thread; {@link #invalidate()} may be called from any.
+ */
+public final class StaticSceneFilter {
+
+  static final int BLOCK_COLUMNS = 16;
+
+  static final int BLOCK_ROWS = 12;
+
+  static final int SAMPLES_PER_SIDE = 4;
+
+  private static final int BLOCKS = BLOCK_COLUMNS * BLOCK_ROWS;
+
+  private final float tolerance;
+  private final long refreshNanos;
+
+  private final int[] blockSums = new int[BLOCKS];
+  private final int[] referenceSums = new int[BLOCKS];
+  private long referenceTotal;
+  // Size of the frame the reference was taken from, 0 if there is none.
+  private int referenceWidth;
+  private int referenceHeight;
+  private long analyzedNanos;
+  private volatile boolean invalidated;
+
+  /**
+   * @param tolerance how many luma levels a block mean may change by before the scene counts as
+   *     changed
+   * @param refreshNanos how long an unchanged scene goes without being analyzed
+   */
+  public StaticSceneFilter(float tolerance, long refreshNanos) {
+    if (!(tolerance >= 0f) || refreshNanos <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid static scene settings: " + tolerance + ", " + refreshNanos);
+    }
+    this.tolerance = tolerance;
+    this.refreshNanos = refreshNanos;
+  }
+
+  public float getTolerance() {
+    return tolerance;
+  }
+
+  public long getRefreshNanos() {
+    return refreshNanos;
+  }
+
+  /**
+   * Fingerprints the {@code width} x {@code height} luma plane at the start of {@code luma}, with
+   * rows {@code rowStride} bytes apart, and returns whether detection can be skipped because the
+   * scene is unchanged. Otherwise the frame becomes the new reference and is expected to be
+   * analyzed. The position of {@code luma} is ignored.
+   */
+  public boolean isUnchanged(ByteBuffer luma, int width, int height, int rowStride, long nowNanos) {
+    if (width < BLOCK_COLUMNS * SAMPLES_PER_SIDE || height < BLOCK_ROWS * SAMPLES_PER_SIDE) {
+      return false;
+    }
+    long total = fingerprint(luma, width, height, rowStride);
+    boolean unchanged = !invalidated
+        && width == referenceWidth
+        && height == referenceHeight
+        && nowNanos - analyzedNanos < refreshNanos
+        && matchesReference(total);
+    if (unchanged) {
+      return true;
+    }
+    invalidated = false;
+    System.arraycopy(blockSums, 0, referenceSums, 0, BLOCKS);
+    referenceTotal = total;
+    referenceWidth = width;
+    referenceHeight = height;
+    analyzedNanos = nowNanos;
+    return false;
+  }
+
+  /**
+   * Makes the next frame be analyzed whatever it shows, e.g. when scanning starts again and a code
+   * still in view should be read at once.
+   */
+  public void invalidate() {
+    invalidated = true;
+  }
+
+  /** Fills {@link #blockSums} and returns their total. */
+  private long fingerprint(ByteBuffer luma, int width, int height, int rowStride) {
+    Arrays.fill(blockSums, 0);
+    int samplesDown = BLOCK_ROWS * SAMPLES_PER_SIDE;
+    int samplesAcross = BLOCK_COLUMNS * SAMPLES_PER_SIDE;
+    for (int sy = 0; sy < samplesDown; sy++) {
+      int rowStart = ((2 * sy + 1) * height / (2 * samplesDown)) * rowStride;
+      int blockBase = (sy / SAMPLES_PER_SIDE) * BLOCK_COLUMNS;
+      for (int sx = 0; sx < samplesAcross; sx++) {
+        int x = (2 * sx + 1) * width / (2 * samplesAcross);
+        blockSums[blockBase + sx / SAMPLES_PER_SIDE] += luma.get(rowStart + x) & 0xFF;
+      }
+    }
+    long total = 0;
+    for (int i = 0; i < BLOCKS; i++) {
+      total += blockSums[i];
+    }
+    return total;
+  }
+
+  private boolean matchesReference(long total) {
+    if (referenceTotal == 0) {
+      return total == 0;
+    }
+    // |sum - reference * total / referenceTotal| <= tolerance per sample, in integers.
+    long limit = (long) (tolerance * SAMPLES_PER_SIDE * SAMPLES_PER_SIDE * referenceTotal);
+    for (int i = 0; i < BLOCKS; i++) {
+      long difference = blockSums[i] * referenceTotal - referenceSums[i] * total;
+      if (Math.abs(difference) > limit) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
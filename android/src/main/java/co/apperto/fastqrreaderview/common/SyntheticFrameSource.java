@@ -0,0 +1,265 @@
+package co.apperto.fastqrreaderview.common;
+
+import android.graphics.SurfaceTexture;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.common.images.Size;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link FrameSource} that needs no camera: it replays a fixed list of NV21 frames to the processor
+ * at a given rate. Used to drive the frame pipeline from tests and benchmarks, or to warm detectors
+ * up with known content. No preview is rendered.
+ *
+ * <p>Nothing here calls into the Android framework, so it runs in JVM unit tests; the {@link
+ * SurfaceTexture} passed to {@link #start} is never touched.
+ */
+public class SyntheticFrameSource implements FrameSource {
+
+  private final List<ByteBuffer> frames;
+  private final Size frameSize;
+  private final int facing;
+  private final long frameIntervalNanos;
+
+  private final Object processorLock = new Object();
+  // @GuardedBy("processorLock")
+  private VisionImageProcessor frameProcessor;
+
+  @Nullable private volatile FrameScheduler frameScheduler;
+
+  @Nullable private volatile PipelineStats pipelineStats;
+
+  @Nullable private volatile StaticSceneFilter staticSceneFilter;
+
+  private Thread deliveryThread;
+  private volatile boolean active;
+  // While paused the delivery thread waits on pauseLock instead of delivering frames.
+  private final Object pauseLock = new Object();
+  // @GuardedBy("pauseLock")
+  private boolean paused;
+  private volatile long deliveredFrames;
+  // First exception the processor threw, see getProcessorFailure().
+  @Nullable private volatile Throwable processorFailure;
+
+  /**
+   * @param frames NV21 frames of {@code width} x {@code height} pixels, delivered in order and then
+   *     from the start again
+   * @param fps the rate at which frames are delivered, or 0 to deliver them back to back
+   */
+  public SyntheticFrameSource(
+      List<ByteBuffer> frames, int width, int height, int facing, float fps) {
+    if (frames.isEmpty()) {
+      throw new IllegalArgumentException("At least one frame is required.");
+    }
+    this.frames = new ArrayList<>(frames);
+    this.frameSize = new Size(width, height);
+    this.facing = facing;
+    this.frameIntervalNanos = fps > 0 ? (long) (1_000_000_000L / fps) : 0;
+  }
+
+  /** Starts delivering frames. {@code surfaceTexture} is ignored and may be null. */
+  @Override
+  public synchronized SyntheticFrameSource start(@Nullable SurfaceTexture surfaceTexture) {
+    if (deliveryThread != null) {
+      return this;
+    }
+    active = true;
+    deliveryThread = new Thread(new DeliveryRunnable(), "SyntheticFrameSource");
+    deliveryThread.start();
+    return this;
+  }
+
+  @Override
+  public synchronized void stop() {
+    active = false;
+    if (deliveryThread != null) {
+      deliveryThread.interrupt();
+      try {
+        deliveryThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      deliveryThread = null;
+    }
+  }
+
+  @Override
+  public void release() {
+    stop();
+    synchronized (processorLock) {
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+      }
+    }
+  }
+
+  @Override
+  public void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
+    synchronized (processorLock) {
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+      }
+      frameProcessor = processor;
+    }
+  }
+
+  @Override
+  public Size getPreviewSize() {
+    return frameSize;
+  }
+
+  @Override
+  public int getCameraFacing() {
+    return facing;
+  }
+
+  /** There is no torch to toggle. */
+  @Override
+  public void toggleFlash() {}
+
+  /** Frames are delivered at a fixed rate, so the scheduler can only skip them. */
+  @Override
+  public void setFrameScheduler(@Nullable FrameScheduler scheduler) {
+    frameScheduler = scheduler;
+  }
+
+  /** Frames go to the processor on the delivery thread, so there is no queue wait to record. */
+  @Override
+  public void setPipelineStats(@Nullable PipelineStats stats) {
+    pipelineStats = stats;
+  }
+
+  /** A fixed set of frames repeats, so a set of one frame shows an unchanged scene. */
+  @Override
+  public void setStaticSceneFilter(@Nullable StaticSceneFilter filter) {
+    staticSceneFilter = filter;
+  }
+
+  /** Frames have a fixed size and rate, so the profile is ignored. */
+  @Override
+  public void setCaptureProfile(CaptureProfile profile) {}
+
+  @Override
+  public List<int[]> getSupportedFrameSizes() {
+    List<int[]> sizes = new ArrayList<>();
+    sizes.add(new int[] {frameSize.getWidth(), frameSize.getHeight()});
+    return sizes;
+  }
+
+  /** Frames back to back have no frame rate, and so no range. */
+  @Override
+  public List<int[]> getSupportedFpsRanges() {
+    List<int[]> ranges = new ArrayList<>();
+    if (frameIntervalNanos > 0) {
+      int scaledFps = (int) (1_000_000_000_000L / frameIntervalNanos);
+      ranges.add(new int[] {scaledFps, scaledFps});
+    }
+    return ranges;
+  }
+
+  /** Parks the delivery thread while paused; delivery resumes at the configured rate. */
+  @Override
+  public void setPaused(boolean paused) {
+    synchronized (pauseLock) {
+      this.paused = paused;
+      pauseLock.notifyAll();
+    }
+  }
+
+  /** Returns the number of frames handed to the processor so far. */
+  public long getDeliveredFrameCount() {
+    return deliveredFrames;
+  }
+
+  /**
+   * Returns the first exception the processor threw from a frame, or null if it threw none.
+   * Delivery carries on past such a frame, as it does from a camera.
+   */
+  @Nullable
+  public Throwable getProcessorFailure() {
+    return processorFailure;
+  }
+
+  private class DeliveryRunnable implements Runnable {
+    // Describes every frame in turn; the processor copies what it keeps.
+    private final FrameMetadata metadata = new FrameMetadata();
+
+    @Override
+    public void run() {
+      int index = 0;
+      long received = 0;
+      long nextFrameNanos = System.nanoTime();
+      while (active) {
+        synchronized (pauseLock) {
+          if (paused) {
+            while (paused) {
+              try {
+                pauseLock.wait();
+              } catch (InterruptedException e) {
+                // Stopped while paused.
+                return;
+              }
+            }
+            nextFrameNanos = System.nanoTime();
+          }
+        }
+        if (frameIntervalNanos > 0) {
+          long waitNanos = nextFrameNanos - System.nanoTime();
+          if (waitNanos > 0) {
+            try {
+              Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+            } catch (InterruptedException e) {
+              return;
+            }
+          }
+          nextFrameNanos += frameIntervalNanos;
+        }
+
+        ByteBuffer frame = frames.get(index);
+        index = (index + 1) % frames.size();
+        long sequence = received++;
+        long receivedNanos = System.nanoTime();
+        PipelineStats stats = pipelineStats;
+        if (stats != null) {
+          stats.onFrameReceived();
+        }
+        FrameScheduler scheduler = frameScheduler;
+        if (scheduler != null && !scheduler.shouldProcess(receivedNanos)) {
+          if (stats != null) {
+            stats.onFrameThrottled();
+          }
+          continue;
+        }
+        StaticSceneFilter filter = staticSceneFilter;
+        if (filter != null
+            && filter.isUnchanged(frame, frameSize.getWidth(), frameSize.getHeight(),
+                frameSize.getWidth(), receivedNanos)) {
+          if (stats != null) {
+            stats.onFrameStatic();
+          }
+          continue;
+        }
+        frame.rewind();
+        try {
+          synchronized (processorLock) {
+            if (frameProcessor != null) {
+              metadata
+                  .set(frameSize.getWidth(), frameSize.getHeight(), 0, facing)
+                  .setFrame(sequence, receivedNanos);
+              frameProcessor.process(frame, metadata, FrameLease.NONE);
+            }
+          }
+          deliveredFrames++;
+        } catch (Throwable t) {
+          if (processorFailure == null) {
+            processorFailure = t;
+          }
+        }
+      }
+    }
+  }
+}
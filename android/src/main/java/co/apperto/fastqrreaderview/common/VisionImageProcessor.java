@@ -21,14 +21,23 @@ import java.nio.ByteBuffer;
 /** An inferface to process the images with different ML Kit detectors and custom image models. */
 public interface VisionImageProcessor {
 
-  /** Processes the images with the underlying machine learning models. */
-  void process(ByteBuffer data, FrameMetadata frameMetadata);
+  /**
+   * Processes the images with the underlying machine learning models. The processor releases
+   * {@code data} through {@code lease} once it no longer reads it, which may be after this returns.
+   * {@code frameMetadata} is reused for the next frame, so it has to be copied to be kept.
+   */
+  void process(ByteBuffer data, FrameMetadata frameMetadata, FrameLease lease);
 
   /** Processes the bitmap images. */
   void process(Bitmap bitmap);
 
-  /** Processes the images. */
-  void process(Image bitmap, int rotation);
+  /**
+   * Processes the images. The processor releases {@code image} through {@code lease} once it no
+   * longer reads it, which may be after this returns.
+   *
+   * @param facing the {@link CameraSource} facing of the camera the image comes from
+   */
+  void process(Image image, int rotation, int facing, ImageLease lease);
 
   /** Stops the underlying machine learning model and release resources. */
   void stop();
@@ -16,6 +16,7 @@ package co.apperto.fastqrreaderview.java;
 import android.graphics.Bitmap;
 import android.media.Image;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
@@ -23,9 +24,24 @@ import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import co.apperto.fastqrreaderview.common.CameraSource;
+import co.apperto.fastqrreaderview.common.CodeTracker;
+import co.apperto.fastqrreaderview.common.DetectionLimiter;
+import co.apperto.fastqrreaderview.common.FrameCropper;
+import co.apperto.fastqrreaderview.common.FrameLease;
 import co.apperto.fastqrreaderview.common.FrameMetadata;
+import co.apperto.fastqrreaderview.common.FrameQualityGate;
+import co.apperto.fastqrreaderview.common.FrameScheduler;
+import co.apperto.fastqrreaderview.common.ImageLease;
+import co.apperto.fastqrreaderview.common.LumaPyramid;
+import co.apperto.fastqrreaderview.common.PipelineStats;
+import co.apperto.fastqrreaderview.common.ScanWindow;
 import co.apperto.fastqrreaderview.common.VisionImageProcessor;
 
 /**
@@ -33,89 +49,747 @@ import co.apperto.fastqrreaderview.common.VisionImageProcessor;
  * #onSuccess(T, FrameMetadata)} to define what they want to with the detection
  * results and {@link #detectInImage(InputImage)} to specify the detector object.
  *
+ * <p>Up to {@link #setMaxInFlight(int)} detections run at the same time. Each one holds a
+ * detection slot with its own crop and pyramid buffers, plus the lease on the camera buffer if it
+ * reads that buffer directly. Frames arriving while every slot is busy are skipped.
+ *
+ * <p>Frames are not rotated here: the detector is told how to turn them upright and reports its
+ * results that way, which for ML Kit costs no copy. The scan window is turned into frame
+ * coordinates before cropping, so a window drawn on a portrait preview covers the same part of the
+ * frame.
+ *
+ * <p>With a {@link CodeTracker}, NV21 frames are cropped further, to the region around the codes
+ * found in earlier frames, and the boxes subclasses report from {@link #trackResults} move that
+ * region along.
+ *
  * @param <T> The type of the detected feature.
  */
 public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
-    // Whether we should ignore process(). This is usually caused by feeding input data faster than
-    // the model can handle.
+    /** How the results of concurrent detections are handed to {@link #onSuccess}. */
+    public enum ResultOrder {
+        /** In the order the frames arrived; a fast detection waits for slower earlier ones. */
+        FRAME_ORDER,
+        /** As soon as each detection completes. */
+        AS_READY
+    }
+
+    /** Upper bound for {@link #setMaxInFlight(int)}; slots are tracked as bits of an int. */
+    public static final int MAX_IN_FLIGHT_LIMIT = 16;
+
+    private static final int ALL_SLOTS = (1 << MAX_IN_FLIGHT_LIMIT) - 1;
+
+    // Whether we should ignore process(). Set while scanning is stopped.
     public final AtomicBoolean shouldThrottle = new AtomicBoolean(true);
 
+    // Part of the frame that is scanned. NV21 frames are cropped to it before detection, results
+    // from other frames are filtered against it.
+    private volatile ScanWindow scanWindow = ScanWindow.FULL_FRAME;
+
+    // Number of pyramid levels, 1 if frames are always detected at full size.
+    private volatile int pyramidLevels = 1;
+    // Pyramid level the next frame is detected at, or -1 for the coarsest level available.
+    private volatile int scanLevel = -1;
+    // Coarsest pyramid level that produced results so far in this session, or -1 if none did.
+    private volatile int preferredLevel = -1;
+
+    // InputImages of the frame source's pooled buffers by pool slot, see pooledImage(), and the
+    // buffers they were made of. Only used on the thread frames are delivered on.
+    private InputImage[] poolImages = new InputImage[0];
+    private ByteBuffer[] poolImageBuffers = new ByteBuffer[0];
+
+    private final DetectionSlot[] slots;
+    // Bit i is set while slot i is free. Claiming a slot is the permit for one detection.
+    private final AtomicInteger freeSlots = new AtomicInteger(ALL_SLOTS);
+    private volatile int maxInFlight = 1;
+    // Shared with the processors of other readers; a slot also takes one of its permits.
+    @Nullable
+    private volatile DetectionLimiter detectionLimiter;
+    private volatile ResultOrder resultOrder = ResultOrder.FRAME_ORDER;
+    // Run by whoever frees the last busy slot, see runWhenIdle().
+    private final AtomicReference<Runnable> idleTask = new AtomicReference<>();
+
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final Object deliveryLock = new Object();
+    // @GuardedBy("deliveryLock")
+    private long nextSequenceToDeliver;
+    // Sequence number of the frame whose results are being delivered, and when its detection
+    // completed.
+    // @GuardedBy("deliveryLock")
+    private long deliveringSequence = -1;
+    // @GuardedBy("deliveryLock")
+    private long deliveringCompletedNanos;
+
+    private final AtomicLong skippedFrames = new AtomicLong();
+
+    // Told how long each detection took, to pick the analysis cadence.
+    @Nullable
+    private volatile FrameScheduler frameScheduler;
+
+    @Nullable
+    private volatile PipelineStats pipelineStats;
+
+    // Rejects blurry and moving frames before they take a slot. Only used on the thread frames are
+    // delivered on.
+    @Nullable
+    private volatile FrameQualityGate qualityGate;
+
+    @Nullable
+    private volatile CodeTracker codeTracker;
+
+    @SuppressWarnings("unchecked")
     public VisionProcessorBase() {
+        slots = (DetectionSlot[]) new VisionProcessorBase.DetectionSlot[MAX_IN_FLIGHT_LIMIT];
+        for (int i = 0; i < MAX_IN_FLIGHT_LIMIT; i++) {
+            slots[i] = new DetectionSlot(i);
+        }
+    }
+
+    /** Restricts detection to {@code scanWindow}. Takes effect with the next frame. */
+    public void setScanWindow(ScanWindow scanWindow) {
+        this.scanWindow = scanWindow;
+    }
+
+    public ScanWindow getScanWindow() {
+        return scanWindow;
+    }
+
+    /**
+     * Detects NV21 frames on a pyramid of up to {@code levels} sizes, each half the previous one.
+     * Detection starts on the smallest level and moves to the next finer level, one frame at a time,
+     * while a level yields nothing. The level that last produced results is where the next search
+     * starts, so steady-state scanning stays on the cheapest level that decodes. Passing 1 disables
+     * the pyramid.
+     */
+    public void setPyramidLevels(int levels) {
+        pyramidLevels = Math.max(1, levels);
+        scanLevel = -1;
+        preferredLevel = -1;
+    }
+
+    /**
+     * Sets how many detections may run at the same time, between 1 and {@link
+     * #MAX_IN_FLIGHT_LIMIT}. Detections that read camera buffers directly keep them from the camera,
+     * so the frame source needs that many spare buffers on top of its usual ones.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1 || maxInFlight > MAX_IN_FLIGHT_LIMIT) {
+            throw new IllegalArgumentException("Invalid in-flight limit: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Sets the limiter this processor shares with others so that their detections together stay
+     * within its limit, or null to only apply {@link #setMaxInFlight}. Set it before the first
+     * frame.
+     */
+    public void setDetectionLimiter(@Nullable DetectionLimiter limiter) {
+        detectionLimiter = limiter;
+    }
+
+    /** Reports the latency of every detection to {@code scheduler}, or to no one if null. */
+    public void setFrameScheduler(@Nullable FrameScheduler scheduler) {
+        this.frameScheduler = scheduler;
+    }
+
+    /**
+     * Records throttled and skipped frames, detection latencies and failures in {@code stats}, or
+     * nowhere if null.
+     */
+    public void setPipelineStats(@Nullable PipelineStats stats) {
+        this.pipelineStats = stats;
+    }
+
+    /**
+     * Checks the scan window of every NV21 frame and YUV_420_888 image with {@code gate} and drops
+     * those it rejects before detection, or lets every frame through if null.
+     */
+    public void setQualityGate(@Nullable FrameQualityGate gate) {
+        this.qualityGate = gate;
+    }
+
+    /**
+     * Detects NV21 frames only around the codes {@code tracker} follows while it follows any, or
+     * always across the whole scan window if null. Subclasses that report no boxes from {@link
+     * #trackResults} are never tracked.
+     */
+    public void setCodeTracker(@Nullable CodeTracker tracker) {
+        this.codeTracker = tracker;
+    }
+
+    public void setResultOrder(ResultOrder resultOrder) {
+        this.resultOrder = resultOrder;
+    }
+
+    /** Number of detections currently running. */
+    public int getInFlightCount() {
+        return MAX_IN_FLIGHT_LIMIT - Integer.bitCount(freeSlots.get());
+    }
+
+    /** Number of frames skipped so far because every detection slot was busy. */
+    public long getSkippedFrameCount() {
+        return skippedFrames.get();
     }
 
     @Override
     public void process(
-            ByteBuffer data, final FrameMetadata frameMetadata) {
-        if (shouldThrottle.get()) {
+            ByteBuffer data, FrameMetadata frameMetadata, FrameLease lease) {
+        if (isThrottled()) {
+            lease.release(data);
+            return;
+        }
+        ScanWindow window = scanWindow.toFrame(frameMetadata.getRotation(),
+                frameMetadata.getCameraFacing() == CameraSource.CAMERA_FACING_FRONT);
+        int width = frameMetadata.getWidth();
+        if (isRejected(data, width, frameMetadata.getHeight(), width, window)) {
+            lease.release(data);
+            return;
+        }
+        DetectionSlot slot = acquireSlot();
+        if (slot == null) {
+            lease.release(data);
             return;
         }
 
-        InputImage inputImage = InputImage.fromByteBuffer(
-                data,
-                frameMetadata.getWidth(),
-                frameMetadata.getHeight(),
-                0,//frameMetadata.getRotation(),
-                InputImage.IMAGE_FORMAT_NV21
-        );
+        ByteBuffer input;
+        try {
+            input = prepareInput(slot, data, frameMetadata, window);
+        } catch (RuntimeException e) {
+            lease.release(data);
+            freeSlot(slot);
+            throw e;
+        }
+        frameMetadata = slot.metadata;
+        int level = slot.pyramidLevel;
+
+        if (input != data) {
+            // The detector reads the slot's own copy, so the camera can have its buffer back.
+            lease.release(data);
+        } else {
+            slot.lease(data, lease);
+        }
 
-        detectInVisionImage(inputImage, frameMetadata);
+        InputImage image = input == data
+                ? pooledImage(data, frameMetadata)
+                : slot.copyImage(input, frameMetadata, level);
+        detectInVisionImage(slot, image, frameMetadata, level);
+    }
+
+    /**
+     * Returns an NV21 image of the camera buffer {@code data}, the one made for its pool slot
+     * before if that still matches.
+     *
+     * <p>Reusing an {@link InputImage} is safe: it only wraps the buffer along with its size,
+     * rotation and format, and keeps nothing of the detections it was passed to. A pooled buffer is
+     * leased to one detection at a time, and the camera writes it again only once the detector
+     * finished reading it and the lease was released. A reconfigured pool wraps new arrays, so
+     * images made before no longer match and are all dropped, along with the arrays they hold.
+     */
+    private InputImage pooledImage(ByteBuffer data, FrameMetadata frameMetadata) {
+        int index = frameMetadata.getBufferIndex();
+        if (index < 0) {
+            return nv21Image(data, frameMetadata);
+        }
+        if (index >= poolImages.length) {
+            poolImages = Arrays.copyOf(poolImages, index + 1);
+            poolImageBuffers = Arrays.copyOf(poolImageBuffers, index + 1);
+        }
+        InputImage image = poolImages[index];
+        if (poolImageBuffers[index] == data && matches(image, frameMetadata)) {
+            return image;
+        }
+        if (poolImageBuffers[index] != null && poolImageBuffers[index] != data) {
+            Arrays.fill(poolImages, null);
+            Arrays.fill(poolImageBuffers, null);
+        }
+        image = nv21Image(data, frameMetadata);
+        poolImages[index] = image;
+        poolImageBuffers[index] = data;
+        return image;
+    }
+
+    private static InputImage nv21Image(ByteBuffer buffer, FrameMetadata metadata) {
+        return InputImage.fromByteBuffer(buffer, metadata.getWidth(), metadata.getHeight(),
+                metadata.getRotation() * 90, InputImage.IMAGE_FORMAT_NV21);
+    }
+
+    /** Whether {@code image} has the size and rotation {@code metadata} describes. */
+    private static boolean matches(@Nullable InputImage image, FrameMetadata metadata) {
+        return image != null
+                && image.getWidth() == metadata.getWidth()
+                && image.getHeight() == metadata.getHeight()
+                && image.getRotationDegrees() == metadata.getRotation() * 90;
+    }
+
+    /**
+     * Crops {@code data} to the tracked region or else to {@code window}, given in frame
+     * coordinates, and picks its pyramid level, using the buffers of {@code slot}. Leaves the
+     * metadata and level of the result in the slot.
+     *
+     * @return {@code data} itself if neither applies, otherwise a copy owned by the slot
+     */
+    private ByteBuffer prepareInput(
+            DetectionSlot slot, ByteBuffer data, FrameMetadata frameMetadata, ScanWindow window) {
+        ByteBuffer input = data;
+        // The source reuses its metadata for the next frame, so the slot keeps a copy.
+        frameMetadata = slot.frameMetadata.copyFrom(frameMetadata);
+        int width = frameMetadata.getWidth();
+        int height = frameMetadata.getHeight();
+        int[] region = slot.detectedRegion;
+        CodeTracker tracker = codeTracker;
+        if (tracker != null && tracker.getRegion(width, height, window, region)) {
+            input = slot.cropper.crop(
+                    input, width, height, region[0], region[1], region[2], region[3]);
+            PipelineStats stats = pipelineStats;
+            if (stats != null) {
+                stats.onFrameTracked();
+            }
+        } else if (!window.isFullFrame()) {
+            input = slot.cropper.crop(input, width, height, window);
+            region[0] = window.pixelLeft(width);
+            region[1] = window.pixelTop(height);
+            region[2] = slot.cropper.getCropWidth();
+            region[3] = slot.cropper.getCropHeight();
+        } else {
+            region[0] = 0;
+            region[1] = 0;
+            region[2] = width;
+            region[3] = height;
+        }
+        slot.frameWidth = width;
+        slot.frameHeight = height;
+        if (input != data) {
+            frameMetadata
+                    .setSize(slot.cropper.getCropWidth(), slot.cropper.getCropHeight())
+                    .setScanWindow(ScanWindow.FULL_FRAME);
+        }
+
+        int level = -1;
+        int levels = pyramidLevels;
+        if (levels > 1) {
+            LumaPyramid pyramid = slot.pyramidFor(levels);
+            int levelCount = pyramid.levelCount(frameMetadata.getWidth(), frameMetadata.getHeight());
+            level = scanLevel < 0 ? levelCount - 1 : Math.min(scanLevel, levelCount - 1);
+            if (level > 0) {
+                input = pyramid.build(input, frameMetadata.getWidth(), frameMetadata.getHeight(), level);
+                frameMetadata.setSize(
+                        LumaPyramid.levelWidth(frameMetadata.getWidth(), level),
+                        LumaPyramid.levelHeight(frameMetadata.getHeight(), level));
+            }
+        }
+
+        slot.metadata = frameMetadata;
+        slot.pyramidLevel = level;
+        slot.tracker = tracker;
+        return input;
     }
 
     // Bitmap version
     @Override
     public void process(Bitmap bitmap) {
-        if (shouldThrottle.get()) {
+        if (isThrottled()) {
+            return;
+        }
+        DetectionSlot slot = acquireSlot();
+        if (slot == null) {
             return;
         }
 
-        detectInVisionImage(InputImage.fromBitmap(bitmap, 0), null);//, graphicOverlay);
+        detectInVisionImage(slot, InputImage.fromBitmap(bitmap, 0), null, -1);//, graphicOverlay);
     }
 
     /**
-     * Detects feature from given media.Image
+     * Detects feature from given media.Image. The image is used as it is, without copying, and
+     * released through {@code lease} once detection is done with it.
      *
-     * @return created FirebaseVisionImage
+     * @param rotation degrees the image has to be rotated clockwise by to be upright
      */
     @Override
-    public void process(Image image, int rotation) {//, final GraphicOverlay graphicOverlay) {
-        if (shouldThrottle.get()) {
+    public void process(Image image, int rotation, int facing, ImageLease lease) {//, final GraphicOverlay graphicOverlay) {
+        if (isThrottled()) {
+            lease.release(image);
             return;
         }
+        Image.Plane luma = image.getPlanes()[0];
+        if (isRejected(luma.getBuffer(), image.getWidth(), image.getHeight(), luma.getRowStride(),
+                scanWindow.toFrame(rotation / 90, facing == CameraSource.CAMERA_FACING_FRONT))) {
+            lease.release(image);
+            return;
+        }
+        DetectionSlot slot = acquireSlot();
+        if (slot == null) {
+            lease.release(image);
+            return;
+        }
+        slot.lease(image, lease);
 
         // This is for overlay display's usage
-        FrameMetadata frameMetadata =
-                new FrameMetadata.Builder().setWidth(image.getWidth()).setHeight(image.getHeight
-                        ()).build();
-        InputImage fbVisionImage = InputImage.fromMediaImage(image, 0);
-        detectInVisionImage(fbVisionImage, frameMetadata);//, graphicOverlay);
+        FrameMetadata frameMetadata = slot.frameMetadata
+                .set(image.getWidth(), image.getHeight(), rotation / 90, facing)
+                .setScanWindow(scanWindow)
+                .setFrame(-1, image.getTimestamp());
+        InputImage fbVisionImage = InputImage.fromMediaImage(image, rotation);
+        detectInVisionImage(slot, fbVisionImage, frameMetadata, -1);//, graphicOverlay);
     }
 
+    /**
+     * @param pyramidLevel the pyramid level {@code image} was built from, or -1 if the pyramid is
+     *     not in use
+     */
     private void detectInVisionImage(
+            DetectionSlot slot,
             InputImage image,
-            final FrameMetadata metadata) {//,
+            FrameMetadata metadata,
+            int pyramidLevel) {//,
 //            final GraphicOverlay graphicOverlay) {
-        detectInImage(image)
-                .addOnSuccessListener(
-                        new OnSuccessListener<T>() {
-                            @Override
-                            public void onSuccess(T results) {
-                                shouldThrottle.set(false);
-                                VisionProcessorBase.this.onSuccess(results, metadata);//,
-                                //graphicOverlay);
-                            }
-                        })
-                .addOnFailureListener(
-                        new OnFailureListener() {
-                            @Override
-                            public void onFailure(@NonNull Exception e) {
-                                shouldThrottle.set(false);
-                                VisionProcessorBase.this.onFailure(e);
-                            }
-                        });
-        // Begin throttling until this frame of input has been processed, either in onSuccess or
-        // onFailure.
-        shouldThrottle.set(true);
+        slot.begin(nextSequence.getAndIncrement(), metadata, pyramidLevel);
+        try {
+            detectInImage(image)
+                    .addOnSuccessListener(slot)
+                    .addOnFailureListener(slot);
+        } catch (RuntimeException e) {
+            slot.onFailure(e);
+        }
+    }
+
+    private boolean isThrottled() {
+        if (!shouldThrottle.get()) {
+            return false;
+        }
+        PipelineStats stats = pipelineStats;
+        if (stats != null) {
+            stats.onFrameThrottled();
+        }
+        return true;
+    }
+
+    /**
+     * Whether the quality gate rejects the {@code window} of a luma plane, counting the frame in
+     * the stats if it does.
+     */
+    private boolean isRejected(
+            ByteBuffer luma, int width, int height, int rowStride, ScanWindow window) {
+        FrameQualityGate gate = qualityGate;
+        if (gate == null) {
+            return false;
+        }
+        int verdict = gate.check(luma, width, height, rowStride, window);
+        if (verdict == FrameQualityGate.ACCEPTED) {
+            return false;
+        }
+        PipelineStats stats = pipelineStats;
+        if (stats != null) {
+            if (verdict == FrameQualityGate.BLURRY) {
+                stats.onFrameBlurry();
+            } else {
+                stats.onFrameMoving();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Claims a free detection slot, or returns null if {@link #maxInFlight} are running or the
+     * shared {@link DetectionLimiter} has no permit left.
+     */
+    @Nullable
+    private DetectionSlot acquireSlot() {
+        int allowed = (1 << maxInFlight) - 1;
+        while (true) {
+            int free = freeSlots.get();
+            int candidates = free & allowed;
+            if (candidates == 0) {
+                onBusy();
+                return null;
+            }
+            int bit = Integer.lowestOneBit(candidates);
+            if (freeSlots.compareAndSet(free, free & ~bit)) {
+                DetectionSlot slot = slots[Integer.numberOfTrailingZeros(bit)];
+                DetectionLimiter limiter = detectionLimiter;
+                if (limiter != null && !limiter.tryAcquire()) {
+                    freeSlot(slot);
+                    onBusy();
+                    return null;
+                }
+                slot.limiter = limiter;
+                return slot;
+            }
+        }
+    }
+
+    private void onBusy() {
+        skippedFrames.incrementAndGet();
+        PipelineStats stats = pipelineStats;
+        if (stats != null) {
+            stats.onFrameBusy();
+        }
+    }
+
+    private void freeSlot(DetectionSlot slot) {
+        DetectionLimiter limiter = slot.limiter;
+        if (limiter != null) {
+            slot.limiter = null;
+            limiter.release();
+        }
+        int bit = 1 << slot.index;
+        while (true) {
+            int free = freeSlots.get();
+            if (freeSlots.compareAndSet(free, free | bit)) {
+                if ((free | bit) == ALL_SLOTS && idleTask.get() != null) {
+                    runIdleTask();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs {@code task} once no detection is in flight, right away if none is, otherwise on the
+     * thread that completes the last one. Lets {@link #stop()} hand back what running detections
+     * still use. Replaces a task that has not run yet.
+     */
+    protected final void runWhenIdle(Runnable task) {
+        idleTask.set(task);
+        if (freeSlots.get() == ALL_SLOTS) {
+            runIdleTask();
+        }
+    }
+
+    private void runIdleTask() {
+        // Both freeSlot() and runWhenIdle() may get here for the same task; only one runs it.
+        Runnable task = idleTask.getAndSet(null);
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    /** Hands a completed detection to the subclass, keeping frame order if requested. */
+    private void deliver(DetectionSlot completed) {
+        synchronized (deliveryLock) {
+            if (resultOrder == ResultOrder.AS_READY) {
+                if (completed.sequence == nextSequenceToDeliver) {
+                    nextSequenceToDeliver++;
+                }
+                dispatch(completed);
+                return;
+            }
+
+            // Deliver every detection that is next in line, which may include ones that completed
+            // earlier and were waiting for this one.
+            DetectionSlot next = completed.sequence == nextSequenceToDeliver ? completed : null;
+            while (next != null) {
+                nextSequenceToDeliver++;
+                dispatch(next);
+                next = findCompleted(nextSequenceToDeliver);
+            }
+        }
+    }
+
+    @Nullable
+    private DetectionSlot findCompleted(long sequence) {
+        for (DetectionSlot slot : slots) {
+            if (slot.completed && slot.sequence == sequence) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private void dispatch(DetectionSlot slot) {
+        T results = slot.results;
+        Exception failure = slot.failure;
+        FrameMetadata metadata = slot.metadata;
+        deliveringSequence = slot.sequence;
+        deliveringCompletedNanos = slot.completedNanos;
+        if (failure == null && slot.tracker != null) {
+            track(slot.tracker, slot, results, metadata);
+        }
+        slot.reset();
+        // The metadata belongs to the slot, so it is only freed for the next frame afterwards.
+        try {
+            if (failure != null) {
+                onFailure(failure);
+            } else {
+                onSuccess(results, metadata);//,
+                //graphicOverlay);
+            }
+        } finally {
+            freeSlot(slot);
+        }
+    }
+
+    /** Moves the tracks of {@code tracker} to the codes found by the detection in {@code slot}. */
+    private void track(CodeTracker tracker, DetectionSlot slot, T results, FrameMetadata metadata) {
+        int[] region = slot.detectedRegion;
+        tracker.beginUpdate(slot.frameWidth, slot.frameHeight, metadata.getRotation(),
+                region[0], region[1], region[2], region[3],
+                slot.pyramidLevel > 0 ? 1 << slot.pyramidLevel : 1);
+        trackResults(results, tracker);
+        tracker.endUpdate();
+    }
+
+    /**
+     * Picks the pyramid level for the next frame once a frame detected at {@code level} came back.
+     */
+    private void onLevelDetected(int level, boolean found) {
+        if (found) {
+            preferredLevel = level;
+            scanLevel = level;
+        } else if (level > 0) {
+            scanLevel = level - 1;
+        } else {
+            // Even the full-size frame had nothing; start over where results were found last.
+            scanLevel = preferredLevel;
+        }
+    }
+
+    /**
+     * State of one detection in flight. A slot is its own success and failure listener, and reuses
+     * the {@link InputImage} of each of its crop and pyramid buffers, so running a detection on an
+     * NV21 frame does not allocate.
+     */
+    private class DetectionSlot implements OnSuccessListener<T>, OnFailureListener {
+        final int index;
+        // The limiter whose permit this slot holds, if any.
+        @Nullable
+        DetectionLimiter limiter;
+        final FrameCropper cropper = new FrameCropper();
+        // What metadata points to while the slot holds a frame from a buffer or image.
+        final FrameMetadata frameMetadata = new FrameMetadata();
+        // Left, top, width and height in frame pixels of what an NV21 frame was detected in.
+        final int[] detectedRegion = new int[4];
+        @Nullable private LumaPyramid pyramid;
+        // Images of the slot's own copies by pyramid level, 0 for a frame that was only cropped,
+        // and the buffers they were made of.
+        private InputImage[] copyImages = new InputImage[1];
+        private ByteBuffer[] copyImageBuffers = new ByteBuffer[1];
+
+        long sequence = -1;
+        FrameMetadata metadata;
+        @Nullable Image mediaImage;
+        int pyramidLevel = -1;
+        // Size of the NV21 frame before cropping, and the tracker to report its codes to, if any.
+        int frameWidth;
+        int frameHeight;
+        @Nullable CodeTracker tracker;
+        long startNanos;
+        long completedNanos;
+        @Nullable ByteBuffer leasedFrame;
+        @Nullable FrameLease frameLease;
+        @Nullable ImageLease imageLease;
+
+        volatile boolean completed;
+        @Nullable T results;
+        @Nullable Exception failure;
+
+        DetectionSlot(int index) {
+            this.index = index;
+        }
+
+        LumaPyramid pyramidFor(int levels) {
+            if (pyramid == null || pyramid.getMaxLevels() != levels) {
+                pyramid = new LumaPyramid(levels);
+            }
+            return pyramid;
+        }
+
+        /**
+         * Returns an NV21 image of {@code copy}, the slot's crop or pyramid buffer for {@code
+         * level}, the same one as last time if that still matches. Safe to reuse for the same
+         * reason as {@link #pooledImage}: the slot holds one detection at a time.
+         */
+        InputImage copyImage(ByteBuffer copy, FrameMetadata metadata, int level) {
+            int index = Math.max(level, 0);
+            if (index >= copyImages.length) {
+                copyImages = Arrays.copyOf(copyImages, index + 1);
+                copyImageBuffers = Arrays.copyOf(copyImageBuffers, index + 1);
+            }
+            InputImage image = copyImages[index];
+            if (copyImageBuffers[index] != copy || !matches(image, metadata)) {
+                image = nv21Image(copy, metadata);
+                copyImages[index] = image;
+                copyImageBuffers[index] = copy;
+            }
+            return image;
+        }
+
+        void lease(ByteBuffer frame, FrameLease lease) {
+            leasedFrame = frame;
+            frameLease = lease;
+        }
+
+        void lease(Image image, ImageLease lease) {
+            mediaImage = image;
+            imageLease = lease;
+        }
+
+        void begin(long sequence, FrameMetadata metadata, int pyramidLevel) {
+            this.sequence = sequence;
+            this.metadata = metadata;
+            this.pyramidLevel = pyramidLevel;
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void onSuccess(T results) {
+            this.results = results;
+            finish(hasResults(results));
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            this.failure = e;
+            finish(false);
+        }
+
+        private void finish(boolean found) {
+            releaseFrame();
+            completedNanos = System.nanoTime();
+            long latencyNanos = completedNanos - startNanos;
+            FrameScheduler scheduler = frameScheduler;
+            if (scheduler != null) {
+                scheduler.onDetectionComplete(latencyNanos);
+            }
+            PipelineStats stats = pipelineStats;
+            if (stats != null) {
+                stats.getDetectLatency().record(latencyNanos);
+                if (failure != null) {
+                    stats.onDetectorFailure();
+                }
+            }
+            if (pyramidLevel >= 0) {
+                onLevelDetected(pyramidLevel, found);
+            }
+            completed = true;
+            deliver(this);
+        }
+
+        private void releaseFrame() {
+            if (imageLease != null) {
+                imageLease.release(mediaImage);
+                imageLease = null;
+                mediaImage = null;
+            }
+            if (frameLease != null) {
+                frameLease.release(leasedFrame);
+                frameLease = null;
+                leasedFrame = null;
+            }
+        }
+
+        void reset() {
+            completed = false;
+            results = null;
+            failure = null;
+            metadata = null;
+            tracker = null;
+            sequence = -1;
+        }
     }
 
     @Override
@@ -124,6 +798,39 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
     protected abstract Task<T> detectInImage(InputImage image);
 
+    /**
+     * Returns the sequence number of the frame whose results are being delivered. Frames are
+     * numbered in the order they were accepted for detection. Only valid within {@link #onSuccess}.
+     */
+    protected final long getFrameSequence() {
+        return deliveringSequence;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which detection completed on the frame whose results
+     * are being delivered. Only valid within {@link #onSuccess}.
+     */
+    protected final long getFrameCompletedNanos() {
+        return deliveringCompletedNanos;
+    }
+
+    /**
+     * Whether a detection found anything. Used to decide when to move to a finer pyramid level, see
+     * {@link #setPyramidLevels(int)}.
+     */
+    protected boolean hasResults(@NonNull T results) {
+        return true;
+    }
+
+    /**
+     * Reports the upright bounding box of every code in {@code results} to {@code tracker}, in the
+     * coordinates of the image that was detected. Called before {@link #onSuccess} for NV21 frames
+     * while a {@link CodeTracker} is set; the default reports nothing, which leaves the tracker
+     * empty.
+     */
+    protected void trackResults(@NonNull T results, @NonNull CodeTracker tracker) {
+    }
+
     protected abstract void onSuccess(
             @NonNull T results,
             @NonNull FrameMetadata frameMetadata);//,
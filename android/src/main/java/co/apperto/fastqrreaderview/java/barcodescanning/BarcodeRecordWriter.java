@@ -0,0 +1,194 @@
+package co.apperto.fastqrreaderview.java.barcodescanning;
+
+import android.graphics.Point;
+
+import androidx.annotation.Nullable;
+
+import com.google.mlkit.vision.barcode.Barcode;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes barcodes into the binary records sent to Dart over the results channel, decoded by
+ * {@code decodeScanResults} in {@code lib/fast_qr_reader_view.dart}.
+ *
+ * <p>A message is a little-endian int32 record count followed by the records:
+ *
+ * <pre>
+ *   offset  type        field
+ *        0  int64       frame sequence
+ *        8  int64       timestamp, microseconds since the epoch
+ *       16  int32       format, one of Barcode.FORMAT_*
+ *       20  int32       value type, one of Barcode.TYPE_*
+ *       24  int32       corner count c, 0 if the corners are unknown
+ *       28  int32[8]    corner points x0, y0 .. x3, y3 in pixels of the analyzed image; only the
+ *                       first c are set, the rest are 0
+ *       60  int32       raw byte count r, -1 if the barcode has no raw bytes
+ *       64  int32       value byte count v
+ *       68  byte[r]     raw bytes
+ *   68 + r  byte[v]     raw value as UTF-8
+ * </pre>
+ *
+ * <p>Corners are counted rather than marked with a sentinel, since a code cut off at the edge of
+ * the scan window has corners outside of it, with negative coordinates.
+ *
+ * <p>The raw value is sent next to the raw bytes because it is decoded with the charset of the
+ * code, which Dart cannot reproduce from the bytes alone. Records are written into one direct
+ * buffer that is reused from message to message and only grows. Not thread safe.
+ */
+public final class BarcodeRecordWriter {
+
+    private static final int HEADER_BYTES = 68;
+    private static final int COUNT_BYTES = 4;
+    private static final int CORNERS = 4;
+
+    private ByteBuffer buffer;
+    private int recordCount;
+
+    public BarcodeRecordWriter(int initialCapacity) {
+        buffer = ByteBuffer.allocateDirect(Math.max(COUNT_BYTES + HEADER_BYTES, initialCapacity))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        clear();
+    }
+
+    /** Drops all records written so far. */
+    public void clear() {
+        buffer.clear();
+        buffer.putInt(0);
+        recordCount = 0;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /** Appends a record for {@code barcode}. */
+    public void add(Barcode barcode, long frameSequence, long timestampMicros) {
+        byte[] rawBytes = barcode.getRawBytes();
+        String rawValue = barcode.getRawValue();
+        int rawLength = rawBytes != null ? rawBytes.length : -1;
+        startRecord(frameSequence, timestampMicros, barcode.getFormat(), barcode.getValueType(),
+                rawLength, rawValue);
+        ByteBuffer out = buffer;
+        Point[] corners = barcode.getCornerPoints();
+        int cornerCount = corners != null ? Math.min(corners.length, CORNERS) : 0;
+        out.putInt(cornerCount);
+        for (int i = 0; i < CORNERS; i++) {
+            if (i < cornerCount) {
+                out.putInt(corners[i].x);
+                out.putInt(corners[i].y);
+            } else {
+                out.putInt(0);
+                out.putInt(0);
+            }
+        }
+        endRecord(rawBytes, rawLength, rawValue);
+    }
+
+    /**
+     * Appends a record for a code that was not decoded by ML Kit. {@code format} and {@code
+     * valueType} are {@link Barcode} constants, {@code corners} holds x, y of the four corners and
+     * the raw bytes are the first {@code rawLength} bytes of {@code rawBytes}, or -1 if there are
+     * none. Nothing is retained, so reused buffers can be passed.
+     */
+    public void add(int format, int valueType, int[] corners, byte[] rawBytes, int rawLength,
+            @Nullable CharSequence rawValue, long frameSequence, long timestampMicros) {
+        startRecord(frameSequence, timestampMicros, format, valueType, rawLength, rawValue);
+        ByteBuffer out = buffer;
+        out.putInt(CORNERS);
+        for (int i = 0; i < 2 * CORNERS; i++) {
+            out.putInt(corners[i]);
+        }
+        endRecord(rawBytes, rawLength, rawValue);
+    }
+
+    /** Makes room for a record and writes the header up to the corners. */
+    private void startRecord(long frameSequence, long timestampMicros, int format, int valueType,
+            int rawLength, @Nullable CharSequence rawValue) {
+        // Worst case of three bytes per UTF-16 unit; surrogate pairs take four bytes for two units.
+        int valueCapacity = rawValue != null ? rawValue.length() * 3 : 0;
+        ensureRemaining(HEADER_BYTES + Math.max(0, rawLength) + valueCapacity);
+
+        ByteBuffer out = buffer;
+        out.putLong(frameSequence);
+        out.putLong(timestampMicros);
+        out.putInt(format);
+        out.putInt(valueType);
+    }
+
+    /** Writes the rest of the header after the corners, the raw bytes and the value. */
+    private void endRecord(@Nullable byte[] rawBytes, int rawLength,
+            @Nullable CharSequence rawValue) {
+        ByteBuffer out = buffer;
+        out.putInt(rawBytes != null ? rawLength : -1);
+        int valueLengthAt = out.position();
+        out.putInt(0);
+        if (rawBytes != null && rawLength > 0) {
+            out.put(rawBytes, 0, rawLength);
+        }
+        if (rawValue != null) {
+            int start = out.position();
+            putUtf8(out, rawValue);
+            out.putInt(valueLengthAt, out.position() - start);
+        }
+
+        recordCount++;
+        out.putInt(0, recordCount);
+    }
+
+    /**
+     * Returns the message holding all records added since {@link #clear()}. Its position is at the
+     * end of the message, which is how {@link io.flutter.plugin.common.BinaryCodec} expects it. The
+     * buffer is overwritten by the next {@link #clear()}, so it must be sent right away; the engine
+     * copies it while sending.
+     */
+    public ByteBuffer message() {
+        return buffer;
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < bytes) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    /** Encodes {@code value} as UTF-8 without going through a byte array. */
+    private static void putUtf8(ByteBuffer out, CharSequence value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced with U+FFFD.
+                out.put((byte) 0xEF);
+                out.put((byte) 0xBF);
+                out.put((byte) 0xBD);
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package co.apperto.fastqrreaderview.java.barcodescanning;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.mlkit.vision.barcode.Barcode;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
+import com.google.mlkit.vision.barcode.BarcodeScanning;
+import com.google.mlkit.vision.common.InputImage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps ML Kit barcode scanners alive between scanning sessions, keyed by the formats they read, so
+ * that opening the camera again does not create a new scanner and pay for loading its model on the
+ * first frame.
+ *
+ * <p>{@link #warmUp} creates a scanner ahead of time and runs one blank frame through it, which
+ * makes ML Kit load its native model before any camera frame arrives. Scanners handed back with
+ * {@link #release} have seen frames too, so every idle scanner in the pool is warm. At most {@link
+ * #MAX_IDLE_PER_FORMATS} idle scanners are kept per format set; further ones are closed.
+ */
+public final class BarcodeScannerPool {
+
+    private static final String TAG = "BarcodeScannerPool";
+
+    /** Idle scanners kept per format set; enough for two sessions open at the same time. */
+    public static final int MAX_IDLE_PER_FORMATS = 2;
+
+    // Size of the blank frame that warms scanners up. Small, the model load does not depend on it.
+    private static final int WARM_UP_WIDTH = 64;
+    private static final int WARM_UP_HEIGHT = 64;
+
+    // Idle scanners by format mask.
+    // @GuardedBy("this")
+    private final SparseArray<ArrayList<BarcodeScanner>> idle = new SparseArray<>();
+
+    /** Combines {@code formats}, each one of the {@code Barcode.FORMAT_*} bits, into one mask. */
+    public static int formatMask(List<Integer> formats) {
+        int mask = 0;
+        for (int i = 0; i < formats.size(); i++) {
+            mask |= formats.get(i);
+        }
+        return mask != 0 ? mask : Barcode.FORMAT_ALL_FORMATS;
+    }
+
+    /** Takes an idle scanner for {@code formats} from the pool, or creates one if there is none. */
+    @NonNull
+    public synchronized BarcodeScanner acquire(int formats) {
+        ArrayList<BarcodeScanner> scanners = idle.get(formats);
+        if (scanners != null && !scanners.isEmpty()) {
+            return scanners.remove(scanners.size() - 1);
+        }
+        return create(formats);
+    }
+
+    /** Hands back a scanner taken with {@link #acquire}, closing it if the pool is full. */
+    public synchronized void release(int formats, BarcodeScanner scanner) {
+        ArrayList<BarcodeScanner> scanners = idle.get(formats);
+        if (scanners == null) {
+            scanners = new ArrayList<>(MAX_IDLE_PER_FORMATS);
+            idle.put(formats, scanners);
+        }
+        if (scanners.size() < MAX_IDLE_PER_FORMATS) {
+            scanners.add(scanner);
+        } else {
+            scanner.close();
+        }
+    }
+
+    /** Number of idle scanners for {@code formats}. */
+    public synchronized int getIdleCount(int formats) {
+        ArrayList<BarcodeScanner> scanners = idle.get(formats);
+        return scanners != null ? scanners.size() : 0;
+    }
+
+    /**
+     * Makes sure a warm scanner for {@code formats} is in the pool and runs {@code onWarm} on the
+     * main thread once it is. Does nothing but that if one is already idle.
+     */
+    public void warmUp(final int formats, @Nullable final Runnable onWarm) {
+        if (getIdleCount(formats) > 0) {
+            if (onWarm != null) {
+                onWarm.run();
+            }
+            return;
+        }
+        final BarcodeScanner scanner = create(formats);
+        final long startMs = SystemClock.elapsedRealtime();
+        byte[] blank = new byte[WARM_UP_WIDTH * WARM_UP_HEIGHT * 3 / 2];
+        Arrays.fill(blank, (byte) 128);
+        InputImage image = InputImage.fromByteBuffer(ByteBuffer.wrap(blank), WARM_UP_WIDTH,
+                WARM_UP_HEIGHT, 0, InputImage.IMAGE_FORMAT_NV21);
+        scanner.process(image).addOnCompleteListener(new OnCompleteListener<List<Barcode>>() {
+            @Override
+            public void onComplete(@NonNull Task<List<Barcode>> task) {
+                if (task.isSuccessful()) {
+                    Log.d(TAG, "Warmed up a scanner for formats 0x" + Integer.toHexString(formats)
+                            + " in " + (SystemClock.elapsedRealtime() - startMs) + " ms");
+                    release(formats, scanner);
+                } else {
+                    Log.w(TAG, "Failed to warm up a scanner: " + task.getException());
+                    scanner.close();
+                }
+                if (onWarm != null) {
+                    onWarm.run();
+                }
+            }
+        });
+    }
+
+    /** Closes every idle scanner, e.g. when the plugin is detached. */
+    public synchronized void clear() {
+        for (int i = 0; i < idle.size(); i++) {
+            for (BarcodeScanner scanner : idle.valueAt(i)) {
+                scanner.close();
+            }
+        }
+        idle.clear();
+    }
+
+    private static BarcodeScanner create(int formats) {
+        return BarcodeScanning.getClient(
+                new BarcodeScannerOptions.Builder().setBarcodeFormats(formats).build());
+    }
+}
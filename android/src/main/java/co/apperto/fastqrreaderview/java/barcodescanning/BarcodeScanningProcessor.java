@@ -13,7 +13,9 @@
 // limitations under the License.
 package co.apperto.fastqrreaderview.java.barcodescanning;
 
+import android.graphics.Rect;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Log;
 
 import com.google.android.gms.common.util.ArrayUtils;
@@ -28,7 +30,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import co.apperto.fastqrreaderview.common.CameraSource;
+import co.apperto.fastqrreaderview.common.CodeTracker;
 import co.apperto.fastqrreaderview.common.FrameMetadata;
+import co.apperto.fastqrreaderview.common.ScanDedupCache;
 import co.apperto.fastqrreaderview.java.VisionProcessorBase;
 
 /**
@@ -40,8 +45,20 @@ public class BarcodeScanningProcessor extends VisionProcessorBase<List<Barcode>>
 
     private final BarcodeScanner detector;
 
+    // Where the detector came from and goes back to on stop(), or null if it is owned.
+    @Nullable
+    private final BarcodeScannerPool pool;
+    private final int formatMask;
+
     public OnCodeScanned callback;
 
+    // Suppresses codes that were reported recently, or null to report every sighting.
+    @Nullable
+    private volatile ScanDedupCache dedupCache;
+
+    // Barcodes of the current frame that lie inside the scan window. Only used on the main thread.
+    private final List<Barcode> frameCodes = new ArrayList<>();
+
     public BarcodeScanningProcessor(ArrayList<Integer> reqFormats) {
         // Note that if you know which format of barcode your app is dealing with, detection will be
         // faster to specify the supported barcode formats one by one, e.g.
@@ -55,11 +72,47 @@ public class BarcodeScanningProcessor extends VisionProcessorBase<List<Barcode>>
                 // setBarcodeFormats is quite weird. I have to do all of these just to pass a bunch of ints
                 .setBarcodeFormats(ArrayUtils.toPrimitiveArray(reqFormats)[0], additionalFormats)
                 .build());
+        pool = null;
+        formatMask = 0;
+    }
+
+    /**
+     * Takes a detector for {@code reqFormats} from {@code pool}, which is warm if one was idle, and
+     * hands it back there instead of closing it on {@link #stop()}.
+     */
+    public BarcodeScanningProcessor(BarcodeScannerPool pool, List<Integer> reqFormats) {
+        this.pool = pool;
+        formatMask = BarcodeScannerPool.formatMask(reqFormats);
+        detector = pool.acquire(formatMask);
+    }
+
+    /** Drops repeats of recently reported codes before they reach {@link #callback}. */
+    public void setDedupCache(@Nullable ScanDedupCache dedupCache) {
+        this.dedupCache = dedupCache;
     }
 
+    @Nullable
+    public ScanDedupCache getDedupCache() {
+        return dedupCache;
+    }
+
+    /**
+     * Hands the detector back to the pool, or closes it, once the detections still running on it
+     * are done. Until then it must not be taken by another processor or closed by the pool.
+     */
     @Override
     public void stop() {
-        detector.close();
+        shouldThrottle.set(true);
+        runWhenIdle(new Runnable() {
+            @Override
+            public void run() {
+                if (pool != null) {
+                    pool.release(formatMask, detector);
+                } else {
+                    detector.close();
+                }
+            }
+        });
     }
 
     @Override
@@ -67,13 +120,68 @@ public class BarcodeScanningProcessor extends VisionProcessorBase<List<Barcode>>
         return detector.process(image);
     }
 
+    @Override
+    protected boolean hasResults(@NonNull List<Barcode> barcodes) {
+        return !barcodes.isEmpty();
+    }
+
+    @Override
+    protected void trackResults(@NonNull List<Barcode> barcodes, @NonNull CodeTracker tracker) {
+        for (int i = 0; i < barcodes.size(); ++i) {
+            Rect box = barcodes.get(i).getBoundingBox();
+            if (box != null) {
+                tracker.addUprightBox(box.left, box.top, box.right, box.bottom);
+            }
+        }
+    }
+
     @Override
     protected void onSuccess(@NonNull List<Barcode> barcodes, @NonNull FrameMetadata frameMetadata) {
+        frameCodes.clear();
+        ScanDedupCache dedup = dedupCache;
+        long now = System.nanoTime();
         for (int i = 0; i < barcodes.size(); ++i) {
             Barcode barcode = barcodes.get(i);
+            if (!isInScanWindow(barcode, frameMetadata)) {
+                continue;
+            }
+            if (dedup != null && isRepeat(dedup, barcode, now)) {
+                continue;
+            }
             Log.d("BARCODE!", barcode.getRawValue());
-            callback.onCodeScanned(barcode);
+            frameCodes.add(barcode);
+        }
+        if (!frameCodes.isEmpty()) {
+            callback.onCodesScanned(frameCodes, getFrameSequence(), getFrameCompletedNanos());
+            frameCodes.clear();
+        }
+    }
+
+    private static boolean isRepeat(ScanDedupCache dedup, Barcode barcode, long now) {
+        byte[] rawBytes = barcode.getRawBytes();
+        if (rawBytes != null) {
+            return dedup.isRepeat(barcode.getFormat(), rawBytes, now);
+        }
+        String rawValue = barcode.getRawValue();
+        return rawValue != null && dedup.isRepeat(barcode.getFormat(), rawValue, now);
+    }
+
+    /**
+     * Whether the center of the barcode lies inside the frame's scan window. The box is upright,
+     * the window is relative to the preview as shown, which is mirrored for front cameras.
+     */
+    private static boolean isInScanWindow(Barcode barcode, FrameMetadata frameMetadata) {
+        Rect box = barcode.getBoundingBox();
+        if (frameMetadata == null || box == null || frameMetadata.getWidth() == 0 || frameMetadata.getHeight() == 0) {
+            return true;
+        }
+        int width = frameMetadata.getUprightWidth();
+        int x = box.centerX();
+        if (frameMetadata.getCameraFacing() == CameraSource.CAMERA_FACING_FRONT) {
+            x = width - x;
         }
+        return frameMetadata.getScanWindow().contains(
+                x, box.centerY(), width, frameMetadata.getUprightHeight());
     }
 
     @Override
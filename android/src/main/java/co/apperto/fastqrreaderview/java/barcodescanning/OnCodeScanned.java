@@ -2,6 +2,16 @@ package co.apperto.fastqrreaderview.java.barcodescanning;
 
 import com.google.mlkit.vision.barcode.Barcode;
 
+import java.util.List;
+
 public interface OnCodeScanned {
-    void onCodeScanned(Barcode barcode);
+    /**
+     * Called once per frame with the barcodes found inside the scan window, never with an empty
+     * list. The list is reused for the next frame, so it must not be kept after this returns.
+     *
+     * @param frameSequence the number of the frame the barcodes were found in, counting frames in
+     *     the order they were accepted for detection
+     * @param detectedNanos the {@link System#nanoTime()} at which detection on that frame completed
+     */
+    void onCodesScanned(List<Barcode> barcodes, long frameSequence, long detectedNanos);
 }
@@ -0,0 +1,15 @@
+package co.apperto.fastqrreaderview.java.qrcode;
+
+import co.apperto.fastqrreaderview.qrcode.QrCode;
+
+public interface OnQrCodeDecoded {
+    /**
+     * Called on the main thread with a code decoded inside the scan window. The code is reused for
+     * later frames, so it must not be kept after this returns.
+     *
+     * @param frameSequence the number of the frame the code was found in, counting frames in the
+     *     order they were accepted for decoding
+     * @param detectedNanos the {@link System#nanoTime()} at which decoding that frame completed
+     */
+    void onQrCodeDecoded(QrCode code, long frameSequence, long detectedNanos);
+}
@@ -0,0 +1,403 @@
+package co.apperto.fastqrreaderview.java.qrcode;
+
+import android.graphics.Bitmap;
+import android.media.Image;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.mlkit.vision.barcode.Barcode;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import co.apperto.fastqrreaderview.common.CameraSource;
+import co.apperto.fastqrreaderview.common.CodeTracker;
+import co.apperto.fastqrreaderview.common.FrameLease;
+import co.apperto.fastqrreaderview.common.FrameMetadata;
+import co.apperto.fastqrreaderview.common.FrameQualityGate;
+import co.apperto.fastqrreaderview.common.FrameScheduler;
+import co.apperto.fastqrreaderview.common.ImageLease;
+import co.apperto.fastqrreaderview.common.PipelineStats;
+import co.apperto.fastqrreaderview.common.ScanDedupCache;
+import co.apperto.fastqrreaderview.common.ScanWindow;
+import co.apperto.fastqrreaderview.common.VisionImageProcessor;
+import co.apperto.fastqrreaderview.qrcode.QrCode;
+import co.apperto.fastqrreaderview.qrcode.QrDecoder;
+
+/**
+ * Frame processor that decodes QR codes with {@link QrDecoder} instead of ML Kit, so there is no
+ * model to load and every frame is decoded in plain Java.
+ *
+ * <p>Frames are decoded synchronously on the thread that delivers them, straight from the luma
+ * plane: NV21 buffers and YUV_420_888 images are read in place, and the scan window is applied by
+ * decoding only that part of the plane, so frames are not copied. The frame source drops frames
+ * while one is being decoded, which makes one decode in flight the only mode; pyramid levels and
+ * in-flight limits do not apply. Corners are reported in pixels of the whole frame turned upright,
+ * like ML Kit reports them. With a {@link CodeTracker}, only the region around the code found last
+ * is decoded, again in place.
+ *
+ * <p>Decoded codes are handed to the main thread through a code that is reused, so steady-state
+ * scanning does not allocate. If the main thread has not taken the last code yet when the next one
+ * is decoded, the new one is dropped; it is seen again on a later frame.
+ */
+public class QrCodeProcessor implements VisionImageProcessor {
+
+    private static final String TAG = "QrCodeProc";
+
+    // Whether we should ignore process(). Set while scanning is stopped.
+    public final AtomicBoolean shouldThrottle = new AtomicBoolean(true);
+
+    public OnQrCodeDecoded callback;
+
+    private volatile ScanWindow scanWindow = ScanWindow.FULL_FRAME;
+
+    @Nullable
+    private volatile ScanDedupCache dedupCache;
+
+    @Nullable
+    private volatile FrameScheduler frameScheduler;
+
+    @Nullable
+    private volatile PipelineStats pipelineStats;
+
+    @Nullable
+    private volatile FrameQualityGate qualityGate;
+
+    @Nullable
+    private volatile CodeTracker codeTracker;
+
+    // Only used on the thread frames are delivered on.
+    private final int[] trackedRegion = new int[4];
+    private final QrDecoder decoder = new QrDecoder();
+    private final QrCode decoded = new QrCode();
+    private long nextSequence;
+    private int[] bitmapPixels = new int[0];
+    private byte[] bitmapLuma = new byte[0];
+    private ByteBuffer bitmapBuffer = ByteBuffer.wrap(bitmapLuma);
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Object handOffLock = new Object();
+    // @GuardedBy("handOffLock")
+    private QrCode handOff = new QrCode();
+    // @GuardedBy("handOffLock")
+    private boolean handOffPending;
+    // @GuardedBy("handOffLock")
+    private long handOffSequence;
+    // @GuardedBy("handOffLock")
+    private long handOffNanos;
+    // The code being delivered. Only used on the main thread.
+    private QrCode delivering = new QrCode();
+    private final Runnable deliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    /** Restricts decoding to {@code scanWindow}. Takes effect with the next frame. */
+    public void setScanWindow(ScanWindow scanWindow) {
+        this.scanWindow = scanWindow;
+    }
+
+    public ScanWindow getScanWindow() {
+        return scanWindow;
+    }
+
+    /** Drops repeats of recently reported codes before they reach {@link #callback}. */
+    public void setDedupCache(@Nullable ScanDedupCache dedupCache) {
+        this.dedupCache = dedupCache;
+    }
+
+    /** Reports the latency of every decode to {@code scheduler}, or to no one if null. */
+    public void setFrameScheduler(@Nullable FrameScheduler scheduler) {
+        this.frameScheduler = scheduler;
+    }
+
+    /** Records throttled frames, decode latencies and failures in {@code stats}, or nowhere. */
+    public void setPipelineStats(@Nullable PipelineStats stats) {
+        this.pipelineStats = stats;
+    }
+
+    /** Skips frames whose scan window {@code gate} rejects, or none if null. */
+    public void setQualityGate(@Nullable FrameQualityGate gate) {
+        this.qualityGate = gate;
+    }
+
+    /** Decodes only around the code {@code tracker} follows while it follows one; null disables. */
+    public void setCodeTracker(@Nullable CodeTracker tracker) {
+        this.codeTracker = tracker;
+    }
+
+    @Override
+    public void process(ByteBuffer data, FrameMetadata frameMetadata, FrameLease lease) {
+        try {
+            if (isThrottled()) {
+                return;
+            }
+            int width = frameMetadata.getWidth();
+            decodeLuma(data, 0, width, frameMetadata.getHeight(), width,
+                    frameMetadata.getRotation(),
+                    frameMetadata.getCameraFacing() == CameraSource.CAMERA_FACING_FRONT);
+        } finally {
+            lease.release(data);
+        }
+    }
+
+    @Override
+    public void process(Bitmap bitmap) {
+        if (isThrottled()) {
+            return;
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int pixels = width * height;
+        if (bitmapPixels.length < pixels) {
+            bitmapPixels = new int[pixels];
+            bitmapLuma = new byte[pixels];
+            bitmapBuffer = ByteBuffer.wrap(bitmapLuma);
+        }
+        bitmap.getPixels(bitmapPixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels; i++) {
+            int argb = bitmapPixels[i];
+            // BT.601 luma in 8-bit fixed point.
+            bitmapLuma[i] = (byte) ((77 * ((argb >> 16) & 0xFF)
+                    + 150 * ((argb >> 8) & 0xFF)
+                    + 29 * (argb & 0xFF)) >> 8);
+        }
+        decodeLuma(bitmapBuffer, 0, width, height, width, 0, false);
+    }
+
+    /** Decodes the Y plane of a YUV_420_888 image in place and closes the image. */
+    @Override
+    public void process(Image image, int rotation, int facing, ImageLease lease) {
+        try {
+            if (isThrottled()) {
+                return;
+            }
+            Image.Plane luma = image.getPlanes()[0];
+            decodeLuma(luma.getBuffer(), 0, image.getWidth(), image.getHeight(),
+                    luma.getRowStride(), rotation / 90, facing == CameraSource.CAMERA_FACING_FRONT);
+        } finally {
+            lease.release(image);
+        }
+    }
+
+    @Override
+    public void stop() {
+        mainHandler.removeCallbacks(deliverRunnable);
+    }
+
+    /**
+     * Returns the {@link Barcode} value type for a QR code with {@code text}: a URL for http and
+     * https links, plain text otherwise. Unlike ML Kit, no other structured types are recognized.
+     */
+    public static int valueType(CharSequence text) {
+        return startsWithIgnoreCase(text, "http://") || startsWithIgnoreCase(text, "https://")
+                ? Barcode.TYPE_URL
+                : Barcode.TYPE_TEXT;
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence text, String prefix) {
+        if (text.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(text.charAt(i)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the scan window of a luma plane, or the tracked region inside it, and hands a code it
+     * finds to the main thread.
+     *
+     * @param rotation quarter turns the plane has to be rotated clockwise by to be upright
+     * @param mirrored whether the preview shows the frame mirrored, which the scan window follows
+     */
+    private void decodeLuma(ByteBuffer luma, int offset, int width, int height, int rowStride,
+            int rotation, boolean mirrored) {
+        ScanWindow window = scanWindow.toFrame(rotation, mirrored);
+        if (isRejected(luma, offset, width, height, rowStride, window)) {
+            return;
+        }
+        int left;
+        int top;
+        int regionWidth;
+        int regionHeight;
+        CodeTracker tracker = codeTracker;
+        if (tracker != null && tracker.getRegion(width, height, window, trackedRegion)) {
+            left = trackedRegion[0];
+            top = trackedRegion[1];
+            regionWidth = trackedRegion[2];
+            regionHeight = trackedRegion[3];
+            PipelineStats stats = pipelineStats;
+            if (stats != null) {
+                stats.onFrameTracked();
+            }
+        } else {
+            left = window.pixelLeft(width);
+            top = window.pixelTop(height);
+            regionWidth = window.pixelWidth(width);
+            regionHeight = window.pixelHeight(height);
+        }
+        long sequence = nextSequence++;
+        long startNanos = System.nanoTime();
+        boolean found;
+        boolean failed = false;
+        try {
+            found = decoder.decode(luma, offset + top * rowStride + left, regionWidth,
+                    regionHeight, rowStride, decoded);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "QR code decoding failed " + e);
+            found = false;
+            failed = true;
+        }
+        long completedNanos = System.nanoTime();
+        long latencyNanos = completedNanos - startNanos;
+        FrameScheduler scheduler = frameScheduler;
+        if (scheduler != null) {
+            scheduler.onDetectionComplete(latencyNanos);
+        }
+        PipelineStats stats = pipelineStats;
+        if (stats != null) {
+            stats.getDetectLatency().record(latencyNanos);
+            if (failed) {
+                stats.onDetectorFailure();
+            }
+        }
+        if (tracker != null && !failed) {
+            tracker.beginUpdate(width, height, 0, left, top, regionWidth, regionHeight, 1);
+            if (found) {
+                trackCorners(tracker, decoded.getCorners());
+            }
+            tracker.endUpdate();
+        }
+        if (found) {
+            toUpright(decoded.getCorners(), left, top, width, height, rotation);
+            handOff(sequence, completedNanos);
+        }
+    }
+
+    /** Reports the box around corners found in the decoded region, before turning them upright. */
+    private static void trackCorners(CodeTracker tracker, int[] corners) {
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < corners.length; i += 2) {
+            left = Math.min(left, corners[i]);
+            right = Math.max(right, corners[i]);
+            top = Math.min(top, corners[i + 1]);
+            bottom = Math.max(bottom, corners[i + 1]);
+        }
+        tracker.addUprightBox(left, top, right, bottom);
+    }
+
+    /**
+     * Moves corners found in the window at {@code left}, {@code top} into the whole frame and turns
+     * them upright, the way ML Kit reports them.
+     */
+    private static void toUpright(int[] corners, int left, int top, int width, int height,
+            int rotation) {
+        for (int i = 0; i < corners.length; i += 2) {
+            int x = corners[i] + left;
+            int y = corners[i + 1] + top;
+            switch (rotation & 3) {
+                case 1:
+                    corners[i] = height - y;
+                    corners[i + 1] = x;
+                    break;
+                case 2:
+                    corners[i] = width - x;
+                    corners[i + 1] = height - y;
+                    break;
+                case 3:
+                    corners[i] = y;
+                    corners[i + 1] = width - x;
+                    break;
+                default:
+                    corners[i] = x;
+                    corners[i + 1] = y;
+                    break;
+            }
+        }
+    }
+
+    private void handOff(long sequence, long completedNanos) {
+        synchronized (handOffLock) {
+            if (handOffPending) {
+                return;
+            }
+            ScanDedupCache dedup = dedupCache;
+            if (dedup != null && dedup.isRepeat(Barcode.FORMAT_QR_CODE, decoded.getRawBytes(), 0,
+                    decoded.getRawLength(), completedNanos)) {
+                return;
+            }
+            handOff.set(decoded);
+            handOffSequence = sequence;
+            handOffNanos = completedNanos;
+            handOffPending = true;
+        }
+        mainHandler.post(deliverRunnable);
+    }
+
+    private void deliver() {
+        QrCode code;
+        long sequence;
+        long detectedNanos;
+        synchronized (handOffLock) {
+            if (!handOffPending) {
+                return;
+            }
+            code = handOff;
+            handOff = delivering;
+            delivering = code;
+            sequence = handOffSequence;
+            detectedNanos = handOffNanos;
+            handOffPending = false;
+        }
+        OnQrCodeDecoded callback = this.callback;
+        if (callback != null) {
+            callback.onQrCodeDecoded(code, sequence, detectedNanos);
+        }
+    }
+
+    private boolean isRejected(
+            ByteBuffer luma, int offset, int width, int height, int rowStride, ScanWindow window) {
+        FrameQualityGate gate = qualityGate;
+        if (gate == null) {
+            return false;
+        }
+        int verdict = gate.check(luma, offset + window.pixelTop(height) * rowStride
+                + window.pixelLeft(width), window.pixelWidth(width), window.pixelHeight(height),
+                rowStride);
+        if (verdict == FrameQualityGate.ACCEPTED) {
+            return false;
+        }
+        PipelineStats stats = pipelineStats;
+        if (stats != null) {
+            if (verdict == FrameQualityGate.BLURRY) {
+                stats.onFrameBlurry();
+            } else {
+                stats.onFrameMoving();
+            }
+        }
+        return true;
+    }
+
+    private boolean isThrottled() {
+        if (!shouldThrottle.get()) {
+            return false;
+        }
+        PipelineStats stats = pipelineStats;
+        if (stats != null) {
+            stats.onFrameThrottled();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,187 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+/**
+ * Finds the bottom-right alignment pattern of a QR code near where the finder patterns say it
+ * should be. The pattern is a small dark-light-dark square, i.e. light-dark-light runs in the ratio
+ * 1:1:1 through its center.
+ *
+ * <p>Rows are scanned outwards from the middle of the search region and hits are crossed
+ * vertically. The first center seen twice wins; otherwise the first one seen at all.
+ */
+final class AlignmentPatternFinder {
+
+  private static final int MAX_CANDIDATES = 8;
+
+  private final float[] candidateX = new float[MAX_CANDIDATES];
+  private final float[] candidateY = new float[MAX_CANDIDATES];
+  private final float[] candidateSize = new float[MAX_CANDIDATES];
+  private int candidateCount;
+
+  private final int[] stateCount = new int[3];
+  private final int[] crossCount = new int[3];
+
+  private BinaryImage image;
+  private float moduleSize;
+
+  private float foundX;
+  private float foundY;
+
+  /**
+   * Searches the given region for an alignment pattern of the given module size.
+   *
+   * @return whether one was found, at {@link #getX()}, {@link #getY()}
+   */
+  boolean find(BinaryImage image, int left, int top, int width, int height, float moduleSize) {
+    this.image = image;
+    this.moduleSize = moduleSize;
+    candidateCount = 0;
+    try {
+      int maxX = left + width;
+      int middleY = top + height / 2;
+      int[] counts = stateCount;
+      for (int step = 0; step < height; step++) {
+        // Middle row first, then alternately below and above it.
+        int y = middleY + ((step & 1) == 0 ? (step + 1) / 2 : -((step + 1) / 2));
+        counts[0] = 0;
+        counts[1] = 0;
+        counts[2] = 0;
+        int x = left;
+        // A light run that started outside the region can't be measured, so skip it.
+        while (x < maxX && !image.get(x, y)) {
+          x++;
+        }
+        int state = 0;
+        while (x < maxX) {
+          if (image.get(x, y)) {
+            if (state == 1) {
+              counts[1]++;
+            } else if (state == 2) {
+              if (foundPatternCross(counts) && handlePossibleCenter(counts, y, x)) {
+                return true;
+              }
+              counts[0] = counts[2];
+              counts[1] = 1;
+              counts[2] = 0;
+              state = 1;
+            } else {
+              counts[++state]++;
+            }
+          } else {
+            if (state == 1) {
+              state++;
+            }
+            counts[state]++;
+          }
+          x++;
+        }
+        if (foundPatternCross(counts) && handlePossibleCenter(counts, y, maxX)) {
+          return true;
+        }
+      }
+      if (candidateCount > 0) {
+        foundX = candidateX[0];
+        foundY = candidateY[0];
+        return true;
+      }
+      return false;
+    } finally {
+      this.image = null;
+    }
+  }
+
+  float getX() {
+    return foundX;
+  }
+
+  float getY() {
+    return foundY;
+  }
+
+  private boolean foundPatternCross(int[] counts) {
+    float maxVariance = moduleSize / 2.0f;
+    for (int i = 0; i < 3; i++) {
+      if (Math.abs(moduleSize - counts[i]) >= maxVariance) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static float centerFromEnd(int[] counts, int end) {
+    return (end - counts[2]) - counts[1] / 2.0f;
+  }
+
+  private boolean handlePossibleCenter(int[] counts, int y, int end) {
+    int total = counts[0] + counts[1] + counts[2];
+    float x = centerFromEnd(counts, end);
+    float centerY = crossCheckVertical(y, (int) x, 2 * counts[1], total);
+    if (Float.isNaN(centerY)) {
+      return false;
+    }
+    float size = total / 3.0f;
+    for (int i = 0; i < candidateCount; i++) {
+      if (Math.abs(centerY - candidateY[i]) <= size && Math.abs(x - candidateX[i]) <= size) {
+        float sizeDiff = Math.abs(size - candidateSize[i]);
+        if (sizeDiff <= 1.0f || sizeDiff <= candidateSize[i]) {
+          foundX = (candidateX[i] + x) / 2.0f;
+          foundY = (candidateY[i] + centerY) / 2.0f;
+          return true;
+        }
+      }
+    }
+    if (candidateCount < MAX_CANDIDATES) {
+      candidateX[candidateCount] = x;
+      candidateY[candidateCount] = centerY;
+      candidateSize[candidateCount] = size;
+      candidateCount++;
+    }
+    return false;
+  }
+
+  private float crossCheckVertical(int startY, int x, int maxCount, int originalTotal) {
+    BinaryImage img = image;
+    int maxY = img.height;
+    int[] counts = crossCount;
+    counts[0] = 0;
+    counts[1] = 0;
+    counts[2] = 0;
+
+    int y = startY;
+    while (y >= 0 && img.get(x, y) && counts[1] <= maxCount) {
+      counts[1]++;
+      y--;
+    }
+    if (y < 0 || counts[1] > maxCount) {
+      return Float.NaN;
+    }
+    while (y >= 0 && !img.get(x, y) && counts[0] <= maxCount) {
+      counts[0]++;
+      y--;
+    }
+    if (counts[0] > maxCount) {
+      return Float.NaN;
+    }
+
+    y = startY + 1;
+    while (y < maxY && img.get(x, y) && counts[1] <= maxCount) {
+      counts[1]++;
+      y++;
+    }
+    if (y == maxY || counts[1] > maxCount) {
+      return Float.NaN;
+    }
+    while (y < maxY && !img.get(x, y) && counts[2] <= maxCount) {
+      counts[2]++;
+      y++;
+    }
+    if (counts[2] > maxCount) {
+      return Float.NaN;
+    }
+
+    int total = counts[0] + counts[1] + counts[2];
+    if (5 * Math.abs(total - originalTotal) >= 2 * originalTotal) {
+      return Float.NaN;
+    }
+    return foundPatternCross(counts) ? centerFromEnd(counts, y) : Float.NaN;
+  }
+}
@@ -0,0 +1,157 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Thresholds luma against the local brightness, so that codes under uneven light, shadows or
+ * glare still come out clean.
+ *
+ * <p>The image is split into 8x8 blocks. Each block gets a black point from its average, or, if the
+ * block is flat, from its darker neighbors so that the inside of a large module stays dark. Every
+ * pixel is then compared to the mean black point of the 5x5 blocks around its own.
+ */
+final class Binarizer {
+
+  private static final int BLOCK_SHIFT = 3;
+  private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+  private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+  /** Blocks whose pixels span less than this are treated as flat. */
+  private static final int MIN_DYNAMIC_RANGE = 24;
+
+  /** Frames must be at least this many pixels in both directions. */
+  static final int MIN_SIZE = BLOCK_SIZE * 5;
+
+  private byte[] luma = new byte[0];
+  private int[] blackPoints = new int[0];
+
+  /**
+   * Thresholds the {@code width} x {@code height} luma plane starting at {@code offset} in {@code
+   * src}, with rows {@code rowStride} bytes apart, into {@code out}.
+   *
+   * @return false if the frame is too small
+   */
+  boolean binarize(
+      ByteBuffer src, int offset, int width, int height, int rowStride, BinaryImage out) {
+    if (width < MIN_SIZE || height < MIN_SIZE) {
+      return false;
+    }
+    byte[] pixels;
+    int base;
+    if (src.hasArray()) {
+      pixels = src.array();
+      base = src.arrayOffset() + offset;
+    } else {
+      // Direct buffers are read row by row into an array once, which beats get() per pixel.
+      if (luma.length < width * height) {
+        luma = new byte[width * height];
+      }
+      int position = src.position();
+      for (int y = 0; y < height; y++) {
+        src.position(offset + y * rowStride);
+        src.get(luma, y * width, width);
+      }
+      src.position(position);
+      pixels = luma;
+      base = 0;
+      rowStride = width;
+    }
+
+    int subWidth = (width + BLOCK_MASK) >> BLOCK_SHIFT;
+    int subHeight = (height + BLOCK_MASK) >> BLOCK_SHIFT;
+    if (blackPoints.length < subWidth * subHeight) {
+      blackPoints = new int[subWidth * subHeight];
+    }
+    calculateBlackPoints(pixels, base, rowStride, width, height, subWidth, subHeight);
+    out.reset(width, height);
+    thresholdBlocks(pixels, base, rowStride, width, height, subWidth, subHeight, out.bits);
+    return true;
+  }
+
+  private void calculateBlackPoints(
+      byte[] pixels, int base, int rowStride, int width, int height, int subWidth, int subHeight) {
+    int[] points = blackPoints;
+    int maxXOffset = width - BLOCK_SIZE;
+    int maxYOffset = height - BLOCK_SIZE;
+    for (int y = 0; y < subHeight; y++) {
+      int yOffset = Math.min(y << BLOCK_SHIFT, maxYOffset);
+      for (int x = 0; x < subWidth; x++) {
+        int xOffset = Math.min(x << BLOCK_SHIFT, maxXOffset);
+        int sum = 0;
+        int min = 0xFF;
+        int max = 0;
+        int rowStart = base + yOffset * rowStride + xOffset;
+        for (int yy = 0; yy < BLOCK_SIZE; yy++, rowStart += rowStride) {
+          for (int xx = 0; xx < BLOCK_SIZE; xx++) {
+            int pixel = pixels[rowStart + xx] & 0xFF;
+            sum += pixel;
+            if (pixel < min) {
+              min = pixel;
+            }
+            if (pixel > max) {
+              max = pixel;
+            }
+          }
+        }
+
+        int average = sum >> (2 * BLOCK_SHIFT);
+        if (max - min <= MIN_DYNAMIC_RANGE) {
+          // A flat block is assumed to be light, unless its neighbors say it is inside something
+          // darker.
+          average = min / 2;
+          if (y > 0 && x > 0) {
+            int neighbors =
+                (points[(y - 1) * subWidth + x]
+                        + 2 * points[y * subWidth + x - 1]
+                        + points[(y - 1) * subWidth + x - 1])
+                    / 4;
+            if (min < neighbors) {
+              average = neighbors;
+            }
+          }
+        }
+        points[y * subWidth + x] = average;
+      }
+    }
+  }
+
+  private void thresholdBlocks(
+      byte[] pixels,
+      int base,
+      int rowStride,
+      int width,
+      int height,
+      int subWidth,
+      int subHeight,
+      byte[] bits) {
+    int[] points = blackPoints;
+    int maxXOffset = width - BLOCK_SIZE;
+    int maxYOffset = height - BLOCK_SIZE;
+    for (int y = 0; y < subHeight; y++) {
+      int yOffset = Math.min(y << BLOCK_SHIFT, maxYOffset);
+      int top = clamp(y, 2, subHeight - 3);
+      for (int x = 0; x < subWidth; x++) {
+        int xOffset = Math.min(x << BLOCK_SHIFT, maxXOffset);
+        int left = clamp(x, 2, subWidth - 3);
+        int sum = 0;
+        for (int z = -2; z <= 2; z++) {
+          int row = (top + z) * subWidth + left;
+          sum +=
+              points[row - 2] + points[row - 1] + points[row] + points[row + 1] + points[row + 2];
+        }
+        int threshold = sum / 25;
+
+        int rowStart = base + yOffset * rowStride + xOffset;
+        int bit = yOffset * width + xOffset;
+        for (int yy = 0; yy < BLOCK_SIZE; yy++, rowStart += rowStride, bit += width) {
+          for (int xx = 0; xx < BLOCK_SIZE; xx++) {
+            bits[bit + xx] = (byte) ((pixels[rowStart + xx] & 0xFF) <= threshold ? 1 : 0);
+          }
+        }
+      }
+    }
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return value < min ? min : value > max ? max : value;
+  }
+}
@@ -0,0 +1,21 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+/** A thresholded image, one byte per pixel: 1 for dark, 0 for light. Reused from frame to frame. */
+final class BinaryImage {
+
+  byte[] bits = new byte[0];
+  int width;
+  int height;
+
+  void reset(int width, int height) {
+    if (bits.length < width * height) {
+      bits = new byte[width * height];
+    }
+    this.width = width;
+    this.height = height;
+  }
+
+  boolean get(int x, int y) {
+    return bits[y * width + x] != 0;
+  }
+}
@@ -0,0 +1,378 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns the data codewords of a QR code into text, segment by segment: numeric, alphanumeric, byte
+ * and Kanji, with ECI designators and FNC1 and structured append markers.
+ *
+ * <p>Byte segments without an ECI are decoded as UTF-8 if they are valid UTF-8, and as ISO-8859-1,
+ * the standard's default, otherwise. UTF-8 and ISO-8859-1 are decoded straight into the output, so
+ * the common cases don't allocate.
+ */
+final class BitstreamParser {
+
+  private static final int MODE_TERMINATOR = 0x0;
+  private static final int MODE_NUMERIC = 0x1;
+  private static final int MODE_ALPHANUMERIC = 0x2;
+  private static final int MODE_STRUCTURED_APPEND = 0x3;
+  private static final int MODE_BYTE = 0x4;
+  private static final int MODE_FNC1_FIRST = 0x5;
+  private static final int MODE_ECI = 0x7;
+  private static final int MODE_KANJI = 0x8;
+  private static final int MODE_FNC1_SECOND = 0x9;
+
+  private static final char[] ALPHANUMERIC =
+      "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:".toCharArray();
+
+  /** Group separator, which a lone '%' stands for in alphanumeric segments after FNC1. */
+  private static final char GS = 0x1D;
+
+  private byte[] bytes;
+  private int length;
+  private int position;
+
+  private byte[] segment = new byte[256];
+
+  /**
+   * Parses the first {@code length} data codewords in {@code bytes} of a code of {@code version}
+   * and appends the text to {@code out}.
+   *
+   * @return false if the bit stream is malformed
+   */
+  boolean parse(byte[] bytes, int length, int version, StringBuilder out) {
+    this.bytes = bytes;
+    this.length = length;
+    position = 0;
+    try {
+      Charset charset = null;
+      boolean fnc1 = false;
+      while (true) {
+        int mode = available() < 4 ? MODE_TERMINATOR : readBits(4);
+        switch (mode) {
+          case MODE_TERMINATOR:
+            return true;
+          case MODE_FNC1_FIRST:
+            fnc1 = true;
+            break;
+          case MODE_FNC1_SECOND:
+            // Followed by the application indicator.
+            if (available() < 8) {
+              return false;
+            }
+            readBits(8);
+            fnc1 = true;
+            break;
+          case MODE_STRUCTURED_APPEND:
+            // Sequence number and parity, which only matter when joining codes.
+            if (available() < 16) {
+              return false;
+            }
+            readBits(16);
+            break;
+          case MODE_ECI:
+            int eci = readEciValue();
+            if (eci < 0) {
+              return false;
+            }
+            charset = charsetForEci(eci);
+            if (charset == null) {
+              return false;
+            }
+            break;
+          case MODE_NUMERIC:
+            if (!parseNumeric(readCount(version, 10, 12, 14), out)) {
+              return false;
+            }
+            break;
+          case MODE_ALPHANUMERIC:
+            if (!parseAlphanumeric(readCount(version, 9, 11, 13), fnc1, out)) {
+              return false;
+            }
+            break;
+          case MODE_BYTE:
+            if (!parseByte(readCount(version, 8, 16, 16), charset, out)) {
+              return false;
+            }
+            break;
+          case MODE_KANJI:
+            if (!parseKanji(readCount(version, 8, 10, 12), out)) {
+              return false;
+            }
+            break;
+          default:
+            return false;
+        }
+      }
+    } finally {
+      this.bytes = null;
+    }
+  }
+
+  private int available() {
+    return 8 * length - position;
+  }
+
+  /** Reads {@code count} bits, at most 24, or -1 if there aren't that many left. */
+  private int readBits(int count) {
+    if (count > available()) {
+      return -1;
+    }
+    int result = 0;
+    for (int i = 0; i < count; i++) {
+      int bit = (bytes[(position >> 3)] >> (7 - (position & 7))) & 1;
+      result = result << 1 | bit;
+      position++;
+    }
+    return result;
+  }
+
+  private int readCount(int version, int small, int medium, int large) {
+    return readBits(version <= 9 ? small : version <= 26 ? medium : large);
+  }
+
+  private int readEciValue() {
+    int first = readBits(8);
+    if (first < 0) {
+      return -1;
+    }
+    if ((first & 0x80) == 0) {
+      return first & 0x7F;
+    }
+    if ((first & 0xC0) == 0x80) {
+      int second = readBits(8);
+      return second < 0 ? -1 : ((first & 0x3F) << 8) | second;
+    }
+    if ((first & 0xE0) == 0xC0) {
+      int rest = readBits(16);
+      return rest < 0 ? -1 : ((first & 0x1F) << 16) | rest;
+    }
+    return -1;
+  }
+
+  private boolean parseNumeric(int count, StringBuilder out) {
+    if (count < 0) {
+      return false;
+    }
+    while (count >= 3) {
+      int three = readBits(10);
+      if (three < 0 || three >= 1000) {
+        return false;
+      }
+      out.append((char) ('0' + three / 100))
+          .append((char) ('0' + (three / 10) % 10))
+          .append((char) ('0' + three % 10));
+      count -= 3;
+    }
+    if (count == 2) {
+      int two = readBits(7);
+      if (two < 0 || two >= 100) {
+        return false;
+      }
+      out.append((char) ('0' + two / 10)).append((char) ('0' + two % 10));
+    } else if (count == 1) {
+      int one = readBits(4);
+      if (one < 0 || one >= 10) {
+        return false;
+      }
+      out.append((char) ('0' + one));
+    }
+    return true;
+  }
+
+  private boolean parseAlphanumeric(int count, boolean fnc1, StringBuilder out) {
+    if (count < 0) {
+      return false;
+    }
+    int start = out.length();
+    while (count > 1) {
+      int two = readBits(11);
+      if (two < 0 || two >= 45 * 45) {
+        return false;
+      }
+      out.append(ALPHANUMERIC[two / 45]).append(ALPHANUMERIC[two % 45]);
+      count -= 2;
+    }
+    if (count == 1) {
+      int one = readBits(6);
+      if (one < 0 || one >= 45) {
+        return false;
+      }
+      out.append(ALPHANUMERIC[one]);
+    }
+    if (fnc1) {
+      // "%%" is a literal '%', a lone '%' a group separator.
+      for (int i = start; i < out.length(); i++) {
+        if (out.charAt(i) == '%') {
+          if (i < out.length() - 1 && out.charAt(i + 1) == '%') {
+            out.deleteCharAt(i + 1);
+          } else {
+            out.setCharAt(i, GS);
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean parseByte(int count, Charset charset, StringBuilder out) {
+    if (count < 0 || 8 * count > available()) {
+      return false;
+    }
+    if (segment.length < count) {
+      segment = new byte[Math.max(count, 2 * segment.length)];
+    }
+    for (int i = 0; i < count; i++) {
+      segment[i] = (byte) readBits(8);
+    }
+    if (charset == null || charset == StandardCharsets.UTF_8) {
+      if (!appendUtf8(segment, count, out)) {
+        if (charset != null) {
+          // Declared as UTF-8 but isn't; let the decoder substitute what it can't read.
+          out.append(new String(segment, 0, count, charset));
+        } else {
+          appendLatin1(segment, count, out);
+        }
+      }
+    } else if (charset == StandardCharsets.ISO_8859_1) {
+      appendLatin1(segment, count, out);
+    } else {
+      out.append(new String(segment, 0, count, charset));
+    }
+    return true;
+  }
+
+  private boolean parseKanji(int count, StringBuilder out) {
+    if (count < 0 || 13 * count > available()) {
+      return false;
+    }
+    Charset shiftJis = charsetForName("Shift_JIS");
+    if (shiftJis == null) {
+      return false;
+    }
+    if (segment.length < 2 * count) {
+      segment = new byte[2 * count];
+    }
+    for (int i = 0; i < count; i++) {
+      int thirteen = readBits(13);
+      int assembled = ((thirteen / 0xC0) << 8) | (thirteen % 0xC0);
+      assembled += assembled < 0x1F00 ? 0x8140 : 0xC140;
+      segment[2 * i] = (byte) (assembled >> 8);
+      segment[2 * i + 1] = (byte) assembled;
+    }
+    out.append(new String(segment, 0, 2 * count, shiftJis));
+    return true;
+  }
+
+  /** Appends {@code bytes} as UTF-8, or leaves {@code out} as it was if they aren't valid UTF-8. */
+  private static boolean appendUtf8(byte[] bytes, int count, StringBuilder out) {
+    int start = out.length();
+    int i = 0;
+    while (i < count) {
+      int b = bytes[i++] & 0xFF;
+      if (b < 0x80) {
+        out.append((char) b);
+        continue;
+      }
+      int extra;
+      int codePoint;
+      int min;
+      if ((b & 0xE0) == 0xC0) {
+        extra = 1;
+        codePoint = b & 0x1F;
+        min = 0x80;
+      } else if ((b & 0xF0) == 0xE0) {
+        extra = 2;
+        codePoint = b & 0x0F;
+        min = 0x800;
+      } else if ((b & 0xF8) == 0xF0) {
+        extra = 3;
+        codePoint = b & 0x07;
+        min = 0x10000;
+      } else {
+        out.setLength(start);
+        return false;
+      }
+      if (i + extra > count) {
+        out.setLength(start);
+        return false;
+      }
+      for (int k = 0; k < extra; k++) {
+        int next = bytes[i++] & 0xFF;
+        if ((next & 0xC0) != 0x80) {
+          out.setLength(start);
+          return false;
+        }
+        codePoint = codePoint << 6 | (next & 0x3F);
+      }
+      if (codePoint < min
+          || codePoint > Character.MAX_CODE_POINT
+          || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+        out.setLength(start);
+        return false;
+      }
+      if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        out.append((char) codePoint);
+      } else {
+        out.append(Character.highSurrogate(codePoint)).append(Character.lowSurrogate(codePoint));
+      }
+    }
+    return true;
+  }
+
+  private static void appendLatin1(byte[] bytes, int count, StringBuilder out) {
+    for (int i = 0; i < count; i++) {
+      out.append((char) (bytes[i] & 0xFF));
+    }
+  }
+
+  /** Returns the character set of an ECI assignment number, or null for unsupported ones. */
+  private static Charset charsetForEci(int eci) {
+    if (eci >= 4 && eci <= 18) {
+      // ISO-8859-2 to ISO-8859-16; there is no ISO-8859-12.
+      return eci == 14 ? null : charsetForName("ISO-8859-" + (eci - 2));
+    }
+    switch (eci) {
+      case 0:
+      case 2:
+        return charsetForName("IBM437");
+      case 1:
+      case 3:
+        return StandardCharsets.ISO_8859_1;
+      case 20:
+        return charsetForName("Shift_JIS");
+      case 21:
+        return charsetForName("windows-1250");
+      case 22:
+        return charsetForName("windows-1251");
+      case 23:
+        return charsetForName("windows-1252");
+      case 24:
+        return charsetForName("windows-1256");
+      case 25:
+        return StandardCharsets.UTF_16BE;
+      case 26:
+        return StandardCharsets.UTF_8;
+      case 27:
+      case 170:
+        return StandardCharsets.US_ASCII;
+      case 28:
+        return charsetForName("Big5");
+      case 29:
+        return charsetForName("GB18030");
+      case 30:
+        return charsetForName("EUC-KR");
+      default:
+        return null;
+    }
+  }
+
+  private static Charset charsetForName(String name) {
+    try {
+      return Charset.forName(name);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+/**
+ * Locates the module grid of a QR code from a triple of finder patterns and samples it.
+ *
+ * <p>The module size is measured along the lines between the finder patterns, which gives the
+ * number of modules on a side. For codes that have one, the bottom-right alignment pattern is then
+ * searched for near where a parallelogram would put it, so that perspective is corrected for. The
+ * center of every module is finally mapped into the image and read from the thresholded pixels.
+ */
+final class Detector {
+
+  private final AlignmentPatternFinder alignmentFinder = new AlignmentPatternFinder();
+  private final PerspectiveTransform transform = new PerspectiveTransform();
+
+  private BinaryImage image;
+
+  /** Corners of the last detected code in the image, as x, y of top-left, top-right, ... */
+  final float[] corners = new float[8];
+
+  /**
+   * Samples the code framed by triple {@code t} of {@code finder} into {@code grid}, one pixel per
+   * module.
+   *
+   * @return false if the triple does not frame a plausible code
+   */
+  boolean detect(BinaryImage image, FinderPatternFinder finder, int t, BinaryImage grid) {
+    this.image = image;
+    try {
+      int tl = finder.topLeft(t);
+      int tr = finder.topRight(t);
+      int bl = finder.bottomLeft(t);
+      float tlX = finder.centerX(tl);
+      float tlY = finder.centerY(tl);
+      float trX = finder.centerX(tr);
+      float trY = finder.centerY(tr);
+      float blX = finder.centerX(bl);
+      float blY = finder.centerY(bl);
+
+      float moduleSize =
+          (moduleSizeOneWay(tlX, tlY, trX, trY) + moduleSizeOneWay(tlX, tlY, blX, blY)) / 2.0f;
+      if (!(moduleSize >= 1.0f)) {
+        return false;
+      }
+      int dimension = computeDimension(tlX, tlY, trX, trY, blX, blY, moduleSize);
+      if (dimension < 0) {
+        return false;
+      }
+      int version = (dimension - 17) / 4;
+      if (version < QrVersion.MIN_VERSION || version > QrVersion.MAX_VERSION) {
+        return false;
+      }
+
+      // Where the bottom-right corner would be if the code were a parallelogram.
+      float brX = trX - tlX + blX;
+      float brY = trY - tlY + blY;
+      float sourceBottomRight = dimension - 3.5f;
+      if (QrVersion.alignmentCenters(version).length > 0) {
+        // The alignment pattern is 3 modules closer to the top-left than the finder centers.
+        float correction = 1.0f - 3.0f / (dimension - 7);
+        int estimatedX = (int) (tlX + correction * (brX - tlX));
+        int estimatedY = (int) (tlY + correction * (brY - tlY));
+        for (int allowance = 4; allowance <= 16; allowance <<= 1) {
+          if (findAlignmentInRegion(moduleSize, estimatedX, estimatedY, allowance)) {
+            brX = alignmentFinder.getX();
+            brY = alignmentFinder.getY();
+            sourceBottomRight = dimension - 6.5f;
+            break;
+          }
+        }
+      }
+
+      transform.setQuadrilateralToQuadrilateral(
+          3.5f, 3.5f, dimension - 3.5f, 3.5f, sourceBottomRight, sourceBottomRight, 3.5f,
+          dimension - 3.5f, tlX, tlY, trX, trY, brX, brY, blX, blY);
+      mapCorner(0, 0, 0);
+      mapCorner(1, dimension, 0);
+      mapCorner(2, dimension, dimension);
+      mapCorner(3, 0, dimension);
+      return sampleGrid(dimension, grid);
+    } finally {
+      this.image = null;
+    }
+  }
+
+  private void mapCorner(int i, float x, float y) {
+    corners[2 * i] = (float) transform.transformX(x, y);
+    corners[2 * i + 1] = (float) transform.transformY(x, y);
+  }
+
+  private boolean sampleGrid(int dimension, BinaryImage grid) {
+    BinaryImage img = image;
+    int width = img.width;
+    int height = img.height;
+    grid.reset(dimension, dimension);
+    byte[] out = grid.bits;
+    for (int y = 0; y < dimension; y++) {
+      double moduleY = y + 0.5;
+      for (int x = 0; x < dimension; x++) {
+        double moduleX = x + 0.5;
+        int px = (int) transform.transformX(moduleX, moduleY);
+        int py = (int) transform.transformY(moduleX, moduleY);
+        // Allow a module to fall just outside the image, e.g. a quiet zone cut by the crop.
+        if (px < -1 || px > width || py < -1 || py > height) {
+          return false;
+        }
+        px = px < 0 ? 0 : px >= width ? width - 1 : px;
+        py = py < 0 ? 0 : py >= height ? height - 1 : py;
+        out[y * dimension + x] = img.bits[py * width + px];
+      }
+    }
+    return true;
+  }
+
+  private boolean findAlignmentInRegion(
+      float moduleSize, int estimatedX, int estimatedY, float allowanceFactor) {
+    int allowance = (int) (allowanceFactor * moduleSize);
+    int left = Math.max(0, estimatedX - allowance);
+    int right = Math.min(image.width - 1, estimatedX + allowance);
+    if (right - left < moduleSize * 3) {
+      return false;
+    }
+    int top = Math.max(0, estimatedY - allowance);
+    int bottom = Math.min(image.height - 1, estimatedY + allowance);
+    if (bottom - top < moduleSize * 3) {
+      return false;
+    }
+    return alignmentFinder.find(image, left, top, right - left, bottom - top, moduleSize);
+  }
+
+  private static int computeDimension(
+      float tlX, float tlY, float trX, float trY, float blX, float blY, float moduleSize) {
+    int tlToTr = Math.round(distance(tlX, tlY, trX, trY) / moduleSize);
+    int tlToBl = Math.round(distance(tlX, tlY, blX, blY) / moduleSize);
+    int dimension = ((tlToTr + tlToBl) / 2) + 7;
+    switch (dimension & 3) {
+      case 0:
+        return dimension + 1;
+      case 2:
+        return dimension - 1;
+      case 3:
+        return -1;
+      default:
+        return dimension;
+    }
+  }
+
+  /**
+   * Estimates the module size from the widths of the finder patterns at both ends of a line,
+   * measured along that line.
+   */
+  private float moduleSizeOneWay(float fromX, float fromY, float toX, float toY) {
+    float there = sizeOfBlackWhiteBlackRunBothWays((int) fromX, (int) fromY, (int) toX, (int) toY);
+    float back = sizeOfBlackWhiteBlackRunBothWays((int) toX, (int) toY, (int) fromX, (int) fromY);
+    if (Float.isNaN(there)) {
+      return back / 7.0f;
+    }
+    if (Float.isNaN(back)) {
+      return there / 7.0f;
+    }
+    return (there + back) / 14.0f;
+  }
+
+  /**
+   * Measures the finder pattern at {@code from} along the line to {@code to}, both ways through its
+   * center, which spans its full width of 7 modules.
+   */
+  private float sizeOfBlackWhiteBlackRunBothWays(int fromX, int fromY, int toX, int toY) {
+    float result = sizeOfBlackWhiteBlackRun(fromX, fromY, toX, toY);
+
+    // Now the other way, stopping at the image border.
+    float scale = 1.0f;
+    int otherToX = fromX - (toX - fromX);
+    if (otherToX < 0) {
+      scale = fromX / (float) (fromX - otherToX);
+      otherToX = 0;
+    } else if (otherToX >= image.width) {
+      scale = (image.width - 1 - fromX) / (float) (otherToX - fromX);
+      otherToX = image.width - 1;
+    }
+    int otherToY = (int) (fromY - (toY - fromY) * scale);
+
+    scale = 1.0f;
+    if (otherToY < 0) {
+      scale = fromY / (float) (fromY - otherToY);
+      otherToY = 0;
+    } else if (otherToY >= image.height) {
+      scale = (image.height - 1 - fromY) / (float) (otherToY - fromY);
+      otherToY = image.height - 1;
+    }
+    otherToX = (int) (fromX + (otherToX - fromX) * scale);
+
+    result += sizeOfBlackWhiteBlackRun(fromX, fromY, otherToX, otherToY);
+    // The center pixel was counted twice.
+    return result - 1.0f;
+  }
+
+  /**
+   * Walks from {@code from} towards {@code to} with Bresenham's algorithm and returns the distance
+   * to the end of the dark-light-dark run starting at {@code from}, or NaN if there is none.
+   */
+  private float sizeOfBlackWhiteBlackRun(int fromX, int fromY, int toX, int toY) {
+    boolean steep = Math.abs(toY - fromY) > Math.abs(toX - fromX);
+    if (steep) {
+      int temp = fromX;
+      fromX = fromY;
+      fromY = temp;
+      temp = toX;
+      toX = toY;
+      toY = temp;
+    }
+
+    int dx = Math.abs(toX - fromX);
+    int dy = Math.abs(toY - fromY);
+    int error = -dx / 2;
+    int xStep = fromX < toX ? 1 : -1;
+    int yStep = fromY < toY ? 1 : -1;
+
+    // Looking for dark (state 0), then light (1), then dark (2).
+    int state = 0;
+    int xLimit = toX + xStep;
+    for (int x = fromX, y = fromY; x != xLimit; x += xStep) {
+      int realX = steep ? y : x;
+      int realY = steep ? x : y;
+      if ((state == 1) == image.get(realX, realY)) {
+        if (state == 2) {
+          return distance(x, y, fromX, fromY);
+        }
+        state++;
+      }
+      error += dy;
+      if (error > 0) {
+        if (y == toY) {
+          break;
+        }
+        y += yStep;
+        error -= dx;
+      }
+    }
+    // Ran into the end of the line in the last dark run, which is as good as its end.
+    if (state == 2) {
+      return distance(toX + xStep, toY, fromX, fromY);
+    }
+    return Float.NaN;
+  }
+
+  private static float distance(float aX, float aY, float bX, float bY) {
+    float dx = aX - bX;
+    float dy = aY - bY;
+    return (float) Math.sqrt(dx * dx + dy * dy);
+  }
+}
@@ -0,0 +1,407 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+/**
+ * Finds the three finder patterns of a QR code: the concentric squares in its corners, which show
+ * up as dark-light-dark-light-dark runs in the ratio 1:1:3:1:1 along any line through their center.
+ *
+ * <p>Rows are scanned for such runs, and each hit is confirmed by crossing it vertically and then
+ * horizontally. Confirmed centers that lie on top of each other are merged. Candidates are then
+ * grouped into triples that look like the corners of a square code, best first. All state lives in
+ * preallocated arrays.
+ */
+final class FinderPatternFinder {
+
+  /** Candidates beyond this many in one frame are ignored. */
+  private static final int MAX_CANDIDATES = 32;
+  /** Only this many candidates, the most often confirmed ones, are grouped into triples. */
+  private static final int MAX_GROUPED = 12;
+  /** Number of triples kept for the decoder to try. */
+  static final int MAX_TRIPLES = 3;
+  /** Largest number of modules a QR code spans, version 40. */
+  private static final int MAX_MODULES = 177;
+  /** Triples scoring worse than this are not worth trying. */
+  private static final float MAX_TRIPLE_SCORE = 0.6f;
+
+  private final float[] centerX = new float[MAX_CANDIDATES];
+  private final float[] centerY = new float[MAX_CANDIDATES];
+  private final float[] moduleSize = new float[MAX_CANDIDATES];
+  private final int[] confirmations = new int[MAX_CANDIDATES];
+  private int candidateCount;
+  // Where the search for an unconfirmed candidate to replace starts, so replacements rotate.
+  private int nextReplaced;
+
+  private final int[] grouped = new int[MAX_GROUPED];
+
+  // Triples as bottom-left, top-left, top-right candidate indices, best first.
+  private final int[] triples = new int[MAX_TRIPLES * 3];
+  private final float[] tripleScores = new float[MAX_TRIPLES];
+  private int tripleCount;
+
+  private final int[] stateCount = new int[5];
+  private final int[] crossCount = new int[5];
+
+  private BinaryImage image;
+
+  /**
+   * Scans {@code image} and returns the number of candidate triples found, at most {@link
+   * #MAX_TRIPLES}.
+   */
+  int find(BinaryImage image) {
+    this.image = image;
+    candidateCount = 0;
+    int width = image.width;
+    int height = image.height;
+    // Finder patterns are at least 7 pixels high; rows are skipped until the first one is found.
+    int rowSkip = Math.max(3, (3 * height) / (4 * MAX_MODULES));
+    int[] counts = stateCount;
+    for (int y = rowSkip - 1; y < height; y += rowSkip) {
+      clear(counts);
+      int state = 0;
+      int row = y * width;
+      byte[] bits = image.bits;
+      for (int x = 0; x < width; x++) {
+        if (bits[row + x] != 0) {
+          if ((state & 1) == 1) {
+            // Went from light to dark.
+            state++;
+          }
+          counts[state]++;
+        } else if ((state & 1) == 0) {
+          // Went from dark to light.
+          if (state == 4) {
+            if (foundPatternCross(counts) && handlePossibleCenter(counts, y, x)) {
+              rowSkip = 2;
+              clear(counts);
+              state = 0;
+            } else {
+              shiftTwo(counts);
+              state = 3;
+            }
+          } else {
+            counts[++state]++;
+          }
+        } else {
+          counts[state]++;
+        }
+      }
+      if (foundPatternCross(counts) && handlePossibleCenter(counts, y, width)) {
+        rowSkip = 2;
+      }
+    }
+    selectTriples();
+    this.image = null;
+    return tripleCount;
+  }
+
+  /** Index of the bottom-left candidate of triple {@code t}. */
+  int bottomLeft(int t) {
+    return triples[t * 3];
+  }
+
+  int topLeft(int t) {
+    return triples[t * 3 + 1];
+  }
+
+  int topRight(int t) {
+    return triples[t * 3 + 2];
+  }
+
+  float centerX(int candidate) {
+    return centerX[candidate];
+  }
+
+  float centerY(int candidate) {
+    return centerY[candidate];
+  }
+
+  float moduleSize(int candidate) {
+    return moduleSize[candidate];
+  }
+
+  private static void clear(int[] counts) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = 0;
+    }
+  }
+
+  /** Drops the first dark-light pair, keeping the last three runs as the start of a new pattern. */
+  private static void shiftTwo(int[] counts) {
+    counts[0] = counts[2];
+    counts[1] = counts[3];
+    counts[2] = counts[4];
+    counts[3] = 1;
+    counts[4] = 0;
+  }
+
+  /** Whether the five runs are in the ratio 1:1:3:1:1, within half a module each. */
+  private static boolean foundPatternCross(int[] counts) {
+    int total = 0;
+    for (int i = 0; i < 5; i++) {
+      if (counts[i] == 0) {
+        return false;
+      }
+      total += counts[i];
+    }
+    if (total < 7) {
+      return false;
+    }
+    float module = total / 7f;
+    float maxVariance = module / 2f;
+    return Math.abs(module - counts[0]) < maxVariance
+        && Math.abs(module - counts[1]) < maxVariance
+        && Math.abs(3f * module - counts[2]) < 3f * maxVariance
+        && Math.abs(module - counts[3]) < maxVariance
+        && Math.abs(module - counts[4]) < maxVariance;
+  }
+
+  private static float centerFromEnd(int[] counts, int end) {
+    return end - counts[4] - counts[3] - counts[2] / 2f;
+  }
+
+  /** Confirms a horizontal hit ending at {@code (end, y)} and records it. */
+  private boolean handlePossibleCenter(int[] counts, int y, int end) {
+    int total = counts[0] + counts[1] + counts[2] + counts[3] + counts[4];
+    float x = centerFromEnd(counts, end);
+    float cy = crossCheck((int) x, y, false, counts[2], total);
+    if (Float.isNaN(cy)) {
+      return false;
+    }
+    float cx = crossCheck((int) x, (int) cy, true, counts[2], total);
+    if (Float.isNaN(cx)) {
+      return false;
+    }
+    float size = total / 7f;
+    for (int i = 0; i < candidateCount; i++) {
+      if (aboutEquals(i, size, cx, cy)) {
+        int n = confirmations[i];
+        centerX[i] = (n * centerX[i] + cx) / (n + 1);
+        centerY[i] = (n * centerY[i] + cy) / (n + 1);
+        moduleSize[i] = (n * moduleSize[i] + size) / (n + 1);
+        confirmations[i] = n + 1;
+        return true;
+      }
+    }
+    int slot = candidateCount < MAX_CANDIDATES ? candidateCount++ : findUnconfirmed();
+    if (slot >= 0) {
+      centerX[slot] = cx;
+      centerY[slot] = cy;
+      moduleSize[slot] = size;
+      confirmations[slot] = 1;
+    }
+    return true;
+  }
+
+  /**
+   * Returns a candidate seen only once, to be replaced when all slots are taken, or -1 if there is
+   * none. Noise and texture produce lots of those, while real finder patterns are confirmed on
+   * several rows, so this keeps them from crowding out a real one further down the frame.
+   */
+  private int findUnconfirmed() {
+    for (int i = 0; i < MAX_CANDIDATES; i++) {
+      int candidate = (nextReplaced + i) % MAX_CANDIDATES;
+      if (confirmations[candidate] == 1) {
+        nextReplaced = candidate + 1;
+        return candidate;
+      }
+    }
+    return -1;
+  }
+
+  private boolean aboutEquals(int i, float size, float x, float y) {
+    if (Math.abs(y - centerY[i]) <= size && Math.abs(x - centerX[i]) <= size) {
+      float sizeDiff = Math.abs(size - moduleSize[i]);
+      return sizeDiff <= 1f || sizeDiff <= moduleSize[i];
+    }
+    return false;
+  }
+
+  /**
+   * Walks from {@code (x, y)} in both directions, horizontally or vertically, and returns the
+   * center of the 1:1:3:1:1 runs along that line, or NaN if there are none of about the size found
+   * on the row.
+   */
+  private float crossCheck(int x, int y, boolean horizontal, int maxCount, int originalTotal) {
+    BinaryImage img = image;
+    int limit = horizontal ? img.width : img.height;
+    int[] counts = crossCount;
+    clear(counts);
+
+    int i = horizontal ? x : y;
+    while (i >= 0 && dark(img, horizontal, i, x, y)) {
+      counts[2]++;
+      i--;
+    }
+    if (i < 0) {
+      return Float.NaN;
+    }
+    while (i >= 0 && !dark(img, horizontal, i, x, y) && counts[1] <= maxCount) {
+      counts[1]++;
+      i--;
+    }
+    if (i < 0 || counts[1] > maxCount) {
+      return Float.NaN;
+    }
+    while (i >= 0 && dark(img, horizontal, i, x, y) && counts[0] <= maxCount) {
+      counts[0]++;
+      i--;
+    }
+    if (counts[0] > maxCount) {
+      return Float.NaN;
+    }
+
+    i = (horizontal ? x : y) + 1;
+    while (i < limit && dark(img, horizontal, i, x, y)) {
+      counts[2]++;
+      i++;
+    }
+    if (i == limit) {
+      return Float.NaN;
+    }
+    while (i < limit && !dark(img, horizontal, i, x, y) && counts[3] < maxCount) {
+      counts[3]++;
+      i++;
+    }
+    if (i == limit || counts[3] >= maxCount) {
+      return Float.NaN;
+    }
+    while (i < limit && dark(img, horizontal, i, x, y) && counts[4] < maxCount) {
+      counts[4]++;
+      i++;
+    }
+    if (counts[4] >= maxCount) {
+      return Float.NaN;
+    }
+
+    int total = counts[0] + counts[1] + counts[2] + counts[3] + counts[4];
+    if (5 * Math.abs(total - originalTotal) >= 2 * originalTotal) {
+      return Float.NaN;
+    }
+    return foundPatternCross(counts) ? centerFromEnd(counts, i) : Float.NaN;
+  }
+
+  private static boolean dark(BinaryImage img, boolean horizontal, int i, int x, int y) {
+    return horizontal ? img.get(i, y) : img.get(x, i);
+  }
+
+  /**
+   * Keeps the {@link #MAX_TRIPLES} best triples of candidates. A triple scores well if its module
+   * sizes agree and it forms an isosceles right triangle, as the corners of a square code seen at a
+   * moderate angle do.
+   */
+  private void selectTriples() {
+    tripleCount = 0;
+    // Candidates seen on more than one row are far more likely to be real.
+    int n = 0;
+    for (int minConfirmations = 2; minConfirmations >= 1 && n < 3; minConfirmations--) {
+      n = 0;
+      for (int i = 0; i < candidateCount && n < MAX_GROUPED; i++) {
+        if (confirmations[i] >= minConfirmations) {
+          grouped[n++] = i;
+        }
+      }
+    }
+    for (int a = 0; a < n - 2; a++) {
+      for (int b = a + 1; b < n - 1; b++) {
+        for (int c = b + 1; c < n; c++) {
+          scoreTriple(grouped[a], grouped[b], grouped[c]);
+        }
+      }
+    }
+  }
+
+  private void scoreTriple(int a, int b, int c) {
+    float minSize = Math.min(moduleSize[a], Math.min(moduleSize[b], moduleSize[c]));
+    float maxSize = Math.max(moduleSize[a], Math.max(moduleSize[b], moduleSize[c]));
+    float sizeSpread = (maxSize - minSize) / minSize;
+    if (sizeSpread > MAX_TRIPLE_SCORE) {
+      return;
+    }
+
+    // The corner opposite the longest side is the top-left one.
+    float ab = squaredDistance(a, b);
+    float bc = squaredDistance(b, c);
+    float ac = squaredDistance(a, c);
+    int topLeft;
+    int p;
+    int q;
+    float hypotenuse;
+    float side1;
+    float side2;
+    if (bc >= ab && bc >= ac) {
+      topLeft = a;
+      p = b;
+      q = c;
+      hypotenuse = bc;
+      side1 = ab;
+      side2 = ac;
+    } else if (ac >= ab && ac >= bc) {
+      topLeft = b;
+      p = a;
+      q = c;
+      hypotenuse = ac;
+      side1 = ab;
+      side2 = bc;
+    } else {
+      topLeft = c;
+      p = a;
+      q = b;
+      hypotenuse = ab;
+      side1 = ac;
+      side2 = bc;
+    }
+
+    float sideRatio = Math.abs(side1 - side2) / Math.max(side1, side2);
+    float rightAngle = Math.abs(hypotenuse - side1 - side2) / hypotenuse;
+    float modules = (float) Math.sqrt(Math.max(side1, side2)) / ((minSize + maxSize) / 2f);
+    if (modules < 10f || modules > MAX_MODULES) {
+      return;
+    }
+    float score = sizeSpread + sideRatio + rightAngle;
+    if (score > MAX_TRIPLE_SCORE) {
+      return;
+    }
+
+    // Orders the other two corners so that going bottom-left, top-left, top-right turns clockwise
+    // in image coordinates.
+    float cross =
+        (centerX[q] - centerX[topLeft]) * (centerY[p] - centerY[topLeft])
+            - (centerY[q] - centerY[topLeft]) * (centerX[p] - centerX[topLeft]);
+    int bottomLeft = p;
+    int topRight = q;
+    if (cross < 0) {
+      bottomLeft = q;
+      topRight = p;
+    }
+    insertTriple(score, bottomLeft, topLeft, topRight);
+  }
+
+  private void insertTriple(float score, int bottomLeft, int topLeft, int topRight) {
+    int at = tripleCount;
+    while (at > 0 && tripleScores[at - 1] > score) {
+      at--;
+    }
+    if (at >= MAX_TRIPLES) {
+      return;
+    }
+    int last = Math.min(tripleCount, MAX_TRIPLES - 1);
+    for (int t = last; t > at; t--) {
+      tripleScores[t] = tripleScores[t - 1];
+      triples[t * 3] = triples[(t - 1) * 3];
+      triples[t * 3 + 1] = triples[(t - 1) * 3 + 1];
+      triples[t * 3 + 2] = triples[(t - 1) * 3 + 2];
+    }
+    tripleScores[at] = score;
+    triples[at * 3] = bottomLeft;
+    triples[at * 3 + 1] = topLeft;
+    triples[at * 3 + 2] = topRight;
+    if (tripleCount < MAX_TRIPLES) {
+      tripleCount++;
+    }
+  }
+
+  private float squaredDistance(int a, int b) {
+    float dx = centerX[a] - centerX[b];
+    float dy = centerY[a] - centerY[b];
+    return dx * dx + dy * dy;
+  }
+}
@@ -0,0 +1,262 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+/**
+ * Reads the data codewords out of a sampled module grid: format and version information, the
+ * masked codewords in their zigzag order, and error correction of each interleaved block.
+ */
+final class GridReader {
+
+  private static final int FORMAT_INFO_MASK = 0x5412;
+  private static final int FORMAT_INFO_POLY = 0x537;
+  /** Version 40 has 3706 codewords, 2956 of them data. */
+  private static final int MAX_CODEWORDS = 3706;
+
+  private static final int[] FORMAT_INFO = new int[32];
+
+  static {
+    for (int data = 0; data < 32; data++) {
+      int rem = data;
+      for (int i = 0; i < 10; i++) {
+        rem = (rem << 1) ^ ((rem >>> 9) * FORMAT_INFO_POLY);
+      }
+      FORMAT_INFO[data] = (data << 10 | rem) ^ FORMAT_INFO_MASK;
+    }
+  }
+
+  private final ReedSolomonDecoder reedSolomon = new ReedSolomonDecoder();
+  private final int[] codewords = new int[MAX_CODEWORDS];
+  private final int[] blocks = new int[MAX_CODEWORDS];
+  private byte[] functionPattern = new byte[0];
+  private int functionPatternVersion;
+
+  private BinaryImage grid;
+  private int dimension;
+
+  /** Data codewords of the last code read. */
+  final byte[] data = new byte[MAX_CODEWORDS];
+  int dataLength;
+  int version;
+  int level;
+
+  /**
+   * Reads and error-corrects the code sampled into {@code grid}.
+   *
+   * @return false if the grid does not hold a readable code
+   */
+  boolean read(BinaryImage grid) {
+    this.grid = grid;
+    dimension = grid.width;
+    try {
+      int format = readFormatInformation();
+      if (format < 0) {
+        return false;
+      }
+      version = readVersion();
+      if (version < 0) {
+        return false;
+      }
+      level = levelForBits(format >> 3);
+      return readCodewords(format & 7) && correctBlocks();
+    } finally {
+      this.grid = null;
+    }
+  }
+
+  private int bit(int x, int y) {
+    return grid.bits[y * dimension + x];
+  }
+
+  private int readFormatInformation() {
+    // Around the top-left finder pattern.
+    int first = 0;
+    for (int i = 0; i < 6; i++) {
+      first = first << 1 | bit(i, 8);
+    }
+    first = first << 1 | bit(7, 8);
+    first = first << 1 | bit(8, 8);
+    first = first << 1 | bit(8, 7);
+    for (int j = 5; j >= 0; j--) {
+      first = first << 1 | bit(8, j);
+    }
+
+    // Split between the top-right and bottom-left ones.
+    int second = 0;
+    for (int j = dimension - 1; j >= dimension - 7; j--) {
+      second = second << 1 | bit(8, j);
+    }
+    for (int i = dimension - 8; i < dimension; i++) {
+      second = second << 1 | bit(i, 8);
+    }
+
+    int best = -1;
+    int bestDistance = 4;
+    for (int data = 0; data < 32; data++) {
+      int distance =
+          Math.min(
+              Integer.bitCount(first ^ FORMAT_INFO[data]),
+              Integer.bitCount(second ^ FORMAT_INFO[data]));
+      if (distance < bestDistance) {
+        best = data;
+        bestDistance = distance;
+      }
+    }
+    return best;
+  }
+
+  private int readVersion() {
+    int provisional = (dimension - 17) / 4;
+    if (provisional <= 6) {
+      return provisional;
+    }
+    // Next to the top-right finder pattern.
+    int bits = 0;
+    for (int j = 5; j >= 0; j--) {
+      for (int i = dimension - 9; i >= dimension - 11; i--) {
+        bits = bits << 1 | bit(i, j);
+      }
+    }
+    int version = QrVersion.decodeVersionInformation(bits);
+    if (version > 0 && QrVersion.dimension(version) == dimension) {
+      return version;
+    }
+    // Next to the bottom-left one.
+    bits = 0;
+    for (int i = 5; i >= 0; i--) {
+      for (int j = dimension - 9; j >= dimension - 11; j--) {
+        bits = bits << 1 | bit(i, j);
+      }
+    }
+    version = QrVersion.decodeVersionInformation(bits);
+    if (version > 0 && QrVersion.dimension(version) == dimension) {
+      return version;
+    }
+    return -1;
+  }
+
+  private boolean readCodewords(int mask) {
+    if (functionPatternVersion != version) {
+      if (functionPattern.length < dimension * dimension) {
+        functionPattern = new byte[dimension * dimension];
+      }
+      QrVersion.buildFunctionPattern(version, functionPattern);
+      functionPatternVersion = version;
+    }
+    byte[] function = functionPattern;
+    byte[] bits = grid.bits;
+    int total = QrVersion.totalCodewords(version);
+    int count = 0;
+    int current = 0;
+    int bitsRead = 0;
+    boolean readingUp = true;
+    // Two columns at a time from the right, alternately upwards and downwards.
+    for (int j = dimension - 1; j > 0; j -= 2) {
+      if (j == 6) {
+        // Skip the vertical timing pattern.
+        j--;
+      }
+      for (int step = 0; step < dimension; step++) {
+        int i = readingUp ? dimension - 1 - step : step;
+        for (int col = 0; col < 2; col++) {
+          int x = j - col;
+          int index = i * dimension + x;
+          if (function[index] != 0) {
+            continue;
+          }
+          current = current << 1 | (bits[index] ^ (isMasked(mask, i, x) ? 1 : 0));
+          if (++bitsRead == 8) {
+            if (count == total) {
+              return false;
+            }
+            codewords[count++] = current;
+            current = 0;
+            bitsRead = 0;
+          }
+        }
+      }
+      readingUp = !readingUp;
+    }
+    return count == total;
+  }
+
+  /** Deinterleaves the codewords into blocks, corrects each and collects the data codewords. */
+  private boolean correctBlocks() {
+    int total = QrVersion.totalCodewords(version);
+    int numBlocks = QrVersion.numBlocks(version, level);
+    int ecc = QrVersion.eccCodewordsPerBlock(version, level);
+    int totalData = total - numBlocks * ecc;
+    // The first blocks are one data codeword shorter than the rest.
+    int shortData = totalData / numBlocks;
+    int numShort = numBlocks - totalData % numBlocks;
+    int shortTotal = shortData + ecc;
+
+    int offset = 0;
+    for (int i = 0; i < shortData; i++) {
+      for (int b = 0; b < numBlocks; b++) {
+        blocks[blockStart(b, shortTotal, numShort) + i] = codewords[offset++];
+      }
+    }
+    for (int b = numShort; b < numBlocks; b++) {
+      blocks[blockStart(b, shortTotal, numShort) + shortData] = codewords[offset++];
+    }
+    for (int i = shortData; i < shortTotal; i++) {
+      for (int b = 0; b < numBlocks; b++) {
+        int index = b < numShort ? i : i + 1;
+        blocks[blockStart(b, shortTotal, numShort) + index] = codewords[offset++];
+      }
+    }
+
+    int length = 0;
+    for (int b = 0; b < numBlocks; b++) {
+      int start = blockStart(b, shortTotal, numShort);
+      int blockData = b < numShort ? shortData : shortData + 1;
+      if (!reedSolomon.decode(blocks, start, blockData + ecc, ecc)) {
+        return false;
+      }
+      for (int i = 0; i < blockData; i++) {
+        data[length++] = (byte) blocks[start + i];
+      }
+    }
+    dataLength = length;
+    return true;
+  }
+
+  private static int blockStart(int block, int shortTotal, int numShort) {
+    return block * shortTotal + Math.max(0, block - numShort);
+  }
+
+  /** Whether data mask {@code mask} flips the module at row {@code i}, column {@code j}. */
+  private static boolean isMasked(int mask, int i, int j) {
+    switch (mask) {
+      case 0:
+        return ((i + j) & 1) == 0;
+      case 1:
+        return (i & 1) == 0;
+      case 2:
+        return j % 3 == 0;
+      case 3:
+        return (i + j) % 3 == 0;
+      case 4:
+        return (((i / 2) + (j / 3)) & 1) == 0;
+      case 5:
+        return (i * j) % 6 == 0;
+      case 6:
+        return (i * j) % 6 < 3;
+      default:
+        return ((i + j + (i * j) % 3) & 1) == 0;
+    }
+  }
+
+  /** Maps the two level bits of the format information to {@link QrVersion#LEVEL_L} etc. */
+  private static int levelForBits(int bits) {
+    switch (bits) {
+      case 0:
+        return QrVersion.LEVEL_M;
+      case 1:
+        return QrVersion.LEVEL_L;
+      case 2:
+        return QrVersion.LEVEL_H;
+      default:
+        return QrVersion.LEVEL_Q;
+    }
+  }
+}
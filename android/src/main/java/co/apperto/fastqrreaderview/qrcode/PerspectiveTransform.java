@@ -0,0 +1,101 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+/**
+ * Projective mapping between two quadrilaterals, used to find where each module of a code lies in
+ * the image. Mutable so that it can be reused from frame to frame.
+ */
+final class PerspectiveTransform {
+
+  private double a11;
+  private double a12;
+  private double a13;
+  private double a21;
+  private double a22;
+  private double a23;
+  private double a31;
+  private double a32;
+  private double a33;
+
+  /** Maps the quadrilateral {@code (x0, y0) .. (x3, y3)} onto {@code (x0p, y0p) .. (x3p, y3p)}. */
+  void setQuadrilateralToQuadrilateral(
+      double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3,
+      double x0p, double y0p, double x1p, double y1p, double x2p, double y2p, double x3p,
+      double y3p) {
+    // Source quadrilateral to the unit square: the adjoint of the square to the source.
+    setSquareToQuadrilateral(x0, y0, x1, y1, x2, y2, x3, y3);
+    double b11 = a22 * a33 - a23 * a32;
+    double b21 = a23 * a31 - a21 * a33;
+    double b31 = a21 * a32 - a22 * a31;
+    double b12 = a13 * a32 - a12 * a33;
+    double b22 = a11 * a33 - a13 * a31;
+    double b32 = a12 * a31 - a11 * a32;
+    double b13 = a12 * a23 - a13 * a22;
+    double b23 = a13 * a21 - a11 * a23;
+    double b33 = a11 * a22 - a12 * a21;
+
+    // Then the unit square to the destination, applied after.
+    setSquareToQuadrilateral(x0p, y0p, x1p, y1p, x2p, y2p, x3p, y3p);
+    double c11 = a11 * b11 + a21 * b12 + a31 * b13;
+    double c21 = a11 * b21 + a21 * b22 + a31 * b23;
+    double c31 = a11 * b31 + a21 * b32 + a31 * b33;
+    double c12 = a12 * b11 + a22 * b12 + a32 * b13;
+    double c22 = a12 * b21 + a22 * b22 + a32 * b23;
+    double c32 = a12 * b31 + a22 * b32 + a32 * b33;
+    double c13 = a13 * b11 + a23 * b12 + a33 * b13;
+    double c23 = a13 * b21 + a23 * b22 + a33 * b23;
+    double c33 = a13 * b31 + a23 * b32 + a33 * b33;
+    set(c11, c21, c31, c12, c22, c32, c13, c23, c33);
+  }
+
+  /** Returns the x coordinate that {@code (x, y)} maps to. */
+  double transformX(double x, double y) {
+    return (a11 * x + a21 * y + a31) / (a13 * x + a23 * y + a33);
+  }
+
+  /** Returns the y coordinate that {@code (x, y)} maps to. */
+  double transformY(double x, double y) {
+    return (a12 * x + a22 * y + a32) / (a13 * x + a23 * y + a33);
+  }
+
+  private void setSquareToQuadrilateral(
+      double x0, double y0, double x1, double y1, double x2, double y2, double x3, double y3) {
+    double dx3 = x0 - x1 + x2 - x3;
+    double dy3 = y0 - y1 + y2 - y3;
+    if (dx3 == 0.0 && dy3 == 0.0) {
+      // Affine.
+      set(x1 - x0, x2 - x1, x0, y1 - y0, y2 - y1, y0, 0.0, 0.0, 1.0);
+      return;
+    }
+    double dx1 = x1 - x2;
+    double dx2 = x3 - x2;
+    double dy1 = y1 - y2;
+    double dy2 = y3 - y2;
+    double denominator = dx1 * dy2 - dx2 * dy1;
+    double b13 = (dx3 * dy2 - dx2 * dy3) / denominator;
+    double b23 = (dx1 * dy3 - dx3 * dy1) / denominator;
+    set(
+        x1 - x0 + b13 * x1,
+        x3 - x0 + b23 * x3,
+        x0,
+        y1 - y0 + b13 * y1,
+        y3 - y0 + b23 * y3,
+        y0,
+        b13,
+        b23,
+        1.0);
+  }
+
+  private void set(
+      double a11, double a21, double a31, double a12, double a22, double a32, double a13,
+      double a23, double a33) {
+    this.a11 = a11;
+    this.a21 = a21;
+    this.a31 = a31;
+    this.a12 = a12;
+    this.a22 = a22;
+    this.a32 = a32;
+    this.a13 = a13;
+    this.a23 = a23;
+    this.a33 = a33;
+  }
+}
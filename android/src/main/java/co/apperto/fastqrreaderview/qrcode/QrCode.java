@@ -0,0 +1,87 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+/**
+ * A QR code decoded by {@link QrDecoder}. Instances are meant to be reused: decoding into one
+ * overwrites its text, bytes and corners, so a code that is kept has to be {@link #copy()
+ * copied}.
+ */
+public final class QrCode {
+
+  private static final char[] LEVELS = {'L', 'M', 'Q', 'H'};
+
+  final StringBuilder text = new StringBuilder();
+  byte[] rawBytes = new byte[0];
+  int rawLength;
+  int version;
+  int level;
+  final int[] corners = new int[8];
+
+  /**
+   * Returns the decoded text. The returned sequence is overwritten by the next decode into this
+   * code; call {@code toString()} on it to keep it.
+   */
+  public CharSequence getText() {
+    return text;
+  }
+
+  /**
+   * Returns the data codewords, i.e. the encoded segments before decoding, in the first {@link
+   * #getRawLength()} bytes of the returned array. The array is reused like the text.
+   */
+  public byte[] getRawBytes() {
+    return rawBytes;
+  }
+
+  public int getRawLength() {
+    return rawLength;
+  }
+
+  /** Returns the version, between 1 and 40, which gives the size: 17 + 4 * version modules. */
+  public int getVersion() {
+    return version;
+  }
+
+  /** Returns the error correction level: 'L', 'M', 'Q' or 'H'. */
+  public char getErrorCorrectionLevel() {
+    return LEVELS[level];
+  }
+
+  /**
+   * Returns the corners of the code in pixels of the decoded image, as x, y of the top-left,
+   * top-right, bottom-right and bottom-left corner. Top-left is where the code's own top-left is,
+   * whichever way the code is rotated in the image.
+   */
+  public int[] getCorners() {
+    return corners;
+  }
+
+  /** Returns a copy that is not affected by later decodes into this code. */
+  public QrCode copy() {
+    QrCode copy = new QrCode();
+    copy.set(this);
+    return copy;
+  }
+
+  /** Copies {@code other} into this code. Only allocates if its raw bytes don't fit. */
+  public void set(QrCode other) {
+    text.setLength(0);
+    text.append(other.text);
+    setRawBytes(other.rawBytes, other.rawLength);
+    version = other.version;
+    level = other.level;
+    System.arraycopy(other.corners, 0, corners, 0, corners.length);
+  }
+
+  void setRawBytes(byte[] bytes, int length) {
+    if (rawBytes.length < length) {
+      rawBytes = new byte[length];
+    }
+    System.arraycopy(bytes, 0, rawBytes, 0, length);
+    rawLength = length;
+  }
+
+  @Override
+  public String toString() {
+    return "QrCode[version " + version + "-" + LEVELS[level] + ", " + text + "]";
+  }
+}
@@ -0,0 +1,59 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes QR codes from a luma plane, such as the Y plane of an NV21 or YUV_420_888 frame, in
+ * plain Java.
+ *
+ * <p>The frame is thresholded, finder patterns are located and grouped into candidate codes, and
+ * each candidate is sampled into a module grid, error-corrected and parsed until one decodes. One
+ * code is decoded per frame. Every buffer is kept for the next frame, so once the decoder has seen
+ * the largest frame and code it will get, decoding does not allocate except for byte segments in
+ * character sets other than UTF-8 and ISO-8859-1.
+ *
+ * <p>Not thread safe; use one decoder per thread.
+ */
+public final class QrDecoder {
+
+  private final Binarizer binarizer = new Binarizer();
+  private final BinaryImage image = new BinaryImage();
+  private final FinderPatternFinder finder = new FinderPatternFinder();
+  private final Detector detector = new Detector();
+  private final BinaryImage grid = new BinaryImage();
+  private final GridReader reader = new GridReader();
+  private final BitstreamParser parser = new BitstreamParser();
+
+  /**
+   * Decodes a code from the {@code width} x {@code height} luma plane starting at {@code offset} in
+   * {@code luma}, with rows {@code rowStride} bytes apart. The position of {@code luma} is ignored
+   * and left as it was.
+   *
+   * @return whether a code was decoded into {@code out}; if not, {@code out} is left unspecified
+   */
+  public boolean decode(
+      ByteBuffer luma, int offset, int width, int height, int rowStride, QrCode out) {
+    if (!binarizer.binarize(luma, offset, width, height, rowStride, image)) {
+      return false;
+    }
+    int candidates = finder.find(image);
+    for (int t = 0; t < candidates; t++) {
+      if (!detector.detect(image, finder, t, grid) || !reader.read(grid)) {
+        continue;
+      }
+      out.text.setLength(0);
+      if (!parser.parse(reader.data, reader.dataLength, reader.version, out.text)) {
+        continue;
+      }
+      out.setRawBytes(reader.data, reader.dataLength);
+      out.version = reader.version;
+      out.level = reader.level;
+      float[] corners = detector.corners;
+      for (int i = 0; i < corners.length; i++) {
+        out.corners[i] = Math.round(corners[i]);
+      }
+      return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,175 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+/**
+ * Layout facts of the 40 QR code versions from ISO/IEC 18004: size, alignment pattern positions
+ * and how the codewords are split into error correction blocks. Everything that follows a formula
+ * is computed once when the class loads; only the block counts and sizes are tabulated.
+ */
+final class QrVersion {
+
+  static final int MIN_VERSION = 1;
+  static final int MAX_VERSION = 40;
+
+  /** Error correction levels in the order of the tables below. */
+  static final int LEVEL_L = 0;
+  static final int LEVEL_M = 1;
+  static final int LEVEL_Q = 2;
+  static final int LEVEL_H = 3;
+
+  private static final int VERSION_INFO_POLY = 0x1F25;
+
+  // Error correction codewords per block, by level and version.
+  private static final byte[][] ECC_CODEWORDS_PER_BLOCK = {
+    {-1, 7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28, 28, 28, 28, 30,
+        30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+    {-1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26, 26, 28,
+        28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28},
+    {-1, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26, 30, 28, 30,
+        30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+    {-1, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26, 28, 30, 24,
+        30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+  };
+
+  // Number of error correction blocks, by level and version.
+  private static final byte[][] NUM_BLOCKS = {
+    {-1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4, 4, 4, 4, 4, 6, 6, 6, 6, 7, 8, 8, 9, 9, 10, 12, 12, 12, 13,
+        14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25},
+    {-1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14, 16, 17, 17, 18, 20, 21, 23,
+        25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49},
+    {-1, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8, 8, 10, 12, 16, 12, 17, 16, 18, 21, 20, 23, 23, 25, 27, 29,
+        34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68},
+    {-1, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25, 25, 34, 30, 32, 35,
+        37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81},
+  };
+
+  private static final int[][] ALIGNMENT_CENTERS = new int[MAX_VERSION + 1][];
+  private static final int[] VERSION_INFO = new int[MAX_VERSION + 1];
+
+  static {
+    for (int version = MIN_VERSION; version <= MAX_VERSION; version++) {
+      ALIGNMENT_CENTERS[version] = computeAlignmentCenters(version);
+      if (version >= 7) {
+        int rem = version;
+        for (int i = 0; i < 12; i++) {
+          rem = (rem << 1) ^ ((rem >>> 11) * VERSION_INFO_POLY);
+        }
+        VERSION_INFO[version] = version << 12 | rem;
+      }
+    }
+  }
+
+  private QrVersion() {}
+
+  static int dimension(int version) {
+    return 17 + 4 * version;
+  }
+
+  /** Row and column coordinates of the alignment pattern centers, empty for version 1. */
+  static int[] alignmentCenters(int version) {
+    return ALIGNMENT_CENTERS[version];
+  }
+
+  /** Number of codewords, data and error correction together. */
+  static int totalCodewords(int version) {
+    // Modules left after the function patterns, per the layout in the standard.
+    int modules = (16 * version + 128) * version + 64;
+    if (version >= 2) {
+      int alignments = version / 7 + 2;
+      modules -= (25 * alignments - 10) * alignments - 55;
+      if (version >= 7) {
+        modules -= 36;
+      }
+    }
+    return modules / 8;
+  }
+
+  static int numBlocks(int version, int level) {
+    return NUM_BLOCKS[level][version];
+  }
+
+  static int eccCodewordsPerBlock(int version, int level) {
+    return ECC_CODEWORDS_PER_BLOCK[level][version];
+  }
+
+  static int dataCodewords(int version, int level) {
+    return totalCodewords(version)
+        - numBlocks(version, level) * eccCodewordsPerBlock(version, level);
+  }
+
+  /**
+   * Decodes the 18-bit version information, allowing up to three bit errors.
+   *
+   * @return the version, or -1 if {@code bits} is too far from every valid one
+   */
+  static int decodeVersionInformation(int bits) {
+    int best = -1;
+    int bestDistance = 4;
+    for (int version = 7; version <= MAX_VERSION; version++) {
+      int distance = Integer.bitCount(bits ^ VERSION_INFO[version]);
+      if (distance < bestDistance) {
+        best = version;
+        bestDistance = distance;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Marks the modules of {@code version} that are not data, i.e. finder, timing and alignment
+   * patterns and format and version information, with 1 in {@code out}.
+   */
+  static void buildFunctionPattern(int version, byte[] out) {
+    int dimension = dimension(version);
+    for (int i = 0; i < dimension * dimension; i++) {
+      out[i] = 0;
+    }
+    // Finder patterns with their separators and the format information.
+    setRegion(out, dimension, 0, 0, 9, 9);
+    setRegion(out, dimension, dimension - 8, 0, 8, 9);
+    setRegion(out, dimension, 0, dimension - 8, 9, 8);
+
+    int[] centers = alignmentCenters(version);
+    int max = centers.length;
+    for (int x = 0; x < max; x++) {
+      for (int y = 0; y < max; y++) {
+        // These would overlap the finder patterns.
+        if ((x == 0 && (y == 0 || y == max - 1)) || (x == max - 1 && y == 0)) {
+          continue;
+        }
+        setRegion(out, dimension, centers[y] - 2, centers[x] - 2, 5, 5);
+      }
+    }
+
+    // Timing patterns.
+    setRegion(out, dimension, 6, 9, 1, dimension - 17);
+    setRegion(out, dimension, 9, 6, dimension - 17, 1);
+
+    if (version > 6) {
+      setRegion(out, dimension, dimension - 11, 0, 3, 6);
+      setRegion(out, dimension, 0, dimension - 11, 6, 3);
+    }
+  }
+
+  private static void setRegion(
+      byte[] out, int dimension, int left, int top, int width, int height) {
+    for (int y = top; y < top + height; y++) {
+      for (int x = left; x < left + width; x++) {
+        out[y * dimension + x] = 1;
+      }
+    }
+  }
+
+  private static int[] computeAlignmentCenters(int version) {
+    if (version == 1) {
+      return new int[0];
+    }
+    int count = version / 7 + 2;
+    int step = version == 32 ? 26 : (version * 4 + count * 2 + 1) / (count * 2 - 2) * 2;
+    int[] centers = new int[count];
+    centers[0] = 6;
+    for (int i = count - 1, position = dimension(version) - 7; i >= 1; i--, position -= step) {
+      centers[i] = position;
+    }
+    return centers;
+  }
+}
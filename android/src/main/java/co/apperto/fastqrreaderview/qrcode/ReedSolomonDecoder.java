@@ -0,0 +1,194 @@
+package co.apperto.fastqrreaderview.qrcode;
+
+/**
+ * Corrects errors in QR code blocks: Reed-Solomon over GF(256) with the primitive polynomial
+ * x^8 + x^4 + x^3 + x^2 + 1 and generator roots starting at alpha^0.
+ *
+ * <p>Uses syndromes, Berlekamp-Massey for the error locator, a Chien search for its roots and
+ * Forney's formula for the error values, all on preallocated arrays.
+ */
+final class ReedSolomonDecoder {
+
+  private static final int PRIMITIVE = 0x11D;
+  /** QR blocks have at most 30 error correction codewords. */
+  private static final int MAX_ECC = 30;
+
+  private static final int[] EXP = new int[512];
+  private static final int[] LOG = new int[256];
+
+  static {
+    int x = 1;
+    for (int i = 0; i < 255; i++) {
+      EXP[i] = x;
+      LOG[x] = i;
+      x <<= 1;
+      if (x >= 0x100) {
+        x ^= PRIMITIVE;
+      }
+    }
+    for (int i = 255; i < 512; i++) {
+      EXP[i] = EXP[i - 255];
+    }
+  }
+
+  private final int[] syndromes = new int[MAX_ECC];
+  private final int[] locator = new int[MAX_ECC + 1];
+  private final int[] previous = new int[MAX_ECC + 1];
+  private final int[] scratch = new int[MAX_ECC + 1];
+  private final int[] evaluator = new int[MAX_ECC];
+  private final int[] errorPositions = new int[MAX_ECC];
+
+  /**
+   * Corrects the block of {@code length} codewords at {@code offset} in place, the last {@code
+   * eccCount} of which are error correction codewords.
+   *
+   * @return false if the block has more errors than can be corrected
+   */
+  boolean decode(int[] block, int offset, int length, int eccCount) {
+    if (eccCount > MAX_ECC) {
+      return false;
+    }
+    boolean clean = true;
+    for (int j = 0; j < eccCount; j++) {
+      int s = 0;
+      for (int k = 0; k < length; k++) {
+        s = multiply(s, EXP[j]) ^ block[offset + k];
+      }
+      syndromes[j] = s;
+      if (s != 0) {
+        clean = false;
+      }
+    }
+    if (clean) {
+      return true;
+    }
+
+    int degree = findErrorLocator(eccCount);
+    if (degree < 0 || 2 * degree > eccCount) {
+      return false;
+    }
+
+    // Chien search: the codeword at index k sits at power length - 1 - k.
+    int errors = 0;
+    for (int k = 0; k < length && errors <= degree; k++) {
+      int power = length - 1 - k;
+      if (evaluate(locator, degree, EXP[(255 - power) % 255]) == 0) {
+        if (errors == degree) {
+          return false;
+        }
+        errorPositions[errors++] = k;
+      }
+    }
+    if (errors != degree) {
+      return false;
+    }
+
+    // Error evaluator: syndromes times locator, modulo x^eccCount.
+    for (int i = 0; i < eccCount; i++) {
+      int v = 0;
+      for (int j = 0; j <= Math.min(i, degree); j++) {
+        v ^= multiply(syndromes[i - j], locator[j]);
+      }
+      evaluator[i] = v;
+    }
+
+    // Forney, with the generator's first root at alpha^0: e = X * evaluator(1/X) / locator'(1/X).
+    for (int e = 0; e < errors; e++) {
+      int k = errorPositions[e];
+      int power = length - 1 - k;
+      int xInverse = EXP[(255 - power) % 255];
+      int numerator = evaluate(evaluator, eccCount - 1, xInverse);
+      int denominator = 0;
+      for (int i = 1; i <= degree; i += 2) {
+        // Odd terms of the formal derivative; x^(i - 1) at 1/X.
+        denominator ^= multiply(locator[i], power(xInverse, i - 1));
+      }
+      if (denominator == 0) {
+        return false;
+      }
+      int magnitude = multiply(EXP[power], divide(numerator, denominator));
+      block[offset + k] ^= magnitude;
+    }
+    return true;
+  }
+
+  /** Runs Berlekamp-Massey over the syndromes and returns the degree of the locator. */
+  private int findErrorLocator(int eccCount) {
+    int[] c = locator;
+    int[] b = previous;
+    for (int i = 0; i <= eccCount; i++) {
+      c[i] = 0;
+      b[i] = 0;
+    }
+    c[0] = 1;
+    b[0] = 1;
+    int degree = 0;
+    int shift = 1;
+    int lastDiscrepancy = 1;
+    for (int n = 0; n < eccCount; n++) {
+      int d = syndromes[n];
+      for (int i = 1; i <= degree; i++) {
+        d ^= multiply(c[i], syndromes[n - i]);
+      }
+      if (d == 0) {
+        shift++;
+        continue;
+      }
+      int coefficient = divide(d, lastDiscrepancy);
+      if (2 * degree <= n) {
+        System.arraycopy(c, 0, scratch, 0, eccCount + 1);
+        subtractShifted(c, b, coefficient, shift, eccCount);
+        degree = n + 1 - degree;
+        System.arraycopy(scratch, 0, b, 0, eccCount + 1);
+        lastDiscrepancy = d;
+        shift = 1;
+      } else {
+        subtractShifted(c, b, coefficient, shift, eccCount);
+        shift++;
+      }
+    }
+    return degree;
+  }
+
+  /** c(x) -= coefficient * x^shift * b(x), within {@code maxDegree}. */
+  private static void subtractShifted(int[] c, int[] b, int coefficient, int shift, int maxDegree) {
+    for (int i = 0; i + shift <= maxDegree; i++) {
+      if (b[i] != 0) {
+        c[i + shift] ^= multiply(coefficient, b[i]);
+      }
+    }
+  }
+
+  /** Evaluates the polynomial with {@code coefficients[i]} for x^i at {@code x}. */
+  private static int evaluate(int[] coefficients, int degree, int x) {
+    int result = 0;
+    for (int i = degree; i >= 0; i--) {
+      result = multiply(result, x) ^ coefficients[i];
+    }
+    return result;
+  }
+
+  private static int multiply(int a, int b) {
+    if (a == 0 || b == 0) {
+      return 0;
+    }
+    return EXP[LOG[a] + LOG[b]];
+  }
+
+  private static int divide(int a, int b) {
+    if (a == 0) {
+      return 0;
+    }
+    return EXP[LOG[a] + 255 - LOG[b]];
+  }
+
+  private static int power(int a, int n) {
+    if (n == 0) {
+      return 1;
+    }
+    if (a == 0) {
+      return 0;
+    }
+    return EXP[(LOG[a] * n) % 255];
+  }
+}
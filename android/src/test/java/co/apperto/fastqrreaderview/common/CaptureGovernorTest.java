@@ -0,0 +1,169 @@
+package co.apperto.fastqrreaderview.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CaptureGovernorTest {
+
+  private static final long RECOVERY_NANOS = 10_000_000_000L;
+
+  private final FakeConditions conditions = new FakeConditions();
+  private final CaptureGovernor governor = new CaptureGovernor(conditions, RECOVERY_NANOS);
+
+  /** Conditions the test sets directly. */
+  private static final class FakeConditions implements CaptureGovernor.ConditionSource {
+    int thermalStatus = CaptureGovernor.THERMAL_STATUS_NONE;
+    float batteryLevel = -1f;
+    boolean charging;
+
+    @Override
+    public int getThermalStatus() {
+      return thermalStatus;
+    }
+
+    @Override
+    public float getBatteryLevel() {
+      return batteryLevel;
+    }
+
+    @Override
+    public boolean isCharging() {
+      return charging;
+    }
+  }
+
+  @Test
+  public void stepsDownSeveralStepsAtOnce() {
+    conditions.thermalStatus = CaptureGovernor.THERMAL_STATUS_SEVERE;
+
+    assertTrue(governor.evaluate(0));
+    assertEquals(CaptureGovernor.STEP_FEWER_IN_FLIGHT, governor.getStep());
+  }
+
+  @Test
+  public void stepsUpOneStepAtATimeAfterRecoveryTime() {
+    conditions.thermalStatus = CaptureGovernor.THERMAL_STATUS_SEVERE;
+    governor.evaluate(0);
+
+    conditions.thermalStatus = CaptureGovernor.THERMAL_STATUS_NONE;
+    long start = 1_000;
+    assertFalse(governor.evaluate(start));
+    assertFalse(governor.evaluate(start + RECOVERY_NANOS - 1));
+    assertEquals(CaptureGovernor.STEP_FEWER_IN_FLIGHT, governor.getStep());
+
+    assertTrue(governor.evaluate(start + RECOVERY_NANOS));
+    assertEquals(CaptureGovernor.STEP_SMALLER_SIZE, governor.getStep());
+
+    // The next step waits for a recovery time of its own.
+    assertFalse(governor.evaluate(start + 2 * RECOVERY_NANOS - 1));
+    assertTrue(governor.evaluate(start + 2 * RECOVERY_NANOS));
+    assertEquals(CaptureGovernor.STEP_LOWER_FPS, governor.getStep());
+  }
+
+  @Test
+  public void worseConditionsRestartRecovery() {
+    conditions.thermalStatus = CaptureGovernor.THERMAL_STATUS_SEVERE;
+    governor.evaluate(0);
+
+    conditions.thermalStatus = CaptureGovernor.THERMAL_STATUS_NONE;
+    governor.evaluate(0);
+    conditions.thermalStatus = CaptureGovernor.THERMAL_STATUS_SEVERE;
+    assertFalse(governor.evaluate(RECOVERY_NANOS / 2));
+    conditions.thermalStatus = CaptureGovernor.THERMAL_STATUS_NONE;
+    long restart = RECOVERY_NANOS / 2 + 1;
+    governor.evaluate(restart);
+
+    assertFalse(governor.evaluate(RECOVERY_NANOS));
+    assertEquals(CaptureGovernor.STEP_FEWER_IN_FLIGHT, governor.getStep());
+    assertTrue(governor.evaluate(restart + RECOVERY_NANOS));
+    assertEquals(CaptureGovernor.STEP_SMALLER_SIZE, governor.getStep());
+  }
+
+  @Test
+  public void lowBatteryCostsStepsOnlyWhileDischarging() {
+    assertEquals(
+        CaptureGovernor.STEP_LOWER_FPS,
+        CaptureGovernor.targetStep(CaptureGovernor.THERMAL_STATUS_NONE, 0.10f, false));
+    assertEquals(
+        CaptureGovernor.STEP_SMALLER_SIZE,
+        CaptureGovernor.targetStep(CaptureGovernor.THERMAL_STATUS_NONE, 0.01f, false));
+    assertEquals(
+        CaptureGovernor.STEP_FULL,
+        CaptureGovernor.targetStep(CaptureGovernor.THERMAL_STATUS_NONE, 0.10f, true));
+    assertEquals(
+        CaptureGovernor.STEP_FULL,
+        CaptureGovernor.targetStep(CaptureGovernor.THERMAL_STATUS_NONE, 0.01f, true));
+    assertEquals(
+        CaptureGovernor.STEP_FULL,
+        CaptureGovernor.targetStep(CaptureGovernor.THERMAL_STATUS_NONE, -1f, false));
+  }
+
+  @Test
+  public void chargingDeviceKeepsFullStepOnCriticalBattery() {
+    conditions.batteryLevel = 0.01f;
+    conditions.charging = true;
+
+    assertFalse(governor.evaluate(0));
+    assertEquals(CaptureGovernor.STEP_FULL, governor.getStep());
+
+    conditions.charging = false;
+    assertTrue(governor.evaluate(1));
+    assertEquals(CaptureGovernor.STEP_SMALLER_SIZE, governor.getStep());
+  }
+
+  @Test
+  public void governProfileHalvesFrameRateAndSize() {
+    CaptureProfile base = profile(1280, 960, 24f, 30f);
+
+    CaptureProfile lower = CaptureGovernor.governProfile(base, CaptureGovernor.STEP_LOWER_FPS);
+    assertEquals(15f, lower.getMaxFps(), 0f);
+    assertEquals(15f, lower.getMinFps(), 0f);
+    assertEquals(1280, lower.getWidth());
+
+    CaptureProfile smaller =
+        CaptureGovernor.governProfile(base, CaptureGovernor.STEP_SMALLER_SIZE);
+    assertEquals(640, smaller.getWidth());
+    assertEquals(480, smaller.getHeight());
+    assertEquals(15f, smaller.getMaxFps(), 0f);
+  }
+
+  @Test
+  public void governProfileKeepsFloors() {
+    CaptureProfile slow =
+        CaptureGovernor.governProfile(
+            profile(1280, 960, 15f, 16f), CaptureGovernor.STEP_LOWER_FPS);
+    assertEquals(CaptureGovernor.MIN_FPS, slow.getMaxFps(), 0f);
+
+    // Below the floor already, so not lowered any further.
+    CaptureProfile slower =
+        CaptureGovernor.governProfile(profile(1280, 960, 5f, 8f), CaptureGovernor.STEP_LOWER_FPS);
+    assertEquals(8f, slower.getMaxFps(), 0f);
+    assertEquals(5f, slower.getMinFps(), 0f);
+
+    CaptureProfile small =
+        CaptureGovernor.governProfile(
+            profile(600, 400, 30f, 30f), CaptureGovernor.STEP_FEWER_IN_FLIGHT);
+    assertEquals(600, small.getWidth());
+    assertEquals(400, small.getHeight());
+
+    CaptureProfile atFloor =
+        CaptureGovernor.governProfile(
+            profile(640, 480, 30f, 30f), CaptureGovernor.STEP_SMALLER_SIZE);
+    assertEquals(CaptureGovernor.MIN_WIDTH, atFloor.getWidth());
+    assertEquals(CaptureGovernor.MIN_HEIGHT, atFloor.getHeight());
+  }
+
+  @Test
+  public void onlyLastStepLimitsDetectionsInFlight() {
+    assertEquals(4, CaptureGovernor.governMaxInFlight(4, CaptureGovernor.STEP_SMALLER_SIZE));
+    assertEquals(1, CaptureGovernor.governMaxInFlight(4, CaptureGovernor.STEP_FEWER_IN_FLIGHT));
+  }
+
+  private static CaptureProfile profile(int width, int height, float minFps, float maxFps) {
+    return new CaptureProfile(
+        width, height, minFps, maxFps, CaptureProfile.FocusMode.CONTINUOUS_VIDEO, 0);
+  }
+}
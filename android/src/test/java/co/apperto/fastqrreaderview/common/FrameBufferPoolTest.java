@@ -0,0 +1,87 @@
+package co.apperto.fastqrreaderview.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class FrameBufferPoolTest {
+
+  private static final int FRAME_BYTES = 64 * 48 * 3 / 2;
+  private static final int DEPTH = 4;
+
+  private final FrameBufferPool pool = new FrameBufferPool(DEPTH, Long.MAX_VALUE);
+
+  @Test
+  public void acquireAndRecycleTrackTheSlot() {
+    pool.configure(FRAME_BYTES);
+
+    ByteBuffer buffer = pool.acquire(pool.array(2));
+
+    assertSame(pool.array(2), buffer.array());
+    assertEquals(2, pool.indexOf(buffer));
+    assertTrue(pool.isInUse(2));
+    assertEquals(1, pool.getInUseCount());
+
+    pool.recycle(buffer);
+    assertFalse(pool.isInUse(2));
+    assertEquals(0, pool.getInUseCount());
+  }
+
+  @Test
+  public void overwrittenIndexByteStillResolvesTheSlot() {
+    pool.configure(FRAME_BYTES);
+    byte[] data = pool.array(2);
+    // What a driver writing one byte past the frame would leave behind.
+    data[FRAME_BYTES] = 0;
+
+    ByteBuffer buffer = pool.acquire(data);
+
+    assertSame(data, buffer.array());
+    assertEquals(2, pool.indexOf(buffer));
+    assertTrue(pool.isInUse(2));
+    assertFalse(pool.isInUse(0));
+
+    pool.recycle(buffer);
+    assertFalse(pool.isInUse(2));
+    assertEquals(0, pool.getInUseCount());
+  }
+
+  @Test
+  public void indexByteOutOfRangeStillResolvesTheSlot() {
+    pool.configure(FRAME_BYTES);
+    byte[] data = pool.array(1);
+    data[FRAME_BYTES] = (byte) 0xFF;
+
+    ByteBuffer buffer = pool.acquire(data);
+
+    assertEquals(1, pool.indexOf(buffer));
+    assertTrue(pool.isInUse(1));
+  }
+
+  @Test
+  public void foreignArraysAreNotAcquired() {
+    pool.configure(FRAME_BYTES);
+    byte[] foreign = new byte[FRAME_BYTES + 1];
+
+    assertNull(pool.acquire(foreign));
+    assertEquals(-1, pool.indexOf(ByteBuffer.wrap(foreign)));
+    assertEquals(0, pool.getInUseCount());
+  }
+
+  @Test
+  public void recyclingBufferFromBeforeConfigureIsIgnored() {
+    pool.configure(FRAME_BYTES);
+    ByteBuffer stale = pool.acquire(pool.array(0));
+    pool.configure(FRAME_BYTES * 2);
+
+    pool.recycle(stale);
+
+    assertEquals(0, pool.getInUseCount());
+  }
+}
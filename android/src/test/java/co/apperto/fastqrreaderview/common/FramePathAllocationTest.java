@@ -0,0 +1,133 @@
+package co.apperto.fastqrreaderview.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.hardware.Camera;
+
+import com.google.android.gms.common.images.Size;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objenesis.ObjenesisStd;
+
+import co.apperto.fastqrreaderview.java.StubDetectorProcessor;
+
+/**
+ * Runs Camera1 frames through {@link CameraSource}'s processing thread into {@link
+ * co.apperto.fastqrreaderview.java.VisionProcessorBase} and checks that, once warmed up, a frame
+ * allocates nothing on the camera callback thread, the processing thread or the thread detections
+ * complete on.
+ *
+ * <p>The detector is a stub with a fixed latency, and the camera one whose methods do nothing;
+ * this thread hands the camera's free buffers to the preview callback in its place. C2 now and
+ * then allocates a few bytes on the thread whose code it compiles, so a batch is retried before
+ * that counts as a failure.
+ */
+public class FramePathAllocationTest {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final int BUFFERS = 6;
+  private static final long DETECT_NANOS = 1_000_000L;
+  private static final long FRAME_INTERVAL_NANOS = 250_000L;
+  private static final int WARM_UP_FRAMES = 10_000;
+  private static final int CHECKED_FRAMES = 500;
+  private static final int CHECK_ATTEMPTS = 3;
+  private static final long TIMEOUT_MILLIS = 5_000;
+
+  private final CameraSource source = new CameraSource(null);
+  private final StubDetectorProcessor processor = new StubDetectorProcessor(DETECT_NANOS);
+  private com.sun.management.ThreadMXBean threads;
+
+  @Before
+  public void setUp() {
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    processor.setMaxInFlight(2);
+    source.setFrameBufferPool(BUFFERS, Long.MAX_VALUE);
+    source.setMachineLearningFrameProcessor(processor);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    source.release();
+    processor.shutdown();
+  }
+
+  @Test
+  public void fullFrameAllocatesNothing() throws InterruptedException {
+    assertNoAllocation();
+  }
+
+  @Test
+  public void croppedFrameAllocatesNothing() throws InterruptedException {
+    processor.setScanWindow(ScanWindow.of(0.1f, 0.2f, 0.9f, 0.8f));
+    assertNoAllocation();
+  }
+
+  private void assertNoAllocation() throws InterruptedException {
+    source.startProcessing(new ObjenesisStd().newInstance(Camera.class), new Size(WIDTH, HEIGHT));
+    long[] threadIds = {
+      Thread.currentThread().getId(),
+      source.getProcessingThread().getId(),
+      processor.getCompletionThread().getId()
+    };
+    long[] before = new long[threadIds.length];
+    long[] after = new long[threadIds.length];
+
+    feed(WARM_UP_FRAMES);
+    long allocated = 0;
+    for (int attempt = 0; attempt < CHECK_ATTEMPTS; attempt++) {
+      assertTrue(processor.awaitIdle(TIMEOUT_MILLIS));
+      long delivered = processor.getDeliveredCount();
+      // This thread is read last before the batch and first after it, so that reading the counters
+      // of the others is not counted against it.
+      for (int i = threadIds.length - 1; i >= 0; i--) {
+        before[i] = threads.getThreadAllocatedBytes(threadIds[i]);
+      }
+      feed(CHECKED_FRAMES);
+      for (int i = 0; i < threadIds.length; i++) {
+        after[i] = threads.getThreadAllocatedBytes(threadIds[i]);
+      }
+      assertTrue(processor.awaitIdle(TIMEOUT_MILLIS));
+      assertTrue(processor.getDeliveredCount() - delivered >= CHECKED_FRAMES / 4);
+
+      allocated = 0;
+      for (int i = 0; i < threadIds.length; i++) {
+        allocated += after[i] - before[i];
+      }
+      if (allocated == 0) {
+        break;
+      }
+    }
+    assertEquals(allocated + " bytes allocated over " + CHECKED_FRAMES + " frames", 0, allocated);
+    assertEquals(0, processor.getFailureCount());
+  }
+
+  /** Hands {@code frames} frames to the camera callback, each in a buffer the camera holds. */
+  private void feed(int frames) {
+    FrameBufferPool pool = source.getFrameBufferPool();
+    for (int i = 0; i < frames; i++) {
+      source.onPreviewFrame(pool.array(freeBuffer(pool)));
+      LockSupport.parkNanos(FRAME_INTERVAL_NANOS);
+    }
+  }
+
+  private static int freeBuffer(FrameBufferPool pool) {
+    while (true) {
+      for (int i = 0; i < pool.size(); i++) {
+        if (!pool.isInUse(i)) {
+          return i;
+        }
+      }
+      LockSupport.parkNanos(FRAME_INTERVAL_NANOS);
+    }
+  }
+}
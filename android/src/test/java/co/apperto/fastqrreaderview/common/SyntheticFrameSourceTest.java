@@ -0,0 +1,138 @@
+package co.apperto.fastqrreaderview.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import co.apperto.fastqrreaderview.java.StubDetectorProcessor;
+
+public class SyntheticFrameSourceTest {
+
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+  private static final long TIMEOUT_MILLIS = 5_000;
+
+  private final List<ByteBuffer> frames =
+      Arrays.asList(frame((byte) 40), frame((byte) 200), frame((byte) 120));
+  private final SyntheticFrameSource source =
+      new SyntheticFrameSource(frames, WIDTH, HEIGHT, CameraSource.CAMERA_FACING_BACK, 0);
+  private final StubDetectorProcessor processor = new StubDetectorProcessor(1_000_000L);
+
+  @After
+  public void tearDown() throws InterruptedException {
+    source.release();
+    processor.shutdown();
+  }
+
+  private static ByteBuffer frame(byte luma) {
+    byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+    Arrays.fill(nv21, luma);
+    return ByteBuffer.wrap(nv21);
+  }
+
+  @Test
+  public void deliversFramesToProcessorInOrder() throws InterruptedException {
+    source.setMachineLearningFrameProcessor(processor);
+    source.start(null);
+
+    assertTrue(processor.awaitDelivered(20, TIMEOUT_MILLIS));
+    source.stop();
+
+    assertEquals(WIDTH, processor.getLastWidth());
+    assertEquals(HEIGHT, processor.getLastHeight());
+    assertFalse(processor.isOutOfOrder());
+    assertEquals(0, processor.getFailureCount());
+    assertNull(source.getProcessorFailure());
+  }
+
+  @Test
+  public void stopEndsDelivery() throws InterruptedException {
+    source.setMachineLearningFrameProcessor(processor);
+    source.start(null);
+    assertTrue(processor.awaitDelivered(1, TIMEOUT_MILLIS));
+
+    source.stop();
+    long delivered = source.getDeliveredFrameCount();
+    Thread.sleep(50);
+
+    assertEquals(delivered, source.getDeliveredFrameCount());
+  }
+
+  @Test
+  public void pausedSourceDeliversNothingUntilResumed() throws InterruptedException {
+    source.setMachineLearningFrameProcessor(processor);
+    source.setPaused(true);
+    source.start(null);
+    Thread.sleep(50);
+
+    assertEquals(0, source.getDeliveredFrameCount());
+
+    source.setPaused(false);
+    assertTrue(processor.awaitDelivered(1, TIMEOUT_MILLIS));
+  }
+
+  @Test
+  public void skipsUnchangedFramesWithStaticSceneFilter() throws InterruptedException {
+    SyntheticFrameSource still =
+        new SyntheticFrameSource(
+            frames.subList(0, 1), WIDTH, HEIGHT, CameraSource.CAMERA_FACING_BACK, 0);
+    PipelineStats stats = new PipelineStats();
+    still.setPipelineStats(stats);
+    still.setStaticSceneFilter(new StaticSceneFilter(2f, 60_000_000_000L));
+    still.setMachineLearningFrameProcessor(processor);
+    still.start(null);
+    try {
+      assertTrue(processor.awaitDelivered(1, TIMEOUT_MILLIS));
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (stats.getFramesStatic() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+      }
+    } finally {
+      still.stop();
+    }
+
+    assertTrue(stats.getFramesStatic() > 0);
+  }
+
+  @Test
+  public void keepsDeliveringPastProcessorFailure() throws InterruptedException {
+    final IllegalStateException failure = new IllegalStateException("Detector failed.");
+    source.setMachineLearningFrameProcessor(
+        new VisionImageProcessor() {
+          @Override
+          public void process(ByteBuffer data, FrameMetadata frameMetadata, FrameLease lease) {
+            throw failure;
+          }
+
+          @Override
+          public void process(Bitmap bitmap) {}
+
+          @Override
+          public void process(Image image, int rotation, int facing, ImageLease lease) {}
+
+          @Override
+          public void stop() {}
+        });
+    source.start(null);
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (source.getProcessorFailure() == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    source.setMachineLearningFrameProcessor(processor);
+
+    assertSame(failure, source.getProcessorFailure());
+    assertTrue(processor.awaitDelivered(1, TIMEOUT_MILLIS));
+  }
+}
@@ -0,0 +1,100 @@
+package co.apperto.fastqrreaderview.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import co.apperto.fastqrreaderview.common.CameraSource;
+import co.apperto.fastqrreaderview.common.DetectionLimiter;
+import co.apperto.fastqrreaderview.common.SyntheticFrameSource;
+
+/**
+ * Concurrent detections in {@link VisionProcessorBase}, on a detector with a fixed latency that is
+ * fed frames back to back. Only bounds and order are checked, never rates, so the outcome does not
+ * depend on how fast the machine is.
+ */
+public class InFlightDetectionTest {
+
+    private static final long LATENCY_NANOS = 2_000_000L;
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int DETECTIONS = 50;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    @Test
+    public void oneInFlightRunsDetectionsOneAtATime() throws InterruptedException {
+        StubDetectorProcessor processor = new StubDetectorProcessor(LATENCY_NANOS);
+        processor.setMaxInFlight(1);
+        run(null, processor);
+
+        assertEquals(1, processor.getPeakInFlight());
+    }
+
+    @Test
+    public void severalInFlightStayWithinMaxInFlight() throws InterruptedException {
+        StubDetectorProcessor processor = new StubDetectorProcessor(LATENCY_NANOS);
+        processor.setMaxInFlight(4);
+        run(null, processor);
+
+        assertTrue(processor.getPeakInFlight() <= 4);
+    }
+
+    @Test
+    public void sharedLimiterBoundsReadersTogether() throws InterruptedException {
+        DetectionLimiter limiter = new DetectionLimiter(2);
+        StubDetectorProcessor first = new StubDetectorProcessor(LATENCY_NANOS);
+        StubDetectorProcessor second = new StubDetectorProcessor(LATENCY_NANOS, first);
+        first.setMaxInFlight(4);
+        second.setMaxInFlight(4);
+        run(limiter, first, second);
+
+        assertTrue(first.getPeakInFlight() <= 2);
+        assertEquals(0, limiter.getInFlightCount());
+    }
+
+    /**
+     * Feeds each processor from a source of its own until each delivered {@link #DETECTIONS}
+     * results, then stops the sources and checks the processors delivered in frame order and
+     * drained.
+     */
+    private static void run(
+            @Nullable DetectionLimiter limiter, StubDetectorProcessor... processors)
+            throws InterruptedException {
+        SyntheticFrameSource[] sources = new SyntheticFrameSource[processors.length];
+        for (int i = 0; i < processors.length; i++) {
+            processors[i].setDetectionLimiter(limiter);
+            sources[i] = new SyntheticFrameSource(
+                    Collections.singletonList(ByteBuffer.allocate(WIDTH * HEIGHT * 3 / 2)),
+                    WIDTH, HEIGHT, CameraSource.CAMERA_FACING_BACK, 0);
+            sources[i].setMachineLearningFrameProcessor(processors[i]);
+        }
+        try {
+            for (SyntheticFrameSource source : sources) {
+                source.start(null);
+            }
+            for (StubDetectorProcessor processor : processors) {
+                assertTrue(processor.awaitDelivered(DETECTIONS, TIMEOUT_MILLIS));
+            }
+            for (SyntheticFrameSource source : sources) {
+                source.stop();
+            }
+            for (StubDetectorProcessor processor : processors) {
+                assertTrue(processor.awaitIdle(TIMEOUT_MILLIS));
+                assertFalse(processor.isOutOfOrder());
+                assertEquals(0, processor.getFailureCount());
+            }
+        } finally {
+            for (int i = 0; i < processors.length; i++) {
+                sources[i].release();
+                processors[i].shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package co.apperto.fastqrreaderview.java;
+
+import android.app.Activity;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.mlkit.vision.common.InputImage;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import co.apperto.fastqrreaderview.common.FrameMetadata;
+
+/**
+ * Processor whose detector finds nothing and takes a fixed time to do so. Detections complete on a
+ * thread of their own, as ML Kit's do, and their tasks are reused, so the detector allocates
+ * nothing per frame and whatever a frame allocates comes from the pipeline around it.
+ */
+public class StubDetectorProcessor extends VisionProcessorBase<Object> {
+
+    private static final Object NO_RESULTS = new Object();
+
+    // How often the completion thread looks for due detections.
+    private static final long POLL_NANOS = 100_000L;
+
+    private final long latencyNanos;
+    private final StubTask[] tasks = new StubTask[MAX_IN_FLIGHT_LIMIT];
+    private final Thread completionThread;
+    private volatile boolean running = true;
+
+    // Shared by the processors that count together.
+    private final AtomicInteger inFlight;
+    private final AtomicInteger peakInFlight;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastSequence = -1;
+    private volatile boolean outOfOrder;
+    private volatile int lastWidth;
+    private volatile int lastHeight;
+
+    /** Starts processing frames right away; call {@link #shutdown()} when done. */
+    public StubDetectorProcessor(long latencyNanos) {
+        this(latencyNanos, new AtomicInteger(), new AtomicInteger());
+    }
+
+    /**
+     * Like {@link #StubDetectorProcessor(long)}, but counts detections in flight together with
+     * {@code other}, so {@link #getPeakInFlight()} covers both.
+     */
+    public StubDetectorProcessor(long latencyNanos, StubDetectorProcessor other) {
+        this(latencyNanos, other.inFlight, other.peakInFlight);
+    }
+
+    private StubDetectorProcessor(
+            long latencyNanos, AtomicInteger inFlight, AtomicInteger peakInFlight) {
+        this.latencyNanos = latencyNanos;
+        this.inFlight = inFlight;
+        this.peakInFlight = peakInFlight;
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new StubTask();
+        }
+        completionThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    long now = System.nanoTime();
+                    for (StubTask task : tasks) {
+                        task.completeIfDue(now);
+                    }
+                    LockSupport.parkNanos(POLL_NANOS);
+                }
+            }
+        }, "StubDetector");
+        completionThread.setDaemon(true);
+        completionThread.start();
+        shouldThrottle.set(false);
+    }
+
+    /** Stops the completion thread. Detections still running never complete. */
+    public void shutdown() throws InterruptedException {
+        shouldThrottle.set(true);
+        running = false;
+        completionThread.join();
+    }
+
+    public Thread getCompletionThread() {
+        return completionThread;
+    }
+
+    /** Number of detections whose results reached {@link #onSuccess}. */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Most detections that ran at the same time, counting those of the processors this one shares
+     * its counts with.
+     */
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /** Whether results reached {@link #onSuccess} out of frame order. */
+    public boolean isOutOfOrder() {
+        return outOfOrder;
+    }
+
+    public int getLastWidth() {
+        return lastWidth;
+    }
+
+    public int getLastHeight() {
+        return lastHeight;
+    }
+
+    /** Waits until {@code count} detections were delivered, returning false on timeout. */
+    public boolean awaitDelivered(long count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (delivered.get() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /** Waits until no detection is in flight, returning false on timeout. */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (getInFlightCount() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    @Override
+    protected Task<Object> detectInImage(InputImage image) {
+        int count = inFlight.incrementAndGet();
+        while (true) {
+            int peak = peakInFlight.get();
+            if (count <= peak || peakInFlight.compareAndSet(peak, count)) {
+                break;
+            }
+        }
+        for (StubTask task : tasks) {
+            if (task.busy.compareAndSet(false, true)) {
+                task.start(System.nanoTime() + latencyNanos);
+                return task;
+            }
+        }
+        throw new IllegalStateException("More detections than detection slots.");
+    }
+
+    @Override
+    protected void onSuccess(@NonNull Object results, @NonNull FrameMetadata frameMetadata) {
+        long sequence = getFrameSequence();
+        if (sequence <= lastSequence) {
+            outOfOrder = true;
+        }
+        lastSequence = sequence;
+        lastWidth = frameMetadata.getWidth();
+        lastHeight = frameMetadata.getHeight();
+        delivered.incrementAndGet();
+    }
+
+    @Override
+    protected void onFailure(@NonNull Exception e) {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * A detection that succeeds once it is due. Like a real task it calls a listener added after
+     * completion right away. It is handed out again once its success listener ran.
+     */
+    private final class StubTask extends Task<Object> {
+        final AtomicBoolean busy = new AtomicBoolean();
+        private volatile boolean pending;
+        private long dueNanos;
+        // @GuardedBy("this")
+        private boolean complete;
+        // @GuardedBy("this")
+        @Nullable
+        private OnSuccessListener<? super Object> successListener;
+
+        synchronized void start(long dueNanos) {
+            this.dueNanos = dueNanos;
+            complete = false;
+            successListener = null;
+            pending = true;
+        }
+
+        void completeIfDue(long now) {
+            if (!pending) {
+                return;
+            }
+            OnSuccessListener<? super Object> listener;
+            synchronized (this) {
+                if (now - dueNanos < 0) {
+                    return;
+                }
+                pending = false;
+                complete = true;
+                listener = successListener;
+                successListener = null;
+            }
+            if (listener != null) {
+                succeed(listener);
+            }
+        }
+
+        private void succeed(OnSuccessListener<? super Object> listener) {
+            inFlight.decrementAndGet();
+            busy.set(false);
+            listener.onSuccess(NO_RESULTS);
+        }
+
+        @Override
+        public Task<Object> addOnSuccessListener(OnSuccessListener<? super Object> listener) {
+            synchronized (this) {
+                if (!complete) {
+                    successListener = listener;
+                    return this;
+                }
+            }
+            succeed(listener);
+            return this;
+        }
+
+        /** The stub never fails, so {@code listener} is never called. */
+        @Override
+        public Task<Object> addOnFailureListener(OnFailureListener listener) {
+            return this;
+        }
+
+        @Override
+        public Task<Object> addOnSuccessListener(
+                Executor executor, OnSuccessListener<? super Object> listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Task<Object> addOnSuccessListener(
+                Activity activity, OnSuccessListener<? super Object> listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Task<Object> addOnFailureListener(Executor executor, OnFailureListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Task<Object> addOnFailureListener(Activity activity, OnFailureListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public synchronized boolean isSuccessful() {
+            return complete;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+
+        @Override
+        public synchronized Object getResult() {
+            if (!complete) {
+                throw new IllegalStateException("Detection is not complete.");
+            }
+            return NO_RESULTS;
+        }
+
+        @Override
+        public <X extends Throwable> Object getResult(Class<X> exceptionType) {
+            return getResult();
+        }
+
+        @Nullable
+        @Override
+        public Exception getException() {
+            return null;
+        }
+    }
+}
@@ -318,7 +318,8 @@ didOutputSampleBuffer:(CMSampleBufferRef)sampleBuffer
 
 - (void)handleMethodCall:(FlutterMethodCall *)call result:(FlutterResult)result {
     if ([@"init" isEqualToString:call.method]) {
-        if (_camera) {
+        // Scanner warm-up is Android only; it must not close an open camera here either.
+        if (_camera && call.arguments[@"warmUpFormats"] == nil) {
             [_camera close];
         }
         result(nil);
@@ -1,4 +1,6 @@
 import 'dart:async';
+import 'dart:convert';
+import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
 import 'package:flutter/widgets.dart';
@@ -9,6 +11,36 @@ enum CameraLensDirection { front, back, external }
 
 enum ResolutionPreset { low, medium, high }
 
+/// The Android camera API used to capture frames.
+///
+/// [camera2] hands frames to the detector without copying them, but is only used on devices whose
+/// camera is not a legacy one. Ignored on iOS.
+enum CameraApi { camera1, camera2 }
+
+/// Whether scanning stops after the first code ([single]) or keeps going ([continuous]).
+///
+/// In [continuous] mode codes are reported in batches through
+/// [QRReaderController.onCodesRead]. Android only.
+enum ScanMode { single, continuous }
+
+/// The order in which codes from concurrent detections are reported, see
+/// [QRReaderController.maxInFlight].
+enum ResultOrder { frameOrder, asReady }
+
+/// The engine frames are decoded with.
+///
+/// [mlKit] reads every [CodeFormat]. [java] only reads QR codes, with a decoder written in plain
+/// Java that needs no model to be loaded; pyramid levels and concurrent detections do not apply to
+/// it. Android only.
+enum DecoderEngine { mlKit, java }
+
+/// How the camera focuses while scanning, see [CaptureProfile.focusMode].
+///
+/// [continuousVideo] refocuses smoothly as the scene changes. [continuousPicture] refocuses faster,
+/// at the cost of more visible hunting. [infinity] keeps the focus at infinity, or wherever a
+/// fixed-focus lens is, for example on fixed mounts.
+enum FocusMode { continuousVideo, continuousPicture, infinity }
+
 enum CodeFormat { codabar, code39, code93, code128, ean8, ean13, itf, upca, upce, aztec, datamatrix, pdf417, qr }
 
 var _availableFormats = {
@@ -27,6 +59,23 @@ var _availableFormats = {
   CodeFormat.qr: 'qr',
 };
 
+// Barcode.FORMAT_* values of ML Kit, as sent in scan result records.
+const _mlKitFormats = {
+  8: CodeFormat.codabar,
+  2: CodeFormat.code39,
+  4: CodeFormat.code93,
+  1: CodeFormat.code128,
+  64: CodeFormat.ean8,
+  32: CodeFormat.ean13,
+  128: CodeFormat.itf,
+  512: CodeFormat.upca,
+  1024: CodeFormat.upce,
+  4096: CodeFormat.aztec,
+  16: CodeFormat.datamatrix,
+  2048: CodeFormat.pdf417,
+  256: CodeFormat.qr,
+};
+
 /// Returns the resolution preset as a String.
 String serializeResolutionPreset(ResolutionPreset resolutionPreset) {
   switch (resolutionPreset) {
@@ -40,6 +89,80 @@ String serializeResolutionPreset(ResolutionPreset resolutionPreset) {
   throw new ArgumentError('Unknown ResolutionPreset value');
 }
 
+/// Returns the camera API as a String.
+String serializeCameraApi(CameraApi cameraApi) {
+  switch (cameraApi) {
+    case CameraApi.camera1:
+      return 'camera1';
+    case CameraApi.camera2:
+      return 'camera2';
+  }
+  throw new ArgumentError('Unknown CameraApi value');
+}
+
+/// Returns the result order as a String.
+String serializeResultOrder(ResultOrder resultOrder) {
+  switch (resultOrder) {
+    case ResultOrder.frameOrder:
+      return 'frameOrder';
+    case ResultOrder.asReady:
+      return 'asReady';
+  }
+  throw new ArgumentError('Unknown ResultOrder value');
+}
+
+/// Returns the decoder engine as a String.
+String serializeDecoderEngine(DecoderEngine decoder) {
+  switch (decoder) {
+    case DecoderEngine.mlKit:
+      return 'mlkit';
+    case DecoderEngine.java:
+      return 'java';
+  }
+  throw new ArgumentError('Unknown DecoderEngine value');
+}
+
+/// Returns the scan window as a map of normalized coordinates, or `null` for the whole preview.
+Map<String, double> serializeScanWindow(Rect scanWindow) {
+  if (scanWindow == null) {
+    return null;
+  }
+  return <String, double>{
+    'left': scanWindow.left,
+    'top': scanWindow.top,
+    'right': scanWindow.right,
+    'bottom': scanWindow.bottom,
+  };
+}
+
+/// Returns the focus mode as a String.
+String serializeFocusMode(FocusMode focusMode) {
+  switch (focusMode) {
+    case FocusMode.continuousVideo:
+      return 'continuousVideo';
+    case FocusMode.continuousPicture:
+      return 'continuousPicture';
+    case FocusMode.infinity:
+      return 'infinity';
+  }
+  throw new ArgumentError('Unknown FocusMode value');
+}
+
+FocusMode _deserializeFocusMode(String focusMode) {
+  return FocusMode.values.firstWhere((FocusMode mode) => serializeFocusMode(mode) == focusMode);
+}
+
+/// Returns the scan mode as a String.
+String serializeScanMode(ScanMode scanMode) {
+  switch (scanMode) {
+    case ScanMode.single:
+      return 'single';
+    case ScanMode.continuous:
+      return 'continuous';
+  }
+  throw new ArgumentError('Unknown ScanMode value');
+}
+
 List<String> serializeCodeFormatsList(List<CodeFormat> formats) {
   List<String> list = [];
 
@@ -82,6 +205,23 @@ Future<List<CameraDescription>> availableCameras() async {
   }
 }
 
+/// Loads the barcode model for [codeFormats] ahead of time, so that the first
+/// [QRReaderController.initialize] with the same formats decodes its first frame without waiting
+/// for it.
+///
+/// Creates a scanner and runs a blank frame through it, then keeps it for the next controller. Best
+/// called at app start, well before the scan screen opens. Completes once the model is loaded.
+/// Android with [DecoderEngine.mlKit] only; completes at once elsewhere.
+Future<Null> warmUpScanner(List<CodeFormat> codeFormats) async {
+  try {
+    await _channel.invokeMethod('init', <String, dynamic>{
+      'warmUpFormats': serializeCodeFormatsList(codeFormats),
+    });
+  } on PlatformException catch (e) {
+    throw new QRReaderException(e.code, e.message);
+  }
+}
+
 /// Checks the current status of the Camera Permission
 ///
 /// returns: [Future<PermissionStatus>] with the status from the check
@@ -214,6 +354,487 @@ class QRReaderPreview extends StatelessWidget {
   }
 }
 
+/// A code found while scanning in [ScanMode.continuous].
+class ScannedCode {
+  /// The raw value of the code.
+  final String value;
+
+  /// The format of the code, or `null` if it is not one of [CodeFormat].
+  final CodeFormat format;
+
+  /// The number of the frame the code was found in.
+  final int frameSequence;
+
+  /// When the code was found.
+  final DateTime timestamp;
+
+  /// The ML Kit value type, e.g. 7 for plain text.
+  final int valueType;
+
+  /// The corners of the code in pixels of the analyzed image turned upright, or `null` if unknown.
+  final List<Offset> cornerPoints;
+
+  /// The encoded bytes of the code, or `null` if the detector did not provide them.
+  final Uint8List rawBytes;
+
+  const ScannedCode(
+    this.value,
+    this.format, {
+    this.frameSequence,
+    this.timestamp,
+    this.valueType,
+    this.cornerPoints,
+    this.rawBytes,
+  });
+
+  @override
+  String toString() => '$runtimeType($value, $format)';
+}
+
+// Layout of the records written by BarcodeRecordWriter on Android.
+const int _recordHeaderBytes = 68;
+
+/// Decodes a message of scan result records sent by the Android plugin.
+///
+/// The message starts with a little-endian int32 record count. Each record has a fixed 68-byte
+/// header (frame sequence, timestamp in microseconds, format, value type, corner count, four corner
+/// points, raw byte count and value byte count) followed by the raw bytes and the UTF-8 value.
+/// Corner coordinates may be negative for a code cut off at the edge of the scan window.
+/// [rawBytes] are views into [message], which is not copied.
+List<ScannedCode> decodeScanResults(ByteData message) {
+  final int count = message.getInt32(0, Endian.little);
+  final List<ScannedCode> codes = new List<ScannedCode>(count);
+  int offset = 4;
+  for (int i = 0; i < count; i++) {
+    final int frameSequence = message.getInt64(offset, Endian.little);
+    final int timestampMicros = message.getInt64(offset + 8, Endian.little);
+    final int format = message.getInt32(offset + 16, Endian.little);
+    final int valueType = message.getInt32(offset + 20, Endian.little);
+    final int cornerCount = message.getInt32(offset + 24, Endian.little);
+    List<Offset> cornerPoints;
+    if (cornerCount > 0) {
+      cornerPoints = new List<Offset>(cornerCount);
+      for (int c = 0; c < cornerCount; c++) {
+        cornerPoints[c] = new Offset(
+          message.getInt32(offset + 28 + c * 8, Endian.little).toDouble(),
+          message.getInt32(offset + 32 + c * 8, Endian.little).toDouble(),
+        );
+      }
+    }
+    final int rawLength = message.getInt32(offset + 60, Endian.little);
+    final int valueLength = message.getInt32(offset + 64, Endian.little);
+    offset += _recordHeaderBytes;
+
+    Uint8List rawBytes;
+    if (rawLength >= 0) {
+      rawBytes = message.buffer.asUint8List(message.offsetInBytes + offset, rawLength);
+      offset += rawLength;
+    }
+    final String value = utf8.decode(message.buffer.asUint8List(message.offsetInBytes + offset, valueLength));
+    offset += valueLength;
+
+    codes[i] = new ScannedCode(
+      value,
+      _mlKitFormats[format],
+      frameSequence: frameSequence,
+      timestamp: new DateTime.fromMicrosecondsSinceEpoch(timestampMicros),
+      valueType: valueType,
+      cornerPoints: cornerPoints,
+      rawBytes: rawBytes,
+    );
+  }
+  return codes;
+}
+
+/// Latency distribution of one stage of the native scanning pipeline.
+///
+/// Percentiles are reported within about 3% of the true value.
+class StageLatency {
+  /// The number of frames that went through the stage.
+  final int count;
+
+  final Duration mean;
+  final Duration p50;
+  final Duration p90;
+  final Duration p99;
+  final Duration max;
+
+  const StageLatency({
+    this.count = 0,
+    this.mean = Duration.zero,
+    this.p50 = Duration.zero,
+    this.p90 = Duration.zero,
+    this.p99 = Duration.zero,
+    this.max = Duration.zero,
+  });
+
+  factory StageLatency.fromMap(Map<dynamic, dynamic> map) {
+    if (map == null) {
+      return const StageLatency();
+    }
+    return new StageLatency(
+      count: map['count'],
+      mean: new Duration(microseconds: map['meanMicros']),
+      p50: new Duration(microseconds: map['p50Micros']),
+      p90: new Duration(microseconds: map['p90Micros']),
+      p99: new Duration(microseconds: map['p99Micros']),
+      max: new Duration(microseconds: map['maxMicros']),
+    );
+  }
+
+  @override
+  String toString() {
+    return '$runtimeType(count: $count, mean: $mean, p50: $p50, p90: $p90, p99: $p99, max: $max)';
+  }
+}
+
+/// Counters and stage latencies of the native scanning pipeline, see
+/// [QRReaderController.getStats].
+class ScanStats {
+  /// Frames delivered by the camera.
+  final int framesReceived;
+
+  /// Frames not analyzed because of the cadence picked for [QRReaderController.latencyBudget], or
+  /// because scanning was stopped.
+  final int framesThrottled;
+
+  /// Frames replaced by a newer one before the processing thread got to them.
+  final int framesDropped;
+
+  /// Frames not analyzed because [QRReaderController.maxInFlight] detections were running.
+  final int framesBusy;
+
+  /// Frames not analyzed because they were below [QRReaderController.minSharpness].
+  final int framesBlurry;
+
+  /// Frames not analyzed because they moved more than [QRReaderController.maxMotion].
+  final int framesMoving;
+
+  /// Frames not analyzed because the scene had not changed, see
+  /// [QRReaderController.staticSceneTolerance].
+  final int framesStatic;
+
+  /// Frames detected only around the codes found in earlier frames, see
+  /// [QRReaderController.trackingMaxMisses].
+  final int framesTracked;
+
+  /// Detections that failed with an error.
+  final int detectorFailures;
+
+  /// Time from the camera delivering a frame to the processing thread picking it up. Only
+  /// recorded by the Camera1 pipeline, which hands frames between threads.
+  final StageLatency queueWait;
+
+  /// Time the detector took per frame.
+  final StageLatency detectLatency;
+
+  /// Time from a detection completing to its codes being sent to Dart, including the wait for
+  /// earlier frames and for [QRReaderController.batchWindow]. Recorded once per message, for the
+  /// oldest frame in it.
+  final StageLatency deliveryLatency;
+
+  /// Code sightings passed on because the code was new or had been out of view for
+  /// [QRReaderController.dedupTtl].
+  final int dedupReported;
+
+  /// Code sightings dropped as repeats of a recently reported code.
+  final int dedupSuppressed;
+
+  /// Codes forgotten early because more than [QRReaderController.dedupMaxEntries] were in view.
+  final int dedupEvicted;
+
+  const ScanStats({
+    this.framesReceived = 0,
+    this.framesThrottled = 0,
+    this.framesDropped = 0,
+    this.framesBusy = 0,
+    this.framesBlurry = 0,
+    this.framesMoving = 0,
+    this.framesStatic = 0,
+    this.framesTracked = 0,
+    this.detectorFailures = 0,
+    this.queueWait = const StageLatency(),
+    this.detectLatency = const StageLatency(),
+    this.deliveryLatency = const StageLatency(),
+    this.dedupReported = 0,
+    this.dedupSuppressed = 0,
+    this.dedupEvicted = 0,
+  });
+
+  factory ScanStats.fromMap(Map<dynamic, dynamic> map) {
+    return new ScanStats(
+      framesReceived: map['framesReceived'] ?? 0,
+      framesThrottled: map['framesThrottled'] ?? 0,
+      framesDropped: map['framesDropped'] ?? 0,
+      framesBusy: map['framesBusy'] ?? 0,
+      framesBlurry: map['framesBlurry'] ?? 0,
+      framesMoving: map['framesMoving'] ?? 0,
+      framesStatic: map['framesStatic'] ?? 0,
+      framesTracked: map['framesTracked'] ?? 0,
+      detectorFailures: map['detectorFailures'] ?? 0,
+      queueWait: new StageLatency.fromMap(map['queueWait']),
+      detectLatency: new StageLatency.fromMap(map['detectLatency']),
+      deliveryLatency: new StageLatency.fromMap(map['deliveryLatency']),
+      dedupReported: map['dedupReported'] ?? 0,
+      dedupSuppressed: map['dedupSuppressed'] ?? 0,
+      dedupEvicted: map['dedupEvicted'] ?? 0,
+    );
+  }
+
+  @override
+  String toString() {
+    return '$runtimeType('
+        'framesReceived: $framesReceived, '
+        'framesThrottled: $framesThrottled, '
+        'framesDropped: $framesDropped, '
+        'framesBusy: $framesBusy, '
+        'framesBlurry: $framesBlurry, '
+        'framesMoving: $framesMoving, '
+        'framesStatic: $framesStatic, '
+        'framesTracked: $framesTracked, '
+        'detectorFailures: $detectorFailures, '
+        'queueWait: $queueWait, '
+        'detectLatency: $detectLatency, '
+        'deliveryLatency: $deliveryLatency, '
+        'dedupReported: $dedupReported, '
+        'dedupSuppressed: $dedupSuppressed, '
+        'dedupEvicted: $dedupEvicted)';
+  }
+}
+
+/// What the camera is asked for while scanning. Android only.
+///
+/// Sizes and frame rates are targets; the closest the camera supports is used.
+class CaptureProfile {
+  /// The size of the analyzed frames in sensor orientation, which is landscape on most devices.
+  ///
+  /// `null` picks the size from the [ResolutionPreset].
+  final Size analysisSize;
+
+  /// The lower bound of the camera frame rate range.
+  ///
+  /// `null` asks for [maxFps] as the lower bound as well.
+  final double minFps;
+
+  /// The upper bound of the camera frame rate range.
+  final double maxFps;
+
+  /// How the camera focuses.
+  final FocusMode focusMode;
+
+  /// How many frame buffers the camera shares with the scanner, at least 3.
+  ///
+  /// More buffers let frames wait while the detector is busy instead of being dropped, at the cost
+  /// of the memory of one frame each. `null` picks enough for [QRReaderController.maxInFlight].
+  final int bufferCount;
+
+  const CaptureProfile({
+    this.analysisSize,
+    this.minFps,
+    this.maxFps = 20.0,
+    this.focusMode = FocusMode.continuousVideo,
+    this.bufferCount,
+  });
+
+  factory CaptureProfile.fromMap(Map<dynamic, dynamic> map) {
+    return new CaptureProfile(
+      analysisSize: new Size(map['width'].toDouble(), map['height'].toDouble()),
+      minFps: map['minFps'].toDouble(),
+      maxFps: map['maxFps'].toDouble(),
+      focusMode: _deserializeFocusMode(map['focusMode']),
+      bufferCount: map['bufferCount'],
+    );
+  }
+
+  Map<String, dynamic> toMap() {
+    return <String, dynamic>{
+      'width': analysisSize?.width?.round(),
+      'height': analysisSize?.height?.round(),
+      'minFps': minFps,
+      'maxFps': maxFps,
+      'focusMode': serializeFocusMode(focusMode),
+      'bufferCount': bufferCount,
+    };
+  }
+
+  @override
+  String toString() {
+    return '$runtimeType('
+        'analysisSize: $analysisSize, '
+        'minFps: $minFps, '
+        'maxFps: $maxFps, '
+        'focusMode: $focusMode, '
+        'bufferCount: $bufferCount)';
+  }
+}
+
+/// What one capture profile achieved while [QRReaderController.calibrate] tried it.
+class CalibrationTrial {
+  final CaptureProfile captureProfile;
+
+  /// How long the trial measured for.
+  final Duration duration;
+
+  /// The number of frames the detector finished on.
+  final int framesAnalyzed;
+
+  /// The number of analyzed frames in which at least one code was found.
+  final int framesDecoded;
+
+  /// The median time the detector took per frame.
+  final Duration medianDetectLatency;
+
+  const CalibrationTrial({
+    this.captureProfile,
+    this.duration,
+    this.framesAnalyzed,
+    this.framesDecoded,
+    this.medianDetectLatency,
+  });
+
+  factory CalibrationTrial.fromMap(Map<dynamic, dynamic> map) {
+    return new CalibrationTrial(
+      captureProfile: new CaptureProfile.fromMap(map['captureProfile']),
+      duration: new Duration(microseconds: map['durationMicros']),
+      framesAnalyzed: map['framesAnalyzed'],
+      framesDecoded: map['framesDecoded'],
+      medianDetectLatency: new Duration(microseconds: map['medianDetectMicros']),
+    );
+  }
+
+  @override
+  String toString() {
+    return '$runtimeType('
+        'captureProfile: $captureProfile, '
+        'duration: $duration, '
+        'framesAnalyzed: $framesAnalyzed, '
+        'framesDecoded: $framesDecoded, '
+        'medianDetectLatency: $medianDetectLatency)';
+  }
+}
+
+/// The outcome of [QRReaderController.calibrate].
+class CalibrationResult {
+  /// The profile that won, which the camera now uses.
+  final CaptureProfile captureProfile;
+
+  /// Every profile tried, in the order they were tried.
+  final List<CalibrationTrial> trials;
+
+  const CalibrationResult({this.captureProfile, this.trials});
+
+  factory CalibrationResult.fromMap(Map<dynamic, dynamic> map) {
+    return new CalibrationResult(
+      captureProfile: new CaptureProfile.fromMap(map['captureProfile']),
+      trials: (map['trials'] as List<dynamic>)
+          .map((dynamic trial) => new CalibrationTrial.fromMap(trial))
+          .toList(),
+    );
+  }
+
+  @override
+  String toString() {
+    return '$runtimeType(captureProfile: $captureProfile, trials: $trials)';
+  }
+}
+
+/// How often frames are analyzed, as picked from the measured detector latency.
+///
+/// See [QRReaderController.latencyBudget].
+class ScanCadence {
+  /// Only every [frameInterval]th camera frame is analyzed.
+  final int frameInterval;
+
+  /// The frame rate requested from the camera.
+  final double targetFps;
+
+  /// The number of frames analyzed per second.
+  final double analysisFps;
+
+  /// The average time the detector takes for one frame.
+  final Duration detectorLatency;
+
+  /// The average time a frame waits between capture and detection.
+  final Duration queueAge;
+
+  const ScanCadence({
+    this.frameInterval,
+    this.targetFps,
+    this.analysisFps,
+    this.detectorLatency,
+    this.queueAge,
+  });
+
+  factory ScanCadence.fromMap(Map<dynamic, dynamic> map) {
+    return new ScanCadence(
+      frameInterval: map['frameInterval'],
+      targetFps: map['targetFps'].toDouble(),
+      analysisFps: map['analysisFps'].toDouble(),
+      detectorLatency: new Duration(microseconds: map['detectorLatencyMicros']),
+      queueAge: new Duration(microseconds: map['queueAgeMicros']),
+    );
+  }
+
+  @override
+  String toString() {
+    return '$runtimeType('
+        'frameInterval: $frameInterval, '
+        'targetFps: $targetFps, '
+        'analysisFps: $analysisFps, '
+        'detectorLatency: $detectorLatency, '
+        'queueAge: $queueAge)';
+  }
+}
+
+/// How far the capture governor has stepped scanning down, and the conditions that made it.
+///
+/// See [QRReaderController.governCapture].
+class GovernorState {
+  /// Scanning as configured.
+  static const int full = 0;
+
+  /// The camera frame rate is halved, down to 10 fps.
+  static const int lowerFps = 1;
+
+  /// The analysis size is halved as well, down to 320x240.
+  static const int smallerSize = 2;
+
+  /// Only one detection runs at a time as well.
+  static const int fewerInFlight = 3;
+
+  /// One of [full], [lowerFps], [smallerSize] and [fewerInFlight].
+  final int step;
+
+  /// The thermal status as reported by Android's `PowerManager`, from 0 for none to 6 for
+  /// shutdown. Always 0 before Android 10.
+  final int thermalStatus;
+
+  /// The battery charge between 0 and 1, or `null` if unknown.
+  final double batteryLevel;
+
+  final bool charging;
+
+  const GovernorState({this.step, this.thermalStatus, this.batteryLevel, this.charging});
+
+  factory GovernorState.fromMap(Map<dynamic, dynamic> map) {
+    return new GovernorState(
+      step: map['step'],
+      thermalStatus: map['thermalStatus'],
+      batteryLevel: map['batteryLevel']?.toDouble(),
+      charging: map['charging'],
+    );
+  }
+
+  @override
+  String toString() {
+    return '$runtimeType('
+        'step: $step, '
+        'thermalStatus: $thermalStatus, '
+        'batteryLevel: $batteryLevel, '
+        'charging: $charging)';
+  }
+}
+
 /// The state of a [QRReaderController].
 class QRReaderValue {
   /// True after [QRReaderController.initialize] has completed successfully.
@@ -229,11 +850,23 @@ class QRReaderValue {
   /// Is `null` until  [isInitialized] is `true`.
   final Size previewSize;
 
+  /// The analysis cadence, updated whenever it changes.
+  ///
+  /// Is `null` unless [QRReaderController.latencyBudget] is set.
+  final ScanCadence scanCadence;
+
+  /// The step of the capture governor, updated whenever it changes.
+  ///
+  /// Is `null` unless [QRReaderController.governCapture] is set.
+  final GovernorState governorState;
+
   const QRReaderValue({
     this.isInitialized,
     this.errorDescription,
     this.previewSize,
     this.isScanning,
+    this.scanCadence,
+    this.governorState,
   });
 
   const QRReaderValue.uninitialized()
@@ -254,12 +887,16 @@ class QRReaderValue {
     bool isScanning,
     String errorDescription,
     Size previewSize,
+    ScanCadence scanCadence,
+    GovernorState governorState,
   }) {
     return new QRReaderValue(
       isInitialized: isInitialized ?? this.isInitialized,
       errorDescription: errorDescription,
       previewSize: previewSize ?? this.previewSize,
       isScanning: isScanning ?? this.isScanning,
+      scanCadence: scanCadence ?? this.scanCadence,
+      governorState: governorState ?? this.governorState,
     );
   }
 
@@ -269,7 +906,9 @@ class QRReaderValue {
         'isScanning: $isScanning, '
         'isInitialized: $isInitialized, '
         'errorDescription: $errorDescription, '
-        'previewSize: $previewSize)';
+        'previewSize: $previewSize, '
+        'scanCadence: $scanCadence, '
+        'governorState: $governorState)';
   }
 }
 
@@ -284,19 +923,170 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
   final CameraDescription description;
   final ResolutionPreset resolutionPreset;
   final Function onCodeRead;
+
+  /// How scanning proceeds once a code is found.
+  final ScanMode scanMode;
+
+  /// Called with every batch of codes in [ScanMode.continuous].
+  final void Function(List<ScannedCode> codes) onCodesRead;
+
+  /// How long codes are collected before they are reported together in [ScanMode.continuous].
+  ///
+  /// [Duration.zero] reports the codes of every frame on their own.
+  final Duration batchWindow;
+
+  /// How long a code has to be out of view before it is reported again.
+  ///
+  /// Repeats are dropped natively, before they cross the platform channel. This also applies when
+  /// [startScanning] is called again in [ScanMode.single]. `null` reports every read. Android only.
+  final Duration dedupTtl;
+
+  /// How many distinct codes the repeat filter remembers when [dedupTtl] is set.
+  final int dedupMaxEntries;
   final List<CodeFormat> codeFormats;
+  final CameraApi cameraApi;
+
+  /// The engine frames are decoded with.
+  final DecoderEngine decoder;
+
+  /// Frames whose scan window is less sharp than this are not decoded, or `null` to decode any.
+  ///
+  /// Sharpness is how steep edges are on a few rows of the frame, in luma levels per pixel. Codes
+  /// in focus typically score 30 and above, frames blurred by hand motion or focus hunting 20 and
+  /// below. Rejected frames are counted in [ScanStats.framesBlurry]. Android only.
+  final double minSharpness;
+
+  /// Frames whose scan window changed more than this since the previous frame are not decoded, or
+  /// `null` to decode any.
+  ///
+  /// Motion is the mean change of sampled luma levels, not counting exposure changes; a different
+  /// scene scores around 20. Rejected frames are counted in [ScanStats.framesMoving]. Android
+  /// only.
+  final double maxMotion;
+
+  /// Frames showing the same scene as the last analyzed frame are not analyzed, or `null` to
+  /// analyze every frame.
+  ///
+  /// The scene counts as the same while no part of it changed its mean luma level by more than
+  /// this, not counting exposure changes; a few levels cover sensor noise. Meant for scanners on a
+  /// fixed mount, which otherwise decode the same empty view over and over. Skipped frames are
+  /// counted in [ScanStats.framesStatic]. Android only.
+  final double staticSceneTolerance;
+
+  /// How often an unchanged scene is analyzed anyway when [staticSceneTolerance] is set.
+  final Duration staticSceneRefresh;
+
+  /// How many frames in a row may miss a code before detection widens from around it back to the
+  /// whole scan window, or `null` to always detect the whole scan window.
+  ///
+  /// Once a code is found, the following frames are only detected in a region around it, which
+  /// makes detection cost depend on the size of the code rather than of the preview. Codes that
+  /// appear outside that region are found once the tracked codes have left the view. Tracked frames
+  /// are counted in [ScanStats.framesTracked]. Android only; with [DecoderEngine.mlKit] only
+  /// [CameraApi.camera1] frames are tracked.
+  final int trackingMaxMisses;
+
+  /// The part of the preview that is scanned, as fractions of the preview size.
+  ///
+  /// `null` scans the whole preview. Android only.
+  Rect get scanWindow => _scanWindow;
+  Rect _scanWindow;
+
+  /// What the camera is asked for: the size of the analyzed frames, the frame rate range, the focus
+  /// mode and the number of frame buffers. Android only.
+  CaptureProfile get captureProfile => _captureProfile;
+  CaptureProfile _captureProfile;
+
+  /// Whether scanning steps down while the device is hot or its battery is low, and back up once
+  /// it recovers.
+  ///
+  /// The steps are a lower camera frame rate, then a smaller analysis size, then a single
+  /// detection in flight, each applied on top of [captureProfile] and [maxInFlight]. A smaller size
+  /// restarts the preview like [setCaptureProfile] does. Every step change is reported in
+  /// [QRReaderValue.governorState]. Android only.
+  final bool governCapture;
+
+  /// How long conditions must stay better before [governCapture] steps back up one step.
+  final Duration governorRecovery;
+
+  /// Whether [initialize] uses the profile [calibrate] stored for this device and camera instead of
+  /// [captureProfile], if there is one. Android only.
+  final bool useCalibratedProfile;
+
+  /// The number of sizes frames are detected at, each half the previous one.
+  ///
+  /// Detection starts on the smallest size and only moves to larger ones while nothing is found,
+  /// which makes large or close-up codes much cheaper to decode. `1` always detects on the full
+  /// preview. Android only.
+  final int pyramidLevels;
+
+  /// How many frames may be in detection at the same time, between 1 and 16.
+  ///
+  /// Values above 1 keep the detector busy on devices where a single detection leaves the CPU
+  /// idle, at the cost of one more camera buffer per frame. Android only.
+  final int maxInFlight;
+
+  /// Whether codes from concurrent detections are reported in frame order or as soon as they are
+  /// found. Only matters when [maxInFlight] is above 1.
+  final ResultOrder resultOrder;
+
+  /// The time from a code appearing in front of the camera to it being decoded that scanning
+  /// should stay within.
+  ///
+  /// When set, frames are only analyzed as often as the measured detector latency allows within
+  /// this budget and [cpuShare], instead of whenever the previous detection is done. The chosen
+  /// cadence is reported in [QRReaderValue.scanCadence]. `null` analyzes as many frames as
+  /// possible. Android only.
+  final Duration latencyBudget;
+
+  /// The share of one CPU core detection may use when [latencyBudget] is set, between 0 and 1.
+  ///
+  /// The latency budget takes precedence if both cannot be met.
+  final double cpuShare;
+
+  /// Whether the cadence is applied by lowering the camera frame rate instead of skipping frames.
+  ///
+  /// Saves more power, but not every device changes its frame rate smoothly. Camera1 only.
+  final bool adaptFps;
 
   int _textureId;
   bool _isDisposed = false;
   StreamSubscription<dynamic> _eventSubscription;
+  BasicMessageChannel<ByteData> _resultChannel;
   Completer<Null> _creatingCompleter;
 
-  QRReaderController(this.description, this.resolutionPreset, this.codeFormats, this.onCodeRead)
-      : super(const QRReaderValue.uninitialized());
+  QRReaderController(this.description, this.resolutionPreset, this.codeFormats, this.onCodeRead,
+      {this.cameraApi = CameraApi.camera1, Rect scanWindow,
+      this.pyramidLevels = 1,
+      this.maxInFlight = 1,
+      this.resultOrder = ResultOrder.frameOrder,
+      this.latencyBudget,
+      this.cpuShare = 0.5,
+      this.adaptFps = false,
+      this.scanMode = ScanMode.single,
+      this.onCodesRead,
+      this.batchWindow = Duration.zero,
+      this.dedupTtl,
+      this.dedupMaxEntries = 64,
+      this.decoder = DecoderEngine.mlKit,
+      this.minSharpness,
+      this.maxMotion,
+      this.staticSceneTolerance,
+      this.staticSceneRefresh = const Duration(seconds: 1),
+      this.trackingMaxMisses,
+      CaptureProfile captureProfile = const CaptureProfile(),
+      this.useCalibratedProfile = true,
+      this.governCapture = false,
+      this.governorRecovery = const Duration(seconds: 30)})
+      : _scanWindow = scanWindow,
+        _captureProfile = captureProfile,
+        super(const QRReaderValue.uninitialized());
 
   /// Initializes the camera on the device.
   ///
-  /// Throws a [QRReaderException] if the initialization fails.
+  /// Throws a [QRReaderException] if the initialization fails. On Android the camera is opened off
+  /// the UI thread. Other initialized controllers keep running, e.g. one per camera; they share a
+  /// limit on concurrent detections and on the memory held by frame buffers.
   Future<Null> initialize() async {
     if (_isDisposed) {
       return new Future<Null>.value(null);
@@ -310,21 +1100,49 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
           'cameraName': description.name,
           'resolutionPreset': serializeResolutionPreset(resolutionPreset),
           'codeFormats': serializeCodeFormatsList(codeFormats),
+          'cameraApi': serializeCameraApi(cameraApi),
+          'scanWindow': serializeScanWindow(_scanWindow),
+          'pyramidLevels': pyramidLevels,
+          'maxInFlight': maxInFlight,
+          'resultOrder': serializeResultOrder(resultOrder),
+          'latencyBudgetMs': latencyBudget?.inMilliseconds,
+          'cpuShare': cpuShare,
+          'adaptFps': adaptFps,
+          'scanMode': serializeScanMode(scanMode),
+          'batchWindowMs': batchWindow.inMilliseconds,
+          'dedupTtlMs': dedupTtl?.inMilliseconds,
+          'dedupMaxEntries': dedupMaxEntries,
+          'decoder': serializeDecoderEngine(decoder),
+          'minSharpness': minSharpness,
+          'maxMotion': maxMotion,
+          'staticSceneTolerance': staticSceneTolerance,
+          'staticSceneRefreshMs': staticSceneRefresh.inMilliseconds,
+          'trackingMaxMisses': trackingMaxMisses,
+          'captureProfile': _captureProfile.toMap(),
+          'useCalibratedProfile': useCalibratedProfile,
+          'governCapture': governCapture,
+          'governorRecoveryMs': governorRecovery.inMilliseconds,
         },
       );
       _textureId = reply['textureId'];
+      if (reply['captureProfile'] != null) {
+        _captureProfile = new CaptureProfile.fromMap(reply['captureProfile']);
+      }
       value = value.copyWith(
         isInitialized: true,
         previewSize: new Size(
           reply['previewWidth'].toDouble(),
           reply['previewHeight'].toDouble(),
         ),
+        governorState: reply['governor'] == null ? null : new GovernorState.fromMap(reply['governor']),
       );
     } on PlatformException catch (e) {
       throw new QRReaderException(e.code, e.message);
     }
     _eventSubscription =
         new EventChannel('fast_qr_reader_view/cameraEvents$_textureId').receiveBroadcastStream().listen(_listener);
+    _resultChannel = new BasicMessageChannel<ByteData>('fast_qr_reader_view/results$_textureId', const BinaryCodec())
+      ..setMessageHandler(_handleResults);
     _creatingCompleter.complete(null);
     return _creatingCompleter.future;
   }
@@ -345,6 +1163,17 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
       case 'cameraClosing':
         value = value.copyWith(isScanning: false);
         break;
+      case 'cadence':
+        value = value.copyWith(scanCadence: new ScanCadence.fromMap(map));
+        break;
+      case 'governor':
+        value = value.copyWith(
+          governorState: new GovernorState.fromMap(map),
+          previewSize: map['previewWidth'] == null
+              ? null
+              : new Size(map['previewWidth'].toDouble(), map['previewHeight'].toDouble()),
+        );
+        break;
     }
   }
 
@@ -361,6 +1190,155 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
     }
   }
 
+  /// Restricts scanning to [scanWindow], given as fractions of the preview size, for example
+  /// `Rect.fromLTRB(0.25, 0.25, 0.75, 0.75)` for the centered half of the preview. The window is
+  /// relative to the preview as it is shown, in portrait as in landscape.
+  ///
+  /// Only that part of each frame is passed to the detector, and codes outside of it are ignored.
+  /// Pass `null` to scan the whole preview again. Android only.
+  Future<Null> setScanWindow(Rect scanWindow) async {
+    _scanWindow = scanWindow;
+    if (!value.isInitialized || _isDisposed) {
+      return;
+    }
+    try {
+      await _channel.invokeMethod(
+        'setScanWindow',
+        <String, dynamic>{
+          'textureId': _textureId,
+          'scanWindow': serializeScanWindow(scanWindow),
+        },
+      );
+    } on PlatformException catch (e) {
+      throw new QRReaderException(e.code, e.message);
+    }
+  }
+
+  /// Switches the camera to [captureProfile] while it runs.
+  ///
+  /// A new frame rate range or focus mode applies right away. A new analysis size or buffer count
+  /// restarts the preview, or with [CameraApi.camera2] the camera, and may change
+  /// [QRReaderValue.previewSize]. Android only.
+  Future<Null> setCaptureProfile(CaptureProfile captureProfile) async {
+    _captureProfile = captureProfile;
+    if (!value.isInitialized || _isDisposed) {
+      return;
+    }
+    try {
+      final Map<dynamic, dynamic> reply = await _channel.invokeMethod(
+        'setCaptureProfile',
+        <String, dynamic>{
+          'textureId': _textureId,
+          'captureProfile': captureProfile.toMap(),
+        },
+      );
+      if (reply != null) {
+        value = value.copyWith(
+          previewSize: new Size(
+            reply['previewWidth'].toDouble(),
+            reply['previewHeight'].toDouble(),
+          ),
+        );
+      }
+    } on PlatformException catch (e) {
+      throw new QRReaderException(e.code, e.message);
+    }
+  }
+
+  /// Finds the capture profile that decodes fastest on this device and switches to it.
+  ///
+  /// Tries up to [maxSizes] analysis sizes the camera supports, from small to large, each with up
+  /// to [maxFpsRanges] frame rate ranges, for [trialDuration] each after a short settling time. The
+  /// profile that decodes the most frames per second wins, ties going to the fastest detection, so
+  /// hold a code in view of the camera; with none in view the fastest detection wins. The winner
+  /// is stored for this device model and camera and used by later controllers with
+  /// [useCalibratedProfile]. Frames are analyzed throughout, but no codes are reported until
+  /// calibration is done. Android only.
+  Future<CalibrationResult> calibrate({
+    Duration trialDuration = const Duration(seconds: 1),
+    int maxSizes = 4,
+    int maxFpsRanges = 2,
+  }) async {
+    if (!value.isInitialized || _isDisposed) {
+      throw new QRReaderException(
+        'Uninitialized QRReaderController',
+        'calibrate was called on uninitialized QRReaderController',
+      );
+    }
+    try {
+      final Map<dynamic, dynamic> reply = await _channel.invokeMethod(
+        'calibrate',
+        <String, dynamic>{
+          'textureId': _textureId,
+          'trialMs': trialDuration.inMilliseconds,
+          'maxSizes': maxSizes,
+          'maxFpsRanges': maxFpsRanges,
+        },
+      );
+      final CalibrationResult result = new CalibrationResult.fromMap(reply);
+      _captureProfile = result.captureProfile;
+      if (reply['previewWidth'] != null) {
+        value = value.copyWith(
+          previewSize: new Size(
+            reply['previewWidth'].toDouble(),
+            reply['previewHeight'].toDouble(),
+          ),
+        );
+      }
+      return result;
+    } on PlatformException catch (e) {
+      throw new QRReaderException(e.code, e.message);
+    }
+  }
+
+  /// Returns the counters and stage latencies of the native scanning pipeline since
+  /// initialization or [resetStats].
+  Future<ScanStats> getStats() async {
+    if (!value.isInitialized || _isDisposed) {
+      return const ScanStats();
+    }
+    try {
+      final Map<dynamic, dynamic> reply = await _channel.invokeMethod(
+        'getStats',
+        <String, dynamic>{'textureId': _textureId},
+      );
+      return reply == null ? const ScanStats() : new ScanStats.fromMap(reply);
+    } on PlatformException catch (e) {
+      throw new QRReaderException(e.code, e.message);
+    }
+  }
+
+  /// Sets all counters and latencies returned by [getStats] back to zero.
+  Future<Null> resetStats() async {
+    if (!value.isInitialized || _isDisposed) {
+      return;
+    }
+    try {
+      await _channel.invokeMethod(
+        'resetStats',
+        <String, dynamic>{'textureId': _textureId},
+      );
+    } on PlatformException catch (e) {
+      throw new QRReaderException(e.code, e.message);
+    }
+  }
+
+  /// Returns the current analysis cadence, or `null` unless [latencyBudget] is set.
+  Future<ScanCadence> getScanCadence() async {
+    if (!value.isInitialized || _isDisposed) {
+      return null;
+    }
+    try {
+      final Map<dynamic, dynamic> reply = await _channel.invokeMethod(
+        'getScanCadence',
+        <String, dynamic>{'textureId': _textureId},
+      );
+      return reply == null ? null : new ScanCadence.fromMap(reply);
+    } on PlatformException catch (e) {
+      throw new QRReaderException(e.code, e.message);
+    }
+  }
+
   /// Start a QR scan.
   ///
   /// Throws a [QRReaderException] if the capture fails.
@@ -389,6 +1367,9 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
   }
 
   /// Stop scanning.
+  ///
+  /// The preview keeps running. On Android the camera stops handing frames to the scanner until
+  /// [startScanning] is called again, so a stopped scanner costs no CPU per frame.
   Future<Null> stopScanning() async {
     if (!value.isInitialized || _isDisposed) {
       throw new QRReaderException(
@@ -430,10 +1411,29 @@ class QRReaderController extends ValueNotifier<QRReaderValue> {
           <String, dynamic>{'textureId': _textureId},
         );
         await _eventSubscription?.cancel();
+        _resultChannel?.setMessageHandler(null);
       });
     }
   }
 
+  /// Receives the binary scan results sent by the Android plugin, see [decodeScanResults].
+  Future<ByteData> _handleResults(ByteData message) async {
+    if (_isDisposed || !value.isScanning) {
+      return null;
+    }
+    final List<ScannedCode> codes = decodeScanResults(message);
+    if (scanMode == ScanMode.continuous) {
+      if (onCodesRead != null) {
+        onCodesRead(codes);
+      }
+    } else if (codes.isNotEmpty) {
+      onCodeRead(codes.first.value);
+      value = value.copyWith(isScanning: false);
+    }
+    return null;
+  }
+
+  // Codes read on iOS, which sends each value as a string.
   Future<dynamic> _handleMethod(MethodCall call) async {
     switch (call.method) {
       case "updateCode":